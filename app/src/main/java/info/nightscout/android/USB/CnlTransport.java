@@ -0,0 +1,20 @@
+package info.nightscout.android.USB;
+
+import java.io.IOException;
+
+// transport used by the CNL message layer
+// implemented by the usb hid driver for a real CNL and by the simulator for offline benchmarks
+// packets are always 64 byte "ABC" framed blocks, reads return -1 on timeout
+
+public interface CnlTransport {
+
+    int read(byte[] dest, int timeoutMillis);
+
+    void write(byte[] src, int timeoutMillis) throws IOException;
+
+    boolean isConnectionOpen();
+
+    UsbFrameBuffer getFrameBuffer();
+
+    void close();
+}
@@ -0,0 +1,99 @@
+package info.nightscout.android.USB;
+
+import java.util.Arrays;
+
+// reusable packet and message buffers for CNL framed usb transfers
+// each 64 byte packet is "ABC" + payload size + up to 60 payload bytes
+// the buffers live for the lifetime of the driver so a poll can send and read messages without
+// allocating per packet, only the final exact size message copy is handed to the caller
+
+public class UsbFrameBuffer {
+    public static final int PACKET_SIZE = 64;
+    public static final int PAYLOAD_SIZE = 60;
+    public static final int HEADER_SIZE = 4;
+
+    private static final byte[] HEADER = {'A', 'B', 'C'};
+    private static final int MESSAGE_INITIAL_SIZE = 2048;
+
+    private final byte[] readPacket = new byte[PACKET_SIZE];
+    private final byte[] writePacket = new byte[PACKET_SIZE];
+
+    private byte[] message = new byte[MESSAGE_INITIAL_SIZE];
+    private int messageSize;
+
+    private int packets;
+    private long bytesCopied;
+    private int allocations = 3; // packet and message buffers
+
+    public byte[] getReadPacket() {
+        return readPacket;
+    }
+
+    public byte[] getWritePacket() {
+        return writePacket;
+    }
+
+    // frame the next chunk of src into the write packet, returns the number of payload bytes framed
+    public int frame(byte[] src, int offset) {
+        int size = Math.min(PAYLOAD_SIZE, src.length - offset);
+        writePacket[0] = HEADER[0];
+        writePacket[1] = HEADER[1];
+        writePacket[2] = HEADER[2];
+        writePacket[3] = (byte) size;
+        System.arraycopy(src, offset, writePacket, HEADER_SIZE, size);
+        // clear any tail left from a previous packet, the CNL expects zero padding
+        if (size < PAYLOAD_SIZE) Arrays.fill(writePacket, HEADER_SIZE + size, PACKET_SIZE, (byte) 0);
+        packets++;
+        bytesCopied += size;
+        return size;
+    }
+
+    public boolean isValidHeader() {
+        return readPacket[0] == HEADER[0]
+                && readPacket[1] == HEADER[1]
+                && readPacket[2] == HEADER[2];
+    }
+
+    public int getPacketPayloadSize() {
+        return readPacket[3];
+    }
+
+    public void clearMessage() {
+        messageSize = 0;
+    }
+
+    // append the payload of the read packet to the message
+    public void append(int size) {
+        packets++;
+        if (messageSize + size > message.length) {
+            message = Arrays.copyOf(message, Math.max(message.length << 1, messageSize + size));
+            allocations++;
+            bytesCopied += messageSize;
+        }
+        System.arraycopy(readPacket, HEADER_SIZE, message, messageSize, size);
+        messageSize += size;
+        bytesCopied += size;
+    }
+
+    public int getMessageSize() {
+        return messageSize;
+    }
+
+    public byte[] toByteArray() {
+        allocations++;
+        bytesCopied += messageSize;
+        return Arrays.copyOf(message, messageSize);
+    }
+
+    public int getPackets() {
+        return packets;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    public int getAllocations() {
+        return allocations;
+    }
+}
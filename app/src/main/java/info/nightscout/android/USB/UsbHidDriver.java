@@ -12,7 +12,7 @@ import java.io.IOException;
 // simplified usb driver targeting CNL comms
 // keeps overhead to a minimum allowing for high speed transfer of bulk packets from pump to cnl to uploader
 
-public class UsbHidDriver {
+public class UsbHidDriver implements CnlTransport {
     private final String TAG = UsbHidDriver.class.getSimpleName();
 
     private UsbInterface mInterface;
@@ -25,6 +25,8 @@ public class UsbHidDriver {
 
     private boolean isConnectionOpen = false;
 
+    private final UsbFrameBuffer frameBuffer = new UsbFrameBuffer();
+
     public UsbHidDriver(UsbDevice device, UsbDeviceConnection connection) {
         mDevice = device;
         mConnection = connection;
@@ -67,6 +69,7 @@ public class UsbHidDriver {
         isConnectionOpen = true;
     }
 
+    @Override
     public void close() {
         synchronized (UsbHidDriver.class) {
             if (mConnection != null && isConnectionOpen) {
@@ -79,11 +82,13 @@ public class UsbHidDriver {
         }
     }
 
+    @Override
     public int read(byte[] dest, int timeoutMillis) {
         return mConnection.bulkTransfer(mReadEndpoint, dest, dest.length,
                 timeoutMillis);
     }
 
+    @Override
     public void write(byte[] src, int timeoutMillis) throws IOException {
         if (mConnection.bulkTransfer(mWriteEndpoint, src, src.length,
                 timeoutMillis) <= 0) {
@@ -91,8 +96,14 @@ public class UsbHidDriver {
         }
     }
 
+    @Override
     public boolean isConnectionOpen() {
         return isConnectionOpen;
     }
 
+    @Override
+    public UsbFrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
 }
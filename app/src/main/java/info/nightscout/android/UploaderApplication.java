@@ -23,11 +23,14 @@ import info.nightscout.android.model.medtronicNg.PumpHistoryLoop;
 import info.nightscout.android.model.medtronicNg.PumpHistoryMisc;
 import info.nightscout.android.model.medtronicNg.PumpHistoryPattern;
 import info.nightscout.android.model.medtronicNg.PumpHistoryProfile;
+import info.nightscout.android.model.medtronicNg.HistoryMigration;
 import info.nightscout.android.model.medtronicNg.HistorySegment;
 import info.nightscout.android.model.medtronicNg.PumpHistorySettings;
 import info.nightscout.android.model.medtronicNg.PumpInfo;
+import info.nightscout.android.model.medtronicNg.PumpRadioChannel;
 import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
+import info.nightscout.android.model.store.NightscoutOutbox;
 import info.nightscout.android.model.store.StatCnl;
 import info.nightscout.android.model.store.StatPoll;
 import info.nightscout.android.model.store.StatNightscout;
@@ -37,6 +40,7 @@ import info.nightscout.android.utils.FormatKit;
 import io.realm.Realm;
 import io.realm.RealmConfiguration;
 import io.realm.annotations.RealmModule;
+import io.realm.exceptions.RealmMigrationNeededException;
 import uk.co.chrisjenx.calligraphy.CalligraphyConfig;
 import androidx.multidex.MultiDexApplication;
 
@@ -112,9 +116,18 @@ public class UploaderApplication extends MultiDexApplication {
                 .allowWritesOnUiThread(true)
                 .name("history.realm")
                 .modules(new HistoryModule())
-                .deleteRealmIfMigrationNeeded()
+                .schemaVersion(HistoryMigration.SCHEMA_VERSION)
+                .migration(new HistoryMigration())
                 .build();
 
+        // migrate the history now, if the schema can't be migrated start with a new history db
+        try {
+            Realm.getInstance(historyConfiguration).close();
+        } catch (RealmMigrationNeededException | IllegalStateException e) {
+            Log.w(TAG, "history migration failed, deleting history realm", e);
+            Realm.deleteRealm(historyConfiguration);
+        }
+
         // Uploader specific string formatting and localisation formatting accessible from any module
         FormatKit.init(this);
 
@@ -151,6 +164,7 @@ public class UploaderApplication extends MultiDexApplication {
     @RealmModule(classes = {
             ContourNextLinkInfo.class,
             PumpInfo.class,
+            PumpRadioChannel.class,
             PumpStatusEvent.class
     })
     private class MainModule {}
@@ -160,7 +174,8 @@ public class UploaderApplication extends MultiDexApplication {
             StatPoll.class,
             StatCnl.class,
             StatNightscout.class,
-            StatPushover.class
+            StatPushover.class,
+            NightscoutOutbox.class
     })
     private class StoreModule {}
 
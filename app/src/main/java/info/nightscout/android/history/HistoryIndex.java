@@ -0,0 +1,168 @@
+package info.nightscout.android.history;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.nightscout.android.model.medtronicNg.PumpHistoryBasal;
+import info.nightscout.android.model.medtronicNg.PumpHistoryBolus;
+import info.nightscout.android.model.medtronicNg.PumpHistoryCGM;
+import info.nightscout.android.model.medtronicNg.PumpHistoryDaily;
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+/**
+ * RTC keyed lookup of existing history records for a parser ingest window.
+ *
+ * Each record class is loaded with a single query the first time it is needed and
+ * all further lookups for events inside the window are resolved in memory.
+ * Lookups for events outside the window are not covered and the caller
+ * must fall back to a regular Realm query.
+ *
+ * Records created during the ingest must be added to the index so that
+ * duplicate events within the same pull resolve to the same record.
+ */
+
+public class HistoryIndex {
+    private static final String TAG = HistoryIndex.class.getSimpleName();
+
+    // bolus events are matched using the bolusRef within this window of the event RTC
+    public static final int BOLUS_WINDOW_SEC = 8 * 60 * 60;
+
+    private final Realm realm;
+    private final long pumpMAC;
+    private final int rtcFrom;
+    private final int rtcTo;
+
+    private SparseArray<PumpHistoryCGM> cgm;
+    private SparseArray<PumpHistoryBasal> basalProgrammed;
+    private SparseArray<PumpHistoryDaily> daily;
+    private SparseArray<List<PumpHistoryBolus>> bolus;
+
+    public HistoryIndex(Realm realm, long pumpMAC, int rtcFrom, int rtcTo) {
+        this.realm = realm;
+        this.pumpMAC = pumpMAC;
+        this.rtcFrom = rtcFrom;
+        this.rtcTo = rtcTo;
+    }
+
+    public boolean covers(int rtc) {
+        return rtc >= rtcFrom && rtc <= rtcTo;
+    }
+
+    public PumpHistoryCGM getCGM(int rtc) {
+        if (cgm == null) {
+            RealmResults<PumpHistoryCGM> results = realm.where(PumpHistoryCGM.class)
+                    .equalTo("pumpMAC", pumpMAC)
+                    .between("cgmRTC", rtcFrom, rtcTo)
+                    .findAll();
+            cgm = new SparseArray<>(results.size() + 64);
+            // keep the first match to mirror findFirst()
+            for (int i = results.size() - 1; i >= 0; i--) {
+                PumpHistoryCGM record = results.get(i);
+                cgm.put(record.getCgmRTC(), record);
+            }
+            Log.d(TAG, "cgm index loaded: " + results.size());
+        }
+        return cgm.get(rtc);
+    }
+
+    public void putCGM(PumpHistoryCGM record) {
+        if (cgm != null && covers(record.getCgmRTC()))
+            cgm.put(record.getCgmRTC(), record);
+    }
+
+    public PumpHistoryBasal getBasalProgrammed(int rtc) {
+        if (basalProgrammed == null) {
+            RealmResults<PumpHistoryBasal> results = realm.where(PumpHistoryBasal.class)
+                    .equalTo("pumpMAC", pumpMAC)
+                    .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.PROGRAMMED.value())
+                    .between("eventRTC", rtcFrom, rtcTo)
+                    .findAll();
+            basalProgrammed = new SparseArray<>(results.size() + 16);
+            for (int i = results.size() - 1; i >= 0; i--) {
+                PumpHistoryBasal record = results.get(i);
+                basalProgrammed.put(record.getEventRTC(), record);
+            }
+            Log.d(TAG, "basal index loaded: " + results.size());
+        }
+        return basalProgrammed.get(rtc);
+    }
+
+    public void putBasalProgrammed(PumpHistoryBasal record) {
+        if (basalProgrammed != null && covers(record.getEventRTC()))
+            basalProgrammed.put(record.getEventRTC(), record);
+    }
+
+    public PumpHistoryDaily getDaily(int rtc) {
+        if (daily == null) {
+            RealmResults<PumpHistoryDaily> results = realm.where(PumpHistoryDaily.class)
+                    .equalTo("pumpMAC", pumpMAC)
+                    .between("eventRTC", rtcFrom, rtcTo)
+                    .findAll();
+            daily = new SparseArray<>(results.size() + 8);
+            for (int i = results.size() - 1; i >= 0; i--) {
+                PumpHistoryDaily record = results.get(i);
+                daily.put(record.getEventRTC(), record);
+            }
+            Log.d(TAG, "daily index loaded: " + results.size());
+        }
+        return daily.get(rtc);
+    }
+
+    public void putDaily(PumpHistoryDaily record) {
+        if (daily != null && covers(record.getEventRTC()))
+            daily.put(record.getEventRTC(), record);
+    }
+
+    public PumpHistoryBolus getBolus(int bolusRef, int rtc) {
+        if (bolus == null) {
+            int from = HistoryUtils.offsetRTC(rtcFrom, -BOLUS_WINDOW_SEC);
+            int to = HistoryUtils.offsetRTC(rtcTo, BOLUS_WINDOW_SEC);
+            RealmResults<PumpHistoryBolus> results = realm.where(PumpHistoryBolus.class)
+                    .equalTo("pumpMAC", pumpMAC)
+                    .beginGroup()
+                    .between("programmedRTC", from, to)
+                    .or()
+                    .between("normalDeliveredRTC", from, to)
+                    .or()
+                    .between("squareDeliveredRTC", from, to)
+                    .endGroup()
+                    .findAll();
+            bolus = new SparseArray<>(256);
+            for (PumpHistoryBolus record : results) {
+                putBolus(record);
+            }
+            Log.d(TAG, "bolus index loaded: " + results.size());
+        }
+
+        List<PumpHistoryBolus> list = bolus.get(bolusRef);
+        if (list == null) return null;
+
+        int from = HistoryUtils.offsetRTC(rtc, -BOLUS_WINDOW_SEC);
+        int to = HistoryUtils.offsetRTC(rtc, BOLUS_WINDOW_SEC);
+        for (PumpHistoryBolus record : list) {
+            if (inRange(record.getProgrammedRTC(), from, to)
+                    || inRange(record.getNormalDeliveredRTC(), from, to)
+                    || inRange(record.getSquareDeliveredRTC(), from, to))
+                return record;
+        }
+        return null;
+    }
+
+    public void putBolus(PumpHistoryBolus record) {
+        if (bolus == null) return;
+        List<PumpHistoryBolus> list = bolus.get(record.getBolusRef());
+        if (list == null) {
+            list = new ArrayList<>();
+            bolus.put(record.getBolusRef(), list);
+        }
+        if (!list.contains(record)) list.add(record);
+    }
+
+    private static boolean inRange(int rtc, int from, int to) {
+        return rtc >= from && rtc <= to;
+    }
+}
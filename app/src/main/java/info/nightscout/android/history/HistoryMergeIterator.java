@@ -0,0 +1,74 @@
+package info.nightscout.android.history;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import info.nightscout.android.model.medtronicNg.PumpHistoryInterface;
+import io.realm.RealmResults;
+
+/**
+ * Newest first merge of history results from several record classes.
+ *
+ * Each source must be sorted by eventDate descending. Only the head record of each source is
+ * held in the heap, Realm results are lazy so records that are never reached are not loaded.
+ */
+
+public class HistoryMergeIterator implements Iterator<PumpHistoryInterface> {
+
+    private final PriorityQueue<Cursor> queue;
+
+    private static class Cursor {
+        private final RealmResults<PumpHistoryInterface> results;
+        private int index;
+        private Date eventDate;
+
+        Cursor(RealmResults<PumpHistoryInterface> results) {
+            this.results = results;
+            this.eventDate = results.get(0).getEventDate();
+        }
+
+        boolean advance() {
+            if (++index >= results.size()) return false;
+            eventDate = results.get(index).getEventDate();
+            return true;
+        }
+    }
+
+    public HistoryMergeIterator(List<RealmResults<PumpHistoryInterface>> sources) {
+        queue = new PriorityQueue<>(Math.max(1, sources.size()), new Comparator<Cursor>() {
+            @Override
+            public int compare(Cursor cursor1, Cursor cursor2) {
+                return cursor2.eventDate.compareTo(cursor1.eventDate);
+            }
+        });
+
+        for (RealmResults<PumpHistoryInterface> results : sources) {
+            if (results.size() > 0) queue.add(new Cursor(results));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public PumpHistoryInterface next() {
+        Cursor cursor = queue.poll();
+        if (cursor == null) throw new NoSuchElementException();
+
+        PumpHistoryInterface record = cursor.results.get(cursor.index);
+        if (cursor.advance()) queue.add(cursor);
+
+        return record;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
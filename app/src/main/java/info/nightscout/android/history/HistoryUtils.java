@@ -18,7 +18,7 @@ public class HistoryUtils {
 
     public static boolean nightscoutTTL(List<NightscoutItem> nightscoutItems, PumpHistoryInterface record, String senderID) {
 
-        if (record.getSenderDEL().contains(senderID)) {
+        if (SenderFlags.isSender(record.getSenderDEL(), senderID)) {
             Log.d(TAG, "TTL delete record");
 
             NightscoutItem nightscoutItem = new NightscoutItem();
@@ -64,7 +64,7 @@ public class HistoryUtils {
 
         NightscoutItem nightscoutItem = new NightscoutItem();
         nightscoutItem.setTimestamp(eventDate.getTime());
-        nightscoutItem.setMode(record.getSenderACK().contains(senderID) ? NightscoutItem.MODE.UPDATE : NightscoutItem.MODE.CHECK );
+        nightscoutItem.setMode(SenderFlags.isSender(record.getSenderACK(), senderID) ? NightscoutItem.MODE.UPDATE : NightscoutItem.MODE.CHECK );
 
         TreatmentsEndpoints.Treatment treatment = nightscoutItem.treatment();
         treatment.setKey600(record.getKey());
@@ -103,7 +103,7 @@ public class HistoryUtils {
 
         NightscoutItem nightscoutItem = new NightscoutItem();
         nightscoutItem.setTimestamp(eventDate.getTime());
-        nightscoutItem.setMode(record.getSenderACK().contains(senderID) ? NightscoutItem.MODE.UPDATE : NightscoutItem.MODE.CHECK );
+        nightscoutItem.setMode(SenderFlags.isSender(record.getSenderACK(), senderID) ? NightscoutItem.MODE.UPDATE : NightscoutItem.MODE.CHECK );
 
         EntriesEndpoints.Entry entry = nightscoutItem.entry();
         entry.setKey600(record.getKey());
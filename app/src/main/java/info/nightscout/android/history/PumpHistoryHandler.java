@@ -12,7 +12,6 @@ import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -21,6 +20,7 @@ import java.util.concurrent.TimeoutException;
 import info.nightscout.android.R;
 import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.medtronic.MedtronicCnlReader;
+import info.nightscout.android.medtronic.PollTrace;
 import info.nightscout.android.medtronic.Stats;
 import info.nightscout.android.medtronic.UserLogMessage;
 import info.nightscout.android.medtronic.exception.ChecksumException;
@@ -63,6 +63,10 @@ public class PumpHistoryHandler {
     private final static long HISTORY_STALE_MS = 120 * 24 * 60 * 60000L;
     private final static long HISTORY_REQUEST_LIMITER_MS = 7 * 24 * 60 * 60000L;
 
+    // history parser commits in chunks to limit the time the history realm is write locked
+    private final static int PARSER_COMMIT_EVENTS = 500;
+    private final static long PARSER_COMMIT_MS = 250L;
+
     private final static byte HISTORY_PUMP = 2;
     private final static byte HISTORY_CGM = 3;
 
@@ -163,39 +167,39 @@ public class PumpHistoryHandler {
         StringBuilder logdb = new StringBuilder();
         log.append(String.format("sender[%s] limitdate: %s",senderID, dateFormatter.format(limitDate)));
 
-        List<PumpHistoryInterface> records = new ArrayList<>();
+        List<RealmResults<PumpHistoryInterface>> sources = new ArrayList<>();
+        int requestedCount = 0;
 
         List<String> request = sender.getRequest();
+        Integer[] senderREQ = SenderFlags.senderMasks(senderID, true);
 
         for (DBitem dBitem : historyDB) {
 
             if (request.contains(dBitem.historydb)) {
 
                 RealmResults<PumpHistoryInterface> requested = dBitem.results.where()
+                        .in("senderREQ", senderREQ)
                         .greaterThanOrEqualTo("eventDate", limitDate)
-                        .contains("senderREQ", senderID)
+                        .sort("eventDate", Sort.DESCENDING)
                         .findAll();
 
-                records.addAll(requested);
+                sources.add(requested);
+                requestedCount += requested.size();
 
                 if (requested.size() > 0) logdb.append(String.format(" %s: %s", dBitem.historydb, requested.size()));
             }
         }
 
-        log.append(String.format(" requested: %s", records.size()));
+        log.append(String.format(" requested: %s [%sms]", requestedCount, System.currentTimeMillis() - now));
 
-        // sort complete list from oldest to newest
-        Collections.sort(records, new Comparator<PumpHistoryInterface>() {
-            @Override
-            public int compare(PumpHistoryInterface record1, PumpHistoryInterface record2)
-            {
-                return  record1.getEventDate().compareTo(record2.getEventDate());
-            }
-        });
+        // merge newest first and stop at the limiter, the backlog beyond the limiter is never loaded
+        List<PumpHistoryInterface> records = new ArrayList<>(Math.min(requestedCount, sender.getLimiter()));
+        HistoryMergeIterator iterator = new HistoryMergeIterator(sources);
+        while (records.size() < sender.getLimiter() && iterator.hasNext())
+            records.add(iterator.next());
 
-        // limiter
-        if (records.size() > sender.getLimiter())
-            records = records.subList(records.size() - sender.getLimiter(), records.size());
+        // oldest to newest
+        Collections.reverse(records);
 
         log.append(String.format(" limiter: %s final: %s", sender.getLimiter(), records.size()));
         log.append(logdb.toString());
@@ -206,13 +210,14 @@ public class PumpHistoryHandler {
 
     // post uploading / processing, clear the request and acknowledge
     public void setSenderRecordsACK(final List<PumpHistoryInterface> records, final String senderID) {
+        final int flag = SenderFlags.senderFlag(senderID);
         historyRealm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(@NonNull Realm realm) {
 
                 for (PumpHistoryInterface record : records) {
-                    record.setSenderREQ(record.getSenderREQ().replace(senderID, ""));
-                    record.setSenderACK(record.getSenderACK().replace(senderID, "").concat(senderID));
+                    record.setSenderREQ(record.getSenderREQ() & ~flag);
+                    record.setSenderACK(record.getSenderACK() | flag);
                 }
 
             }
@@ -220,12 +225,13 @@ public class PumpHistoryHandler {
     }
 
     public void setSenderRecordACK(final PumpHistoryInterface record, final String senderID) {
+        final int flag = SenderFlags.senderFlag(senderID);
         historyRealm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(@NonNull Realm realm) {
 
-                record.setSenderREQ(record.getSenderREQ().replace(senderID, ""));
-                record.setSenderACK(record.getSenderACK().replace(senderID, "").concat(senderID));
+                record.setSenderREQ(record.getSenderREQ() & ~flag);
+                record.setSenderACK(record.getSenderACK() | flag);
 
             }
         });
@@ -245,6 +251,10 @@ public class PumpHistoryHandler {
         RealmResults<PumpHistoryInterface> resultsToDelete;
         RealmResults<PumpHistoryInterface> resultsToUndelete;
 
+        final int flag = SenderFlags.senderFlag(senderID);
+        Integer[] senderSet = SenderFlags.senderMasks(senderID, true);
+        Integer[] senderClear = SenderFlags.senderMasks(senderID, false);
+
         for (DBitem dBitem : historyDB) {
 
             for (Pair<String, Long>ttlItem : ttl) {
@@ -257,12 +267,11 @@ public class PumpHistoryHandler {
                     resultsToDelete = dBitem.results.where()
                             .lessThan("eventDate", ttlDate)
                             .beginGroup()
-                            .contains("senderREQ", senderID)
+                            .in("senderREQ", senderSet)
                             .or()
-                            .contains("senderACK", senderID)
+                            .in("senderACK", senderSet)
                             .endGroup()
-                            .not()
-                            .contains("senderDEL", senderID)
+                            .in("senderDEL", senderClear)
                             .findAll();
 
                     recordsToDelete.addAll(resultsToDelete);
@@ -270,7 +279,7 @@ public class PumpHistoryHandler {
                     // ttl date changed? recover already deleted records (resend to NS)
                     resultsToUndelete = dBitem.results.where()
                             .greaterThanOrEqualTo("eventDate", ttlDate)
-                            .contains("senderDEL", senderID)
+                            .in("senderDEL", senderSet)
                             .findAll();
 
                     recordsToUndelete.addAll(resultsToUndelete);
@@ -287,13 +296,13 @@ public class PumpHistoryHandler {
                 public void execute(@NonNull Realm realm) {
 
                     for (PumpHistoryInterface record : recordsToDelete) {
-                        record.setSenderREQ(record.getSenderREQ().replace(senderID, "").concat(senderID));
-                        record.setSenderDEL(record.getSenderDEL().replace(senderID, "").concat(senderID));
+                        record.setSenderREQ(record.getSenderREQ() | flag);
+                        record.setSenderDEL(record.getSenderDEL() | flag);
                     }
 
                     for (PumpHistoryInterface record : recordsToUndelete) {
-                        record.setSenderREQ(record.getSenderREQ().replace(senderID, "").concat(senderID));
-                        record.setSenderDEL(record.getSenderDEL().replace(senderID, ""));
+                        record.setSenderREQ(record.getSenderREQ() | flag);
+                        record.setSenderDEL(record.getSenderDEL() & ~flag);
                     }
 
                 }
@@ -353,6 +362,7 @@ public class PumpHistoryHandler {
     }
 
     public void reupload(final Class clazz, final String senderID) {
+        final int flag = SenderFlags.senderFlag(senderID);
         historyRealm.executeTransaction(new Realm.Transaction() {
             @Override
             public void execute(@NonNull Realm realm) {
@@ -363,12 +373,11 @@ public class PumpHistoryHandler {
 
                     if (dBitem.historydb.equals(db)) {
                         results = dBitem.results.where()
-                                .contains("senderACK", senderID)
-                                .not()
-                                .contains("senderDEL", senderID)
+                                .in("senderACK", SenderFlags.senderMasks(senderID, true))
+                                .in("senderDEL", SenderFlags.senderMasks(senderID, false))
                                 .findAll();
                         for (PumpHistoryInterface record : results)
-                            if (!record.getSenderREQ().contains(senderID)) record.setSenderREQ(record.getSenderREQ() + senderID);
+                            record.setSenderREQ(record.getSenderREQ() | flag);
                     }
                 }
             }
@@ -477,7 +486,7 @@ public class PumpHistoryHandler {
             RealmResults<PumpHistorySystem> results = historyRealm
                     .where(PumpHistorySystem.class)
                     .equalTo("status", status.value())
-                    .contains("senderREQ", senderID)
+                    .in("senderREQ", SenderFlags.senderMasks(senderID, true))
                     .findAll();
             if (results.size() > 0) {
                 Log.d(TAG, String.format("SystemEvent dismiss: %s senderID = %s count = %s",
@@ -487,7 +496,7 @@ public class PumpHistoryHandler {
                     historyRealm.executeTransaction(new Realm.Transaction() {
                         @Override
                         public void execute(@NonNull Realm realm) {
-                            r.setSenderREQ(r.getSenderREQ().replace(senderID, ""));
+                            r.setSenderREQ(r.getSenderREQ() & ~SenderFlags.senderFlag(senderID));
                         }
                     });
                 }
@@ -500,7 +509,7 @@ public class PumpHistoryHandler {
             RealmResults<PumpHistorySystem> results = historyRealm
                     .where(PumpHistorySystem.class)
                     .equalTo("status", status.value())
-                    .notEqualTo("senderREQ", "")
+                    .notEqualTo("senderREQ", 0)
                     .findAll();
             if (results.size() > 0) {
                 Log.d(TAG, String.format("SystemEvent dismiss: %s count = %s",
@@ -510,7 +519,7 @@ public class PumpHistoryHandler {
                     historyRealm.executeTransaction(new Realm.Transaction() {
                         @Override
                         public void execute(@NonNull Realm realm) {
-                            r.setSenderREQ("");
+                            r.setSenderREQ(0);
                         }
                     });
                 }
@@ -627,22 +636,37 @@ public class PumpHistoryHandler {
         }
         final byte defaultProfile = checkProfile; // range 1 to 9
 
-        historyRealm.executeTransaction(new Realm.Transaction() {
-            @Override
-            public void execute(@NonNull Realm realm) {
-                PumpHistoryProfile.profile(pumpHistorySender, historyRealm, cnlReader.getSessionDate(), cnlReader.getSessionRTC(), cnlReader.getSessionOFFSET(),
-                        units,
-                        insulinDuration,
-                        insulinDelay,
-                        carbsPerHour,
-                        defaultProfile,
-                        basalPatterns,
-                        carbRatios,
-                        sensitivity,
-                        targets
-                );
-            }
-        });
+        cnlReader.getPollTrace().begin(PollTrace.PHASE.COMMIT);
+        try {
+            historyRealm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(@NonNull Realm realm) {
+                    PumpHistoryProfile.profile(pumpHistorySender, historyRealm, cnlReader.getSessionDate(), cnlReader.getSessionRTC(), cnlReader.getSessionOFFSET(),
+                            units,
+                            insulinDuration,
+                            insulinDelay,
+                            carbsPerHour,
+                            defaultProfile,
+                            basalPatterns,
+                            carbRatios,
+                            sensitivity,
+                            targets
+                    );
+                }
+            });
+        } finally {
+            cnlReader.getPollTrace().end();
+        }
+    }
+
+    // *** debug use only *** kept here as the reader has no parser/Realm dependency
+    public void getHistoryLogcat(MedtronicCnlReader cnlReader, long startTime, long endTime, int type) throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
+        Log.d(TAG, "Begin getHistoryLogcat");
+
+        ReadHistoryResponseMessage response = cnlReader.getHistory(startTime, endTime, type);
+        if (response != null) new PumpHistoryParser(response.getEventData()).logcat();
+
+        Log.d(TAG, "Finished getHistoryLogcat");
     }
 
     public void checkResendRequests() {
@@ -1951,18 +1975,27 @@ public class PumpHistoryHandler {
                     parseFrom = segment.get(1).getToDate().getTime() - 30 * 60000L;
 
                 long timer = System.currentTimeMillis();
-                range = new PumpHistoryParser(response.getEventData()).process(
-                        pumpHistorySender,
-                        cnlReader.getPumpSession().getPumpMAC(),
-                        cnlReader.getSessionRTC(),
-                        cnlReader.getSessionOFFSET(),
-                        cnlReader.getSessionClockDifference(),
-                        response.getReqStartTime(),
-                        response.getReqEndTime(),
-                        parseFrom,
-                        0);
+                cnlReader.getPollTrace().begin(PollTrace.PHASE.PARSE);
+                try {
+                    PumpHistoryParser parser = new PumpHistoryParser(response.getEventData())
+                            .setIndexed(true)
+                            .setStreaming(PARSER_COMMIT_EVENTS, PARSER_COMMIT_MS);
+                    range = parser.process(
+                            pumpHistorySender,
+                            cnlReader.getPumpSession().getPumpMAC(),
+                            cnlReader.getSessionRTC(),
+                            cnlReader.getSessionOFFSET(),
+                            cnlReader.getSessionClockDifference(),
+                            response.getReqStartTime(),
+                            response.getReqEndTime(),
+                            parseFrom,
+                            0);
+                } finally {
+                    cnlReader.getPollTrace().end();
+                }
                 timer = System.currentTimeMillis() - timer;
                 Log.d(TAG, logTAG + " parser processing took " + timer + "ms");
+                statPoll.historyParse(parser.getCommitCount(), parser.getCommitMaxMS());
             }
 
             Log.d(TAG, String.format("%s received: %s - %s", logTAG,
@@ -1978,49 +2011,54 @@ public class PumpHistoryHandler {
             final Date haveFrom = range[0] != null && range[0].getTime() < start ? range[0] : new Date(start);
             final Date haveTo = range[1] != null && range[1].getTime() > haveFrom.getTime() ? range[1] : new Date(end);
 
-            historyRealm.executeTransaction(new Realm.Transaction() {
-                @Override
-                public void execute(@NonNull Realm realm) {
+            cnlReader.getPollTrace().begin(PollTrace.PHASE.COMMIT);
+            try {
+                historyRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(@NonNull Realm realm) {
 
-                    // if first segment is empty, update it's toDate as pump may return less/more data
-                    if (segment.get(0).getFromDate().getTime() == segment.get(0).getToDate().getTime()) {
-                        segment.get(0).setToDate(haveTo);
-                    }
+                        // if first segment is empty, update it's toDate as pump may return less/more data
+                        if (segment.get(0).getFromDate().getTime() == segment.get(0).getToDate().getTime()) {
+                            segment.get(0).setToDate(haveTo);
+                        }
 
-                    if (haveFrom.getTime() > segment.get(1).getToDate().getTime()) {
-                        // update the segment fromDate, we still need more history for this segment
-                        segment.get(0).setFromDate(haveFrom);
+                        if (haveFrom.getTime() > segment.get(1).getToDate().getTime()) {
+                            // update the segment fromDate, we still need more history for this segment
+                            segment.get(0).setFromDate(haveFrom);
 
-                    } else {
-                        // segments now overlap, combine to single segment
-                        segment.get(1).setToDate(segment.get(0).getToDate());
-                        segment.deleteFromRealm(0);
-
-                        // check if any remaining segments need combining or deleting
-                        boolean checkNext = true;
-                        while (checkNext && segment.size() > 1) {
-                            // delete next segment if not needed as we have the events from recent pull
-                            if (segment.get(1).getFromDate().getTime() > haveFrom.getTime()) {
-                                segment.deleteFromRealm(1);
-                            }
-                            // combine segments if needed
-                            else {
-                                checkNext = false;
-                                if (segment.get(1).getToDate().getTime() > haveFrom.getTime()) {
-                                    segment.get(1).setToDate(segment.get(0).getToDate());
-                                    segment.deleteFromRealm(0);
+                        } else {
+                            // segments now overlap, combine to single segment
+                            segment.get(1).setToDate(segment.get(0).getToDate());
+                            segment.deleteFromRealm(0);
+
+                            // check if any remaining segments need combining or deleting
+                            boolean checkNext = true;
+                            while (checkNext && segment.size() > 1) {
+                                // delete next segment if not needed as we have the events from recent pull
+                                if (segment.get(1).getFromDate().getTime() > haveFrom.getTime()) {
+                                    segment.deleteFromRealm(1);
+                                }
+                                // combine segments if needed
+                                else {
+                                    checkNext = false;
+                                    if (segment.get(1).getToDate().getTime() > haveFrom.getTime()) {
+                                        segment.get(1).setToDate(segment.get(0).getToDate());
+                                        segment.deleteFromRealm(0);
+                                    }
                                 }
                             }
-                        }
 
-                        // finally update segment fromDate if needed
-                        if (segment.get(0).getFromDate().getTime() > haveFrom.getTime()) {
-                            segment.get(0).setFromDate(haveFrom);
+                            // finally update segment fromDate if needed
+                            if (segment.get(0).getFromDate().getTime() > haveFrom.getTime()) {
+                                segment.get(0).setFromDate(haveFrom);
+                            }
                         }
-                    }
 
-                }
-            });
+                    }
+                });
+            } finally {
+                cnlReader.getPollTrace().end();
+            }
 
             // stats for successful history retrieval
             if (historyType == HISTORY_CGM) statPoll.incHistoryCgmSuccess();
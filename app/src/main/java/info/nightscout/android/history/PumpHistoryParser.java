@@ -24,6 +24,7 @@ import info.nightscout.android.model.medtronicNg.PumpHistoryMarker;
 import info.nightscout.android.model.medtronicNg.PumpHistoryMisc;
 import info.nightscout.android.model.medtronicNg.PumpHistoryPattern;
 import info.nightscout.android.model.medtronicNg.PumpHistorySystem;
+import info.nightscout.android.model.store.DataStore;
 import info.nightscout.android.utils.HexDump;
 import info.nightscout.android.utils.FormatKit;
 import io.realm.Realm;
@@ -68,10 +69,41 @@ public class PumpHistoryParser {
 
     private IntegrityException integrityException;
 
+    // ingest mode: existing records for the pulled RTC window are preloaded once per record class
+    private boolean indexed;
+    private HistoryIndex historyIndex;
+
+    // streaming mode: commit every n events or when the transaction has been held for n ms
+    private int commitEvents;
+    private long commitMS;
+    private int commitCount;
+    private long commitMaxMS;
+    private long commitStart;
+    private int resumeEvent;
+
     public PumpHistoryParser(byte[] eventData) {
         this.eventData = eventData;
     }
 
+    public PumpHistoryParser setIndexed(boolean indexed) {
+        this.indexed = indexed;
+        return this;
+    }
+
+    public PumpHistoryParser setStreaming(int commitEvents, long commitMS) {
+        this.commitEvents = commitEvents;
+        this.commitMS = commitMS;
+        return this;
+    }
+
+    public int getCommitCount() {
+        return commitCount;
+    }
+
+    public long getCommitMaxMS() {
+        return commitMaxMS;
+    }
+
     private DateFormat dateFormatter = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.US);
 
     public Date[] process(PumpHistorySender pumpHistorySender,
@@ -104,152 +136,261 @@ public class PumpHistoryParser {
         index = 0;
         event = 0;
 
-        historyRealm.executeTransaction(new Realm.Transaction() {
-            @Override
-            public void execute(@NonNull Realm realm) {
-
-                try {
-
-                    while (index < eventData.length) {
-
-                        eventType = EventType.convert(read8toUInt(eventData, index));
-                        eventSize = read8toUInt(eventData, index + 0x02);
-                        eventRTC = read32BEtoInt(eventData, index + 0x03);
-                        eventOFFSET = read32BEtoInt(eventData, index + 0x07);
-                        int adjustedRTC = eventRTC + (int) ((double) (pumpRTC - eventRTC) * pumpDRIFT);
-                        Date timestamp = MessageUtils.decodeDateTime((long) adjustedRTC & 0xFFFFFFFFL, (long) pumpOFFSET);
-
-                        eventDate = new Date(timestamp.getTime() - pumpClockDifference);
-
-                        long eventTime = eventDate.getTime();
-                        if (eventTime > eventNewest || eventNewest == 0) eventNewest = eventTime;
-                        if (eventTime < eventOldest || eventOldest == 0) eventOldest = eventTime;
-
-                        if ((parseFrom == 0 || eventTime >= parseFrom) && (parseTo == 0 || eventTime <= parseTo)) {
-
-                            switch (eventType) {
-                                case SENSOR_GLUCOSE_READINGS_EXTENDED:
-                                    sensorGlucoseReadingsExtended();
-                                    break;
-                                case NORMAL_BOLUS_PROGRAMMED:
-                                    normalBolusProgrammed();
-                                    break;
-                                case NORMAL_BOLUS_DELIVERED:
-                                    normalBolusDelivered();
-                                    break;
-                                case SQUARE_BOLUS_PROGRAMMED:
-                                    squareBolusProgrammed();
-                                    break;
-                                case SQUARE_BOLUS_DELIVERED:
-                                    squareBolusDelivered();
-                                    break;
-                                case DUAL_BOLUS_PROGRAMMED:
-                                    dualBolusProgrammed();
-                                    break;
-                                case DUAL_BOLUS_PART_DELIVERED:
-                                    dualBolusPartDelivered();
-                                    break;
-                                case BOLUS_WIZARD_ESTIMATE:
-                                    bolusWizardEstimate();
-                                    break;
-                                case MEAL_WIZARD_ESTIMATE:
-                                    mealWizardEstimate();
-                                    break;
-                                case TEMP_BASAL_PROGRAMMED:
-                                    tempBasalProgrammed();
-                                    break;
-                                case TEMP_BASAL_COMPLETE:
-                                    tempBasalComplete();
-                                    break;
-                                case BASAL_PATTERN_SELECTED:
-                                    basalPatternSelected();
-                                    break;
-                                case INSULIN_DELIVERY_STOPPED:
-                                    insulinDeliveryStopped();
-                                    break;
-                                case INSULIN_DELIVERY_RESTARTED:
-                                    insulinDeliveryRestarted();
-                                    break;
-                                case BG_READING:
-                                    bgReading();
-                                    break;
-                                case CLOSED_LOOP_BG_READING:
-                                    closedLoopBgReading();
-                                    break;
-                                case CLOSED_LOOP_TRANSITION:
-                                    closedLoopTransition();
-                                    break;
-                                case BASAL_SEGMENT_START:
-                                    basalSegmentStart();
-                                    break;
-                                case CALIBRATION_COMPLETE:
-                                    calibrationComplete();
-                                    break;
-                                case GLUCOSE_SENSOR_CHANGE:
-                                    glucoseSensorChange();
-                                    break;
-                                case BATTERY_INSERTED:
-                                    batteryInserted();
-                                    break;
-                                case CANNULA_FILL_DELIVERED:
-                                    cannulaFillDelivered();
-                                    break;
-                                case FOOD_EVENT_MARKER:
-                                    foodEventMarker();
-                                    break;
-                                case EXERCISE_EVENT_MARKER:
-                                    exerciseEventMarker();
-                                    break;
-                                case INJECTION_EVENT_MARKER:
-                                    injectionEventMarker();
-                                    break;
-                                case OTHER_EVENT_MARKER:
-                                    otherEventMarker();
-                                    break;
-                                case ALARM_NOTIFICATION:
-                                    alarmNotification();
-                                    break;
-                                case ALARM_CLEARED:
-                                    alarmCleared();
-                                    break;
-                                case DAILY_TOTALS:
-                                    dailyTotals();
-                                    break;
-                                case CLOSED_LOOP_DAILY_TOTALS:
-                                    closedLoopDailyTotals();
-                                    break;
-
-                                // currently 670G temp targets are not implemented
-                                /*
-                                case CLOSED_LOOP_ALARM_AUTO_CLEARED:
-                                    debugParser();
-                                    break;
-                                case CLOSED_LOOP_TEMP_TARGET_STARTED:
-                                    debugParser();
-                                    break;
-                                case CLOSED_LOOP_TEMP_TARGET_ENDED:
-                                    debugParser();
-                                    break;
-                                */
-                            }
+        resumeEvent = 0;
+        commitCount = 0;
+        commitMaxMS = 0;
+
+        if (commitEvents > 0) {
+            streamParser(parseFrom, parseTo);
+
+        } else {
+            historyRealm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(@NonNull Realm realm) {
+
+                    try {
+
+                        historyIndex = indexed ? createIndex(realm) : null;
 
+                        while (index < eventData.length) {
+                            parseEvent(parseFrom, parseTo);
                         }
 
-                        event++;
-                        index += eventSize;
+                    } catch (IntegrityException e) {
+                        integrityException = e;
                     }
-
-                } catch (IntegrityException e) {
-                    integrityException = e;
                 }
-            }
-        });
+            });
+        }
 
+        historyIndex = null;
         historyRealm.close();
 
         if (integrityException != null) throw integrityException;
     }
 
+    // streaming mode: events are committed in chunks to keep the history write lock short
+    // a checkpoint is stored after each commit so that a repeat pull of the same data can resume
+    private void streamParser(final long parseFrom, final long parseTo) {
+        final String checkpointKey = String.format(Locale.US, "%016X:%08X:%04X",
+                pumpMAC, eventData.length,
+                MessageUtils.CRC16CCITT(eventData, 0xFFFF, 0x1021, eventData.length));
+
+        Realm storeRealm = Realm.getInstance(UploaderApplication.getStoreConfiguration());
+        final DataStore dataStore = storeRealm.where(DataStore.class).findFirst();
+
+        if (dataStore != null && checkpointKey.equals(dataStore.getHistoryParseCheckpoint())) {
+            resumeEvent = dataStore.getHistoryParseEvent();
+            Log.d(TAG, "resume parse from event: " + resumeEvent);
+        }
+
+        historyIndex = indexed ? createIndex(historyRealm) : null;
+
+        try {
+
+            while (index < eventData.length && integrityException == null) {
+
+                historyRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(@NonNull Realm realm) {
+
+                        // timed from inside the transaction so a wait for the write lock does not use up the chunk
+                        commitStart = System.currentTimeMillis();
+
+                        try {
+
+                            // at least one event is parsed in each transaction so the stream always progresses
+                            int count = 0;
+                            while (index < eventData.length
+                                    && (event < resumeEvent || count == 0
+                                    || (count < commitEvents && System.currentTimeMillis() - commitStart < commitMS))) {
+                                if (event >= resumeEvent) count++;
+                                parseEvent(parseFrom, parseTo);
+                            }
+
+                        } catch (IntegrityException e) {
+                            integrityException = e;
+                        }
+                    }
+                });
+
+                long lock = System.currentTimeMillis() - commitStart;
+                if (lock > commitMaxMS) commitMaxMS = lock;
+                commitCount++;
+
+                // no resume after an integrity failure as the history db will be reset
+                if (dataStore != null) {
+                    final boolean resumable = index < eventData.length && integrityException == null;
+                    storeRealm.executeTransaction(new Realm.Transaction() {
+                        @Override
+                        public void execute(@NonNull Realm realm) {
+                            dataStore.setHistoryParseCheckpoint(resumable ? checkpointKey : "");
+                            dataStore.setHistoryParseEvent(resumable ? event : 0);
+                        }
+                    });
+                }
+            }
+
+        } finally {
+            storeRealm.close();
+        }
+
+        Log.d(TAG, String.format("stream parse: events: %s commits: %s max lock: %sms", event, commitCount, commitMaxMS));
+    }
+
+    private void parseEvent(long parseFrom, long parseTo) throws IntegrityException {
+        eventType = EventType.convert(read8toUInt(eventData, index));
+        eventSize = read8toUInt(eventData, index + 0x02);
+        eventRTC = read32BEtoInt(eventData, index + 0x03);
+        eventOFFSET = read32BEtoInt(eventData, index + 0x07);
+        int adjustedRTC = eventRTC + (int) ((double) (pumpRTC - eventRTC) * pumpDRIFT);
+        Date timestamp = MessageUtils.decodeDateTime((long) adjustedRTC & 0xFFFFFFFFL, (long) pumpOFFSET);
+
+        eventDate = new Date(timestamp.getTime() - pumpClockDifference);
+
+        long eventTime = eventDate.getTime();
+        if (eventTime > eventNewest || eventNewest == 0) eventNewest = eventTime;
+        if (eventTime < eventOldest || eventOldest == 0) eventOldest = eventTime;
+
+        if (event >= resumeEvent && (parseFrom == 0 || eventTime >= parseFrom) && (parseTo == 0 || eventTime <= parseTo)) {
+
+            switch (eventType) {
+                case SENSOR_GLUCOSE_READINGS_EXTENDED:
+                    sensorGlucoseReadingsExtended();
+                    break;
+                case NORMAL_BOLUS_PROGRAMMED:
+                    normalBolusProgrammed();
+                    break;
+                case NORMAL_BOLUS_DELIVERED:
+                    normalBolusDelivered();
+                    break;
+                case SQUARE_BOLUS_PROGRAMMED:
+                    squareBolusProgrammed();
+                    break;
+                case SQUARE_BOLUS_DELIVERED:
+                    squareBolusDelivered();
+                    break;
+                case DUAL_BOLUS_PROGRAMMED:
+                    dualBolusProgrammed();
+                    break;
+                case DUAL_BOLUS_PART_DELIVERED:
+                    dualBolusPartDelivered();
+                    break;
+                case BOLUS_WIZARD_ESTIMATE:
+                    bolusWizardEstimate();
+                    break;
+                case MEAL_WIZARD_ESTIMATE:
+                    mealWizardEstimate();
+                    break;
+                case TEMP_BASAL_PROGRAMMED:
+                    tempBasalProgrammed();
+                    break;
+                case TEMP_BASAL_COMPLETE:
+                    tempBasalComplete();
+                    break;
+                case BASAL_PATTERN_SELECTED:
+                    basalPatternSelected();
+                    break;
+                case INSULIN_DELIVERY_STOPPED:
+                    insulinDeliveryStopped();
+                    break;
+                case INSULIN_DELIVERY_RESTARTED:
+                    insulinDeliveryRestarted();
+                    break;
+                case BG_READING:
+                    bgReading();
+                    break;
+                case CLOSED_LOOP_BG_READING:
+                    closedLoopBgReading();
+                    break;
+                case CLOSED_LOOP_TRANSITION:
+                    closedLoopTransition();
+                    break;
+                case BASAL_SEGMENT_START:
+                    basalSegmentStart();
+                    break;
+                case CALIBRATION_COMPLETE:
+                    calibrationComplete();
+                    break;
+                case GLUCOSE_SENSOR_CHANGE:
+                    glucoseSensorChange();
+                    break;
+                case BATTERY_INSERTED:
+                    batteryInserted();
+                    break;
+                case CANNULA_FILL_DELIVERED:
+                    cannulaFillDelivered();
+                    break;
+                case FOOD_EVENT_MARKER:
+                    foodEventMarker();
+                    break;
+                case EXERCISE_EVENT_MARKER:
+                    exerciseEventMarker();
+                    break;
+                case INJECTION_EVENT_MARKER:
+                    injectionEventMarker();
+                    break;
+                case OTHER_EVENT_MARKER:
+                    otherEventMarker();
+                    break;
+                case ALARM_NOTIFICATION:
+                    alarmNotification();
+                    break;
+                case ALARM_CLEARED:
+                    alarmCleared();
+                    break;
+                case DAILY_TOTALS:
+                    dailyTotals();
+                    break;
+                case CLOSED_LOOP_DAILY_TOTALS:
+                    closedLoopDailyTotals();
+                    break;
+
+                // currently 670G temp targets are not implemented
+                /*
+                case CLOSED_LOOP_ALARM_AUTO_CLEARED:
+                    debugParser();
+                    break;
+                case CLOSED_LOOP_TEMP_TARGET_STARTED:
+                    debugParser();
+                    break;
+                case CLOSED_LOOP_TEMP_TARGET_ENDED:
+                    debugParser();
+                    break;
+                */
+            }
+
+        }
+
+        event++;
+        index += eventSize;
+    }
+
+    // find the RTC range covered by the event data, cgm readings within an event extend back from the event RTC
+    private HistoryIndex createIndex(Realm realm) {
+        int rtcFrom = 0;
+        int rtcTo = 0;
+        int pos = 0;
+
+        while (pos < eventData.length) {
+            int size = read8toUInt(eventData, pos + 0x02);
+            int rtc = read32BEtoInt(eventData, pos + 0x03);
+            int from = rtc;
+            if (EventType.convert(read8toUInt(eventData, pos)) == EventType.SENSOR_GLUCOSE_READINGS_EXTENDED) {
+                int minutesBetweenReadings = read8toUInt(eventData, pos + 0x0B);
+                int numberOfReadings = read8toUInt(eventData, pos + 0x0C);
+                from = HistoryUtils.offsetRTC(rtc, -numberOfReadings * minutesBetweenReadings * 60);
+            }
+            if (pos == 0 || from < rtcFrom) rtcFrom = from;
+            if (pos == 0 || rtc > rtcTo) rtcTo = rtc;
+            if (size == 0) break;
+            pos += size;
+        }
+
+        Log.d(TAG, String.format("ingest index RTC: %08X - %08X", rtcFrom, rtcTo));
+        return new HistoryIndex(realm, pumpMAC, rtcFrom, rtcTo);
+    }
+
     private void debugParser() {
         PumpHistorySystem.debugParser(
                 pumpHistorySender, historyRealm, pumpMAC,
@@ -294,7 +435,7 @@ public class PumpHistoryParser {
             Date thisDate = new Date(timestamp.getTime() - pumpClockDifference);
 
             PumpHistoryCGM.cgmFromHistory(
-                    pumpHistorySender, historyRealm, pumpMAC,
+                    pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                     thisDate, thisRTC, eventOFFSET,
                     sgv,
                     isig,
@@ -324,7 +465,7 @@ public class PumpHistoryParser {
         double normalProgrammedAmount = read32BEtoInt(eventData, index + 0x0E) / 10000.0;
         double activeInsulin = read32BEtoInt(eventData, index + 0x12) / 10000.0;
         PumpHistoryBolus.bolus(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 BOLUS_TYPE.NORMAL_BOLUS.value(), true, false, false,
                 bolusRef,
@@ -352,7 +493,7 @@ public class PumpHistoryParser {
                     normalDeliveredAmount);
         } else {
             PumpHistoryBolus.bolus(
-                    pumpHistorySender, historyRealm, pumpMAC,
+                    pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                     eventDate, eventRTC, eventOFFSET,
                     BOLUS_TYPE.NORMAL_BOLUS.value(), false, true, false,
                     bolusRef,
@@ -372,7 +513,7 @@ public class PumpHistoryParser {
         double squareProgrammedAmount = read32BEtoInt(eventData, index + 0x0E) / 10000.0;
         int squareProgrammedDuration = read16BEtoUInt(eventData, index + 0x12);
         double activeInsulin = read32BEtoInt(eventData, index + 0x14) / 10000.0;
-        PumpHistoryBolus.bolus(pumpHistorySender, historyRealm, pumpMAC,
+        PumpHistoryBolus.bolus(pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 BOLUS_TYPE.SQUARE_WAVE.value(), true, false, false,
                 bolusRef,
@@ -394,7 +535,7 @@ public class PumpHistoryParser {
         int squareDeliveredDuration = read16BEtoUInt(eventData, index + 0x18);
         double activeInsulin = read32BEtoInt(eventData, index + 0x1A) / 10000.0;
         PumpHistoryBolus.bolus(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 BOLUS_TYPE.SQUARE_WAVE.value(), false, false, true,
                 bolusRef,
@@ -415,7 +556,7 @@ public class PumpHistoryParser {
         int squareProgrammedDuration = read16BEtoUInt(eventData, index + 0x16);
         double activeInsulin = read32BEtoInt(eventData, index + 0x18) / 10000.0;
         PumpHistoryBolus.bolus(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 BOLUS_TYPE.DUAL_WAVE.value(), true, false, false,
                 bolusRef,
@@ -439,7 +580,7 @@ public class PumpHistoryParser {
         int squareDeliveredDuration = read16BEtoUInt(eventData, index + 0x1D);
         double activeInsulin = read32BEtoInt(eventData, index + 0x1F) / 10000.0;
         PumpHistoryBolus.bolus(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 BOLUS_TYPE.DUAL_WAVE.value(), false, bolusPart == 1, bolusPart == 2,
                 bolusRef,
@@ -528,7 +669,7 @@ public class PumpHistoryParser {
         int percentageOfRate = read8toUInt(eventData, index + 0x11);
         int duration = read16BEtoUInt(eventData, index + 0x12);
         PumpHistoryBasal.programmed(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 preset,
                 type,
@@ -816,7 +957,7 @@ public class PumpHistoryParser {
         Date endDate = new Date(endTimestamp.getTime() - pumpClockDifference);
 
         PumpHistoryDaily.dailyTotals(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 PumpHistoryDaily.TYPE.DAILY_TOTALS.value(),
                 startDate,
@@ -956,7 +1097,7 @@ public class PumpHistoryParser {
         double totalManualBolusInsulin = Math.abs(dailyTotalBolusInsulinDelivered - totalBWIFoodOnlyBolus - totalBWICorrectionOnlyBolus - totalBWIFoodCorrectionBolus - totalOfMealWizardInsulinDeliveredFoodOnlyBolus - totalOfMealWizardInsulinDeliveredCorrectionOnlyBolus - totalOfMealWizardInsulinDeliveredFoodCorrectionBolus);
 
         PumpHistoryDaily.dailyTotals(
-                pumpHistorySender, historyRealm, pumpMAC,
+                pumpHistorySender, historyRealm, historyIndex, pumpMAC,
                 eventDate, eventRTC, eventOFFSET,
                 PumpHistoryDaily.TYPE.CLOSED_LOOP_DAILY_TOTALS.value(),
                 startDate,
@@ -24,10 +24,10 @@ import info.nightscout.android.model.store.DataStore;
 public class PumpHistorySender {
     private static final String TAG = PumpHistorySender.class.getSimpleName();
 
-    // sender ID's should be unique, be wary that these are used in string 'contains' code statements
-    public static final String SENDER_ID_NIGHTSCOUT = "NS";
-    public static final String SENDER_ID_XDRIP = "XD";
-    public static final String SENDER_ID_PUSHOVER = "PO";
+    // sender ID's should be unique, the REQ/ACK/DEL flag for each is set by SenderFlags
+    public static final String SENDER_ID_NIGHTSCOUT = SenderFlags.SENDER_ID_NIGHTSCOUT;
+    public static final String SENDER_ID_XDRIP = SenderFlags.SENDER_ID_XDRIP;
+    public static final String SENDER_ID_PUSHOVER = SenderFlags.SENDER_ID_PUSHOVER;
 
     private List<Sender> senders = new ArrayList<>();
 
@@ -405,12 +405,12 @@ public class PumpHistorySender {
 
     // set history record REQ for all associated senders
     public void setSenderREQ(PumpHistoryInterface record) {
-        String req = record.getSenderREQ();
+        int req = record.getSenderREQ();
         String db = record.getClass().getSuperclass().getSimpleName();
 
         for (Sender sender : senders) {
-            if (sender.active.contains(db) && !req.contains(sender.id))
-                req = req.concat(sender.id);
+            if (sender.active.contains(db))
+                req |= SenderFlags.senderFlag(sender.id);
         }
 
         record.setSenderREQ(req);
@@ -418,12 +418,12 @@ public class PumpHistorySender {
 
     // set history record ACK for all associated senders
     public void setSenderACK(PumpHistoryInterface record) {
-        String ack = record.getSenderACK();
+        int ack = record.getSenderACK();
         String db = record.getClass().getSuperclass().getSimpleName();
 
         for (Sender sender : senders) {
-            if (sender.active.contains(db) && !ack.contains(sender.id))
-                ack = ack.concat(sender.id);
+            if (sender.active.contains(db))
+                ack |= SenderFlags.senderFlag(sender.id);
         }
 
         record.setSenderACK(ack);
@@ -0,0 +1,54 @@
+package info.nightscout.android.history;
+
+/**
+ * History record REQ/ACK/DEL state is stored as a bitmask using a flag per sender.
+ *
+ * Kept apart from PumpHistorySender as it has no Realm or Android dependency.
+ */
+public class SenderFlags {
+
+    public static final String SENDER_ID_NIGHTSCOUT = "NS";
+    public static final String SENDER_ID_XDRIP = "XD";
+    public static final String SENDER_ID_PUSHOVER = "PO";
+
+    // flag position is the index in this list, do not reorder as the flags are persisted
+    private static final String[] SENDER_FLAG_ID = {SENDER_ID_NIGHTSCOUT, SENDER_ID_XDRIP, SENDER_ID_PUSHOVER};
+
+    private SenderFlags() {
+    }
+
+    public static int senderFlag(String senderID) {
+        for (int i = 0; i < SENDER_FLAG_ID.length; i++) {
+            if (SENDER_FLAG_ID[i].equals(senderID)) return 1 << i;
+        }
+        throw new IllegalArgumentException("unknown sender: " + senderID);
+    }
+
+    // convert the legacy concatenated sender ID string form to a bitmask
+    public static int senderFlags(String senderIDs) {
+        int flags = 0;
+        if (senderIDs != null) {
+            for (int i = 0; i < SENDER_FLAG_ID.length; i++) {
+                if (senderIDs.contains(SENDER_FLAG_ID[i])) flags |= 1 << i;
+            }
+        }
+        return flags;
+    }
+
+    public static boolean isSender(int flags, String senderID) {
+        return (flags & senderFlag(senderID)) != 0;
+    }
+
+    // all bitmask values with the sender flag set (or clear), used for an indexed 'in' query
+    // in place of a bitwise test that Realm can not do
+    public static Integer[] senderMasks(String senderID, boolean set) {
+        int flag = senderFlag(senderID);
+        int combinations = 1 << SENDER_FLAG_ID.length;
+        Integer[] masks = new Integer[combinations >> 1];
+        int n = 0;
+        for (int mask = 0; mask < combinations; mask++) {
+            if (((mask & flag) != 0) == set) masks[n++] = mask;
+        }
+        return masks;
+    }
+}
@@ -81,6 +81,7 @@ import info.nightscout.android.utils.RealmKit;
 import io.realm.OrderedCollectionChangeSet;
 import io.realm.OrderedRealmCollectionChangeListener;
 import io.realm.Realm;
+import io.realm.RealmChangeListener;
 import io.realm.RealmResults;
 import io.realm.Sort;
 import uk.co.chrisjenx.calligraphy.CalligraphyContextWrapper;
@@ -106,8 +107,6 @@ public class MainActivity extends AppCompatActivity implements OnSharedPreferenc
     private boolean landscape;
 
     private RealmResults<PumpHistoryCGM> displayChartResults;
-    private RealmResults<PumpStatusEvent> displayPumpResults;
-    private RealmResults<PumpHistoryCGM> displayCgmResults;
     private long timeLastSGV;
     private int pumpBattery;
 
@@ -116,6 +115,34 @@ public class MainActivity extends AppCompatActivity implements OnSharedPreferenc
     private Handler mUiRealmHandler = new Handler();
     private Handler mUiRefreshHandler = new Handler();
     private Runnable mUiRefreshRunnable = new RefreshDisplayRunnable();
+    private Runnable mUiSnapshotRunnable = new RefreshSnapshotRunnable();
+
+    private StatusSnapshot.Listener snapshotListener = new StatusSnapshot.Listener() {
+        @Override
+        public void onSnapshot(StatusSnapshot snapshot) {
+            mUiRefreshHandler.removeCallbacks(mUiSnapshotRunnable);
+            mUiRefreshHandler.post(mUiSnapshotRunnable);
+        }
+    };
+
+    // history written outside of a poll (backfill, estimates, cleared data) needs a snapshot refresh
+    // writes usually come in bursts so the refresh is delayed until they settle
+    private static final long SNAPSHOT_SETTLE_MS = 1000L;
+
+    private Runnable mUiSnapshotRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            StatusSnapshot.refresh();
+        }
+    };
+
+    private RealmChangeListener<Realm> realmSnapshotListener = new RealmChangeListener<Realm>() {
+        @Override
+        public void onChange(@NonNull Realm realm) {
+            mUiRealmHandler.removeCallbacks(mUiSnapshotRefreshRunnable);
+            mUiRealmHandler.postDelayed(mUiSnapshotRefreshRunnable, SNAPSHOT_SETTLE_MS);
+        }
+    };
 
     private Realm mRealm;
     private Realm storeRealm;
@@ -183,6 +210,7 @@ public class MainActivity extends AppCompatActivity implements OnSharedPreferenc
                 public void execute(@NonNull Realm realm) {
                     dataStore.setInitTimestamp(now);
                     dataStore.setNightscoutInitCleanup(true);
+                    dataStore.setNightscoutCleanupStep(0);
                     dataStore.setNightscoutAlwaysUpdateTimestamp(now);
                 }
             });
@@ -933,86 +961,61 @@ public class MainActivity extends AppCompatActivity implements OnSharedPreferenc
 
     private void startDisplay() {
         Log.d(TAG, "startDisplay");
-        startDisplayPump();
-        startDisplayCgm();
+        StatusSnapshot.addListener(snapshotListener);
+        if (mRealm != null) mRealm.addChangeListener(realmSnapshotListener);
+        if (historyRealm != null) historyRealm.addChangeListener(realmSnapshotListener);
+
+        // header values are read from the shared status snapshot, build it if needed
+        new Thread() {
+            public void run() {
+                StatusSnapshot.acquire();
+                mUiRefreshHandler.post(mUiSnapshotRunnable);
+            }
+        }.start();
     }
 
     private void stopDisplay() {
         Log.d(TAG, "stopDisplay");
+        StatusSnapshot.removeListener(snapshotListener);
+        if (mRealm != null) mRealm.removeChangeListener(realmSnapshotListener);
+        if (historyRealm != null) historyRealm.removeChangeListener(realmSnapshotListener);
+        mUiRealmHandler.removeCallbacks(mUiSnapshotRefreshRunnable);
+        mUiRefreshHandler.removeCallbacks(mUiSnapshotRunnable);
         mUiRefreshHandler.removeCallbacks(mUiRefreshRunnable);
-        stopDisplayPump();
-        stopDisplayCgm();
         stopDisplayChart();
     }
 
-    private void startDisplayPump() {
-        Log.d(TAG, "startDisplayPump");
-
-        displayPumpResults = mRealm.where(PumpStatusEvent.class)
-                .sort("eventDate", Sort.ASCENDING)
-                .findAllAsync();
-
-        displayPumpResults.addChangeListener(new OrderedRealmCollectionChangeListener<RealmResults<PumpStatusEvent>>() {
-            @Override
-            public void onChange(@NonNull RealmResults realmResults, @NonNull OrderedCollectionChangeSet changeSet) {
-                Log.d(TAG, "displayPumpResults triggered size=" + displayPumpResults.size());
-                refreshDisplayPump();
-            }
-        });
-    }
-
-    private void stopDisplayPump() {
-        Log.d(TAG, "stopDisplayPump");
-        if (displayPumpResults != null) {
-            displayPumpResults.removeAllChangeListeners();
-            displayPumpResults = null;
-        }
-    }
-
-    private void startDisplayCgm() {
-        Log.d(TAG, "startDisplayCgm");
-
-        displayCgmResults = historyRealm.where(PumpHistoryCGM.class)
-                .notEqualTo("sgv", 0)
-                .sort("eventDate", Sort.ASCENDING)
-                .findAllAsync();
-
-        displayCgmResults.addChangeListener(new OrderedRealmCollectionChangeListener<RealmResults<PumpHistoryCGM>>() {
-            @Override
-            public void onChange(@NonNull RealmResults realmResults, @NonNull OrderedCollectionChangeSet changeSet) {
-                Log.d(TAG, "displayCgmResults triggered size=" + displayCgmResults.size());
-                refreshDisplayCgm();
-                refreshDisplayChart();
-            }
-        });
-    }
-
-    private void stopDisplayCgm() {
-        Log.d(TAG, "stopDisplayCgm");
-        if (displayCgmResults != null) {
-            displayCgmResults.removeAllChangeListeners();
-            displayCgmResults = null;
+    private class RefreshSnapshotRunnable implements Runnable {
+        @Override
+        public void run() {
+            Log.d(TAG, "refreshSnapshotRunnable");
+            StatusSnapshot snapshot = StatusSnapshot.get();
+            if (snapshot == null || historyRealm == null) return;
+            refreshDisplayPump(snapshot);
+            refreshDisplayCgm(snapshot);
+            refreshDisplayChart();
         }
     }
 
-    private void refreshDisplayPump() {
+    private void refreshDisplayPump(StatusSnapshot snapshot) {
         Log.d(TAG, "refreshDisplayPump");
 
         double iob = 0;
         pumpBattery = -1;
 
         // most recent pump status
-        if (displayPumpResults.size() > 0
-                && displayPumpResults.last().getEventDate().getTime() > System.currentTimeMillis() - 60 * 60000L) {
-            iob = displayPumpResults.last().getActiveInsulin();
-            pumpBattery = displayPumpResults.last().getBatteryPercentage();
+        PumpStatusEvent pumpStatus = snapshot.getPumpStatus();
+        if (pumpStatus != null
+                && pumpStatus.getEventDate().getTime() > System.currentTimeMillis() - 60 * 60000L) {
+            iob = pumpStatus.getActiveInsulin();
+            pumpBattery = pumpStatus.getBatteryPercentage();
         }
 
         TextView textViewIOB = findViewById(R.id.textview_iob);
         textViewIOB.setText(String.format(Locale.getDefault(), "%s: %.2f %s", getString(R.string.main_screen__active_insulin), iob, getString(R.string.insulin_U)));
     }
 
-    private void refreshDisplayCgm() {
+    private void refreshDisplayCgm(StatusSnapshot snapshot) {
         Log.d(TAG, "refreshDisplayCgm");
 
         mUiRefreshHandler.removeCallbacks(mUiRefreshRunnable);
@@ -1032,11 +1035,12 @@ public class MainActivity extends AppCompatActivity implements OnSharedPreferenc
         String trendString = "{ion_ios_minus_empty}";
         int trendRotation = 0;
 
-        if (displayCgmResults.size() > 0) {
-            timeLastSGV = displayCgmResults.last().getEventDate().getTime();
-            sgvString = FormatKit.getInstance().formatAsGlucose(displayCgmResults.last().getSgv(), false, true);
-            String trend = displayCgmResults.last().getCgmTrend();
-            if (displayCgmResults.last().isEstimate()) {
+        PumpHistoryCGM sgv = snapshot.getSgv();
+        if (sgv != null) {
+            timeLastSGV = sgv.getEventDate().getTime();
+            sgvString = FormatKit.getInstance().formatAsGlucose(sgv.getSgv(), false, true);
+            String trend = sgv.getCgmTrend();
+            if (sgv.isEstimate()) {
                 trendString = "{ion-ios-medical}";
             } else if (trend != null) {
                 switch (PumpHistoryCGM.NS_TREND.valueOf(trend)) {
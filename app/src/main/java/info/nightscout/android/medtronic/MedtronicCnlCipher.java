@@ -0,0 +1,81 @@
+package info.nightscout.android.medtronic;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import info.nightscout.android.medtronic.exception.EncryptionException;
+
+/**
+ * AES/CFB/NoPadding (128 bit feedback) engine for a link key.
+ *
+ * Every NGP message is encrypted from the start of the IV, using the JCA CFB mode would need
+ * a new cipher init (and AES key schedule) per message. Instead the AES block cipher is set up
+ * once for the key and the CFB feedback is done here, the IV is only a byte array copy.
+ */
+public class MedtronicCnlCipher {
+    private static final int BLOCK_SIZE = 16;
+
+    private final Cipher cipher;
+    private final byte[] iv = new byte[BLOCK_SIZE];
+
+    private final byte[] feedback = new byte[BLOCK_SIZE];
+    private final byte[] stream = new byte[BLOCK_SIZE];
+
+    public MedtronicCnlCipher(byte[] key, byte[] iv) throws EncryptionException {
+        try {
+            cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException("Could not initialise cipher");
+        }
+        setIV(iv);
+    }
+
+    public void setIV(byte[] iv) {
+        System.arraycopy(iv, 0, this.iv, 0, BLOCK_SIZE);
+    }
+
+    public byte[] encrypt(byte[] clear) throws EncryptionException {
+        byte[] encrypted = new byte[clear.length];
+        process(true, clear, 0, clear.length, encrypted, 0);
+        return encrypted;
+    }
+
+    public byte[] decrypt(byte[] encrypted, int offset, int length) throws EncryptionException {
+        byte[] decrypted = new byte[length];
+        process(false, encrypted, offset, length, decrypted, 0);
+        return decrypted;
+    }
+
+    public int encrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws EncryptionException {
+        return process(true, input, inputOffset, length, output, outputOffset);
+    }
+
+    public int decrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws EncryptionException {
+        return process(false, input, inputOffset, length, output, outputOffset);
+    }
+
+    // input and output may be the same buffer
+    private int process(boolean encrypt, byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws EncryptionException {
+        System.arraycopy(iv, 0, feedback, 0, BLOCK_SIZE);
+
+        try {
+            for (int pos = 0; pos < length; pos += BLOCK_SIZE) {
+                cipher.update(feedback, 0, BLOCK_SIZE, stream, 0);
+                int size = Math.min(BLOCK_SIZE, length - pos);
+                for (int i = 0; i < size; i++) {
+                    byte in = input[inputOffset + pos + i];
+                    byte out = (byte) (in ^ stream[i]);
+                    output[outputOffset + pos + i] = out;
+                    feedback[i] = encrypt ? out : in;
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new EncryptionException(encrypt ? "Could not encrypt Medtronic Message" : "Could not decrypt Medtronic Message");
+        }
+
+        return length;
+    }
+}
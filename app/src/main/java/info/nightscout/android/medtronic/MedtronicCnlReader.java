@@ -11,10 +11,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
-import info.nightscout.android.USB.UsbHidDriver;
-import info.nightscout.android.history.PumpHistoryParser;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.message.BeginEHSMMessage;
 import info.nightscout.android.medtronic.message.BolusWizardCarbRatiosRequestMessage;
 import info.nightscout.android.medtronic.message.BolusWizardCarbRatiosResponseMessage;
@@ -49,7 +50,6 @@ import info.nightscout.android.medtronic.message.ReadInfoResponseMessage;
 import info.nightscout.android.medtronic.message.RequestLinkKeyRequestMessage;
 import info.nightscout.android.medtronic.message.RequestLinkKeyResponseMessage;
 import info.nightscout.android.medtronic.exception.UnexpectedMessageException;
-import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.utils.HexDump;
 
 import static info.nightscout.android.medtronic.message.ContourNextLinkMessage.CNL_READ_TIMEOUT_MS;
@@ -62,20 +62,25 @@ public class MedtronicCnlReader {
 
     private static final byte[] RADIO_CHANNELS = {0x14, 0x11, 0x0e, 0x17, 0x1a};
 
-    private UsbHidDriver mDevice;
+    private CnlTransport mDevice;
 
     private MedtronicCnlSession mPumpSession = new MedtronicCnlSession();
     private String mStickSerial = null;
 
     private int cnlCommandMessageSleepMS = 0; // 500
 
+    private int channelAttempts;
+
+    private final Map<String, Long> stepTimes = new LinkedHashMap<>();
+    private final PollTrace trace = new PollTrace();
+
     // provided by getPumpTime - move this to pump session???
     private Date sessionDate;
     private int sessionRTC;
     private int sessionOFFSET;
     private long sessionClockDifference;
 
-    public MedtronicCnlReader(UsbHidDriver device) {
+    public MedtronicCnlReader(CnlTransport device) {
         mDevice = device;
     }
 
@@ -103,29 +108,78 @@ public class MedtronicCnlReader {
         return sessionClockDifference;
     }
 
+    public static byte[] getRadioChannels() {
+        return RADIO_CHANNELS.clone();
+    }
+
+    // join requests sent by the last channel negotiation
+    public int getChannelAttempts() {
+        return channelAttempts;
+    }
+
+    // total duration of each step in ms
+    public Map<String, Long> getStepTimes() {
+        return stepTimes;
+    }
+
+    public PollTrace getPollTrace() {
+        return trace;
+    }
+
+    // end the span opened for the step, the time is added to any earlier calls of the step
+    private void step(String name) {
+        long time = trace.end();
+        Long total = stepTimes.get(name);
+        stepTimes.put(name, total == null ? time : total + time);
+    }
+
+    // fast path, reuse the link key cached for the stick when the cnl reports the same link and pump
+    // the key is confirmed by the first pump response, see MedtronicCnlSession.isLinkKeyCached()
+    public boolean useCachedLinkKey(long linkMAC, long pumpMAC, String key) {
+        if (key == null || linkMAC != mPumpSession.getLinkMAC() || pumpMAC != mPumpSession.getPumpMAC())
+            return false;
+
+        mPumpSession.setKey(MessageUtils.hexStringToByteArray(key));
+        mPumpSession.setLinkKeyCached(true);
+        Log.d(TAG, "useCachedLinkKey: using link key cached for the stick");
+        return true;
+    }
+
     public void setCnlCommandMessageSleepMS(int cnlCommandMessageSleepMS) {
         this.cnlCommandMessageSleepMS = cnlCommandMessageSleepMS;
     }
 
     public void requestDeviceInfo() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
         Log.d(TAG, "Begin requestDeviceInfo");
-        DeviceInfoResponseCommandMessage response = new DeviceInfoRequestCommandMessage().send(mDevice);
+        trace.begin(PollTrace.PHASE.CONNECT);
+        try {
+            DeviceInfoResponseCommandMessage response = new DeviceInfoRequestCommandMessage().send(mDevice);
 
-        //TODO - extract more details form the device info.
-        mStickSerial = response.getSerial();
+            //TODO - extract more details form the device info.
+            mStickSerial = response.getSerial();
 
-        Log.d(TAG, "Finished requestDeviceInfo");
+            step("requestDeviceInfo");
+            Log.d(TAG, "Finished requestDeviceInfo");
+        } finally {
+            trace.end();
+        }
     }
 
     public void enterControlMode() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
         Log.d(TAG, "Begin enterControlMode");
+        trace.begin(PollTrace.PHASE.CONNECT);
         try {
-            enterControlModeAttempt();
-        } catch (TimeoutException e) {
-            resetCNL();
-            enterControlModeAttempt();
+            try {
+                enterControlModeAttempt();
+            } catch (TimeoutException e) {
+                resetCNL();
+                enterControlModeAttempt();
+            }
+            step("enterControlMode");
+            Log.d(TAG, "Finished enterControlMode");
+        } finally {
+            trace.end();
         }
-        Log.d(TAG, "Finished enterControlMode");
     }
 
     private void enterControlModeAttempt() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
@@ -151,41 +205,64 @@ public class MedtronicCnlReader {
 
     public void enterPassthroughMode() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
         Log.d(TAG, "Begin enterPassthroughMode");
-        new ContourNextLinkCommandMessage("W|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        new ContourNextLinkCommandMessage("Q|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        new ContourNextLinkCommandMessage("1|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        Log.d(TAG, "Finished enterPassthroughMode");
+        trace.begin(PollTrace.PHASE.CONNECT);
+        try {
+            new ContourNextLinkCommandMessage("W|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            new ContourNextLinkCommandMessage("Q|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            new ContourNextLinkCommandMessage("1|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            step("enterPassthroughMode");
+            Log.d(TAG, "Finished enterPassthroughMode");
+        } finally {
+            trace.end();
+        }
     }
 
     public void openConnection() throws IOException, TimeoutException, NoSuchAlgorithmException, ChecksumException, EncryptionException, UnexpectedMessageException {
         Log.d(TAG, "Begin openConnection");
-        new OpenConnectionRequestMessage(mPumpSession, mPumpSession.getHMAC()).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
-        Log.d(TAG, "Finished openConnection");
+        trace.begin(PollTrace.PHASE.CONNECT);
+        try {
+            new OpenConnectionRequestMessage(mPumpSession, mPumpSession.getHMAC()).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
+            step("openConnection");
+            Log.d(TAG, "Finished openConnection");
+        } finally {
+            trace.end();
+        }
     }
 
     public void requestReadInfo() throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
         Log.d(TAG, "Begin requestReadInfo");
-        ReadInfoResponseMessage response = new ReadInfoRequestMessage(mPumpSession).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
-
-        long linkMAC = response.getLinkMAC();
-        long pumpMAC = response.getPumpMAC();
-
-        this.getPumpSession().setLinkMAC(linkMAC);
-        this.getPumpSession().setPumpMAC(pumpMAC);
-        Log.d(TAG, String.format("Finished requestReadInfo. linkMAC = '%s', pumpMAC = '%s'",
-                Long.toHexString(linkMAC), Long.toHexString(pumpMAC)));
+        trace.begin(PollTrace.PHASE.CONNECT);
+        try {
+            ReadInfoResponseMessage response = new ReadInfoRequestMessage(mPumpSession).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
+
+            long linkMAC = response.getLinkMAC();
+            long pumpMAC = response.getPumpMAC();
+
+            this.getPumpSession().setLinkMAC(linkMAC);
+            this.getPumpSession().setPumpMAC(pumpMAC);
+            step("requestReadInfo");
+            Log.d(TAG, String.format("Finished requestReadInfo. linkMAC = '%s', pumpMAC = '%s'",
+                    Long.toHexString(linkMAC), Long.toHexString(pumpMAC)));
+        } finally {
+            trace.end();
+        }
     }
 
     public void requestLinkKey() throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
         Log.d(TAG, "Begin requestLinkKey");
+        trace.begin(PollTrace.PHASE.CONNECT);
+        try {
+            RequestLinkKeyResponseMessage response = new RequestLinkKeyRequestMessage(mPumpSession).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
+            this.getPumpSession().setKey(response.getKey());
 
-        RequestLinkKeyResponseMessage response = new RequestLinkKeyRequestMessage(mPumpSession).send(mDevice, 0 , CNL_READ_TIMEOUT_MS);
-        this.getPumpSession().setKey(response.getKey());
-
-        Log.d(TAG, String.format("Finished requestLinkKey. linkKey = '%s'", (Object) this.getPumpSession().getKey()));
+            step("requestLinkKey");
+            Log.d(TAG, String.format("Finished requestLinkKey. linkKey = '%s'", (Object) this.getPumpSession().getKey()));
+        } finally {
+            trace.end();
+        }
     }
 
     public byte negotiateChannel(byte lastRadioChannel) throws IOException, ChecksumException, TimeoutException, EncryptionException, UnexpectedMessageException {
@@ -200,23 +277,37 @@ public class MedtronicCnlReader {
             radioChannels.add(0, lastRadioChannel);
         }
 
-        Log.d(TAG, "Begin negotiateChannel " + radioChannels);
-        for (byte channel : radioChannels) {
-            Log.d(TAG, String.format("negotiateChannel: trying channel '%d'...", channel));
-            mPumpSession.setRadioChannel(channel);
-            ChannelNegotiateResponseMessage response = new ChannelNegotiateRequestMessage(mPumpSession).send(mDevice);
-
-            if (response.getRadioChannel() == mPumpSession.getRadioChannel()) {
-                mPumpSession.setRadioRSSI(response.getRadioRSSI());
-                break;
-            } else {
-                mPumpSession.setRadioChannel((byte)0);
-                mPumpSession.setRadioRSSI((byte)0);
+        return negotiateChannel(ArrayUtils.toPrimitive(radioChannels.toArray(new Byte[radioChannels.size()])));
+    }
+
+    // try the channels in the given order until the pump responds
+    public byte negotiateChannel(byte[] radioChannels) throws IOException, ChecksumException, TimeoutException, EncryptionException, UnexpectedMessageException {
+        channelAttempts = 0;
+
+        Log.d(TAG, "Begin negotiateChannel " + Arrays.toString(radioChannels));
+        trace.begin(PollTrace.PHASE.NEGOTIATE);
+        try {
+            for (byte channel : radioChannels) {
+                Log.d(TAG, String.format("negotiateChannel: trying channel '%d'...", channel));
+                channelAttempts++;
+                mPumpSession.setRadioChannel(channel);
+                ChannelNegotiateResponseMessage response = new ChannelNegotiateRequestMessage(mPumpSession).send(mDevice);
+
+                if (response.getRadioChannel() == mPumpSession.getRadioChannel()) {
+                    mPumpSession.setRadioRSSI(response.getRadioRSSI());
+                    break;
+                } else {
+                    mPumpSession.setRadioChannel((byte)0);
+                    mPumpSession.setRadioRSSI((byte)0);
+                }
             }
-        }
 
-        Log.d(TAG, String.format("Finished negotiateChannel with channel '%d'", mPumpSession.getRadioChannel()));
-        return mPumpSession.getRadioChannel();
+            step("negotiateChannel");
+            Log.d(TAG, String.format("Finished negotiateChannel with channel '%d'", mPumpSession.getRadioChannel()));
+            return mPumpSession.getRadioChannel();
+        } finally {
+            trace.end();
+        }
     }
 
     public void discovery() throws EncryptionException, IOException, TimeoutException, ChecksumException, UnexpectedMessageException {
@@ -233,204 +324,215 @@ public class MedtronicCnlReader {
 
     public Date getPumpTime() throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getPumpTime");
+        trace.begin(PollTrace.PHASE.PUMP_TIME);
+        try {
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                PumpTimeResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new PumpTimeRequestMessage(mPumpSession).send(mDevice);
+                }
+            };
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            PumpTimeResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new PumpTimeRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        PumpTimeResponseMessage response = (PumpTimeResponseMessage) requestMessage.execute();
-
-        sessionRTC = response.getPumpTimeRTC();
-        sessionOFFSET = response.getPumpTimeOFFSET();
-        sessionDate = new Date(Calendar.getInstance().getTimeInMillis());
-        sessionClockDifference = response.getPumpTime().getTime() - sessionDate.getTime();
-
-        Log.d(TAG, "Finished getPumpTime with date " + response.getPumpTime());
-        return response.getPumpTime();
-    }
-
-    public PumpStatusEvent updatePumpStatus(PumpStatusEvent pumpRecord) throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-        Log.d(TAG, "Begin updatePumpStatus");
-
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            PumpStatusResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new PumpStatusRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        PumpStatusResponseMessage response = (PumpStatusResponseMessage) requestMessage.execute();
+            PumpTimeResponseMessage response = (PumpTimeResponseMessage) requestMessage.execute();
 
-        response.updatePumpRecord(pumpRecord);
+            sessionRTC = response.getPumpTimeRTC();
+            sessionOFFSET = response.getPumpTimeOFFSET();
+            sessionDate = new Date(Calendar.getInstance().getTimeInMillis());
+            sessionClockDifference = response.getPumpTime().getTime() - sessionDate.getTime();
 
-        Log.d(TAG, "Finished updatePumpStatus");
-        return pumpRecord;
+            step("getPumpTime");
+            Log.d(TAG, "Finished getPumpTime with date " + response.getPumpTime());
+            return response.getPumpTime();
+        } finally {
+            trace.end();
+        }
     }
 
     public PumpStatusResponseMessage updatePumpStatus() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin updatePumpStatus");
+        trace.begin(PollTrace.PHASE.STATUS);
+        try {
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                PumpStatusResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new PumpStatusRequestMessage(mPumpSession).send(mDevice);
+                }
+            };
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            PumpStatusResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new PumpStatusRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        PumpStatusResponseMessage response = (PumpStatusResponseMessage) requestMessage.execute();
+            PumpStatusResponseMessage response = (PumpStatusResponseMessage) requestMessage.execute();
 
-        Log.d(TAG, "Finished updatePumpStatus");
-        return response;
+            step("updatePumpStatus");
+            Log.d(TAG, "Finished updatePumpStatus");
+            return response;
+        } finally {
+            trace.end();
+        }
     }
 
     public byte[] getBasalPatterns() throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getBasalPatterns");
+        trace.begin(PollTrace.PHASE.BASAL_PATTERNS);
+        try {
+            ByteArrayOutputStream basalPatterns = new ByteArrayOutputStream();
 
-        ByteArrayOutputStream basalPatterns = new ByteArrayOutputStream();
-
-        for (byte i = 1; i < 9; i++) {
+            for (byte i = 1; i < 9; i++) {
 
-            final byte ii = i;
-            RequestMessage requestMessage = new RequestMessage() {
-                @Override
-                PumpBasalPatternResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                    return new PumpBasalPatternRequestMessage(mPumpSession, ii).send(mDevice);
-                }
-            };
+                final byte ii = i;
+                RequestMessage requestMessage = new RequestMessage() {
+                    @Override
+                    PumpBasalPatternResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                        return new PumpBasalPatternRequestMessage(mPumpSession, ii).send(mDevice);
+                    }
+                };
 
-            PumpBasalPatternResponseMessage response = (PumpBasalPatternResponseMessage) requestMessage.execute();
-            basalPatterns.write(response.getBasalPattern());
-        }
+                PumpBasalPatternResponseMessage response = (PumpBasalPatternResponseMessage) requestMessage.execute();
+                basalPatterns.write(response.getBasalPattern());
+            }
 
-        Log.d(TAG, "Basal Pattern x8 data size: " + basalPatterns.size());
+            Log.d(TAG, "Basal Pattern x8 data size: " + basalPatterns.size());
 
-        Log.d(TAG, "Finished getBasalPatterns");
-        return basalPatterns.toByteArray();
+            step("getBasalPatterns");
+            Log.d(TAG, "Finished getBasalPatterns");
+            return basalPatterns.toByteArray();
+        } finally {
+            trace.end();
+        }
     }
 
     public byte[] getBolusWizardCarbRatios() throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getBolusWizardCarbRatios");
+        trace.begin(PollTrace.PHASE.BOLUS_WIZARD);
+        try {
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                BolusWizardCarbRatiosResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new BolusWizardCarbRatiosRequestMessage(mPumpSession).send(mDevice);
+                }
+            };
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            BolusWizardCarbRatiosResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new BolusWizardCarbRatiosRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        BolusWizardCarbRatiosResponseMessage response = (BolusWizardCarbRatiosResponseMessage) requestMessage.execute();
+            BolusWizardCarbRatiosResponseMessage response = (BolusWizardCarbRatiosResponseMessage) requestMessage.execute();
 
-        Log.d(TAG, "Finished getBolusWizardCarbRatios");
-        return response.getCarbRatios();
+            step("getBolusWizardCarbRatios");
+            Log.d(TAG, "Finished getBolusWizardCarbRatios");
+            return response.getCarbRatios();
+        } finally {
+            trace.end();
+        }
     }
 
     public byte[] getBolusWizardTargets() throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getBolusWizardTargets");
+        trace.begin(PollTrace.PHASE.BOLUS_WIZARD);
+        try {
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                BolusWizardTargetsResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new BolusWizardTargetsRequestMessage(mPumpSession).send(mDevice);
+                }
+            };
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            BolusWizardTargetsResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new BolusWizardTargetsRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        BolusWizardTargetsResponseMessage response = (BolusWizardTargetsResponseMessage) requestMessage.execute();
+            BolusWizardTargetsResponseMessage response = (BolusWizardTargetsResponseMessage) requestMessage.execute();
 
-        Log.d(TAG, "Finished getBolusWizardTargets");
-        return response.getTargets();
+            step("getBolusWizardTargets");
+            Log.d(TAG, "Finished getBolusWizardTargets");
+            return response.getTargets();
+        } finally {
+            trace.end();
+        }
     }
 
     public byte[] getBolusWizardSensitivity() throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getBolusWizardCarbRatios");
+        trace.begin(PollTrace.PHASE.BOLUS_WIZARD);
+        try {
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                BolusWizardSensitivityResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new BolusWizardSensitivityRequestMessage(mPumpSession).send(mDevice);
+                }
+            };
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            BolusWizardSensitivityResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new BolusWizardSensitivityRequestMessage(mPumpSession).send(mDevice);
-            }
-        };
-
-        BolusWizardSensitivityResponseMessage response = (BolusWizardSensitivityResponseMessage) requestMessage.execute();
+            BolusWizardSensitivityResponseMessage response = (BolusWizardSensitivityResponseMessage) requestMessage.execute();
 
-        Log.d(TAG, "Finished getBolusWizardSensitivity");
-        return response.getSensitivity();
+            step("getBolusWizardSensitivity");
+            Log.d(TAG, "Finished getBolusWizardSensitivity");
+            return response.getSensitivity();
+        } finally {
+            trace.end();
+        }
     }
 
     public ReadHistoryInfoResponseMessage getHistoryInfo(long startTime, long endTime, int type) throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getHistoryInfo");
+        trace.begin(PollTrace.PHASE.HISTORY_INFO);
+        try {
+            int startRTC = (int) MessageUtils.rtcFromTime(startTime, sessionOFFSET);
+            int endRTC = (int) MessageUtils.rtcFromTime(endTime, sessionOFFSET);
+            ReadHistoryInfoResponseMessage response = new ReadHistoryInfoRequestMessage(mPumpSession, startRTC, endRTC, type).send(mDevice);
 
-        int startRTC = (int) MessageUtils.rtcFromTime(startTime, sessionOFFSET);
-        int endRTC = (int) MessageUtils.rtcFromTime(endTime, sessionOFFSET);
-        ReadHistoryInfoResponseMessage response = new ReadHistoryInfoRequestMessage(mPumpSession, startRTC, endRTC, type).send(mDevice);
-
-        Log.d(TAG, "Finished getHistoryInfo");
-
-        return response;
-    }
-
-    public void getHistoryLogcat(long startTime, long endTime, int type) throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
-        Log.d(TAG, "Begin getHistoryLogcat");
-
-        int startRTC = (int) MessageUtils.rtcFromTime(startTime, sessionOFFSET);
-        int endRTC = (int) MessageUtils.rtcFromTime(endTime, sessionOFFSET);
-
-        ReadHistoryResponseMessage response = new ReadHistoryRequestMessage(mPumpSession, startRTC, endRTC, type).send(mDevice);
-        new PumpHistoryParser(response.getEventData()).logcat();
+            step("getHistoryInfo");
+            Log.d(TAG, "Finished getHistoryInfo");
 
-        Log.d(TAG, "Finished getHistoryLogcat");
+            return response;
+        } finally {
+            trace.end();
+        }
     }
 
     public ReadHistoryResponseMessage getHistory(long startTime, long endTime, final int type) throws EncryptionException, IOException, ChecksumException, TimeoutException, UnexpectedMessageException {
         Log.d(TAG, "Begin getHistory");
+        trace.begin(PollTrace.PHASE.HISTORY);
+        try {
+            long maxRTC = sessionRTC & 0xFFFFFFFFL;
+            long minRTC = maxRTC - ((90 * 24 * 60 * 60) - 3600);
 
-        long maxRTC = sessionRTC & 0xFFFFFFFFL;
-        long minRTC = maxRTC - ((90 * 24 * 60 * 60) - 3600);
-
-        // adjust min RTC to allow for a new pump with <90 days on the RTC clock
-        if (minRTC < 0x80000000L) minRTC = 0x80000001L;
-        Log.d (TAG, "getHistory: minRTC=" + HexDump.toHexString(minRTC) + " maxRTC=" + HexDump.toHexString(maxRTC));
+            // adjust min RTC to allow for a new pump with <90 days on the RTC clock
+            if (minRTC < 0x80000000L) minRTC = 0x80000001L;
+            Log.d (TAG, "getHistory: minRTC=" + HexDump.toHexString(minRTC) + " maxRTC=" + HexDump.toHexString(maxRTC));
 
-        long reqStartRTC = MessageUtils.rtcFromTime(startTime + sessionClockDifference, sessionOFFSET);
-        long reqEndRTC = MessageUtils.rtcFromTime(endTime + sessionClockDifference, sessionOFFSET);
-        Log.d (TAG, "getHistory: reqStartRTC=" + HexDump.toHexString(reqStartRTC) + " reqEndRTC=" + HexDump.toHexString(reqEndRTC));
+            long reqStartRTC = MessageUtils.rtcFromTime(startTime + sessionClockDifference, sessionOFFSET);
+            long reqEndRTC = MessageUtils.rtcFromTime(endTime + sessionClockDifference, sessionOFFSET);
+            Log.d (TAG, "getHistory: reqStartRTC=" + HexDump.toHexString(reqStartRTC) + " reqEndRTC=" + HexDump.toHexString(reqEndRTC));
 
-        // check RTC bounds as pump doesn't like out of range requests
+            // check RTC bounds as pump doesn't like out of range requests
 
-        if (reqEndRTC < minRTC || reqStartRTC > maxRTC) {
-            Log.d (TAG, "getHistory: out of RTC range, no events for requested period");
-            return null;
-        }
+            if (reqEndRTC < minRTC || reqStartRTC > maxRTC) {
+                Log.d (TAG, "getHistory: out of RTC range, no events for requested period");
+                step("getHistory");
+                return null;
+            }
 
-        if (reqEndRTC > maxRTC) {
-            reqEndRTC = maxRTC;
-            endTime = sessionDate.getTime();
-        }
+            if (reqEndRTC > maxRTC) {
+                reqEndRTC = maxRTC;
+                endTime = sessionDate.getTime();
+            }
 
-        if (reqStartRTC < minRTC) reqStartRTC = minRTC;
+            if (reqStartRTC < minRTC) reqStartRTC = minRTC;
 
-        final int startRTC = (int) reqStartRTC;
-        final int endRTC = (int) reqEndRTC;
-        Log.d (TAG, "getHistory: final startRTC=" + HexDump.toHexString(startRTC) + " endRTC=" + HexDump.toHexString(endRTC));
+            final int startRTC = (int) reqStartRTC;
+            final int endRTC = (int) reqEndRTC;
+            Log.d (TAG, "getHistory: final startRTC=" + HexDump.toHexString(startRTC) + " endRTC=" + HexDump.toHexString(endRTC));
 
-        RequestMessage requestMessage = new RequestMessage() {
-            @Override
-            ReadHistoryResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
-                return new ReadHistoryRequestMessage(mPumpSession, startRTC, endRTC, type).send(mDevice);
-            }
-        };
+            RequestMessage requestMessage = new RequestMessage() {
+                @Override
+                ReadHistoryResponseMessage request() throws IOException, EncryptionException, ChecksumException, TimeoutException, UnexpectedMessageException {
+                    return new ReadHistoryRequestMessage(mPumpSession, startRTC, endRTC, type).send(mDevice);
+                }
+            };
 
-        ReadHistoryResponseMessage response = (ReadHistoryResponseMessage) requestMessage.execute();
+            ReadHistoryResponseMessage response = (ReadHistoryResponseMessage) requestMessage.execute();
 
-        response.setReqStartRTC(startRTC);
-        response.setReqEndRTC(endRTC);
-        response.setReqType(type);
-        response.setReqStartTime(startTime);
-        response.setReqEndTime(endTime);
+            response.setReqStartRTC(startRTC);
+            response.setReqEndRTC(endRTC);
+            response.setReqType(type);
+            response.setReqStartTime(startTime);
+            response.setReqEndTime(endTime);
 
-        return response;
+            step("getHistory");
+            return response;
+        } finally {
+            trace.end();
+        }
     }
 
     public void endEHSMSession() throws EncryptionException, IOException, TimeoutException, ChecksumException, UnexpectedMessageException {
@@ -441,26 +543,44 @@ public class MedtronicCnlReader {
 
     public void closeConnection() throws IOException, TimeoutException, ChecksumException, EncryptionException, NoSuchAlgorithmException, UnexpectedMessageException {
         Log.d(TAG, "Begin closeConnection");
-        new CloseConnectionRequestMessage(mPumpSession, mPumpSession.getHMAC()).send(mDevice);
-        Log.d(TAG, "Finished closeConnection");
+        trace.begin(PollTrace.PHASE.DISCONNECT);
+        try {
+            new CloseConnectionRequestMessage(mPumpSession, mPumpSession.getHMAC()).send(mDevice);
+            step("closeConnection");
+            Log.d(TAG, "Finished closeConnection");
+        } finally {
+            trace.end();
+        }
     }
 
     public void endPassthroughMode() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
         Log.d(TAG, "Begin endPassthroughMode");
-        new ContourNextLinkCommandMessage("W|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        new ContourNextLinkCommandMessage("Q|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        new ContourNextLinkCommandMessage("0|")
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
-        Log.d(TAG, "Finished endPassthroughMode");
+        trace.begin(PollTrace.PHASE.DISCONNECT);
+        try {
+            new ContourNextLinkCommandMessage("W|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            new ContourNextLinkCommandMessage("Q|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            new ContourNextLinkCommandMessage("0|")
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ACK);
+            step("endPassthroughMode");
+            Log.d(TAG, "Finished endPassthroughMode");
+        } finally {
+            trace.end();
+        }
     }
 
     public void endControlMode() throws IOException, TimeoutException, UnexpectedMessageException, ChecksumException, EncryptionException {
         Log.d(TAG, "Begin endControlMode");
-        new ContourNextLinkCommandMessage(ContourNextLinkCommandMessage.ASCII.EOT)
-                .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ENQ);
-        Log.d(TAG, "Finished endControlMode");
+        trace.begin(PollTrace.PHASE.DISCONNECT);
+        try {
+            new ContourNextLinkCommandMessage(ContourNextLinkCommandMessage.ASCII.EOT)
+                    .send(mDevice, cnlCommandMessageSleepMS, CNL_READ_TIMEOUT_MS).checkControlMessage(ContourNextLinkCommandMessage.ASCII.ENQ);
+            step("endControlMode");
+            Log.d(TAG, "Finished endControlMode");
+        } finally {
+            trace.end();
+        }
     }
 
     // helps to recover a CNL in a timeout state when trying to connect
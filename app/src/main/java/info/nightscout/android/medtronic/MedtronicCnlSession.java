@@ -5,6 +5,9 @@ import org.apache.commons.lang3.ArrayUtils;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
+import info.nightscout.android.medtronic.exception.EncryptionException;
+import info.nightscout.android.medtronic.message.MultipacketScheduler;
+
 /**
  * Created by lgoedhart on 26/03/2016.
  */
@@ -12,6 +15,7 @@ public class MedtronicCnlSession {
     private static final String HMAC_PADDING = "A4BD6CED9A42602564F413123";
 
     private byte[] key;
+    private MedtronicCnlCipher cipher;
 
     private String stickSerial;
 
@@ -25,6 +29,10 @@ public class MedtronicCnlSession {
     private byte medtronicSequenceNumber = 1;
     private byte comDSequenceNumber = 1;
 
+    private final MultipacketScheduler multipacketScheduler = new MultipacketScheduler();
+
+    private boolean linkKeyCached;
+
     public byte[] getHMAC() throws NoSuchAlgorithmException {
         String shortSerial = this.stickSerial.replaceAll("\\d+-", "");
         byte[] message = (shortSerial + HMAC_PADDING).getBytes();
@@ -43,6 +51,12 @@ public class MedtronicCnlSession {
         return key;
     }
 
+    // cipher engine is reused for all messages of the session, the IV follows the radio channel
+    public MedtronicCnlCipher getCipher() throws EncryptionException {
+        if (cipher == null) cipher = new MedtronicCnlCipher(key, getIV());
+        return cipher;
+    }
+
     public byte[] getIV() {
         byte[] iv = new byte[key.length];
         System.arraycopy(key, 0, iv, 0, key.length);
@@ -111,6 +125,7 @@ public class MedtronicCnlSession {
 
     public void setRadioChannel(byte radioChannel) {
         this.radioChannel = radioChannel;
+        if (cipher != null) cipher.setIV(getIV());
     }
 
     public void setRadioRSSI(byte radioRSSI) {
@@ -119,6 +134,22 @@ public class MedtronicCnlSession {
 
     public void setKey(byte[] key) {
         this.key = key;
+        cipher = null;
+        linkKeyCached = false;
+    }
+
+    // key was taken from the cache and has not yet decrypted a pump response
+    public boolean isLinkKeyCached() {
+        return linkKeyCached;
+    }
+
+    public void setLinkKeyCached(boolean linkKeyCached) {
+        this.linkKeyCached = linkKeyCached;
+    }
+
+    // segment timing learnt from the multipacket transfers of this session
+    public MultipacketScheduler getMultipacketScheduler() {
+        return multipacketScheduler;
     }
 
     public String getStickSerial() {
@@ -0,0 +1,92 @@
+package info.nightscout.android.medtronic;
+
+/**
+ * Time spent in each phase of a single poll.
+ *
+ * One span is open at a time. Each reader call and each parse or commit ends its span as it
+ * returns, normally or with an exception, so the time of a failed phase up to its timeout is
+ * counted and the service and handler work that follows is not. Spans of the same phase are
+ * summed, a poll may read history for both pump and cgm or commit more than once. The totals are
+ * passed to a Sink at the end of the poll, the StatPoll phase histograms, so each phase
+ * contributes one sample per poll.
+ */
+public class PollTrace {
+    // phases of a poll, new phases must be added at the end as the StatPoll histograms are stored by ordinal
+    public enum PHASE {
+        CONNECT("connect"),
+        NEGOTIATE("negotiate"),
+        PUMP_TIME("time"),
+        STATUS("status"),
+        BASAL_PATTERNS("basal"),
+        BOLUS_WIZARD("wizard"),
+        HISTORY_INFO("info"),
+        HISTORY("history"),
+        PARSE("parse"),
+        COMMIT("commit"),
+        DISCONNECT("disconnect"),
+        POLL("poll");
+
+        private final String name;
+
+        PHASE(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public interface Sink {
+        void phase(PHASE phase, long timeMS);
+    }
+
+    private final long[] phaseMS = new long[PHASE.values().length];
+    private final boolean[] traced = new boolean[PHASE.values().length];
+
+    private PHASE phase;
+    private long start;
+
+    public void begin(PHASE phase) {
+        long now = System.currentTimeMillis();
+        if (this.phase != null) add(this.phase, now - start);
+        this.phase = phase;
+        start = now;
+    }
+
+    // returns the span time in ms, 0 when no span is open
+    public long end() {
+        if (phase == null) return 0;
+        long time = System.currentTimeMillis() - start;
+        add(phase, time);
+        phase = null;
+        return time;
+    }
+
+    private void add(PHASE phase, long time) {
+        phaseMS[phase.ordinal()] += time;
+        traced[phase.ordinal()] = true;
+    }
+
+    public long getPhaseMS(PHASE phase) {
+        return phaseMS[phase.ordinal()];
+    }
+
+    public void commit(Sink sink) {
+        end();
+        for (PHASE phase : PHASE.values()) {
+            if (traced[phase.ordinal()]) sink.phase(phase, phaseMS[phase.ordinal()]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (PHASE phase : PHASE.values()) {
+            if (!traced[phase.ordinal()]) continue;
+            if (sb.length() > 0) sb.append(" ");
+            sb.append(phase.getName()).append(": ").append(phaseMS[phase.ordinal()]).append("ms");
+        }
+        return sb.toString();
+    }
+}
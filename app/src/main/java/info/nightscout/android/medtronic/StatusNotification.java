@@ -9,13 +9,11 @@ import androidx.core.app.NotificationCompat;
 import android.util.Log;
 
 import java.math.RoundingMode;
-import java.util.Date;
 
 import info.nightscout.android.PumpAlert;
 import info.nightscout.android.R;
 import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.history.PumpHistoryParser;
-import info.nightscout.android.model.medtronicNg.PumpHistoryAlarm;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBG;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBasal;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBolus;
@@ -24,8 +22,6 @@ import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
 import info.nightscout.android.utils.FormatKit;
 import io.realm.Realm;
-import io.realm.RealmResults;
-import io.realm.Sort;
 
 import static androidx.core.app.NotificationCompat.VISIBILITY_PUBLIC;
 import static info.nightscout.android.medtronic.service.MasterService.SERVICE_NOTIFICATION_ID;
@@ -46,13 +42,12 @@ public class StatusNotification {
     private NotificationCompat.Builder mNotificationBuilder;
     private NotificationManager mNotificationManager;
 
-    private Realm realm;
     private Realm storeRealm;
-    private Realm historyRealm;
     private DataStore dataStore;
 
     long currentTime;
-    RealmResults<PumpStatusEvent> pumpStatusEventRealmResults;
+    StatusSnapshot snapshot;
+    PumpStatusEvent pumpStatus;
 
     private NOTIFICATION mode;
     private long nextpoll;
@@ -124,22 +119,18 @@ public class StatusNotification {
 
             try {
 
-                realm = Realm.getDefaultInstance();
                 storeRealm = Realm.getInstance(UploaderApplication.getStoreConfiguration());
-                historyRealm = Realm.getInstance(UploaderApplication.getHistoryConfiguration());
                 dataStore = storeRealm.where(DataStore.class).findFirst();
 
-                if (realm == null || storeRealm == null || historyRealm == null || dataStore == null) {
+                if (storeRealm == null || dataStore == null) {
                     Log.e(TAG, "unexpected null for Realm");
                     return;
                 }
 
-                currentTime = System.currentTimeMillis();
+                snapshot = StatusSnapshot.acquire();
+                pumpStatus = snapshot.getPumpStatus();
 
-                pumpStatusEventRealmResults = realm.where(PumpStatusEvent.class)
-                        .greaterThan("eventDate", new Date(currentTime - 24 * 60 * 60000L))
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+                currentTime = System.currentTimeMillis();
 
                 long sgvTime = currentTime;
                 long sgvAge = -1;
@@ -149,26 +140,25 @@ public class StatusNotification {
                 String sgv = "";
                 String delta = "";
 
-                RealmResults<PumpHistoryCGM> results = historyRealm.where(PumpHistoryCGM.class)
-                        .greaterThan("eventDate", new Date(currentTime - 24 * 60 * 60000L))
-                        .greaterThan("sgv", 0)
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
-                if (results.size() > 0) {
-                    sgvValue = results.first().getSgv();
-                    sgvTime = results.first().getEventDate().getTime();
+                PumpHistoryCGM sgvRecord = snapshot.getSgv();
+                if (sgvRecord != null
+                        && sgvRecord.getSgv() > 0
+                        && sgvRecord.getEventDate().getTime() > currentTime - 24 * 60 * 60000L) {
+                    sgvValue = sgvRecord.getSgv();
+                    sgvTime = sgvRecord.getEventDate().getTime();
                     sgvAge = (currentTime - sgvTime) / 60000L;
 
                     int deltaValue = 0;
-                    if (results.size() > 1 && mode != NOTIFICATION.ERROR) {
-                        int deltaTime = (int) ((sgvTime - results.get(1).getEventDate().getTime()) / 60000L);
+                    PumpHistoryCGM sgvPrevious = snapshot.getSgvPrevious();
+                    if (sgvPrevious != null && sgvPrevious.getSgv() > 0 && mode != NOTIFICATION.ERROR) {
+                        int deltaTime = (int) ((sgvTime - sgvPrevious.getEventDate().getTime()) / 60000L);
                         if (sgvAge < 60 && deltaTime < 30) {
-                            deltaValue = sgvValue - results.get(1).getSgv();
+                            deltaValue = sgvValue - sgvPrevious.getSgv();
                         }
                     }
 
                     sgv = String.format(
-                            results.first().isEstimate()
+                            sgvRecord.isEstimate()
                                     ? FormatKit.getInstance().getString(R.string.notification__SGV_value_estimated)
                                     : FormatKit.getInstance().getString(R.string.notification__SGV_value),
                             FormatKit.getInstance().formatAsGlucose(sgvValue, false, true)
@@ -180,7 +170,7 @@ public class StatusNotification {
                                     (FormatKit.getInstance().formatAsGlucose(deltaValue, false, 2))
                     );
 
-                    estimate = results.first().isEstimate() ? FormatKit.getInstance().getString(R.string.notification__ESTIMATE) : "";
+                    estimate = sgvRecord.isEstimate() ? FormatKit.getInstance().getString(R.string.notification__ESTIMATE) : "";
 
                 } else sgv = FormatKit.getInstance().getString(R.string.notification__SGV_not_available);
 
@@ -194,8 +184,8 @@ public class StatusNotification {
                         color = COLOR_SGV_YELLOW;
                     else
                         color = COLOR_SGV_RED;
-                } else if (pumpStatusEventRealmResults.size() > 0
-                        && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() > 15 * 60000L) {
+                } else if (pumpStatus != null
+                        && currentTime - pumpStatus.getEventDate().getTime() > 15 * 60000L) {
                     color = COLOR_SGV_STALE;
                 }
 
@@ -281,31 +271,25 @@ public class StatusNotification {
     }
 
     private void closeRealm() {
-        if (historyRealm != null && !historyRealm.isClosed()) historyRealm.close();
         if (storeRealm != null && !storeRealm.isClosed()) storeRealm.close();
-        if (realm != null && !realm.isClosed()) realm.close();
-        pumpStatusEventRealmResults = null;
+        snapshot = null;
+        pumpStatus = null;
         dataStore = null;
         storeRealm = null;
-        historyRealm = null;
-        realm = null;
     }
 
     private String cgm() {
 
-        RealmResults<PumpStatusEvent> results = pumpStatusEventRealmResults.where()
-                .greaterThan("eventDate", new Date(currentTime - 15 * 60000L))
-                .equalTo("cgmActive", true)
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
+        PumpStatusEvent cgmStatus = snapshot.getCgmStatus();
 
-        if (results.size() > 0) {
+        if (cgmStatus != null
+                && cgmStatus.getEventDate().getTime() > currentTime - 15 * 60000L) {
 
             PumpHistoryParser.CGM_EXCEPTION cgmException;
-            if (results.first().isCgmException())
+            if (cgmStatus.isCgmException())
                 cgmException = PumpHistoryParser.CGM_EXCEPTION.convert(
-                        pumpStatusEventRealmResults.first().getCgmExceptionType());
-            else if (results.first().isCgmCalibrating())
+                        cgmStatus.getCgmExceptionType());
+            else if (cgmStatus.isCgmCalibrating())
                 cgmException = PumpHistoryParser.CGM_EXCEPTION.SENSOR_CAL_PENDING;
             else
                 cgmException = PumpHistoryParser.CGM_EXCEPTION.NA;
@@ -314,11 +298,11 @@ public class StatusNotification {
                 case NA:
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__CAL_remainingtime),
-                            FormatKit.getInstance().formatMinutesAsHM(results.first().getCalibrationDueMinutes()));
+                            FormatKit.getInstance().formatMinutesAsHM(cgmStatus.getCalibrationDueMinutes()));
                 case SENSOR_INIT:
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__WARMUP_remainingtime),
-                            FormatKit.getInstance().formatMinutesAsHM(results.first().getCalibrationDueMinutes()));
+                            FormatKit.getInstance().formatMinutesAsHM(cgmStatus.getCalibrationDueMinutes()));
                 default:
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__CGM_EXCEPTION),
@@ -331,12 +315,12 @@ public class StatusNotification {
 
     private String iob() {
 
-        if (pumpStatusEventRealmResults.size() > 0
-                && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() < 4 * 60 * 60000L) {
+        if (pumpStatus != null
+                && currentTime - pumpStatus.getEventDate().getTime() < 4 * 60 * 60000L) {
 
             return String.format(
                     FormatKit.getInstance().getString(R.string.notification__IOB_value),
-                    FormatKit.getInstance().formatAsInsulin((double) pumpStatusEventRealmResults.first().getActiveInsulin())
+                    FormatKit.getInstance().formatAsInsulin((double) pumpStatus.getActiveInsulin())
             );
         }
 
@@ -345,45 +329,38 @@ public class StatusNotification {
 
     private String basal() {
 
-        if (pumpStatusEventRealmResults.size() > 0
-                && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() < 12 * 60 * 60000L) {
-
-            if (pumpStatusEventRealmResults.first().isSuspended()) {
-                RealmResults<PumpHistoryBasal> pumpHistoryBasalRealmResults = historyRealm.where(PumpHistoryBasal.class)
-                        .greaterThan("eventDate", new Date(currentTime - 12 * 60 * 60000L))
-                        .beginGroup()
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.SUSPEND.value())
-                        .or()
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.RESUME.value())
-                        .endGroup()
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+        if (pumpStatus != null
+                && currentTime - pumpStatus.getEventDate().getTime() < 12 * 60 * 60000L) {
+
+            if (pumpStatus.isSuspended()) {
+                PumpHistoryBasal suspend = snapshot.getSuspend();
                 // check if most recent suspend is in history and show the start time
-                if (pumpHistoryBasalRealmResults.size() > 0
-                        && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(pumpHistoryBasalRealmResults.first().getRecordtype()))
+                if (suspend != null
+                        && suspend.getEventDate().getTime() > currentTime - 12 * 60 * 60000L
+                        && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.getRecordtype()))
 
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__SUSPEND_time),
-                            FormatKit.getInstance().formatAsClock(pumpHistoryBasalRealmResults.first().getEventDate().getTime())
+                            FormatKit.getInstance().formatAsClock(suspend.getEventDate().getTime())
                     );
 
                 else
 
                     return FormatKit.getInstance().getString(R.string.notification__SUSPEND);
 
-            } else if (pumpStatusEventRealmResults.first().isTempBasalActive()) {
-                int percent = pumpStatusEventRealmResults.first().getTempBasalPercentage();
-                int minutes = pumpStatusEventRealmResults.first().getTempBasalMinutesRemaining();
-                int preset = pumpStatusEventRealmResults.first().getActiveTempBasalPattern();
+            } else if (pumpStatus.isTempBasalActive()) {
+                int percent = pumpStatus.getTempBasalPercentage();
+                int minutes = pumpStatus.getTempBasalMinutesRemaining();
+                int preset = pumpStatus.getActiveTempBasalPattern();
 
                 String rateString = "";
                 if (percent != 0)
                     rateString = String.format("%s (%s)",
-                            FormatKit.getInstance().formatAsInsulin((double) ((percent * pumpStatusEventRealmResults.first().getBasalRate()) / 100), 3),
+                            FormatKit.getInstance().formatAsInsulin((double) ((percent * pumpStatus.getBasalRate()) / 100), 3),
                             FormatKit.getInstance().formatAsPercent(percent)
                     );
                 else
-                    rateString = FormatKit.getInstance().formatAsInsulin((double) pumpStatusEventRealmResults.first().getTempBasalRate(), 3);
+                    rateString = FormatKit.getInstance().formatAsInsulin((double) pumpStatus.getTempBasalRate(), 3);
 
                 if (PumpHistoryParser.TEMP_BASAL_PRESET.TEMP_BASAL_PRESET_0.equals(preset))
 
@@ -403,12 +380,12 @@ public class StatusNotification {
                     );
 
             } else {
-                int pattern = pumpStatusEventRealmResults.first().getActiveBasalPattern();
+                int pattern = pumpStatus.getActiveBasalPattern();
                 if (pattern != 0)
 
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__BASAL_rate_pattern),
-                            FormatKit.getInstance().formatAsInsulin((double) pumpStatusEventRealmResults.first().getBasalRate(), 3),
+                            FormatKit.getInstance().formatAsInsulin((double) pumpStatus.getBasalRate(), 3),
                             FormatKit.getInstance().getNameBasalPattern(pattern)
                     );
 
@@ -416,7 +393,7 @@ public class StatusNotification {
 
                     return String.format(
                             FormatKit.getInstance().getString(R.string.notification__BASAL_rate),
-                            FormatKit.getInstance().formatAsInsulin((double) pumpStatusEventRealmResults.first().getBasalRate(), 3)
+                            FormatKit.getInstance().formatAsInsulin((double) pumpStatus.getBasalRate(), 3)
                     );
 
             }
@@ -428,25 +405,21 @@ public class StatusNotification {
 
     private String bg() {
 
-        RealmResults<PumpHistoryBG> pumpHistoryBGRealmResults = historyRealm.where(PumpHistoryBG.class)
-                .notEqualTo("bg",0)
-                .greaterThan("eventDate", new Date(currentTime - 24 * 60 * 60000L))
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
+        PumpHistoryBG record = snapshot.getBg();
 
-        if (pumpHistoryBGRealmResults.size() > 0) {
+        if (record != null
+                && record.getEventDate().getTime() > currentTime - 24 * 60 * 60000L) {
 
-            String bg = FormatKit.getInstance().formatAsGlucose(pumpHistoryBGRealmResults.first().getBg(), false, true);
-            String time = FormatKit.getInstance().formatAsClock(pumpHistoryBGRealmResults.first().getBgDate().getTime());
+            String bg = FormatKit.getInstance().formatAsGlucose(record.getBg(), false, true);
+            String time = FormatKit.getInstance().formatAsClock(record.getBgDate().getTime());
             String factor = "";
 
             if (dataStore.isNsEnableCalibrationInfo()) {
-                pumpHistoryBGRealmResults = pumpHistoryBGRealmResults.where()
-                        .equalTo("calibrationFlag", true)
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
-                if (pumpHistoryBGRealmResults.size() > 0 && pumpHistoryBGRealmResults.first().isCalibration())
-                    factor = FormatKit.getInstance().formatAsDecimal(pumpHistoryBGRealmResults.first().getCalibrationFactor(), 1, 1, RoundingMode.DOWN);
+                PumpHistoryBG calibration = snapshot.getCalibrationFlag();
+                if (calibration != null
+                        && calibration.getEventDate().getTime() > currentTime - 24 * 60 * 60000L
+                        && calibration.isCalibration())
+                    factor = FormatKit.getInstance().formatAsDecimal(calibration.getCalibrationFactor(), 1, 1, RoundingMode.DOWN);
             }
 
             if (factor.length() == 0)
@@ -472,15 +445,15 @@ public class StatusNotification {
 
     private String bolusing() {
 
-        if (pumpStatusEventRealmResults.size() > 0
-                && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() < 12 * 60 * 60000L
-                && !pumpStatusEventRealmResults.first().isBolusingNormal()
-                && (pumpStatusEventRealmResults.first().isBolusingSquare() || pumpStatusEventRealmResults.first().isBolusingDual())) {
+        if (pumpStatus != null
+                && currentTime - pumpStatus.getEventDate().getTime() < 12 * 60 * 60000L
+                && !pumpStatus.isBolusingNormal()
+                && (pumpStatus.isBolusingSquare() || pumpStatus.isBolusingDual())) {
 
             return String.format(
                     FormatKit.getInstance().getString(R.string.notification__BOLUSING_delivered_remainingtime),
-                    FormatKit.getInstance().formatAsInsulin((double) pumpStatusEventRealmResults.first().getBolusingDelivered()),
-                    FormatKit.getInstance().formatMinutesAsDHM(pumpStatusEventRealmResults.first().getBolusingMinutesRemaining())
+                    FormatKit.getInstance().formatAsInsulin((double) pumpStatus.getBolusingDelivered()),
+                    FormatKit.getInstance().formatMinutesAsDHM(pumpStatus.getBolusingMinutesRemaining())
             );
         }
 
@@ -489,49 +462,46 @@ public class StatusNotification {
 
     private String bolus() {
 
-        RealmResults<PumpHistoryBolus> pumpHistoryBolusRealmResults = historyRealm.where(PumpHistoryBolus.class)
-                .greaterThan("eventDate", new Date(currentTime - 24 * 60 * 60000L))
-                .equalTo("programmed", true)
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
+        PumpHistoryBolus bolus = snapshot.getBolus();
 
-        if (pumpHistoryBolusRealmResults.size() > 0) {
+        if (bolus != null
+                && bolus.getEventDate().getTime() > currentTime - 24 * 60 * 60000L) {
 
-            if (PumpHistoryParser.BOLUS_TYPE.DUAL_WAVE.equals(pumpHistoryBolusRealmResults.first().getBolusType()))
+            if (PumpHistoryParser.BOLUS_TYPE.DUAL_WAVE.equals(bolus.getBolusType()))
 
                 return String.format(
                         FormatKit.getInstance().getString(R.string.notification__DUALBOLUS_delivered_duration_time),
-                        FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getNormalDeliveredAmount()),
-                        pumpHistoryBolusRealmResults.first().isSquareDelivered()
-                                ? FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getSquareDeliveredAmount())
-                                : FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getSquareProgrammedAmount()),
-                        pumpHistoryBolusRealmResults.first().isSquareDelivered()
-                                ? FormatKit.getInstance().formatMinutesAsHM(pumpHistoryBolusRealmResults.first().getSquareDeliveredDuration())
-                                : FormatKit.getInstance().formatMinutesAsHM(pumpHistoryBolusRealmResults.first().getSquareProgrammedDuration()),
-                        FormatKit.getInstance().formatAsClock(pumpHistoryBolusRealmResults.first().getProgrammedDate().getTime())
+                        FormatKit.getInstance().formatAsInsulin(bolus.getNormalDeliveredAmount()),
+                        bolus.isSquareDelivered()
+                                ? FormatKit.getInstance().formatAsInsulin(bolus.getSquareDeliveredAmount())
+                                : FormatKit.getInstance().formatAsInsulin(bolus.getSquareProgrammedAmount()),
+                        bolus.isSquareDelivered()
+                                ? FormatKit.getInstance().formatMinutesAsHM(bolus.getSquareDeliveredDuration())
+                                : FormatKit.getInstance().formatMinutesAsHM(bolus.getSquareProgrammedDuration()),
+                        FormatKit.getInstance().formatAsClock(bolus.getProgrammedDate().getTime())
                 );
 
-            else if (PumpHistoryParser.BOLUS_TYPE.SQUARE_WAVE.equals(pumpHistoryBolusRealmResults.first().getBolusType()))
+            else if (PumpHistoryParser.BOLUS_TYPE.SQUARE_WAVE.equals(bolus.getBolusType()))
 
                 return String.format(
                         FormatKit.getInstance().getString(R.string.notification__SQUAREBOLUS_delivered_duration_time),
-                        pumpHistoryBolusRealmResults.first().isSquareDelivered()
-                                ? FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getSquareDeliveredAmount())
-                                : FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getSquareProgrammedAmount()),
-                        pumpHistoryBolusRealmResults.first().isSquareDelivered()
-                                ? FormatKit.getInstance().formatMinutesAsHM(pumpHistoryBolusRealmResults.first().getSquareDeliveredDuration())
-                                : FormatKit.getInstance().formatMinutesAsHM(pumpHistoryBolusRealmResults.first().getSquareProgrammedDuration()),
-                        FormatKit.getInstance().formatAsClock(pumpHistoryBolusRealmResults.first().getProgrammedDate().getTime())
+                        bolus.isSquareDelivered()
+                                ? FormatKit.getInstance().formatAsInsulin(bolus.getSquareDeliveredAmount())
+                                : FormatKit.getInstance().formatAsInsulin(bolus.getSquareProgrammedAmount()),
+                        bolus.isSquareDelivered()
+                                ? FormatKit.getInstance().formatMinutesAsHM(bolus.getSquareDeliveredDuration())
+                                : FormatKit.getInstance().formatMinutesAsHM(bolus.getSquareProgrammedDuration()),
+                        FormatKit.getInstance().formatAsClock(bolus.getProgrammedDate().getTime())
                 );
 
             else
 
                 return String.format(
                         FormatKit.getInstance().getString(R.string.notification__BOLUS_delivered_time),
-                        pumpHistoryBolusRealmResults.first().isNormalDelivered()
-                                ? FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getNormalDeliveredAmount())
-                                : FormatKit.getInstance().formatAsInsulin(pumpHistoryBolusRealmResults.first().getNormalProgrammedAmount()),
-                        FormatKit.getInstance().formatAsClock(pumpHistoryBolusRealmResults.first().getProgrammedDate().getTime())
+                        bolus.isNormalDelivered()
+                                ? FormatKit.getInstance().formatAsInsulin(bolus.getNormalDeliveredAmount())
+                                : FormatKit.getInstance().formatAsInsulin(bolus.getNormalProgrammedAmount()),
+                        FormatKit.getInstance().formatAsClock(bolus.getProgrammedDate().getTime())
                 );
 
         }
@@ -541,9 +511,9 @@ public class StatusNotification {
 
     private String alert() {
 
-        if (pumpStatusEventRealmResults.size() > 0
-                && pumpStatusEventRealmResults.first().getAlert() > 0
-                && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() < 24 * 60 * 60000L) {
+        if (pumpStatus != null
+                && pumpStatus.getAlert() > 0
+                && currentTime - pumpStatus.getEventDate().getTime() < 24 * 60 * 60000L) {
             return FormatKit.getInstance().getString(R.string.notification__ALERT);
         }
 
@@ -552,20 +522,15 @@ public class StatusNotification {
 
     private String alertMessage() {
 
-        if (pumpStatusEventRealmResults.size() > 0
-                && pumpStatusEventRealmResults.first().getAlert() > 0
-                && currentTime - pumpStatusEventRealmResults.first().getEventDate().getTime() < 24 * 60 * 60000L) {
-
-            PumpHistoryAlarm record = historyRealm.where(PumpHistoryAlarm.class)
-                    .equalTo("faultNumber", pumpStatusEventRealmResults.first().getAlert())
-                    .equalTo("alarmedRTC", pumpStatusEventRealmResults.first().getAlertRTC())
-                    .findFirst();
+        if (pumpStatus != null
+                && pumpStatus.getAlert() > 0
+                && currentTime - pumpStatus.getEventDate().getTime() < 24 * 60 * 60000L) {
 
             PumpAlert pumpAlert;
-            if (record != null)
-                pumpAlert = new PumpAlert().record(record).build();
+            if (snapshot.getAlarm() != null)
+                pumpAlert = new PumpAlert().record(snapshot.getAlarm()).build();
             else
-                pumpAlert = new PumpAlert().faultNumber(pumpStatusEventRealmResults.first().getAlert()).build();
+                pumpAlert = new PumpAlert().faultNumber(pumpStatus.getAlert()).build();
 
             return String.format(
                     FormatKit.getInstance().getString(R.string.notification__ALERT_message),
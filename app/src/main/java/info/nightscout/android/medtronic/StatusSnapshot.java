@@ -0,0 +1,294 @@
+package info.nightscout.android.medtronic;
+
+import android.util.Log;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import info.nightscout.android.UploaderApplication;
+import info.nightscout.android.model.medtronicNg.PumpHistoryAlarm;
+import info.nightscout.android.model.medtronicNg.PumpHistoryBG;
+import info.nightscout.android.model.medtronicNg.PumpHistoryBasal;
+import info.nightscout.android.model.medtronicNg.PumpHistoryBolus;
+import info.nightscout.android.model.medtronicNg.PumpHistoryCGM;
+import info.nightscout.android.model.medtronicNg.PumpHistoryMisc;
+import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
+import io.realm.Realm;
+import io.realm.RealmObject;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * Snapshot of the most recent pump, cgm and history records used by the status displays.
+ *
+ * Built once after each poll from a single set of queries and shared by the status notification,
+ * urchin status bar and main screen header. The main screen also refreshes it when history is
+ * written outside of a poll. Records are unmanaged copies so the snapshot can be
+ * read from any thread after the Realm instances are closed, they must not be modified.
+ * Consumers format the values themselves as display strings depend on the current time.
+ */
+public class StatusSnapshot {
+    private static final String TAG = StatusSnapshot.class.getSimpleName();
+
+    // safety net for consumers that missed a refresh, the snapshot is rebuilt when older
+    private static final long MAX_AGE_MS = 5 * 60000L;
+
+    private static final long STATUS_PERIOD_MS = 24 * 60 * 60000L;
+    private static final long SUSPEND_PERIOD_MS = 12 * 60 * 60000L;
+
+    public interface Listener {
+        void onSnapshot(StatusSnapshot snapshot);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private static volatile StatusSnapshot current;
+    private static volatile boolean invalid = true;
+
+    private final long timestamp;
+
+    private final PumpStatusEvent pumpStatus;
+    private final PumpStatusEvent cgmStatus;
+    private final PumpHistoryAlarm alarm;
+
+    private final PumpHistoryCGM cgm;
+    private final PumpHistoryCGM sgv;
+    private final PumpHistoryCGM sgvPrevious;
+
+    private final PumpHistoryBasal suspend;
+    private final PumpHistoryBolus bolus;
+    private final PumpHistoryBG bg;
+    private final PumpHistoryBG calibrationFlag;
+    private final PumpHistoryBG calibration;
+
+    private final long batteryChange;
+    private final long cannulaChange;
+    private final long sensorChange;
+
+    private StatusSnapshot(Realm realm, Realm historyRealm, long timestamp) {
+        this.timestamp = timestamp;
+
+        RealmResults<PumpStatusEvent> pumpResults = realm.where(PumpStatusEvent.class)
+                .greaterThan("eventDate", new Date(timestamp - STATUS_PERIOD_MS))
+                .sort("eventDate", Sort.DESCENDING)
+                .findAll();
+        pumpStatus = copy(realm, pumpResults.size() > 0 ? pumpResults.first() : null);
+
+        RealmResults<PumpStatusEvent> cgmResults = pumpResults.where()
+                .equalTo("cgmActive", true)
+                .sort("cgmDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll();
+        cgmStatus = copy(realm, cgmResults.size() > 0 ? cgmResults.first() : null);
+
+        PumpHistoryAlarm alarmRecord = null;
+        if (pumpStatus != null && pumpStatus.getAlert() > 0) {
+            alarmRecord = historyRealm.where(PumpHistoryAlarm.class)
+                    .equalTo("faultNumber", pumpStatus.getAlert())
+                    .equalTo("alarmedRTC", pumpStatus.getAlertRTC())
+                    .findFirst();
+        }
+        alarm = copy(historyRealm, alarmRecord);
+
+        cgm = copy(historyRealm, historyRealm.where(PumpHistoryCGM.class)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        RealmResults<PumpHistoryCGM> sgvResults = historyRealm.where(PumpHistoryCGM.class)
+                .notEqualTo("sgv", 0)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(2)
+                .findAll();
+        sgv = copy(historyRealm, sgvResults.size() > 0 ? sgvResults.get(0) : null);
+        sgvPrevious = copy(historyRealm, sgvResults.size() > 1 ? sgvResults.get(1) : null);
+
+        suspend = copy(historyRealm, historyRealm.where(PumpHistoryBasal.class)
+                .greaterThan("eventDate", new Date(timestamp - SUSPEND_PERIOD_MS))
+                .beginGroup()
+                .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.SUSPEND.value())
+                .or()
+                .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.RESUME.value())
+                .endGroup()
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        bolus = copy(historyRealm, historyRealm.where(PumpHistoryBolus.class)
+                .equalTo("programmed", true)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        bg = copy(historyRealm, historyRealm.where(PumpHistoryBG.class)
+                .notEqualTo("bg", 0)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        calibrationFlag = copy(historyRealm, historyRealm.where(PumpHistoryBG.class)
+                .equalTo("calibrationFlag", true)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        calibration = copy(historyRealm, historyRealm.where(PumpHistoryBG.class)
+                .equalTo("calibration", true)
+                .sort("eventDate", Sort.DESCENDING)
+                .limit(1)
+                .findAll());
+
+        batteryChange = misc(historyRealm, PumpHistoryMisc.RECORDTYPE.CHANGE_BATTERY);
+        cannulaChange = misc(historyRealm, PumpHistoryMisc.RECORDTYPE.CHANGE_CANNULA);
+        sensorChange = misc(historyRealm, PumpHistoryMisc.RECORDTYPE.CHANGE_SENSOR);
+    }
+
+    private static <E extends RealmObject> E copy(Realm realm, E record) {
+        return record == null ? null : realm.copyFromRealm(record);
+    }
+
+    private static <E extends RealmObject> E copy(Realm realm, RealmResults<E> results) {
+        return results.size() > 0 ? realm.copyFromRealm(results.first()) : null;
+    }
+
+    private static long misc(Realm historyRealm, PumpHistoryMisc.RECORDTYPE recordtype) {
+        Date date = historyRealm.where(PumpHistoryMisc.class)
+                .equalTo("recordtype", recordtype.value())
+                .maximumDate("eventDate");
+        return date == null ? 0 : date.getTime();
+    }
+
+    // current snapshot, may be null if none has been built yet
+    public static StatusSnapshot get() {
+        return current;
+    }
+
+    // snapshot data has changed, the next consumer rebuilds it
+    public static void invalidate() {
+        invalid = true;
+    }
+
+    // snapshot data has changed, rebuild in the background and notify listeners
+    // concurrent refreshes are serialised by acquire() and only the first one rebuilds
+    public static void refresh() {
+        invalid = true;
+        new Thread() {
+            public void run() {
+                try {
+                    acquire();
+                } catch (Exception e) {
+                    Log.e(TAG, "snapshot refresh failed", e);
+                }
+            }
+        }.start();
+    }
+
+    // current snapshot, rebuilt when invalidated or too old
+    // the first consumer after a poll builds it and others share the result
+    public static synchronized StatusSnapshot acquire() {
+        long now = System.currentTimeMillis();
+        StatusSnapshot snapshot = current;
+
+        if (snapshot == null || invalid
+                || now - snapshot.timestamp > MAX_AGE_MS
+                || now < snapshot.timestamp) {
+
+            invalid = false;
+
+            Realm realm = Realm.getDefaultInstance();
+            Realm historyRealm = Realm.getInstance(UploaderApplication.getHistoryConfiguration());
+            try {
+                snapshot = new StatusSnapshot(realm, historyRealm, now);
+            } finally {
+                historyRealm.close();
+                realm.close();
+            }
+
+            current = snapshot;
+            Log.d(TAG, String.format("snapshot built in %sms", System.currentTimeMillis() - now));
+
+            for (Listener listener : listeners) {
+                listener.onSnapshot(snapshot);
+            }
+        }
+
+        return snapshot;
+    }
+
+    // listeners are called on the thread that built the snapshot
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    // most recent pump status within the last 24 hours
+    public PumpStatusEvent getPumpStatus() {
+        return pumpStatus;
+    }
+
+    // most recent pump status with cgm active within the last 24 hours
+    public PumpStatusEvent getCgmStatus() {
+        return cgmStatus;
+    }
+
+    // history record for the current pump alert if available
+    public PumpHistoryAlarm getAlarm() {
+        return alarm;
+    }
+
+    // most recent cgm record including records without a sgv
+    public PumpHistoryCGM getCgm() {
+        return cgm;
+    }
+
+    public PumpHistoryCGM getSgv() {
+        return sgv;
+    }
+
+    public PumpHistoryCGM getSgvPrevious() {
+        return sgvPrevious;
+    }
+
+    // most recent suspend or resume within the last 12 hours
+    public PumpHistoryBasal getSuspend() {
+        return suspend;
+    }
+
+    // most recent programmed bolus
+    public PumpHistoryBolus getBolus() {
+        return bolus;
+    }
+
+    public PumpHistoryBG getBg() {
+        return bg;
+    }
+
+    public PumpHistoryBG getCalibrationFlag() {
+        return calibrationFlag;
+    }
+
+    public PumpHistoryBG getCalibration() {
+        return calibration;
+    }
+
+    // change times are 0 when not in history
+    public long getBatteryChange() {
+        return batteryChange;
+    }
+
+    public long getCannulaChange() {
+        return cannulaChange;
+    }
+
+    public long getSensorChange() {
+        return sensorChange;
+    }
+}
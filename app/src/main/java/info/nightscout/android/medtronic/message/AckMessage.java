@@ -3,7 +3,7 @@ package info.nightscout.android.medtronic.message;
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
@@ -20,7 +20,7 @@ public class AckMessage extends MedtronicSendMessageRequestMessage {
         super(MessageType.ACK_COMMAND, pumpSession, payload);
     }
 
-    public AckMessage send(UsbHidDriver mDevice) throws IOException, TimeoutException, UnexpectedMessageException {
+    public AckMessage send(CnlTransport mDevice) throws IOException, TimeoutException, UnexpectedMessageException {
         sendToPump(mDevice,300, TAG);
 
         return null;
@@ -5,7 +5,7 @@ import android.util.Log;
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
@@ -24,7 +24,7 @@ public class CloseConnectionRequestMessage extends ContourNextLinkBinaryRequestM
     }
 
     @Override
-    public CloseConnectionResponseMessage send(UsbHidDriver mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
+    public CloseConnectionResponseMessage send(CnlTransport mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
 
 //        clearMessage(mDevice, CLEAR_TIMEOUT_MS);
         clearMessage(mDevice, PRESEND_CLEAR_TIMEOUT_MS);
@@ -5,7 +5,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Locale;
 
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 
@@ -41,7 +41,7 @@ public abstract class ContourNextLinkBinaryRequestMessage<T> extends ContourNext
      * @param mDevice
      * @throws IOException
      */
-    protected void sendMessage(UsbHidDriver mDevice) throws IOException {
+    protected void sendMessage(CnlTransport mDevice) throws IOException {
         super.sendMessage(mDevice);
         mPumpSession.incrCnlSequenceNumber();
     }
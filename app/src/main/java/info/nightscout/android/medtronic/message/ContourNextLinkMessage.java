@@ -2,18 +2,13 @@ package info.nightscout.android.medtronic.message;
 
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.TimeoutException;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
-import info.nightscout.android.BuildConfig;
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.UsbFrameBuffer;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
@@ -36,17 +31,18 @@ public abstract class ContourNextLinkMessage {
     public static final int READ_TIMEOUT_MS = 25000;
     public static final int CNL_READ_TIMEOUT_MS = 2000;
 
-    private static final int MULTIPACKET_TIMEOUT_MS = 1000; // minimum timeout
-    private static final int MULTIPACKET_SEGMENT_MS = 50; // time allowance per segment
+    private static final int MULTIPACKET_TIMEOUT_MS = 1000; // first segment after a resend request
     private static final int MULTIPACKET_SEGMENT_RETRY = 10;
 
-    private static final int USB_BLOCKSIZE = 64;
+    private static final int USB_BLOCKSIZE = UsbFrameBuffer.PACKET_SIZE;
     private static final String USB_HEADER = "ABC";
 
     private static final boolean DEBUG_READ = false; //BuildConfig.DEBUG;
     private static final boolean DEBUG_READ_MS = false; //BuildConfig.DEBUG;
     private static final boolean DEBUG_WRITE = false; //BuildConfig.DEBUG;
     private static final boolean DEBUG_WRITE_MS = false; //BuildConfig.DEBUG;
+    private static final boolean DEBUG_PAYLOAD = false; //BuildConfig.DEBUG;
+    private static final boolean DEBUG_CCITT = false; //BuildConfig.DEBUG;
 
     protected ByteBuffer mPayload;
 
@@ -194,30 +190,29 @@ public abstract class ContourNextLinkMessage {
         }
     }
 
-    protected void sendMessage(UsbHidDriver mDevice) throws IOException {
+    protected void sendMessage(CnlTransport mDevice) throws IOException {
         long runtime = System.currentTimeMillis();
         long timer;
         String info = "";
 
+        UsbFrameBuffer frameBuffer = mDevice.getFrameBuffer();
+        byte[] packet = frameBuffer.getWritePacket();
+
         int pos = 0;
         byte[] message = this.encode();
 
         while (message.length > pos) {
-            ByteBuffer outputBuffer = ByteBuffer.allocate(USB_BLOCKSIZE);
-            int sendLength = (pos + 60 > message.length) ? message.length - pos : 60;
-            outputBuffer.put(USB_HEADER.getBytes());
-            outputBuffer.put((byte) sendLength);
-            outputBuffer.put(message, pos, sendLength);
+            int sendLength = frameBuffer.frame(message, pos);
 
             if (DEBUG_WRITE_MS) {
                 timer = System.currentTimeMillis();
-                mDevice.write(outputBuffer.array(), 10000);
+                mDevice.write(packet, 10000);
                 timer = System.currentTimeMillis() - timer;
                 info = String.format("%s [%sms %s %s %s]", info, timer, USB_BLOCKSIZE, USB_HEADER, sendLength);
             } else {
-                mDevice.write(outputBuffer.array(), 10000);
+                mDevice.write(packet, 10000);
             }
-            if (DEBUG_WRITE) Log.d(TAG, "WRITE: packet:" + HexDump.dumpHexString(outputBuffer.array()));
+            if (DEBUG_WRITE) Log.d(TAG, "WRITE: packet:" + HexDump.dumpHexString(packet));
 
             pos += sendLength;
         }
@@ -227,24 +222,25 @@ public abstract class ContourNextLinkMessage {
         else Log.w(TAG, String.format("WRITE: runtime > 100ms [%sms]%s", runtime, info));
     }
 
-    protected byte[] readMessage(UsbHidDriver mDevice) throws IOException, TimeoutException {
+    protected byte[] readMessage(CnlTransport mDevice) throws IOException, TimeoutException {
         return readMessage(mDevice, READ_TIMEOUT_MS);
     }
 
-    protected byte[] readMessage(UsbHidDriver mDevice, int timeout) throws IOException, TimeoutException {
+    protected byte[] readMessage(CnlTransport mDevice, int timeout) throws IOException, TimeoutException {
         long runtime = System.currentTimeMillis();
         long timer;
         String info = "";
 
-        ByteArrayOutputStream responseMessage = new ByteArrayOutputStream();
-        byte[] responseBuffer = new byte[USB_BLOCKSIZE];
+        UsbFrameBuffer frameBuffer = mDevice.getFrameBuffer();
+        byte[] responseBuffer = frameBuffer.getReadPacket();
+        frameBuffer.clearMessage();
         int bytesRead;
         int messageSize = 0;
         int expectedSize = 0;
 
         do {
             timer = System.currentTimeMillis();
-            if (responseMessage.size() == 0)
+            if (frameBuffer.getMessageSize() == 0)
                 // initial read using the specified timeout
                 bytesRead = mDevice.read(responseBuffer, timeout);
             else
@@ -255,17 +251,14 @@ public abstract class ContourNextLinkMessage {
             if (bytesRead > 0) {
 
                 // Validate the header
-                ByteBuffer header = ByteBuffer.allocate(3);
-                header.put(responseBuffer, 0, 3);
-                String headerString = new String(header.array());
-                if (!headerString.equals(USB_HEADER))
+                if (!frameBuffer.isValidHeader())
                     throw new IOException("Unexpected header received" + HexDump.dumpHexString(responseBuffer));
 
-                messageSize = responseBuffer[3];
-                responseMessage.write(responseBuffer, 4, messageSize);
+                messageSize = frameBuffer.getPacketPayloadSize();
+                frameBuffer.append(messageSize);
 
                 if (DEBUG_READ_MS)
-                    info = String.format("%s [%sms %s %s %s]", info, timer, bytesRead, headerString, messageSize);
+                    info = String.format("%s [%sms %s %s %s]", info, timer, bytesRead, USB_HEADER, messageSize);
 
                 // get the expected size for 0x80 or 0x81 messages as they may be on a block boundary
                 if (expectedSize == 0 && messageSize >= 0x21
@@ -278,7 +271,7 @@ public abstract class ContourNextLinkMessage {
                 throw new IOException("readMessage: got a zero-sized response");
             }
 
-        } while (bytesRead > 0 && messageSize == 60 && responseMessage.size() != expectedSize);
+        } while (bytesRead > 0 && messageSize == 60 && frameBuffer.getMessageSize() != expectedSize);
 
         runtime = System.currentTimeMillis() - runtime;
         info = String.format(" [%sms/%sms]%s", runtime, timeout, info);
@@ -290,21 +283,23 @@ public abstract class ContourNextLinkMessage {
         }
 
         // a 'response divisible by 60' is in general a valid response on a block boundary, noted in log as it may also be due to a usb read error
-        if (responseMessage.size() % 60 == 0)
-            Log.w(TAG, String.format("READ: response divisible by 60, response size: %s expected size: %s%s", responseMessage.size(), expectedSize, info));
+        if (frameBuffer.getMessageSize() % 60 == 0)
+            Log.w(TAG, String.format("READ: response divisible by 60, response size: %s expected size: %s%s", frameBuffer.getMessageSize(), expectedSize, info));
 
         if (runtime > 10000)
             Log.w(TAG, "READ: runtime > 10000ms" + info);
 
+        byte[] responseMessage = frameBuffer.toByteArray();
+
         if (DEBUG_READ)
-            Log.d(TAG, "READ:" + info + HexDump.dumpHexString(responseMessage.toByteArray()));
+            Log.d(TAG, "READ:" + info + HexDump.dumpHexString(responseMessage));
         else
             Log.d(TAG, "READ:" + info);
 
-        return responseMessage.toByteArray();
+        return responseMessage;
     }
 
-    protected byte[] readResponse0x80(UsbHidDriver mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
+    protected byte[] readResponse0x80(CnlTransport mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
 
         byte[] payload = readMessage(mDevice, timeout);
 
@@ -387,7 +382,7 @@ public abstract class ContourNextLinkMessage {
         return payload;
     }
 
-    protected byte[] readResponse0x81(UsbHidDriver mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
+    protected byte[] readResponse0x81(CnlTransport mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
         byte[] payload;
 
         try {
@@ -464,7 +459,7 @@ public abstract class ContourNextLinkMessage {
     // consistently stable even with a small timeout, clears multiple messages with very rare miss
     // which will get caught using the post-clear method as fail-safe
 
-    protected int clearMessage(UsbHidDriver mDevice, int timeout) throws IOException {
+    protected int clearMessage(CnlTransport mDevice, int timeout) throws IOException {
         Log.d(TAG, "CLEAR: [" + timeout + "ms]");
         int count = 0;
         boolean cleared = false;
@@ -513,17 +508,17 @@ public abstract class ContourNextLinkMessage {
         return count;
     }
 
-    protected byte[] sendToPump(UsbHidDriver mDevice, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
+    protected byte[] sendToPump(CnlTransport mDevice, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
         return sendToPump(mDevice, PRESEND_CLEAR_TIMEOUT_MS, tag);
     }
 
-    protected byte[] sendToPump(UsbHidDriver mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
+    protected byte[] sendToPump(CnlTransport mDevice, int timeout, String tag) throws IOException, TimeoutException, UnexpectedMessageException {
         clearMessage(mDevice, timeout);
         sendMessage(mDevice);
         return readResponse0x81(mDevice, READ_TIMEOUT_MS, tag);
     }
 
-    protected byte[] readFromPump(UsbHidDriver mDevice, MedtronicCnlSession pumpSession, String tag) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
+    protected byte[] readFromPump(CnlTransport mDevice, MedtronicCnlSession pumpSession, String tag) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
         MultipacketSession multipacketSession = null;
         byte[] tupple;
         byte[] payload = null;
@@ -531,8 +526,13 @@ public abstract class ContourNextLinkMessage {
 
         int retry = 0;
         int expectedSegments = 0;
+        int streamEnd = 0;
+        boolean streaming = false;
+        boolean stalled = false;
         long timeout;
 
+        MultipacketScheduler scheduler = pumpSession.getMultipacketScheduler();
+
         short cmd;
 
         boolean fetchMoreData = true;
@@ -541,32 +541,50 @@ public abstract class ContourNextLinkMessage {
 
             if (multipacketSession != null && !multipacketSession.payloadComplete()) {
 
+                boolean received;
+
                 do {
 
                     if (expectedSegments < 1) {
                         tupple = multipacketSession.missingSegments();
                         new MultipacketResendPacketsMessage(pumpSession, tupple).send(mDevice);
                         expectedSegments = read16BEtoUInt(tupple, 0x02);
+                        streamEnd = read16BEtoUInt(tupple, 0x00) + expectedSegments - 1;
+                        scheduler.resend(expectedSegments);
+                        streaming = false;
                     }
 
                     try {
-                        // timeout adjusted for efficiency and to allow for large gaps of missing segments as the pump will keep sending until done
                         if (multipacketSession.segmentsFilled == 0)
                             // pump may have missed the initial ack, we need to wait the max timeout period
                             timeout = READ_TIMEOUT_MS;
-                        else {
-                            timeout = MULTIPACKET_SEGMENT_MS * expectedSegments;
-                            if (timeout < MULTIPACKET_TIMEOUT_MS)
-                                timeout = MULTIPACKET_TIMEOUT_MS;
-                        }
+                        else if (!streaming)
+                            // first segment of a resend follows the pump response time
+                            timeout = MULTIPACKET_TIMEOUT_MS;
+                        else if (stalled)
+                            // stream stalled before its end, allow for all remaining segments
+                            timeout = scheduler.segmentTimeout(expectedSegments);
+                        else
+                            // stream is running, allow for the segment gap learnt for this link
+                            timeout = scheduler.gapTimeout(pumpSession.getRadioRSSIpercentage(), expectedSegments);
                         payload = readResponse0x80(mDevice, (int) timeout, tag);
+                        received = true;
                         retry = 0;
 
                     } catch (TimeoutException e) {
+                        received = false;
+                        scheduler.timeout();
                         if (multipacketSession.segmentsFilled == 0) {
                             Log.e(TAG, "*** Multisession timeout: failed no segments filled");
                             clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
                             throw new TimeoutException(String.format("Multisession timeout: failed, no segments filled (%s)", tag));
+                        }
+
+                        if (streaming && !stalled && multipacketSession.lastSegment < streamEnd) {
+                            // tail of the stream may still be in flight, a resend now would drop it
+                            // wait for the remaining segments before counting a retry or giving up on the transfer
+                            Log.w(TAG, String.format("*** Multisession stalled: count: %s/%s expecting: %s retry: %s", multipacketSession.segmentsFilled, multipacketSession.packetsToFetch, expectedSegments, retry));
+                            stalled = true;
                         } else if ((multipacketSession.segmentsFilled * 100) / multipacketSession.packetsToFetch < 20) {
                             clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
                             throw new TimeoutException(String.format("Multisession timeout: failed, missed packets > 80%% (%s)", tag));
@@ -574,13 +592,14 @@ public abstract class ContourNextLinkMessage {
                             Log.e(TAG, "*** Multisession timeout: retry failed");
                             clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
                             throw new TimeoutException(String.format("Multisession timeout, retry failed (%s)", tag));
+                        } else {
+                            Log.w(TAG, String.format("*** Multisession timeout: count: %s/%s expecting: %s retry: %s", multipacketSession.segmentsFilled, multipacketSession.packetsToFetch, expectedSegments, retry));
+                            stalled = false;
+                            expectedSegments = 0;
                         }
-
-                        Log.w(TAG, String.format("*** Multisession timeout: count: %s/%s expecting: %s retry: %s", multipacketSession.segmentsFilled, multipacketSession.packetsToFetch, expectedSegments, retry));
-                        expectedSegments = 0;
                     }
 
-                } while (retry > 0);
+                } while (!received);
 
             } else {
                 try {
@@ -616,6 +635,19 @@ public abstract class ContourNextLinkMessage {
                 cmd = read16BEtoShort(decrypted, NGP_RESPONSE_COMMAND);
                 Log.d(TAG, String.format("*** RESPONSE: %s (%04X)", MedtronicSendMessageRequestMessage.MessageType.convert(cmd).name(), cmd));
 
+                // reports the inner CCITT of each response type, a type must be confirmed before the crc can be enforced
+                if (DEBUG_CCITT)
+                    Log.d(TAG, String.format("*** CCITT %s: %s", MedtronicSendMessageRequestMessage.MessageType.convert(cmd).name(), checkCCITT(decrypted) ? "match" : "mismatch"));
+
+                // a cached link key that no longer matches the pump decrypts to garbage, confirm it by the response type
+                if (pumpSession.isLinkKeyCached()) {
+                    if (!isExpectedResponse(MedtronicSendMessageRequestMessage.MessageType.convert(cmd))) {
+                        clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
+                        throw new EncryptionException(String.format("cached link key could not decrypt the pump response (%s)", tag));
+                    }
+                    pumpSession.setLinkKeyCached(false);
+                }
+
                 switch (MedtronicSendMessageRequestMessage.MessageType.convert(cmd)) {
 
                     // DEVICE_IS_IN_WRONG_STATE(0x0F) NAK can be sent when we issue a cmd while the pump is expecting something else ie is still in history sending mode
@@ -644,6 +676,9 @@ public abstract class ContourNextLinkMessage {
                         }
                         new AckMessage(pumpSession, MedtronicSendMessageRequestMessage.MessageType.INITIATE_MULTIPACKET_TRANSFER.response()).send(mDevice);
                         expectedSegments = multipacketSession.packetsToFetch;
+                        streamEnd = multipacketSession.lastPacketNumber();
+                        streaming = false;
+                        scheduler.start();
                         break;
 
                     case MULTIPACKET_SEGMENT_TRANSMISSION:
@@ -656,9 +691,11 @@ public abstract class ContourNextLinkMessage {
                             Log.d(TAG, "*** Multisession Complete - packet not needed");
                         } else {
                             try {
-                                if (multipacketSession.addSegment(decrypted)) {
-                                    expectedSegments--;
-                                }
+                                boolean added = multipacketSession.addSegment(decrypted);
+                                if (added) expectedSegments--;
+                                scheduler.segment(added);
+                                streaming = true;
+                                stalled = false;
                             } catch (UnexpectedMessageException e) {
                                 clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
                                 throw e;
@@ -668,7 +705,12 @@ public abstract class ContourNextLinkMessage {
                             }
                             if (multipacketSession.payloadComplete()) {
                                 Log.d(TAG, "*** Multisession Complete");
+                                scheduler.complete();
                                 new AckMessage(pumpSession, MedtronicSendMessageRequestMessage.MessageType.MULTIPACKET_SEGMENT_TRANSMISSION.response()).send(mDevice);
+                            } else if (expectedSegments > 0 && multipacketSession.lastSegment >= streamEnd) {
+                                // end of the stream has arrived with gaps, request the missing segments now instead of waiting for a timeout
+                                Log.d(TAG, String.format("*** Multisession stream ended, missing: %s", expectedSegments));
+                                expectedSegments = 0;
                             }
                         }
                         break;
@@ -681,43 +723,43 @@ public abstract class ContourNextLinkMessage {
                         break;
 
                     case READ_PUMP_TIME:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_PUMP_TIME PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_PUMP_STATUS:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_PUMP_STATUS PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_HISTORY_INFO:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_HISTORY_INFO PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_BASAL_PATTERN:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_BASAL_PATTERN PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_BOLUS_WIZARD_BG_TARGETS:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_BOLUS_WIZARD_BG_TARGETS PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_BOLUS_WIZARD_CARB_RATIOS:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_BOLUS_WIZARD_CARB_RATIOS PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
 
                     case READ_BOLUS_WIZARD_SENSITIVITY_FACTORS:
-                        if (BuildConfig.DEBUG)
+                        if (DEBUG_PAYLOAD)
                             Log.d(TAG, "*** READ_BOLUS_WIZARD_SENSITIVITY_FACTORS PAYLOAD:" + HexDump.dumpHexString(decrypted));
                         fetchMoreData = false;
                         break;
@@ -746,6 +788,7 @@ public abstract class ContourNextLinkMessage {
         private int lastPacketSize;
         private int packetsToFetch;
         private int segmentsFilled;
+        private int lastSegment;
         private boolean[] segments;
         private byte[] response;
 
@@ -771,6 +814,7 @@ public abstract class ContourNextLinkMessage {
         private boolean addSegment(byte[] data) throws UnexpectedMessageException {
             int packetNumber = read16BEtoUInt(data, 0x0003);
             int packetSize = data.length - 7;
+            lastSegment = packetNumber;
 
             if (segments[packetNumber]) {
                 Log.w(TAG, String.format("*** Got a Repeated Multipacket Segment: %s of %s, count: %s [packetSize=%s %s/%s]", packetNumber + 1, packetsToFetch, segmentsFilled, packetSize, this.packetSize, this.lastPacketSize));
@@ -846,9 +890,14 @@ public abstract class ContourNextLinkMessage {
     public static final int NGP_RESPONSE_PAYLOAD = 0x0003; // data
     public static final int NGP_RESPONSE_CRC = -0x0002; // UInt16BE
 
+    // response types that can answer this request, used to confirm a cached link key at the first pump response
+    protected boolean isExpectedResponse(MedtronicSendMessageRequestMessage.MessageType messageType) {
+        return messageType != MedtronicSendMessageRequestMessage.MessageType.NO_TYPE;
+    }
+
     // returns the dycrypted response payload only
     protected byte[] decode(MedtronicCnlSession pumpSession, byte[] payload) throws EncryptionException, ChecksumException {
-        // TODO - Validate the message, inner CCITT, serial numbers, etc
+        // TODO - Validate the message, inner CCITT (not confirmed for any response type, see DEBUG_CCITT), serial numbers, etc
 
         if (CommandType.READ_INFO.equals(payload[MM_COMMAND])
                 || CommandType.REQUEST_LINK_KEY_RESPONSE.equals(payload[MM_COMMAND])) {
@@ -867,8 +916,7 @@ public abstract class ContourNextLinkMessage {
             throw new EncryptionException( "Could not decrypt Medtronic Message (encryptedPayloadSize out of range)" );
         }
 
-        byte[] decryptedPayload = decrypt(pumpSession.getKey(), pumpSession.getIV(),
-                Arrays.copyOfRange(payload, offset, offset + encryptedPayloadSize));
+        byte[] decryptedPayload = pumpSession.getCipher().decrypt(payload, offset, encryptedPayloadSize);
 
         if (decryptedPayload == null) {
             throw new EncryptionException( "Could not decrypt Medtronic Message (decryptedPayload == null)" );
@@ -877,23 +925,12 @@ public abstract class ContourNextLinkMessage {
         return decryptedPayload;
     }
 
-    private SecretKeySpec secretKeySpec;
-    private IvParameterSpec ivSpec;
-
-    protected byte[] decrypt(byte[] key, byte[] iv, byte[] encrypted) throws EncryptionException {
-        if (secretKeySpec == null) secretKeySpec = new SecretKeySpec(key, "AES");
-        if (ivSpec == null) ivSpec = new IvParameterSpec(iv);
-
-        byte[] decrypted;
-
-        try {
-            Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivSpec);
-            decrypted = cipher.doFinal(encrypted);
-        } catch (Exception e ) {
-            throw new EncryptionException( "Could not decrypt Medtronic Message" );
-        }
-        return decrypted;
+    // inner CCITT of a decrypted payload
+    // only reported with DEBUG_CCITT as the trailing crc has not been confirmed for the response types
+    protected static boolean checkCCITT(byte[] decryptedPayload) {
+        if (decryptedPayload.length < NGP_RESPONSE_PAYLOAD - NGP_RESPONSE_CRC) return false;
+        int length = decryptedPayload.length + NGP_RESPONSE_CRC;
+        return read16BEtoUInt(decryptedPayload, length) == Crc16Ccitt.compute(decryptedPayload, 0, length);
     }
 
 }
@@ -6,7 +6,7 @@ import android.util.Log;
 import java.io.IOException;
 import java.util.concurrent.TimeoutException;
 
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
 import info.nightscout.android.medtronic.exception.UnexpectedMessageException;
@@ -22,16 +22,16 @@ public abstract class ContourNextLinkRequestMessage<T> extends ContourNextLinkMe
         super(bytes);
     }
 
-    public T sendNoResponse(UsbHidDriver mDevice) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
+    public T sendNoResponse(CnlTransport mDevice) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
         sendMessage(mDevice);
         return null;
     }
 
-    public T send(UsbHidDriver mDevice) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
+    public T send(CnlTransport mDevice) throws IOException, TimeoutException, EncryptionException, ChecksumException, UnexpectedMessageException {
         return send(mDevice, 0);
     }
 
-    public T send(UsbHidDriver mDevice, int millis) throws UnexpectedMessageException, EncryptionException, TimeoutException, ChecksumException, IOException {
+    public T send(CnlTransport mDevice, int millis) throws UnexpectedMessageException, EncryptionException, TimeoutException, ChecksumException, IOException {
 
         sendMessage(mDevice);
         if (millis > 0) {
@@ -46,7 +46,7 @@ public abstract class ContourNextLinkRequestMessage<T> extends ContourNextLinkMe
         return this.getResponse(readMessage(mDevice));
     }
 
-    public T send(UsbHidDriver mDevice, int millis, int timeout) throws UnexpectedMessageException, EncryptionException, TimeoutException, ChecksumException, IOException {
+    public T send(CnlTransport mDevice, int millis, int timeout) throws UnexpectedMessageException, EncryptionException, TimeoutException, ChecksumException, IOException {
 
         sendMessage(mDevice);
         if (millis > 0) {
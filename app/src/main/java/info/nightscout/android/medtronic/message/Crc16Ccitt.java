@@ -0,0 +1,72 @@
+package info.nightscout.android.medtronic.message;
+
+/**
+ * Table driven CRC16-CCITT (polynomial 0x1021, MSB first).
+ *
+ * Can be used as a one shot checksum or fed incrementally:
+ * <pre>
+ *     Crc16Ccitt crc = new Crc16Ccitt();
+ *     crc.update(block, 0, 1024);
+ *     crc.update(block, 1024, 1024);
+ *     int value = crc.getValue();
+ * </pre>
+ */
+public class Crc16Ccitt {
+    public static final int POLYNOMIAL = 0x1021;
+    public static final int INITIAL_VALUE = 0xFFFF;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private final int initialValue;
+    private int crc;
+
+    public Crc16Ccitt() {
+        this(INITIAL_VALUE);
+    }
+
+    public Crc16Ccitt(int initialValue) {
+        this.initialValue = initialValue & 0xFFFF;
+        this.crc = this.initialValue;
+    }
+
+    public Crc16Ccitt update(byte[] data, int offset, int length) {
+        crc = update(crc, data, offset, length);
+        return this;
+    }
+
+    public Crc16Ccitt update(byte b) {
+        crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ b) & 0xFF]) & 0xFFFF;
+        return this;
+    }
+
+    public int getValue() {
+        return crc;
+    }
+
+    public void reset() {
+        crc = initialValue;
+    }
+
+    public static int compute(byte[] data, int offset, int length) {
+        return update(INITIAL_VALUE, data, offset, length);
+    }
+
+    public static int update(int crc, byte[] data, int offset, int length) {
+        crc &= 0xFFFF;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
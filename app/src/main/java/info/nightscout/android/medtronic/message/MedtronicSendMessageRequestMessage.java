@@ -66,8 +66,20 @@ public abstract class MedtronicSendMessageRequestMessage<T>  extends MedtronicRe
         }
     }
 
+    private final MessageType messageType;
+
     protected MedtronicSendMessageRequestMessage(MessageType messageType, MedtronicCnlSession pumpSession, byte[] payload) throws EncryptionException, ChecksumException {
         super(CommandType.SEND_MESSAGE, CommandAction.TRANSMIT_PACKET, pumpSession, buildPayload(messageType, pumpSession, payload));
+        this.messageType = messageType;
+    }
+
+    // the pump answers with the response for the request type, a NAK, or for bulk data an EHSM request or multipacket transfer
+    @Override
+    protected boolean isExpectedResponse(MessageType messageType) {
+        return messageType == this.messageType
+                || messageType == MessageType.NAK_COMMAND
+                || messageType == MessageType.EHSM_SESSION
+                || messageType == MessageType.INITIATE_MULTIPACKET_TRANSFER;
     }
 
     @Override
@@ -128,7 +140,7 @@ public abstract class MedtronicSendMessageRequestMessage<T>  extends MedtronicRe
         String outputString = HexDump.dumpHexString(sendPayloadBuffer.array());
         Log.d(TAG, String.format("*** REQUEST: %s (%04X) PAYLOAD: %s", messageType.name(), messageType.request, outputString));
 
-        payloadBuffer.put(encrypt( pumpSession.getKey(), pumpSession.getIV(), sendPayloadBuffer.array()));
+        payloadBuffer.put(pumpSession.getCipher().encrypt(sendPayloadBuffer.array()));
 
         return payloadBuffer.array();
     }
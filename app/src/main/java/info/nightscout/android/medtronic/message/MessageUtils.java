@@ -23,6 +23,9 @@ public class MessageUtils {
     }
 
     public static int CRC16CCITT(byte[] data, int offset, int initialValue, int polynomial, int bytesToCheck) {
+        if (polynomial == Crc16Ccitt.POLYNOMIAL)
+            return Crc16Ccitt.update(initialValue, data, offset, bytesToCheck);
+
         // From http://introcs.cs.princeton.edu/java/61data/CRC16CCITT.java
         int crc = initialValue;
         for (int c = 0; c < bytesToCheck; c++) {
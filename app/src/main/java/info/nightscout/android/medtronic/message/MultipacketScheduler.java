@@ -0,0 +1,151 @@
+package info.nightscout.android.medtronic.message;
+
+import android.util.Log;
+
+/**
+ * Segment timing for multipacket transfers, one instance per pump session.
+ *
+ * The pump streams segments back to back, the gap between segments depends on the radio link.
+ * Gaps are smoothed as for a tcp retransmit timer (mean + 4 * mean deviation) and the result is
+ * used as the read timeout while a stream is running. The first segment after a request is not
+ * sampled as it includes the pump response time. A weak link raises the minimum timeout as the
+ * pump radio retries are slower there. A new session has no samples, until enough gaps have been
+ * seen the timeout stays at the per segment allowance used before the gap was learnt.
+ *
+ * Counters and a gap histogram are kept for StatCnl.
+ */
+public class MultipacketScheduler {
+    private static final String TAG = MultipacketScheduler.class.getSimpleName();
+
+    // gap histogram bucket upper bounds, the last bucket is open ended
+    public static final int[] GAP_BUCKETS_MS = {10, 20, 50, 100, 250};
+
+    private static final int GAP_INITIAL_MS = 50;
+    private static final int GAP_SAMPLES_MIN = 16;
+    private static final int SEGMENT_TIMEOUT_MS = 50; // time allowance per remaining segment
+    private static final int SEGMENT_TIMEOUT_MIN_MS = 1000;
+    private static final int GAP_TIMEOUT_MIN_MS = 250;
+    private static final int GAP_TIMEOUT_WEAK_MIN_MS = 500;
+    private static final int GAP_TIMEOUT_MAX_MS = 2000;
+    private static final int RSSI_WEAK = 20;
+
+    private double gap = -1;
+    private double deviation;
+    private int samples;
+    private long lastArrival;
+    private long resendStart;
+
+    private int transfers;
+    private int segments;
+    private int repeated;
+    private int resends;
+    private int resendSegments;
+    private long resendMS;
+    private int timeouts;
+    private final int[] gaps = new int[GAP_BUCKETS_MS.length + 1];
+
+    // a transfer was initiated, the next segment follows the pump response to our ack
+    public void start() {
+        transfers++;
+        lastArrival = 0;
+        resendStart = 0;
+    }
+
+    public void segment(boolean added) {
+        long now = System.currentTimeMillis();
+        if (added) segments++;
+        else repeated++;
+
+        if (lastArrival > 0) {
+            long sample = now - lastArrival;
+            samples++;
+
+            if (gap < 0) {
+                gap = sample;
+                deviation = sample / 2.0;
+            } else {
+                deviation = 0.75 * deviation + 0.25 * Math.abs(sample - gap);
+                gap = 0.875 * gap + 0.125 * sample;
+            }
+
+            int bucket = 0;
+            while (bucket < GAP_BUCKETS_MS.length && sample >= GAP_BUCKETS_MS[bucket]) bucket++;
+            gaps[bucket]++;
+        }
+
+        lastArrival = now;
+    }
+
+    // missing segments were requested, the next segment follows the pump response
+    public void resend(int count) {
+        long now = System.currentTimeMillis();
+        resends++;
+        resendSegments += count;
+        if (resendStart == 0) resendStart = now;
+        lastArrival = 0;
+    }
+
+    public void timeout() {
+        timeouts++;
+        lastArrival = 0;
+    }
+
+    public void complete() {
+        if (resendStart > 0) {
+            resendMS += System.currentTimeMillis() - resendStart;
+            resendStart = 0;
+        }
+        Log.d(TAG, String.format("segment gap: %.1fms deviation: %.1fms", gap, deviation));
+    }
+
+    // read timeout for the next segment of a running stream
+    public int gapTimeout(int rssiPercentage, int remainingSegments) {
+        if (samples < GAP_SAMPLES_MIN) return segmentTimeout(remainingSegments);
+
+        double estimate = gap < 0 ? GAP_INITIAL_MS : gap;
+        long timeout = Math.round(estimate + 4 * deviation);
+
+        int min = rssiPercentage < RSSI_WEAK ? GAP_TIMEOUT_WEAK_MIN_MS : GAP_TIMEOUT_MIN_MS;
+        if (timeout < min) timeout = min;
+        else if (timeout > GAP_TIMEOUT_MAX_MS) timeout = GAP_TIMEOUT_MAX_MS;
+
+        return (int) timeout;
+    }
+
+    // read timeout allowing for all remaining segments of a stream
+    public int segmentTimeout(int remainingSegments) {
+        return Math.max(SEGMENT_TIMEOUT_MS * remainingSegments, SEGMENT_TIMEOUT_MIN_MS);
+    }
+
+    public int getTransfers() {
+        return transfers;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public int getRepeated() {
+        return repeated;
+    }
+
+    public int getResends() {
+        return resends;
+    }
+
+    public int getResendSegments() {
+        return resendSegments;
+    }
+
+    public long getResendMS() {
+        return resendMS;
+    }
+
+    public int getTimeouts() {
+        return timeouts;
+    }
+
+    public int[] getGaps() {
+        return gaps;
+    }
+}
@@ -14,7 +14,7 @@ public class OpenConnectionRequestMessage extends ContourNextLinkBinaryRequestMe
     }
 /*
     @Override
-    public OpenConnectionResponseMessage send(UsbHidDriver mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
+    public OpenConnectionResponseMessage send(CnlTransport mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
 
         // clear unexpected incoming messages
         clearMessage(mDevice, 100);
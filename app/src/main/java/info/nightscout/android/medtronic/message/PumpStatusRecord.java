@@ -0,0 +1,139 @@
+package info.nightscout.android.medtronic.message;
+
+import java.util.Date;
+
+import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
+
+/**
+ * Copies a pump status response into the PumpStatusEvent stored for the poll.
+ *
+ * Kept apart from PumpStatusResponseMessage so the message layer has no dependency on the Realm model.
+ */
+public class PumpStatusRecord {
+
+    private PumpStatusRecord() {
+    }
+
+    /**
+     * update pumpRecord with data read from pump
+     *
+     * @param pumpRecord
+     * @param status
+     */
+    public static void update(PumpStatusEvent pumpRecord, PumpStatusResponseMessage status) {
+
+        //pumpRecord.setPayload(payload);  // save the payload for data mining
+
+        // add Flags
+        pumpRecord.setPumpStatus(status.pumpStatus);
+        pumpRecord.setCgmStatus(status.cgmStatus);
+
+        pumpRecord.setSuspended(status.suspended);
+        pumpRecord.setBolusingNormal(status.bolusingNormal);
+        pumpRecord.setBolusingSquare(status.bolusingSquare);
+        pumpRecord.setBolusingDual(status.bolusingDual);
+        pumpRecord.setDeliveringInsulin(status.deliveringInsulin);
+        pumpRecord.setTempBasalActive(status.tempBasalActive);
+        pumpRecord.setCgmActive(status.cgmActive);
+
+        pumpRecord.setCgmCalibrating(status.cgmCalibrating);
+        pumpRecord.setCgmCalibrationComplete(status.cgmCalibrationComplete);
+        pumpRecord.setCgmException(status.cgmException);
+        pumpRecord.setCgmWarmUp(status.cgmWarmUp);
+
+        // Active basal pattern
+        pumpRecord.setActiveBasalPattern(status.activeBasalPattern);
+
+        // Active temp basal pattern
+        pumpRecord.setActiveTempBasalPattern(status.activeTempBasalPattern);
+
+        // Normal basal rate
+        pumpRecord.setBasalRate(status.basalRate);
+
+        // Temp basal rate
+        pumpRecord.setTempBasalRate(status.tempBasalRate);
+
+        // Temp basal percentage
+        pumpRecord.setTempBasalPercentage(status.tempBasalPercentage);
+
+        // Temp basal minutes remaining
+        pumpRecord.setTempBasalMinutesRemaining(status.tempBasalMinutesRemaining);
+
+        // Units of insulin delivered as basal today
+        pumpRecord.setBasalUnitsDeliveredToday(status.basalUnitsDeliveredToday);
+
+        // Pump battery percentage
+        pumpRecord.setBatteryPercentage(status.batteryPercentage);
+
+        // Reservoir amount
+        pumpRecord.setReservoirAmount(status.reservoirAmount);
+
+        // Amount of insulin left in pump (in minutes)
+        pumpRecord.setMinutesOfInsulinRemaining(status.minutesOfInsulinRemaining);
+
+        // Active insulin
+        pumpRecord.setActiveInsulin(status.activeInsulin);
+
+        // CGM time
+        pumpRecord.setCgmRTC(status.cgmRTC);
+        pumpRecord.setCgmOFFSET(status.cgmOFFSET);
+        //pumpRecord.setCgmDate(new Date(status.cgmDate.getTime() - pumpRecord.getClockDifference()));
+
+        // Date using cgmRTC + eventOFFSET as pump clock may have changed
+        Date cgmEventDate = MessageUtils.decodeDateTime(status.cgmRTC & 0xFFFFFFFFL, pumpRecord.getEventOFFSET());
+        pumpRecord.setCgmDate(new Date(cgmEventDate.getTime() - pumpRecord.getClockDifference()));
+
+        // CGM SGV data
+        pumpRecord.setSgv(status.sgv);
+        pumpRecord.setCgmTrend(status.cgmTrend == PumpStatusResponseMessage.CGM_TREND_NOT_SET
+                ? PumpStatusEvent.CGM_TREND.NOT_SET : PumpStatusEvent.CGM_TREND.fromMessageByte(status.cgmTrend));
+        pumpRecord.setCgmExceptionType(status.cgmExceptionType);
+
+        // PLGM
+        pumpRecord.setPlgmStatus(status.plgmStatus);
+        pumpRecord.setPlgmAlertOnHigh(status.plgmAlertOnHigh);
+        pumpRecord.setPlgmAlertOnLow(status.plgmAlertOnLow);
+        pumpRecord.setPlgmAlertBeforeHigh(status.plgmAlertBeforeHigh);
+        pumpRecord.setPlgmAlertBeforeLow(status.plgmAlertBeforeLow);
+        pumpRecord.setPlgmAlertSuspend(status.plgmAlertSuspend);
+        pumpRecord.setPlgmAlertSuspendLow(status.plgmAlertSuspendLow);
+
+        // Recent BGL
+        pumpRecord.setRecentBGL(status.recentBGL); // In mg/DL
+
+        // Active alert
+        pumpRecord.setAlert(status.alert);
+        pumpRecord.setAlertRTC(status.alertRTC);
+        pumpRecord.setAlertOFFSET(status.alertOFFSET);
+        pumpRecord.setAlertSilenceMinutesRemaining(status.alertSilenceMinutesRemaining);
+        pumpRecord.setAlertSilenceStatus(status.alertSilenceStatus);
+        pumpRecord.setAlertSilenceHigh(status.alertSilenceHigh);
+        pumpRecord.setAlertSilenceHighLow(status.alertSilenceHighLow);
+        pumpRecord.setAlertSilenceAll(status.alertSilenceAll);
+
+        // Date using alertRTC + eventOFFSET as pump clock may have changed
+        Date alertEventDate = MessageUtils.decodeDateTime(status.alertRTC & 0xFFFFFFFFL, pumpRecord.getEventOFFSET());
+        pumpRecord.setAlertDate(new Date(alertEventDate.getTime() - pumpRecord.getClockDifference()));
+
+        // Now bolusing
+        pumpRecord.setBolusingDelivered(status.bolusingDelivered);
+        pumpRecord.setBolusingMinutesRemaining(status.bolusingMinutesRemaining);
+        pumpRecord.setBolusingReference(status.bolusingReference);
+
+        // Last bolus
+        pumpRecord.setLastBolusAmount(status.lastBolusAmount);
+        pumpRecord.setLastBolusReference(status.lastBolusReference);
+        pumpRecord.setLastBolusPumpDate(status.lastBolusDate);
+        pumpRecord.setLastBolusDate(new Date(status.lastBolusDate.getTime() - pumpRecord.getClockDifference()));
+
+        // Calibration
+        pumpRecord.setCalibrationDueMinutes(status.calibrationDueMinutes);
+
+        // Transmitter
+        pumpRecord.setTransmitterBattery(status.transmitterBattery);
+        pumpRecord.setTransmitterControl(status.transmitterControl);
+
+        // Sensor
+        pumpRecord.setSensorRateOfChange(status.sensorRateOfChange);
+    }
+}
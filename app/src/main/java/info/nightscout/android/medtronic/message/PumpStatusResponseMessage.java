@@ -9,7 +9,6 @@ import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
 import info.nightscout.android.medtronic.exception.UnexpectedMessageException;
-import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 
 import static info.nightscout.android.utils.ToolKit.read32BEtoInt;
 import static info.nightscout.android.utils.ToolKit.read32BEtoULong;
@@ -23,79 +22,81 @@ import static info.nightscout.android.utils.ToolKit.read16BEtoULong;
 public class PumpStatusResponseMessage extends MedtronicSendMessageResponseMessage {
     private static final String TAG = PumpStatusResponseMessage.class.getSimpleName();
 
-    // Data from the Medtronic Pump add message
-
-    private byte pumpStatus;
-    private boolean suspended;
-    private boolean bolusingNormal;
-    private boolean bolusingSquare;
-    private boolean bolusingDual;
-    private boolean deliveringInsulin;
-    private boolean tempBasalActive;
-
-    private byte cgmStatus;
-    private boolean cgmActive;
-    private boolean cgmCalibrating;
-    private boolean cgmCalibrationComplete;
-    private boolean cgmException;
-    private boolean cgmWarmUp;
-
-    private byte activeBasalPattern;
-    private float basalRate;
-    private float basalUnitsDeliveredToday;
-
-    private byte activeTempBasalPattern;
-    private float tempBasalRate;
-    private short tempBasalPercentage;
-    private short tempBasalMinutesRemaining;
-
-    private short batteryPercentage;
-
-    private float reservoirAmount;
-    private short minutesOfInsulinRemaining; // 25h == "more than 1 day"
-
-    private float activeInsulin;
-
-    private int sgv;
-    private PumpStatusEvent.CGM_TREND cgmTrend;
-    private byte cgmExceptionType;
-
-    private Date cgmDate;
-    private int cgmRTC;
-    private int cgmOFFSET;
-
-    private byte plgmStatus;
-    private boolean plgmAlertOnHigh;
-    private boolean plgmAlertOnLow;
-    private boolean plgmAlertBeforeHigh;
-    private boolean plgmAlertBeforeLow;
-    private boolean plgmAlertSuspend;
-    private boolean plgmAlertSuspendLow;
-
-    private boolean recentBolusWizard; // Whether a bolus wizard has been run recently
-    private int recentBGL; // in mg/dL. 0 means no recent finger bg reading.
-
-    private short alert;
-    private Date alertDate;
-    private int alertRTC;
-    private int alertOFFSET;
-    private short alertSilenceMinutesRemaining;
-    private byte alertSilenceStatus;
-    private boolean alertSilenceHigh;
-    private boolean alertSilenceHighLow;
-    private boolean alertSilenceAll;
-
-    private float bolusingDelivered;
-    private short bolusingMinutesRemaining;
-    private byte bolusingReference;
-    private float lastBolusAmount;
-    private Date lastBolusDate;
-    private byte lastBolusReference;
-
-    private byte transmitterBattery;
-    private byte transmitterControl;
-    private short calibrationDueMinutes;
-    private float sensorRateOfChange;
+    static final byte CGM_TREND_NOT_SET = (byte) 0xFF;
+
+    // Data from the Medtronic Pump add message, read by PumpStatusRecord
+
+    byte pumpStatus;
+    boolean suspended;
+    boolean bolusingNormal;
+    boolean bolusingSquare;
+    boolean bolusingDual;
+    boolean deliveringInsulin;
+    boolean tempBasalActive;
+
+    byte cgmStatus;
+    boolean cgmActive;
+    boolean cgmCalibrating;
+    boolean cgmCalibrationComplete;
+    boolean cgmException;
+    boolean cgmWarmUp;
+
+    byte activeBasalPattern;
+    float basalRate;
+    float basalUnitsDeliveredToday;
+
+    byte activeTempBasalPattern;
+    float tempBasalRate;
+    short tempBasalPercentage;
+    short tempBasalMinutesRemaining;
+
+    short batteryPercentage;
+
+    float reservoirAmount;
+    short minutesOfInsulinRemaining; // 25h == "more than 1 day"
+
+    float activeInsulin;
+
+    int sgv;
+    byte cgmTrend; // masked trend bits, CGM_TREND_NOT_SET when a sensor exception is reported
+    byte cgmExceptionType;
+
+    Date cgmDate;
+    int cgmRTC;
+    int cgmOFFSET;
+
+    byte plgmStatus;
+    boolean plgmAlertOnHigh;
+    boolean plgmAlertOnLow;
+    boolean plgmAlertBeforeHigh;
+    boolean plgmAlertBeforeLow;
+    boolean plgmAlertSuspend;
+    boolean plgmAlertSuspendLow;
+
+    boolean recentBolusWizard; // Whether a bolus wizard has been run recently
+    int recentBGL; // in mg/dL. 0 means no recent finger bg reading.
+
+    short alert;
+    Date alertDate;
+    int alertRTC;
+    int alertOFFSET;
+    short alertSilenceMinutesRemaining;
+    byte alertSilenceStatus;
+    boolean alertSilenceHigh;
+    boolean alertSilenceHighLow;
+    boolean alertSilenceAll;
+
+    float bolusingDelivered;
+    short bolusingMinutesRemaining;
+    byte bolusingReference;
+    float lastBolusAmount;
+    Date lastBolusDate;
+    byte lastBolusReference;
+
+    byte transmitterBattery;
+    byte transmitterControl;
+    short calibrationDueMinutes;
+    float sensorRateOfChange;
 
     private byte[] payload; // save the payload for data mining on the 670G
 
@@ -175,12 +176,12 @@ public class PumpStatusResponseMessage extends MedtronicSendMessageResponseMessa
 
         if (sgv >= 0x0300) {
             cgmExceptionType = (byte) (sgv & 0x00FF);
-            cgmTrend = PumpStatusEvent.CGM_TREND.NOT_SET;
+            cgmTrend = CGM_TREND_NOT_SET;
             if (cgmExceptionType == 0x01) cgmWarmUp = true;
             sgv = 0;
         } else {
             cgmExceptionType = 0;
-            cgmTrend = PumpStatusEvent.CGM_TREND.fromMessageByte((byte) (payload[0x40] & 0xF0)); // masked as low nibble can contain value when transmitter battery low
+            cgmTrend = (byte) (payload[0x40] & 0xF0); // masked as low nibble can contain value when transmitter battery low
             cgmWarmUp = false;
         }
 
@@ -235,125 +236,4 @@ public class PumpStatusResponseMessage extends MedtronicSendMessageResponseMessa
         long rawSensorRateOfChange = read16BEtoULong(payload, 0x46);
         sensorRateOfChange = new BigDecimal(rawSensorRateOfChange / 100f).setScale(3, BigDecimal.ROUND_HALF_UP).floatValue();
     }
-
-    /**
-     * update pumpRecord with data read from pump
-     *
-     * @param pumpRecord
-     */
-    public void updatePumpRecord(PumpStatusEvent pumpRecord) {
-
-        //pumpRecord.setPayload(payload);  // save the payload for data mining
-
-        // add Flags
-        pumpRecord.setPumpStatus(pumpStatus);
-        pumpRecord.setCgmStatus(cgmStatus);
-
-        pumpRecord.setSuspended(suspended);
-        pumpRecord.setBolusingNormal(bolusingNormal);
-        pumpRecord.setBolusingSquare(bolusingSquare);
-        pumpRecord.setBolusingDual(bolusingDual);
-        pumpRecord.setDeliveringInsulin(deliveringInsulin);
-        pumpRecord.setTempBasalActive(tempBasalActive);
-        pumpRecord.setCgmActive(cgmActive);
-
-        pumpRecord.setCgmCalibrating(cgmCalibrating);
-        pumpRecord.setCgmCalibrationComplete(cgmCalibrationComplete);
-        pumpRecord.setCgmException(cgmException);
-        pumpRecord.setCgmWarmUp(cgmWarmUp);
-
-        // Active basal pattern
-        pumpRecord.setActiveBasalPattern(activeBasalPattern);
-
-        // Active temp basal pattern
-        pumpRecord.setActiveTempBasalPattern(activeTempBasalPattern);
-
-        // Normal basal rate
-        pumpRecord.setBasalRate(basalRate);
-
-        // Temp basal rate
-        pumpRecord.setTempBasalRate(tempBasalRate);
-
-        // Temp basal percentage
-        pumpRecord.setTempBasalPercentage(tempBasalPercentage);
-
-        // Temp basal minutes remaining
-        pumpRecord.setTempBasalMinutesRemaining(tempBasalMinutesRemaining);
-
-        // Units of insulin delivered as basal today
-        pumpRecord.setBasalUnitsDeliveredToday(basalUnitsDeliveredToday);
-
-        // Pump battery percentage
-        pumpRecord.setBatteryPercentage(batteryPercentage);
-
-        // Reservoir amount
-        pumpRecord.setReservoirAmount(reservoirAmount);
-
-        // Amount of insulin left in pump (in minutes)
-        pumpRecord.setMinutesOfInsulinRemaining(minutesOfInsulinRemaining);
-
-        // Active insulin
-        pumpRecord.setActiveInsulin(activeInsulin);
-
-        // CGM time
-        pumpRecord.setCgmRTC(cgmRTC);
-        pumpRecord.setCgmOFFSET(cgmOFFSET);
-        //pumpRecord.setCgmDate(new Date(cgmDate.getTime() - pumpRecord.getClockDifference()));
-
-        // Date using cgmRTC + eventOFFSET as pump clock may have changed
-        Date cgmEventDate = MessageUtils.decodeDateTime(cgmRTC & 0xFFFFFFFFL, pumpRecord.getEventOFFSET());
-        pumpRecord.setCgmDate(new Date(cgmEventDate.getTime() - pumpRecord.getClockDifference()));
-
-        // CGM SGV data
-        pumpRecord.setSgv(sgv);
-        pumpRecord.setCgmTrend(cgmTrend);
-        pumpRecord.setCgmExceptionType(cgmExceptionType);
-
-        // PLGM
-        pumpRecord.setPlgmStatus(plgmStatus);
-        pumpRecord.setPlgmAlertOnHigh(plgmAlertOnHigh);
-        pumpRecord.setPlgmAlertOnLow(plgmAlertOnLow);
-        pumpRecord.setPlgmAlertBeforeHigh(plgmAlertBeforeHigh);
-        pumpRecord.setPlgmAlertBeforeLow(plgmAlertBeforeLow);
-        pumpRecord.setPlgmAlertSuspend(plgmAlertSuspend);
-        pumpRecord.setPlgmAlertSuspendLow(plgmAlertSuspendLow);
-
-        // Recent BGL
-        pumpRecord.setRecentBGL(recentBGL); // In mg/DL
-
-        // Active alert
-        pumpRecord.setAlert(alert);
-        pumpRecord.setAlertRTC(alertRTC);
-        pumpRecord.setAlertOFFSET(alertOFFSET);
-        pumpRecord.setAlertSilenceMinutesRemaining(alertSilenceMinutesRemaining);
-        pumpRecord.setAlertSilenceStatus(alertSilenceStatus);
-        pumpRecord.setAlertSilenceHigh(alertSilenceHigh);
-        pumpRecord.setAlertSilenceHighLow(alertSilenceHighLow);
-        pumpRecord.setAlertSilenceAll(alertSilenceAll);
-
-        // Date using alertRTC + eventOFFSET as pump clock may have changed
-        Date alertEventDate = MessageUtils.decodeDateTime(alertRTC & 0xFFFFFFFFL, pumpRecord.getEventOFFSET());
-        pumpRecord.setAlertDate(new Date(alertEventDate.getTime() - pumpRecord.getClockDifference()));
-
-        // Now bolusing
-        pumpRecord.setBolusingDelivered(bolusingDelivered);
-        pumpRecord.setBolusingMinutesRemaining(bolusingMinutesRemaining);
-        pumpRecord.setBolusingReference(bolusingReference);
-
-        // Last bolus
-        pumpRecord.setLastBolusAmount(lastBolusAmount);
-        pumpRecord.setLastBolusReference(lastBolusReference);
-        pumpRecord.setLastBolusPumpDate(lastBolusDate);
-        pumpRecord.setLastBolusDate(new Date(lastBolusDate.getTime() - pumpRecord.getClockDifference()));
-
-        // Calibration
-        pumpRecord.setCalibrationDueMinutes(calibrationDueMinutes);
-
-        // Transmitter
-        pumpRecord.setTransmitterBattery(transmitterBattery);
-        pumpRecord.setTransmitterControl(transmitterControl);
-
-        // Sensor
-        pumpRecord.setSensorRateOfChange(sensorRateOfChange);
-    }
-}
\ No newline at end of file
+}
@@ -13,9 +13,11 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 
-import info.nightscout.android.USB.UsbHidDriver;
+import info.nightscout.android.USB.CnlTransport;
 import info.nightscout.android.medtronic.MedtronicCnlSession;
 import info.nightscout.android.medtronic.exception.ChecksumException;
 import info.nightscout.android.medtronic.exception.EncryptionException;
@@ -37,6 +39,8 @@ public class ReadHistoryRequestMessage extends MedtronicSendMessageRequestMessag
     private static final int HEADER_SIZE = 0x000D;
     private static final int BLOCK_SIZE = 0x0800;
 
+    private static final byte[] END_OF_BLOCKS = new byte[0];
+
     private ByteArrayOutputStream blocks;
 
     public ReadHistoryRequestMessage(MedtronicCnlSession pumpSession, int startRTC, int endRTC, int dataType) throws EncryptionException, ChecksumException {
@@ -55,53 +59,58 @@ public class ReadHistoryRequestMessage extends MedtronicSendMessageRequestMessag
         return payload.array();
     }
 
-    public ReadHistoryResponseMessage send(UsbHidDriver mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
+    public ReadHistoryResponseMessage send(CnlTransport mDevice, int millis) throws IOException, TimeoutException, ChecksumException, EncryptionException, UnexpectedMessageException {
         blocks = new ByteArrayOutputStream();
 
-        sendToPump(mDevice, TAG);
+        // history blocks are decompressed and checked by a worker while the next block is read from the pump
+        BlockWorker worker = new BlockWorker();
+        worker.start();
 
-        byte[] payload;
+        try {
 
-        boolean fetchMoreData = true;
-        boolean receivedEndHistoryCommand = false;
+            sendToPump(mDevice, TAG);
 
-        while (fetchMoreData) {
-            payload = readFromPump(mDevice, mPumpSession, TAG);
+            byte[] payload;
 
-            if (payload.length >= 3) {
+            boolean fetchMoreData = true;
+            boolean receivedEndHistoryCommand = false;
 
-                switch (MedtronicSendMessageRequestMessage.MessageType.convert(read16BEtoShort(payload, NGP_RESPONSE_COMMAND))) {
+            while (fetchMoreData) {
+                payload = readFromPump(mDevice, mPumpSession, TAG);
 
-                    case END_HISTORY_TRANSMISSION:
-                        receivedEndHistoryCommand = true;
-                        break;
+                if (payload.length >= 3) {
 
-                    case EHSM_SESSION:
-                        if (receivedEndHistoryCommand) fetchMoreData = false;
-                        break;
+                    switch (MedtronicSendMessageRequestMessage.MessageType.convert(read16BEtoShort(payload, NGP_RESPONSE_COMMAND))) {
 
-                    case UNMERGED_HISTORY:
-                        try {
-                            addHistoryBlock(payload);
-                        } catch (UnexpectedMessageException e) {
-                            clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
-                            throw e;
-                        } catch (ChecksumException e) {
-                            clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
-                            throw e;
-                        } catch (Exception e) {
-                            clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
-                            throw new UnexpectedMessageException("history message block corrupt");
-                        }
-                }
+                        case END_HISTORY_TRANSMISSION:
+                            receivedEndHistoryCommand = true;
+                            break;
+
+                        case EHSM_SESSION:
+                            if (receivedEndHistoryCommand) fetchMoreData = false;
+                            break;
 
+                        case UNMERGED_HISTORY:
+                            if (worker.error != null) {
+                                clearMessage(mDevice, ERROR_CLEAR_TIMEOUT_MS);
+                                worker.throwError();
+                            }
+                            worker.add(payload);
+                    }
+
+                }
             }
-        }
 
-        // unread messages sitting in the input stream for too long can cause the CNL to E86
-        // clearing them out now before any delays due to history parsing etc (very rare error)
-        if (clearMessage(mDevice, 100) > 0)
-            Log.w(TAG, "END HISTORY TRANSMISSION: cleared unexpected messages");
+            // unread messages sitting in the input stream for too long can cause the CNL to E86
+            // clearing them out now before any delays due to history parsing etc (very rare error)
+            if (clearMessage(mDevice, 100) > 0)
+                Log.w(TAG, "END HISTORY TRANSMISSION: cleared unexpected messages");
+
+            worker.finish();
+
+        } finally {
+            worker.interrupt();
+        }
 
         return getResponse(blocks.toByteArray());
     }
@@ -153,7 +162,7 @@ public class ReadHistoryRequestMessage extends MedtronicSendMessageRequestMessag
             int blockSize = read16BEtoUInt(blockPayload, blockStart + BLOCK_SIZE - 4);
             int blockChecksum = read16BEtoUInt(blockPayload, blockStart + BLOCK_SIZE - 2);
 
-            int calculatedChecksum = MessageUtils.CRC16CCITT(blockPayload, blockStart, 0xFFFF, 0x1021, blockSize);
+            int calculatedChecksum = Crc16Ccitt.compute(blockPayload, blockStart, blockSize);
             if (blockChecksum != calculatedChecksum) {
                 throw new ChecksumException("Bad checksum in block " + i + " (" + HexDump.toHexString(blockChecksum) + "/" + HexDump.toHexString(calculatedChecksum) + ")");
             } else {
@@ -161,4 +170,48 @@ public class ReadHistoryRequestMessage extends MedtronicSendMessageRequestMessag
             }
         }
     }
+
+    private class BlockWorker extends Thread {
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private volatile Throwable error;
+
+        private void add(byte[] payload) {
+            queue.add(payload);
+        }
+
+        private void finish() throws IOException, ChecksumException, UnexpectedMessageException {
+            queue.add(END_OF_BLOCKS);
+            try {
+                join();
+            } catch (InterruptedException e) {
+                throw new IOException("history block worker interrupted");
+            }
+            if (error != null) throwError();
+        }
+
+        private void throwError() throws ChecksumException, UnexpectedMessageException {
+            if (error instanceof ChecksumException) throw (ChecksumException) error;
+            if (error instanceof UnexpectedMessageException) throw (UnexpectedMessageException) error;
+            throw new UnexpectedMessageException("history message block corrupt");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] payload = queue.take();
+                    if (payload == END_OF_BLOCKS) break;
+                    // keep draining the queue after an error, the reader will throw on the next block
+                    if (error == null) {
+                        try {
+                            addHistoryBlock(payload);
+                        } catch (UnexpectedMessageException | ChecksumException | RuntimeException e) {
+                            error = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
 }
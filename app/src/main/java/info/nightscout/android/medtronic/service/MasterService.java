@@ -36,6 +36,7 @@ import info.nightscout.android.USB.UsbHidDriver;
 import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.medtronic.MainActivity;
 import info.nightscout.android.medtronic.StatusNotification;
+import info.nightscout.android.medtronic.StatusSnapshot;
 import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
 import info.nightscout.android.medtronic.UserLogMessage;
@@ -56,8 +57,8 @@ import static info.nightscout.android.medtronic.service.MedtronicCnlService.POLL
 import static info.nightscout.android.medtronic.service.MedtronicCnlService.POLL_RECOVERY_PERIOD_MS;
 import static info.nightscout.android.medtronic.service.MedtronicCnlService.POLL_WARMUP_PERIOD_MS;
 import static info.nightscout.android.medtronic.service.MedtronicCnlService.USB_WARMUP_TIME_MS;
-import static info.nightscout.android.utils.ToolKit.getWakeLock;
-import static info.nightscout.android.utils.ToolKit.releaseWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.getWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.releaseWakeLock;
 
 /**
  * Created by Pogman on 13.9.17.
@@ -270,6 +271,9 @@ public class MasterService extends Service {
                     break;
 
                 case Constants.ACTION_CNL_COMMS_FINISHED:
+                    // poll results are in, publish a rebuilt snapshot to the status displays
+                    StatusSnapshot.refresh();
+
                     if (serviceActive) {
                         PowerManager.WakeLock wl = getWakeLock(context, TAG, 10000);
 
@@ -25,11 +25,13 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
 import info.nightscout.android.PumpAlert;
+import info.nightscout.android.USB.UsbFrameBuffer;
 import info.nightscout.android.USB.UsbHidDriver;
 import info.nightscout.android.history.HistoryDebug;
 import info.nightscout.android.R;
 import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.medtronic.MedtronicCnlReader;
+import info.nightscout.android.medtronic.PollTrace;
 import info.nightscout.android.history.PumpHistoryHandler;
 import info.nightscout.android.history.PumpHistoryParser;
 import info.nightscout.android.medtronic.Stats;
@@ -41,11 +43,14 @@ import info.nightscout.android.medtronic.exception.UnexpectedMessageException;
 import info.nightscout.android.medtronic.message.ContourNextLinkCommandMessage;
 import info.nightscout.android.medtronic.message.ContourNextLinkMessage;
 import info.nightscout.android.medtronic.message.MessageUtils;
+import info.nightscout.android.medtronic.message.MultipacketScheduler;
+import info.nightscout.android.medtronic.message.PumpStatusRecord;
 import info.nightscout.android.model.medtronicNg.ContourNextLinkInfo;
 import info.nightscout.android.model.medtronicNg.PumpHistorySystem;
 import info.nightscout.android.model.medtronicNg.PumpInfo;
 import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
+import info.nightscout.android.model.store.StatCnl;
 import info.nightscout.android.model.store.StatPoll;
 import info.nightscout.android.utils.FormatKit;
 import info.nightscout.android.utils.HexDump;
@@ -53,8 +58,8 @@ import io.realm.Realm;
 import io.realm.RealmResults;
 import io.realm.Sort;
 
-import static info.nightscout.android.utils.ToolKit.getWakeLock;
-import static info.nightscout.android.utils.ToolKit.releaseWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.getWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.releaseWakeLock;
 
 public class MedtronicCnlService extends Service {
     private static final String TAG = MedtronicCnlService.class.getSimpleName();
@@ -100,6 +105,8 @@ public class MedtronicCnlService extends Service {
 
     private Context mContext;
     private static UsbHidDriver mHidDevice;
+    // the last poll using the cached link key timed out at the first pump exchange
+    private static boolean linkKeyTimeout;
     private UsbManager mUsbManager;
     private ReadPump readPump;
     private Realm realm;
@@ -366,6 +373,7 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                     UserLogMessage.send(mContext, R.string.ul_poll__connecting_to_contour_next_link);
 
                     shutdownProtect = true;
+                    final long handshakeStart = System.currentTimeMillis();
                     cnlReader.requestDeviceInfo();
 
                     // Is the device already configured?
@@ -386,6 +394,9 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
 
                     cnlReader.enterControlMode();
 
+                    // set once the first encrypted request is sent to the pump
+                    boolean pumpExchange = false;
+
                     try {
                         cnlReader.enterPassthroughMode();
                         shutdownProtect = false;
@@ -393,13 +404,26 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
 
                         cnlReader.requestReadInfo();
 
-                        cnlReader.requestLinkKey();
-                        realm.executeTransaction(new Realm.Transaction() {
-                            @Override
-                            public void execute(@NonNull Realm realm) {
-                                info.setKey(MessageUtils.byteArrayToHexString(cnlReader.getPumpSession().getKey()));
-                            }
-                        });
+                        // the link key only changes when the stick is paired again, reuse it while the link is unchanged
+                        // after a timeout with the cached key the key is requested once, the pump may only have been out of range
+                        final boolean linkKeyCached = !linkKeyTimeout
+                                && cnlReader.useCachedLinkKey(info.getLinkMAC(), info.getPumpMAC(), info.getKey());
+                        linkKeyTimeout = false;
+                        if (!linkKeyCached) {
+                            cnlReader.requestLinkKey();
+                            realm.executeTransaction(new Realm.Transaction() {
+                                @Override
+                                public void execute(@NonNull Realm realm) {
+                                    info.setKey(MessageUtils.byteArrayToHexString(cnlReader.getPumpSession().getKey()));
+                                    info.setLinkMAC(cnlReader.getPumpSession().getLinkMAC());
+                                    info.setPumpMAC(cnlReader.getPumpSession().getPumpMAC());
+                                }
+                            });
+                        }
+
+                        long handshakeTime = System.currentTimeMillis() - handshakeStart;
+                        ((StatCnl) Stats.getInstance().readRecord(StatCnl.class)).handshake(linkKeyCached, handshakeTime);
+                        Log.d(TAG, String.format("Handshake %s [%sms] %s", linkKeyCached ? "cached key" : "full", handshakeTime, cnlReader.getStepTimes()));
 
                         final long pumpMAC = cnlReader.getPumpSession().getPumpMAC();
                         Log.i(TAG, "PumpInfo MAC: " + (pumpMAC & 0xFFFFFF));
@@ -418,7 +442,18 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                                 .equalTo("pumpMac", pumpMAC)
                                 .findFirst();
 
-                        final byte radioChannel = cnlReader.negotiateChannel(activePump.getLastRadioChannel());
+                        final long channelStart = System.currentTimeMillis();
+                        final byte[] radioChannels = activePump.rankRadioChannels(MedtronicCnlReader.getRadioChannels(), channelStart);
+                        final byte radioChannel = cnlReader.negotiateChannel(radioChannels);
+                        statPoll.channel(cnlReader.getChannelAttempts(), radioChannel != 0, System.currentTimeMillis() - channelStart);
+                        realm.executeTransaction(new Realm.Transaction() {
+                            @Override
+                            public void execute(@NonNull Realm realm) {
+                                activePump.updateRadioChannels(radioChannels, cnlReader.getChannelAttempts(), radioChannel,
+                                        cnlReader.getPumpSession().getRadioRSSIpercentage(), channelStart);
+                            }
+                        });
+
                         if (radioChannel == 0) {
                             Log.i(TAG, "Could not communicate with the pump. Is it nearby?");
                             UserLogMessage.send(mContext, UserLogMessage.TYPE.WARN, R.string.ul_poll__could_not_communicate_with_the_pump);
@@ -467,6 +502,7 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
 
                             pumpRecord.setDeviceName(deviceName);
 
+                            pumpExchange = true;
                             cnlReader.getPumpTime();
                             pumpClockDifference = cnlReader.getSessionClockDifference();
 
@@ -475,19 +511,24 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                             pumpRecord.setEventRTC(cnlReader.getSessionRTC());
                             pumpRecord.setEventOFFSET(cnlReader.getSessionOFFSET());
                             pumpRecord.setClockDifference(pumpClockDifference);
-                            cnlReader.updatePumpStatus(pumpRecord);
+                            PumpStatusRecord.update(pumpRecord, cnlReader.updatePumpStatus());
 
                             validatePumpRecord(pumpRecord, activePump);
 
                             // write completed record to storage
-                            realm.executeTransaction(new Realm.Transaction() {
-                                @Override
-                                public void execute(@NonNull Realm realm) {
-                                    activePump.setLastRadioChannel(radioChannel);
-                                    activePump.setDeviceName(deviceName);
-                                    activePump.getPumpHistory().add(pumpRecord);
-                                }
-                            });
+                            cnlReader.getPollTrace().begin(PollTrace.PHASE.COMMIT);
+                            try {
+                                realm.executeTransaction(new Realm.Transaction() {
+                                    @Override
+                                    public void execute(@NonNull Realm realm) {
+                                        activePump.setLastRadioChannel(radioChannel);
+                                        activePump.setDeviceName(deviceName);
+                                        activePump.getPumpHistory().add(pumpRecord);
+                                    }
+                                });
+                            } finally {
+                                cnlReader.getPollTrace().end();
+                            }
 
                             commsSuccess++;
                             commsError = 0;
@@ -497,7 +538,7 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                             checkCGM(pumpRecord);
 
                             // *** debug use only ***
-                            //cnlReader.getHistoryLogcat(timePollStarted - 8 * 24 * 60 * 60000L, timePollStarted, 2);
+                            //pumpHistoryHandler.getHistoryLogcat(cnlReader, timePollStarted - 8 * 24 * 60 * 60000L, timePollStarted, 2);
                             //debugStatusMessage();
                             //debugActiveAlert();
 
@@ -577,6 +618,8 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                         commsError++;
                         pollInterval = dataStore.isSysEnablePollOverride() ? dataStore.getSysPollErrorRetry() : POLL_ERROR_RETRY_MS;
                         Log.e(TAG, "Timeout communicating with the Contour Next Link.", e);
+                        if (pumpExchange && cnlReader.getPumpSession().isLinkKeyCached())
+                            linkKeyTimeout = true;
                         UserLogMessage.sendN(mContext, UserLogMessage.TYPE.WARN, R.string.ul_error__timeout_pump);
                         UserLogMessage.sendE(mContext, UserLogMessage.TYPE.WARN, String.format("{id;%s} %s", R.string.ul_error__timeout, e.getMessage()));
                     } catch (ChecksumException e) {
@@ -587,6 +630,8 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                     } catch (EncryptionException e) {
                         commsError++;
                         Log.e(TAG, "Error decrypting messages from Contour Next Link.", e);
+                        if (pumpExchange && cnlReader.getPumpSession().isLinkKeyCached())
+                            linkKeyError(info);
                         UserLogMessage.sendN(mContext, UserLogMessage.TYPE.WARN, R.string.ul_error__decryption_cnl);
                         UserLogMessage.sendE(mContext, UserLogMessage.TYPE.WARN, String.format("{id;%s} %s", R.string.ul_error__decryption, e.getMessage()));
                     } catch (NoSuchAlgorithmException e) {
@@ -635,6 +680,17 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
                 } finally {
                     shutdownProtect = false;
 
+                    MultipacketScheduler scheduler = cnlReader.getPumpSession().getMultipacketScheduler();
+                    ((StatCnl) Stats.getInstance().readRecord(StatCnl.class)).multipacket(
+                            scheduler.getTransfers(),
+                            scheduler.getSegments(),
+                            scheduler.getRepeated(),
+                            scheduler.getResends(),
+                            scheduler.getResendSegments(),
+                            scheduler.getResendMS(),
+                            scheduler.getTimeouts(),
+                            scheduler.getGaps());
+
                     nextpoll = requestPollTime(timePollStarted, pollInterval);
                     long timer = System.currentTimeMillis() - timePollStarted;
 
@@ -643,6 +699,11 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
 
                     statPoll.timer(timer);
 
+                    PollTrace trace = cnlReader.getPollTrace();
+                    trace.commit(statPoll);
+                    statPoll.phase(PollTrace.PHASE.POLL, timer);
+                    Log.d(TAG, String.format("Poll phases %s [%sms]", trace, timer));
+
                     RemoveOutdatedRecords();
                     statusWarnings();
                 }
@@ -656,6 +717,11 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
             } finally {
 
                 if (mHidDevice != null) {
+                    if (statPoll != null) {
+                        UsbFrameBuffer frameBuffer = mHidDevice.getFrameBuffer();
+                        ((StatCnl) Stats.getInstance().readRecord(StatCnl.class))
+                                .usb(frameBuffer.getPackets(), frameBuffer.getBytesCopied(), frameBuffer.getAllocations());
+                    }
                     Log.i(TAG, "Closing serial device...");
                     mHidDevice.close();
                     mHidDevice = null;
@@ -756,6 +822,19 @@ CNL: unpaired PUMP: unpaired UPLOADER: unregistered = "Invalid message received
         UserLogMessage.send(mContext, UserLogMessage.TYPE.INFO, R.string.ul_integrity__uploader_database_reset);
     }
 
+    // the first pump response could not be decrypted or was not a response to the request while using a cached link key
+    // the key is dropped so the next poll requests it from the stick
+    private void linkKeyError(final ContourNextLinkInfo info) {
+        Log.w(TAG, "cached link key not confirmed by the pump, key will be requested from the stick");
+        realm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                info.setKey(null);
+            }
+        });
+        ((StatCnl) Stats.getInstance().readRecord(StatCnl.class)).handshakeKeyError();
+    }
+
     private void validatePumpRecord(PumpStatusEvent pumpRecord, PumpInfo activePump) {
         if (pumpRecord.isCgmActive()) {
 
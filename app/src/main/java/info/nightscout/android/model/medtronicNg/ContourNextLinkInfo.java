@@ -10,6 +10,8 @@ public class ContourNextLinkInfo extends RealmObject {
     @PrimaryKey
     private String serialNumber;
     private String key;
+    private long linkMAC;
+    private long pumpMAC;
 
     public String getSerialNumber() {
         return serialNumber;
@@ -26,4 +28,20 @@ public class ContourNextLinkInfo extends RealmObject {
     public void setKey(String key) {
         this.key = key;
     }
+
+    public long getLinkMAC() {
+        return linkMAC;
+    }
+
+    public void setLinkMAC(long linkMAC) {
+        this.linkMAC = linkMAC;
+    }
+
+    public long getPumpMAC() {
+        return pumpMAC;
+    }
+
+    public void setPumpMAC(long pumpMAC) {
+        this.pumpMAC = pumpMAC;
+    }
 }
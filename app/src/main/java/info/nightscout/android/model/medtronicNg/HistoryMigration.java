@@ -0,0 +1,57 @@
+package info.nightscout.android.model.medtronicNg;
+
+import androidx.annotation.NonNull;
+
+import info.nightscout.android.history.SenderFlags;
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.RealmFieldType;
+import io.realm.RealmMigration;
+import io.realm.RealmObjectSchema;
+
+/**
+ * Schema migration for the history realm.
+ *
+ * v1: sender REQ/ACK/DEL state changed from concatenated sender ID strings to a sender flag bitmask
+ */
+
+public class HistoryMigration implements RealmMigration {
+    public static final long SCHEMA_VERSION = 1;
+
+    private static final String[] SENDER_FIELDS = {"senderREQ", "senderACK", "senderDEL"};
+
+    @Override
+    public void migrate(@NonNull DynamicRealm realm, long oldVersion, long newVersion) {
+
+        if (oldVersion < 1) {
+            for (RealmObjectSchema objectSchema : realm.getSchema().getAll()) {
+                for (final String field : SENDER_FIELDS) {
+                    if (objectSchema.hasField(field) && objectSchema.getFieldType(field) == RealmFieldType.STRING) {
+                        final String flags = field + "Flags";
+                        objectSchema
+                                .addField(flags, int.class)
+                                .transform(new RealmObjectSchema.Function() {
+                                    @Override
+                                    public void apply(DynamicRealmObject obj) {
+                                        obj.setInt(flags, SenderFlags.senderFlags(obj.getString(field)));
+                                    }
+                                })
+                                .removeField(field)
+                                .renameField(flags, field)
+                                .addIndex(field);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HistoryMigration;
+    }
+
+    @Override
+    public int hashCode() {
+        return HistoryMigration.class.hashCode();
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Date;
 import java.util.List;
 
 import info.nightscout.android.R;
+import info.nightscout.android.history.HistoryIndex;
 import info.nightscout.android.history.HistoryUtils;
 import info.nightscout.android.history.MessageItem;
 import info.nightscout.android.history.PumpHistoryParser;
@@ -30,11 +31,11 @@ public class PumpHistoryBasal extends RealmObject implements PumpHistoryInterfac
     private static final String TAG = PumpHistoryBasal.class.getSimpleName();
 
     @Index
-    private String senderREQ = "";
+    private int senderREQ;
     @Index
-    private String senderACK = "";
+    private int senderACK;
     @Index
-    private String senderDEL = "";
+    private int senderDEL;
 
     @Index
     private Date eventDate;
@@ -251,7 +252,7 @@ public class PumpHistoryBasal extends RealmObject implements PumpHistoryInterfac
     }
 
     public static void programmed(
-            PumpHistorySender pumpHistorySender, Realm realm, long pumpMAC,
+            PumpHistorySender pumpHistorySender, Realm realm, HistoryIndex index, long pumpMAC,
             Date eventDate, int eventRTC, int eventOFFSET,
             byte preset,
             byte type,
@@ -259,7 +260,11 @@ public class PumpHistoryBasal extends RealmObject implements PumpHistoryInterfac
             int percentageOfRate,
             int duration) {
 
-        PumpHistoryBasal programmedRecord = realm.where(PumpHistoryBasal.class)
+        PumpHistoryBasal programmedRecord;
+        if (index != null && index.covers(eventRTC))
+            programmedRecord = index.getBasalProgrammed(eventRTC);
+        else
+            programmedRecord = realm.where(PumpHistoryBasal.class)
                 .equalTo("pumpMAC", pumpMAC)
                 .equalTo("recordtype", RECORDTYPE.PROGRAMMED.value())
                 .equalTo("eventRTC", eventRTC)
@@ -281,6 +286,7 @@ public class PumpHistoryBasal extends RealmObject implements PumpHistoryInterfac
             programmedRecord.canceled = false;
             programmedRecord.key = HistoryUtils.key("BASAL", eventRTC);
             pumpHistorySender.setSenderREQ(programmedRecord);
+            if (index != null) index.putBasalProgrammed(programmedRecord);
 
             // look for a corresponding completed temp basal
             PumpHistoryBasal completedRecord = realm.where(PumpHistoryBasal.class)
@@ -455,32 +461,32 @@ public class PumpHistoryBasal extends RealmObject implements PumpHistoryInterfac
     }
 
     @Override
-    public String getSenderREQ() {
+    public int getSenderREQ() {
         return senderREQ;
     }
 
     @Override
-    public void setSenderREQ(String senderREQ) {
+    public void setSenderREQ(int senderREQ) {
         this.senderREQ = senderREQ;
     }
 
     @Override
-    public String getSenderACK() {
+    public int getSenderACK() {
         return senderACK;
     }
 
     @Override
-    public void setSenderACK(String senderACK) {
+    public void setSenderACK(int senderACK) {
         this.senderACK = senderACK;
     }
 
     @Override
-    public String getSenderDEL() {
+    public int getSenderDEL() {
         return senderDEL;
     }
 
     @Override
-    public void setSenderDEL(String senderDEL) {
+    public void setSenderDEL(int senderDEL) {
         this.senderDEL = senderDEL;
     }
 
@@ -7,6 +7,7 @@ import java.util.Date;
 import java.util.List;
 
 import info.nightscout.android.R;
+import info.nightscout.android.history.HistoryIndex;
 import info.nightscout.android.history.HistoryUtils;
 import info.nightscout.android.history.MessageItem;
 import info.nightscout.android.history.PumpHistoryParser;
@@ -28,11 +29,11 @@ public class PumpHistoryBolus extends RealmObject implements PumpHistoryInterfac
     private static final String TAG = PumpHistoryBolus.class.getSimpleName();
 
     @Index
-    private String senderREQ = "";
+    private int senderREQ;
     @Index
-    private String senderACK = "";
+    private int senderACK;
     @Index
-    private String senderDEL = "";
+    private int senderDEL;
 
     @Index
     private Date eventDate;
@@ -396,7 +397,7 @@ public class PumpHistoryBolus extends RealmObject implements PumpHistoryInterfac
     }
 
     public static void bolus(
-            PumpHistorySender pumpHistorySender, Realm realm, long pumpMAC,
+            PumpHistorySender pumpHistorySender, Realm realm, HistoryIndex index, long pumpMAC,
             Date eventDate, int eventRTC, int eventOFFSET,
             byte bolusType,
             boolean programmed, boolean normalDelivered, boolean squareDelivered,
@@ -408,7 +409,11 @@ public class PumpHistoryBolus extends RealmObject implements PumpHistoryInterfac
             int squareProgrammedDuration, int squareDeliveredDuration,
             double activeInsulin) {
 
-        PumpHistoryBolus record = realm.where(PumpHistoryBolus.class)
+        PumpHistoryBolus record;
+        if (index != null && index.covers(eventRTC))
+            record = index.getBolus(bolusRef, eventRTC);
+        else
+            record = realm.where(PumpHistoryBolus.class)
                 .beginGroup()
                 .equalTo("pumpMAC", pumpMAC)
                 .equalTo("bolusRef", bolusRef)
@@ -498,6 +503,8 @@ public class PumpHistoryBolus extends RealmObject implements PumpHistoryInterfac
             if (record.programmed && squareProgrammedAmount != squareDeliveredAmount)
                 pumpHistorySender.setSenderREQ(record);
         }
+
+        if (index != null) index.putBolus(record);
     }
 
     public static void bolusWizardEstimate(
@@ -578,32 +585,32 @@ public class PumpHistoryBolus extends RealmObject implements PumpHistoryInterfac
     }
 
     @Override
-    public String getSenderREQ() {
+    public int getSenderREQ() {
         return senderREQ;
     }
 
     @Override
-    public void setSenderREQ(String senderREQ) {
+    public void setSenderREQ(int senderREQ) {
         this.senderREQ = senderREQ;
     }
 
     @Override
-    public String getSenderACK() {
+    public int getSenderACK() {
         return senderACK;
     }
 
     @Override
-    public void setSenderACK(String senderACK) {
+    public void setSenderACK(int senderACK) {
         this.senderACK = senderACK;
     }
 
     @Override
-    public String getSenderDEL() {
+    public int getSenderDEL() {
         return senderDEL;
     }
 
     @Override
-    public void setSenderDEL(String senderDEL) {
+    public void setSenderDEL(int senderDEL) {
         this.senderDEL = senderDEL;
     }
 
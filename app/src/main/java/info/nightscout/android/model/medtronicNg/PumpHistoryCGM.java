@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import info.nightscout.android.history.HistoryIndex;
 import info.nightscout.android.history.HistoryUtils;
 import info.nightscout.android.history.MessageItem;
 import info.nightscout.android.history.NightscoutItem;
@@ -25,11 +26,11 @@ public class PumpHistoryCGM extends RealmObject implements PumpHistoryInterface
     private static final String TAG = PumpHistoryCGM.class.getSimpleName();
 
     @Index
-    private String senderREQ = "";
+    private int senderREQ;
     @Index
-    private String senderACK = "";
+    private int senderACK;
     @Index
-    private String senderDEL = "";
+    private int senderDEL;
 
     @Index
     private Date eventDate;
@@ -133,7 +134,7 @@ public class PumpHistoryCGM extends RealmObject implements PumpHistoryInterface
     }
 
     public static void cgmFromHistory(
-            PumpHistorySender pumpHistorySender, Realm realm, long pumpMAC,
+            PumpHistorySender pumpHistorySender, Realm realm, HistoryIndex index, long pumpMAC,
             Date eventDate, int eventRTC, int eventOFFSET,
             int sgv,
             double isig,
@@ -148,7 +149,11 @@ public class PumpHistoryCGM extends RealmObject implements PumpHistoryInterface
             boolean sensorError,
             byte sensorException) throws IntegrityException {
 
-        PumpHistoryCGM record = realm.where(PumpHistoryCGM.class)
+        PumpHistoryCGM record;
+        if (index != null && index.covers(eventRTC))
+            record = index.getCGM(eventRTC);
+        else
+            record = realm.where(PumpHistoryCGM.class)
                 .equalTo("pumpMAC", pumpMAC)
                 .equalTo("cgmRTC", eventRTC)
                 .findFirst();
@@ -174,6 +179,7 @@ public class PumpHistoryCGM extends RealmObject implements PumpHistoryInterface
             record.sensorError = sensorError;
             sgv(record, sgv, null, sensorException);
             pumpHistorySender.setSenderREQ(record);
+            if (index != null) index.putCGM(record);
         }
 
         else {
@@ -323,32 +329,32 @@ public class PumpHistoryCGM extends RealmObject implements PumpHistoryInterface
     public List<MessageItem> message(PumpHistorySender pumpHistorySender, String senderID) {return new ArrayList<>();}
 
     @Override
-    public String getSenderREQ() {
+    public int getSenderREQ() {
         return senderREQ;
     }
 
     @Override
-    public void setSenderREQ(String senderREQ) {
+    public void setSenderREQ(int senderREQ) {
         this.senderREQ = senderREQ;
     }
 
     @Override
-    public String getSenderACK() {
+    public int getSenderACK() {
         return senderACK;
     }
 
     @Override
-    public void setSenderACK(String senderACK) {
+    public void setSenderACK(int senderACK) {
         this.senderACK = senderACK;
     }
 
     @Override
-    public String getSenderDEL() {
+    public int getSenderDEL() {
         return senderDEL;
     }
 
     @Override
-    public void setSenderDEL(String senderDEL) {
+    public void setSenderDEL(int senderDEL) {
         this.senderDEL = senderDEL;
     }
 
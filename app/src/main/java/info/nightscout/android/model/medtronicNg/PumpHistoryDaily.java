@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Locale;
 
 import info.nightscout.android.R;
+import info.nightscout.android.history.HistoryIndex;
 import info.nightscout.android.history.HistoryUtils;
 import info.nightscout.android.history.MessageItem;
 import info.nightscout.android.history.NightscoutItem;
@@ -30,11 +31,11 @@ public class PumpHistoryDaily extends RealmObject implements PumpHistoryInterfac
     private static final String TAG = PumpHistoryDaily.class.getSimpleName();
 
     @Index
-    private String senderREQ = "";
+    private int senderREQ;
     @Index
-    private String senderACK = "";
+    private int senderACK;
     @Index
-    private String senderDEL = "";
+    private int senderDEL;
 
     @Index
     private Date eventDate;
@@ -573,7 +574,7 @@ public class PumpHistoryDaily extends RealmObject implements PumpHistoryInterfac
     }
 
     public static void dailyTotals(
-            PumpHistorySender pumpHistorySender, Realm realm, long pumpMAC,
+            PumpHistorySender pumpHistorySender, Realm realm, HistoryIndex index, long pumpMAC,
             Date eventDate, int eventRTC, int eventOFFSET,
             int type,
             Date startDate,
@@ -640,7 +641,11 @@ public class PumpHistoryDaily extends RealmObject implements PumpHistoryInterfac
             int totalTimeInAboveTherapyTargetRangeHiLimit,
             int totalTimeInBelowTherapyTargetRangeLowLimit) {
 
-        PumpHistoryDaily record = realm.where(PumpHistoryDaily.class)
+        PumpHistoryDaily record;
+        if (index != null && index.covers(eventRTC))
+            record = index.getDaily(eventRTC);
+        else
+            record = realm.where(PumpHistoryDaily.class)
                 .equalTo("pumpMAC", pumpMAC)
                 .equalTo("eventRTC", eventRTC)
                 .findFirst();
@@ -654,6 +659,7 @@ public class PumpHistoryDaily extends RealmObject implements PumpHistoryInterfac
 
             record.eventRTC = eventRTC;
             record.eventOFFSET = eventOFFSET;
+            if (index != null) index.putDaily(record);
 
             record.type = type;
 
@@ -758,32 +764,32 @@ public class PumpHistoryDaily extends RealmObject implements PumpHistoryInterfac
     }
 
     @Override
-    public String getSenderREQ() {
+    public int getSenderREQ() {
         return senderREQ;
     }
 
     @Override
-    public void setSenderREQ(String senderREQ) {
+    public void setSenderREQ(int senderREQ) {
         this.senderREQ = senderREQ;
     }
 
     @Override
-    public String getSenderACK() {
+    public int getSenderACK() {
         return senderACK;
     }
 
     @Override
-    public void setSenderACK(String senderACK) {
+    public void setSenderACK(int senderACK) {
         this.senderACK = senderACK;
     }
 
     @Override
-    public String getSenderDEL() {
+    public int getSenderDEL() {
         return senderDEL;
     }
 
     @Override
-    public void setSenderDEL(String senderDEL) {
+    public void setSenderDEL(int senderDEL) {
         this.senderDEL = senderDEL;
     }
 
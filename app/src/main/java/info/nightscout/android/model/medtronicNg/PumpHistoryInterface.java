@@ -14,17 +14,17 @@ import io.realm.RealmModel;
 
 public interface PumpHistoryInterface extends RealmModel {
 
-    String getSenderREQ();
+    int getSenderREQ();
 
-    void setSenderREQ(String senderREQ);
+    void setSenderREQ(int senderREQ);
 
-    String getSenderACK();
+    int getSenderACK();
 
-    void setSenderACK(String senderACK);
+    void setSenderACK(int senderACK);
 
-    String getSenderDEL();
+    int getSenderDEL();
 
-    void setSenderDEL(String senderDEL);
+    void setSenderDEL(int senderDEL);
 
     Date getEventDate();
 
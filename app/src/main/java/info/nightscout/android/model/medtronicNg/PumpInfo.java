@@ -1,5 +1,10 @@
 package info.nightscout.android.model.medtronicNg;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 import io.realm.RealmList;
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
@@ -14,6 +19,7 @@ public class PumpInfo extends RealmObject {
     private byte lastRadioChannel;
     private RealmList<ContourNextLinkInfo> associatedCnls;
     private RealmList<PumpStatusEvent> pumpHistory = new RealmList<>();
+    private RealmList<PumpRadioChannel> radioChannels = new RealmList<>();
 
     public long getPumpMac() {
         return pumpMac;
@@ -58,4 +64,72 @@ public class PumpInfo extends RealmObject {
     public long getPumpSerial() {
         return pumpMac & 0xffffff;
     }
+
+    public RealmList<PumpRadioChannel> getRadioChannels() {
+        return radioChannels;
+    }
+
+    private PumpRadioChannel findRadioChannel(byte channel) {
+        for (PumpRadioChannel radioChannel : radioChannels)
+            if (radioChannel.getChannel() == channel) return radioChannel;
+        return null;
+    }
+
+    // negotiation order, channels ranked by expected connect chance then by rssi
+    // the best channel is retried after every two others when it has connected before
+    // as the pump can miss a single join request
+    public byte[] rankRadioChannels(byte[] channels, long now) {
+        final double[] expected = new double[channels.length];
+        final double[] rssi = new double[channels.length];
+        List<Integer> index = new ArrayList<>();
+
+        for (int i = 0; i < channels.length; i++) {
+            index.add(i);
+            PumpRadioChannel radioChannel = findRadioChannel(channels[i]);
+            if (radioChannel != null) {
+                expected[i] = radioChannel.expected(now);
+                rssi[i] = radioChannel.getRssi();
+            } else {
+                // no history yet, the last channel counts as a single connect
+                expected[i] = channels[i] == lastRadioChannel ? 2 / 3.0 : 0.5;
+            }
+        }
+
+        // stable sort, channels that rank the same keep the default order
+        Collections.sort(index, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = Double.compare(expected[b], expected[a]);
+                return result != 0 ? result : Double.compare(rssi[b], rssi[a]);
+            }
+        });
+
+        List<Byte> ranked = new ArrayList<>();
+        for (int i : index) ranked.add(channels[i]);
+
+        byte best = ranked.get(0);
+        if (expected[index.get(0)] > 0.5) {
+            if (ranked.size() > 3) ranked.add(3, best);
+            if (ranked.size() > 6) ranked.add(6, best);
+            else ranked.add(best);
+        }
+
+        byte[] result = new byte[ranked.size()];
+        for (int i = 0; i < result.length; i++) result[i] = ranked.get(i);
+        return result;
+    }
+
+    // record a negotiation, channels tried before the connected channel failed to connect
+    // must be called within a transaction
+    public void updateRadioChannels(byte[] tried, int attempts, byte connected, int rssiPercentage, long now) {
+        for (int i = 0; i < attempts && i < tried.length; i++) {
+            PumpRadioChannel radioChannel = findRadioChannel(tried[i]);
+            if (radioChannel == null) {
+                radioChannels.add(new PumpRadioChannel(tried[i]));
+                radioChannel = radioChannels.last();
+            }
+            boolean success = connected != 0 && i == attempts - 1;
+            radioChannel.update(success, success ? rssiPercentage : 0, now);
+        }
+    }
 }
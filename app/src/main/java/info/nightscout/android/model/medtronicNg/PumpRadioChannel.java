@@ -0,0 +1,74 @@
+package info.nightscout.android.model.medtronicNg;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Ignore;
+
+/**
+ * Radio channel negotiation history for a pump.
+ *
+ * Success and attempt counts and the RSSI of successful connects are kept as exponentially
+ * decayed values so that older results count less, the pump may have moved to another channel
+ * or the usual distance to the CNL may have changed.
+ */
+public class PumpRadioChannel extends RealmObject {
+    @Ignore
+    private static final long HALF_LIFE_MS = 24 * 60 * 60000L;
+
+    private byte channel;
+    private double success;
+    private double attempts;
+    private double rssi;
+    private long timestamp;
+
+    public PumpRadioChannel() {
+    }
+
+    public PumpRadioChannel(byte channel) {
+        this.channel = channel;
+    }
+
+    private double decay(long now) {
+        if (timestamp == 0 || now <= timestamp) return 1;
+        return Math.pow(0.5, (double) (now - timestamp) / HALF_LIFE_MS);
+    }
+
+    public void update(boolean connected, int rssiPercentage, long now) {
+        double decay = decay(now);
+        success *= decay;
+        attempts *= decay;
+
+        attempts++;
+        if (connected) {
+            rssi = success == 0 ? rssiPercentage : (rssi * success + rssiPercentage) / (success + 1);
+            success++;
+        }
+
+        timestamp = now;
+    }
+
+    // expected chance of a connect, a channel without history scores 0.5
+    public double expected(long now) {
+        double decay = decay(now);
+        return (success * decay + 1) / (attempts * decay + 2);
+    }
+
+    public byte getChannel() {
+        return channel;
+    }
+
+    public double getSuccess() {
+        return success;
+    }
+
+    public double getAttempts() {
+        return attempts;
+    }
+
+    public double getRssi() {
+        return rssi;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -17,10 +17,14 @@ public class DataStore extends RealmObject {
     private long cnlPlugTimestamp;
     private long cnlLimiterTimestamp;
 
+    private String historyParseCheckpoint = "";
+    private int historyParseEvent;
+
     private boolean nightscoutInitCleanup;
     private long nightscoutCgmCleanFrom;
     private long nightscoutPumpCleanFrom;
     private long nightscoutCleanTimestamp;
+    private int nightscoutCleanupStep; // initial cleanup progress, resumes from this step
     private long nightscoutAlwaysUpdateTimestamp; // items for upload will always update prior to this time
 
     private boolean nightscoutUpload;
@@ -31,6 +35,11 @@ public class DataStore extends RealmObject {
     private boolean nightscoutCareportal;
     private boolean nightscoutUseQuery;
     private boolean nightscoutUseProfile;
+    private int nightscoutBackoffCount;
+    private long nightscoutBackoffTimestamp; // no upload attempts until this time after failed uploads
+    private String nightscoutProfileHash; // content hash of the last uploaded profile
+    private String nightscoutProfileID;
+    private long nightscoutProfileVerifyTimestamp;
 
     private boolean requestProfile;
     private boolean requestPumpHistory;
@@ -2003,6 +2012,22 @@ public class DataStore extends RealmObject {
         this.cnlLimiterTimestamp = cnlLimiterTimestamp;
     }
 
+    public String getHistoryParseCheckpoint() {
+        return historyParseCheckpoint;
+    }
+
+    public void setHistoryParseCheckpoint(String historyParseCheckpoint) {
+        this.historyParseCheckpoint = historyParseCheckpoint;
+    }
+
+    public int getHistoryParseEvent() {
+        return historyParseEvent;
+    }
+
+    public void setHistoryParseEvent(int historyParseEvent) {
+        this.historyParseEvent = historyParseEvent;
+    }
+
     public long getReportIsigTimestamp() {
         return reportIsigTimestamp;
     }
@@ -2018,4 +2043,52 @@ public class DataStore extends RealmObject {
     public void setReportIsigAvailable(boolean reportIsigAvailable) {
         this.reportIsigAvailable = reportIsigAvailable;
     }
-}
\ No newline at end of file
+
+    public int getNightscoutBackoffCount() {
+        return nightscoutBackoffCount;
+    }
+
+    public void setNightscoutBackoffCount(int nightscoutBackoffCount) {
+        this.nightscoutBackoffCount = nightscoutBackoffCount;
+    }
+
+    public long getNightscoutBackoffTimestamp() {
+        return nightscoutBackoffTimestamp;
+    }
+
+    public void setNightscoutBackoffTimestamp(long nightscoutBackoffTimestamp) {
+        this.nightscoutBackoffTimestamp = nightscoutBackoffTimestamp;
+    }
+
+    public String getNightscoutProfileHash() {
+        return nightscoutProfileHash;
+    }
+
+    public void setNightscoutProfileHash(String nightscoutProfileHash) {
+        this.nightscoutProfileHash = nightscoutProfileHash;
+    }
+
+    public String getNightscoutProfileID() {
+        return nightscoutProfileID;
+    }
+
+    public void setNightscoutProfileID(String nightscoutProfileID) {
+        this.nightscoutProfileID = nightscoutProfileID;
+    }
+
+    public long getNightscoutProfileVerifyTimestamp() {
+        return nightscoutProfileVerifyTimestamp;
+    }
+
+    public void setNightscoutProfileVerifyTimestamp(long nightscoutProfileVerifyTimestamp) {
+        this.nightscoutProfileVerifyTimestamp = nightscoutProfileVerifyTimestamp;
+    }
+
+    public int getNightscoutCleanupStep() {
+        return nightscoutCleanupStep;
+    }
+
+    public void setNightscoutCleanupStep(int nightscoutCleanupStep) {
+        this.nightscoutCleanupStep = nightscoutCleanupStep;
+    }
+}
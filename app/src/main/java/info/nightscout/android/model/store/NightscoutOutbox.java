@@ -0,0 +1,108 @@
+package info.nightscout.android.model.store;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Ignore;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * Bulk uploaded items confirmed by the nightscout site but not yet acknowledged in the history.
+ * Lets an interrupted upload resume without re-checking or resending the confirmed keys.
+ */
+
+public class NightscoutOutbox extends RealmObject {
+    @Ignore
+    private static final String TAG = NightscoutOutbox.class.getSimpleName();
+
+    public static final String ENTRIES = "entries";
+    public static final String TREATMENTS = "treatments";
+
+    @PrimaryKey
+    private String key; // endpoint:key600
+
+    @Index
+    private String site;
+    private String endpoint;
+    private String key600;
+    private String pumpMAC600;
+    private String id;
+    private long date;
+    private String created_at;
+    private long timestamp;
+
+    public static String key(String endpoint, String key600) {
+        return endpoint + ":" + key600;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getSite() {
+        return site;
+    }
+
+    public void setSite(String site) {
+        this.site = site;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public String getKey600() {
+        return key600;
+    }
+
+    public void setKey600(String key600) {
+        this.key600 = key600;
+    }
+
+    public String getPumpMAC600() {
+        return pumpMAC600;
+    }
+
+    public void setPumpMAC600(String pumpMAC600) {
+        this.pumpMAC600 = pumpMAC600;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public long getDate() {
+        return date;
+    }
+
+    public void setDate(long date) {
+        this.date = date;
+    }
+
+    public String getCreated_at() {
+        return created_at;
+    }
+
+    public void setCreated_at(String created_at) {
+        this.created_at = created_at;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
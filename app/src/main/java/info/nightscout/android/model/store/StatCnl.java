@@ -23,6 +23,33 @@ public class StatCnl extends RealmObject implements StatInterface {
     private int cnlError;
     private int cnlJitter;
 
+    private int usbPoll;
+    private int usbPackets;
+    private long usbBytesCopied;
+    private int usbAllocations;
+
+    private int handshakeFull;
+    private long handshakeFullMS;
+    private int handshakeCached;
+    private long handshakeCachedMS;
+    private int handshakeKeyError;
+
+    private int multipacketTransfers;
+    private int multipacketSegments;
+    private int multipacketRepeated;
+    private int multipacketResends;
+    private int multipacketResendSegments;
+    private long multipacketResendMS;
+    private int multipacketTimeouts;
+
+    // segment gap histogram, see MultipacketScheduler.GAP_BUCKETS_MS
+    private int segmentGap10;
+    private int segmentGap20;
+    private int segmentGap50;
+    private int segmentGap100;
+    private int segmentGap250;
+    private int segmentGapOver;
+
     public void connected() {
         long now = System.currentTimeMillis();
         cnlConnect++;
@@ -39,13 +66,73 @@ public class StatCnl extends RealmObject implements StatInterface {
         cnlDisconnectDate = new Date(now);
     }
 
+    public void usb(int packets, long bytesCopied, int allocations) {
+        usbPoll++;
+        usbPackets += packets;
+        usbBytesCopied += bytesCopied;
+        usbAllocations += allocations;
+    }
+
+    // session setup time with the link key requested from the stick or taken from the cache
+    public void handshake(boolean cached, long timeMS) {
+        if (cached) {
+            handshakeCached++;
+            handshakeCachedMS += timeMS;
+        } else {
+            handshakeFull++;
+            handshakeFullMS += timeMS;
+        }
+    }
+
+    public void handshakeKeyError() {
+        handshakeKeyError++;
+    }
+
+    public void multipacket(int transfers, int segments, int repeated, int resends, int resendSegments, long resendMS, int timeouts, int[] gaps) {
+        multipacketTransfers += transfers;
+        multipacketSegments += segments;
+        multipacketRepeated += repeated;
+        multipacketResends += resends;
+        multipacketResendSegments += resendSegments;
+        multipacketResendMS += resendMS;
+        multipacketTimeouts += timeouts;
+        segmentGap10 += gaps[0];
+        segmentGap20 += gaps[1];
+        segmentGap50 += gaps[2];
+        segmentGap100 += gaps[3];
+        segmentGap250 += gaps[4];
+        segmentGapOver += gaps[5];
+    }
+
     @Override
     public String toString() {
-        return String.format("Connect: %s Disconnect: %s Error: %s Jitter: %s",
+        return String.format("Connect: %s Disconnect: %s Error: %s Jitter: %s USB: %s/%s copy: %sb alloc: %s Handshake: %s~%sms cached: %s~%sms key error: %s Multipacket: %s segments: %s/%s resend: %s/%s %sms timeout: %s gap: %s/%s/%s/%s/%s/%s",
                 cnlConnect,
                 cnlDisconnect,
                 cnlError,
-                cnlJitter
+                cnlJitter,
+                usbPoll == 0 ? 0 : usbPackets / usbPoll,
+                usbPoll,
+                usbPoll == 0 ? 0 : usbBytesCopied / usbPoll,
+                usbPoll == 0 ? 0 : usbAllocations / usbPoll,
+                handshakeFull,
+                handshakeFull == 0 ? 0 : handshakeFullMS / handshakeFull,
+                handshakeCached,
+                handshakeCached == 0 ? 0 : handshakeCachedMS / handshakeCached,
+                handshakeKeyError,
+                multipacketTransfers,
+                multipacketSegments,
+                multipacketRepeated,
+                multipacketResends,
+                multipacketResendSegments,
+                multipacketResendMS,
+                multipacketTimeouts,
+                segmentGap10,
+                segmentGap20,
+                segmentGap50,
+                segmentGap100,
+                segmentGap250,
+                segmentGapOver
         );
     }
 
@@ -116,4 +203,52 @@ public class StatCnl extends RealmObject implements StatInterface {
     public void setCnlJitter(int cnlJitter) {
         this.cnlJitter = cnlJitter;
     }
+
+    public int getUsbPoll() {
+        return usbPoll;
+    }
+
+    public int getUsbPackets() {
+        return usbPackets;
+    }
+
+    public long getUsbBytesCopied() {
+        return usbBytesCopied;
+    }
+
+    public int getUsbAllocations() {
+        return usbAllocations;
+    }
+
+    public int getMultipacketTransfers() {
+        return multipacketTransfers;
+    }
+
+    public int getMultipacketSegments() {
+        return multipacketSegments;
+    }
+
+    public int getMultipacketRepeated() {
+        return multipacketRepeated;
+    }
+
+    public int getMultipacketResends() {
+        return multipacketResends;
+    }
+
+    public int getMultipacketResendSegments() {
+        return multipacketResendSegments;
+    }
+
+    public long getMultipacketResendMS() {
+        return multipacketResendMS;
+    }
+
+    public int getMultipacketTimeouts() {
+        return multipacketTimeouts;
+    }
+
+    public int[] getSegmentGaps() {
+        return new int[]{segmentGap10, segmentGap20, segmentGap50, segmentGap100, segmentGap250, segmentGapOver};
+    }
 }
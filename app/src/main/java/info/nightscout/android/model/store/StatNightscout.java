@@ -21,6 +21,12 @@ public class StatNightscout extends RealmObject implements StatInterface {
     private int siteUnavailable;
     private int totalRecords;
     private int totalHttp;
+    private int request;
+    private long requestMS;
+    private int connect;
+    private long connectMS;
+    private int statusBatched;
+    private int statusDropped;
     private int timer;
     private long timerMS;
     private int timer1;
@@ -36,14 +42,31 @@ public class StatNightscout extends RealmObject implements StatInterface {
         }
     }
 
+    public void request(int count, long ms, int connects, long connectMS) {
+        request += count;
+        requestMS += ms;
+        connect += connects;
+        this.connectMS += connectMS;
+    }
+
+    public void status(int batched, int dropped) {
+        statusBatched += batched;
+        statusDropped += dropped;
+    }
+
     @Override
     public String toString() {
-        return String.format("Run: %s Error: %s Unavailable: %s Records: %s Http: %s Timers: %s~%sms %s~%sms",
+        return String.format("Run: %s Error: %s Unavailable: %s Records: %s Http: %s~%sms Connect: %s~%sms Status: %s/%s Timers: %s~%sms %s~%sms",
                 run,
                 error,
                 siteUnavailable,
                 totalRecords,
                 totalHttp,
+                request == 0 ? 0 : requestMS / request,
+                connect,
+                connect == 0 ? 0 : connectMS / connect,
+                statusBatched,
+                statusDropped,
                 timer,
                 timer == 0 ? 0 : timerMS / timer,
                 timer1,
@@ -110,4 +133,20 @@ public class StatNightscout extends RealmObject implements StatInterface {
     public void setTotalHttp(int totalHttp) {
         this.totalHttp = totalHttp;
     }
+
+    public int getRequest() {
+        return request;
+    }
+
+    public long getRequestMS() {
+        return requestMS;
+    }
+
+    public int getStatusBatched() {
+        return statusBatched;
+    }
+
+    public int getStatusDropped() {
+        return statusDropped;
+    }
 }
@@ -2,15 +2,24 @@ package info.nightscout.android.model.store;
 
 import java.util.Date;
 
+import info.nightscout.android.medtronic.PollTrace;
+
+import io.realm.RealmList;
 import io.realm.RealmObject;
 import io.realm.annotations.Ignore;
 import io.realm.annotations.Index;
 import io.realm.annotations.PrimaryKey;
 
-public class StatPoll extends RealmObject implements StatInterface {
+public class StatPoll extends RealmObject implements StatInterface, PollTrace.Sink {
     @Ignore
     private static final String TAG = StatPoll.class.getSimpleName();
 
+    // time histogram bucket upper bounds, the last bucket is open ended
+    @Ignore
+    private static final long[] BUCKETS_MS = {100, 250, 500, 1000, 2000, 4000, 8000, 16000, 32000};
+    @Ignore
+    private static final int BUCKETS = BUCKETS_MS.length + 1;
+
     @PrimaryKey
     private String key;
     @Index
@@ -46,11 +55,25 @@ public class StatPoll extends RealmObject implements StatInterface {
     private int historyReqBackfill;
     private int historyReqEstimate;
 
+    private int historyParse;
+    private int historyParseCommit;
+    private long historyParseLockMS;
+
     private int timer;
     private long timerMS;
     private int timer1;
     private long timer1MS;
 
+    private int channelNegotiate;
+    private int channelAttempts;
+
+    // time to connect histogram, BUCKETS buckets
+    private RealmList<Integer> connectHistogram = new RealmList<>();
+
+    // phase time histograms, BUCKETS buckets for each PollTrace.PHASE in ordinal order
+    private RealmList<Integer> phaseHistogram = new RealmList<>();
+    private RealmList<Long> phaseMS = new RealmList<>();
+
     public void timer(long timer) {
         if (timer <= 10000) {
             timer1++;
@@ -61,9 +84,91 @@ public class StatPoll extends RealmObject implements StatInterface {
         }
     }
 
+    public void channel(int attempts, boolean connected, long timeMS) {
+        channelNegotiate++;
+        channelAttempts += attempts;
+        if (!connected) return;
+
+        histogram(connectHistogram, 0, timeMS);
+    }
+
+    public long connectPercentile(int percentile) {
+        return percentile(connectHistogram, 0, percentile);
+    }
+
+    @Override
+    public void phase(PollTrace.PHASE phase, long timeMS) {
+        int size = PollTrace.PHASE.values().length;
+        while (phaseMS.size() < size) phaseMS.add(0L);
+
+        phaseMS.set(phase.ordinal(), phaseMS.get(phase.ordinal()) + timeMS);
+
+        histogram(phaseHistogram, phase.ordinal(), timeMS);
+    }
+
+    public int phaseCount(PollTrace.PHASE phase) {
+        return count(phaseHistogram, phase.ordinal());
+    }
+
+    public long phaseMS(PollTrace.PHASE phase) {
+        return phaseMS.size() > phase.ordinal() ? phaseMS.get(phase.ordinal()) : 0;
+    }
+
+    public long phasePercentile(PollTrace.PHASE phase, int percentile) {
+        return percentile(phaseHistogram, phase.ordinal(), percentile);
+    }
+
+    // add a time to the n'th histogram of the list, the list is grown as needed
+    private static void histogram(RealmList<Integer> histograms, int n, long timeMS) {
+        while (histograms.size() < (n + 1) * BUCKETS) histograms.add(0);
+
+        int bucket = 0;
+        while (bucket < BUCKETS_MS.length && timeMS >= BUCKETS_MS[bucket]) bucket++;
+        int index = n * BUCKETS + bucket;
+        histograms.set(index, histograms.get(index) + 1);
+    }
+
+    private static int count(RealmList<Integer> histograms, int n) {
+        if (histograms.size() < (n + 1) * BUCKETS) return 0;
+
+        int total = 0;
+        for (int i = 0; i < BUCKETS; i++) total += histograms.get(n * BUCKETS + i);
+        return total;
+    }
+
+    // upper bound of the histogram bucket holding the percentile, -1 for the open ended bucket
+    private static long percentile(RealmList<Integer> histograms, int n, int percentile) {
+        int total = count(histograms, n);
+        if (total == 0) return 0;
+
+        int target = (total * percentile + 99) / 100;
+        int count = 0;
+        for (int i = 0; i < BUCKETS_MS.length; i++) {
+            count += histograms.get(n * BUCKETS + i);
+            if (count >= target) return BUCKETS_MS[i];
+        }
+        return -1;
+    }
+
+    private String phases() {
+        StringBuilder sb = new StringBuilder();
+        for (PollTrace.PHASE phase : PollTrace.PHASE.values()) {
+            int count = phaseCount(phase);
+            if (count == 0) continue;
+            sb.append(String.format(" %s: %s~%sms p50: %sms p95: %sms p99: %sms",
+                    phase.getName(),
+                    count,
+                    phaseMS(phase) / count,
+                    phasePercentile(phase, 50),
+                    phasePercentile(phase, 95),
+                    phasePercentile(phase, 99)));
+        }
+        return sb.toString();
+    }
+
     @Override
     public String toString() {
-        return String.format("Run: %s Connect: %s/%s RSSI: %s%% weak: %s(%s%%) Status: %s Error: %s CgmNA: %s CgmOld: %s CgmLost: %s HistoryCgm: %s/%s HistoryPump: %s/%s Recency: %s Stale: %s Alert: %s~%s~%s Automode: %s Treatment: %s BG: %s~%s Consumable: %s Backfill: %s Estimate: %s  Timers: %s~%sms %s~%sms",
+        return String.format("Run: %s Connect: %s/%s RSSI: %s%% weak: %s(%s%%) Status: %s Error: %s CgmNA: %s CgmOld: %s CgmLost: %s HistoryCgm: %s/%s HistoryPump: %s/%s Recency: %s Stale: %s Alert: %s~%s~%s Automode: %s Treatment: %s BG: %s~%s Consumable: %s Backfill: %s Estimate: %s Parse: %s/%s lock: %sms  Timers: %s~%sms %s~%sms Channel: %s/%s connect p50: %sms p90: %sms p99: %sms Phases:%s",
                 pollCount,
                 pollConnect,
                 pollConnect + pollNoConnect,
@@ -91,10 +196,19 @@ public class StatPoll extends RealmObject implements StatInterface {
                 historyReqConsumable,
                 historyReqBackfill,
                 historyReqEstimate,
+                historyParseCommit,
+                historyParse,
+                historyParseLockMS,
                 timer,
                 timer == 0 ? 0 : timerMS / timer,
                 timer1,
-                timer1 == 0 ? 0 : timer1MS / timer1
+                timer1 == 0 ? 0 : timer1MS / timer1,
+                channelAttempts,
+                channelNegotiate,
+                connectPercentile(50),
+                connectPercentile(90),
+                connectPercentile(99),
+                phases()
         );
     }
 
@@ -341,4 +455,22 @@ public class StatPoll extends RealmObject implements StatInterface {
     public void incHistoryReqEstimate() {
         historyReqEstimate++;
     }
+
+    public void historyParse(int commits, long lockMS) {
+        historyParse++;
+        historyParseCommit += commits;
+        if (lockMS > historyParseLockMS) historyParseLockMS = lockMS;
+    }
+
+    public int getHistoryParse() {
+        return historyParse;
+    }
+
+    public int getHistoryParseCommit() {
+        return historyParseCommit;
+    }
+
+    public long getHistoryParseLockMS() {
+        return historyParseLockMS;
+    }
 }
@@ -22,6 +22,8 @@ public class StatPushover extends RealmObject implements StatInterface {
     private int validError;
 
     private int messagesSent;
+    private int messagesCoalesced;
+    private int messagesSkipped;
 
     private int limit;
     private int remaining;
@@ -29,11 +31,13 @@ public class StatPushover extends RealmObject implements StatInterface {
 
     @Override
     public String toString() {
-        return String.format("Run: %s Error: %s ValidError: %s Sent: %s Limit: %s/%s Reset: %s",
+        return String.format("Run: %s Error: %s ValidError: %s Sent: %s Coalesced: %s Skipped: %s Limit: %s/%s Reset: %s",
                 run,
                 error,
                 validError,
                 messagesSent,
+                messagesCoalesced,
+                messagesSkipped,
                 limit - remaining,
                 limit,
                 resetTime == 0 ? "-" : FormatKit.getInstance().formatAsYMD(resetTime)
@@ -96,6 +100,22 @@ public class StatPushover extends RealmObject implements StatInterface {
         messagesSent++;
     }
 
+    public int getMessagesCoalesced() {
+        return messagesCoalesced;
+    }
+
+    public void setMessagesCoalesced(int messagesCoalesced) {
+        this.messagesCoalesced = messagesCoalesced;
+    }
+
+    public int getMessagesSkipped() {
+        return messagesSkipped;
+    }
+
+    public void setMessagesSkipped(int messagesSkipped) {
+        this.messagesSkipped = messagesSkipped;
+    }
+
     public int getLimit() {
         return limit;
     }
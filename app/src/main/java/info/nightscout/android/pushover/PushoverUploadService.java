@@ -10,8 +10,19 @@ import android.util.Log;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import info.nightscout.android.R;
 import info.nightscout.android.UploaderApplication;
@@ -27,14 +38,25 @@ import okhttp3.Headers;
 import retrofit2.Response;
 
 import static info.nightscout.android.history.PumpHistorySender.SENDER_ID_PUSHOVER;
-import static info.nightscout.android.utils.ToolKit.getWakeLock;
-import static info.nightscout.android.utils.ToolKit.releaseWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.getWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.releaseWakeLock;
 
 public class PushoverUploadService extends Service {
     private static final String TAG = PushoverUploadService.class.getSimpleName();
 
     private static final String PUSHOVER_URL = "https://api.pushover.net/";
 
+    // messages of the same priority within this period are coalesced into a single message
+    private static final long COALESCE_MS = 60000L;
+    // pushover message length limit
+    private static final int MESSAGE_MAX = 1024;
+    // priority classes are posted concurrently, the messages of a class in order on one thread
+    private static final int SEND_THREADS = 3;
+    // when the remaining monthly quota drops below this only high and emergency priority messages are sent
+    private static final int QUOTA_RESERVE = 100;
+    // messages held for quota older than this are dropped, stale alerts are not sent when the quota resets
+    private static final long HELD_EXPIRE_MS = 60 * 60000L;
+
     private Context mContext;
 
     private Realm storeRealm;
@@ -48,9 +70,13 @@ public class PushoverUploadService extends Service {
     private String apiToken;
     private String userToken;
     private int messagesSent;
+    private int messagesCoalesced;
+    private int messagesSkipped;
+    private int messagesExpired;
     private int appLimit;
     private int appRemaining;
     private long appReset;
+    private volatile boolean accountError;
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -212,48 +238,218 @@ public class PushoverUploadService extends Service {
         });
     }
 
+    // a message to post, can hold several coalesced message items
+    private class Dispatch {
+        private final PushoverEndpoints.Message pem;
+        private final String title;
+        private final Date date;
+        private final int priority;
+        private int items = 1;
+        private boolean success;
+        private boolean held;
+
+        Dispatch(PushoverEndpoints.Message pem, Date date) {
+            this.pem = pem;
+            this.title = pem.getTitle();
+            this.date = date;
+            this.priority = priorityValue(pem.getPriority());
+        }
+
+        // merge a following message of the same priority and sound if the result fits the length limit
+        boolean coalesce(PushoverEndpoints.Message next, Date nextDate) {
+            if (nextDate.getTime() - date.getTime() >= COALESCE_MS
+                    || !String.valueOf(pem.getSound()).equals(String.valueOf(next.getSound())))
+                return false;
+
+            String message = pem.getMessage() + "\n" + next.getTitle() + " • " + next.getMessage();
+            if (message.length() > MESSAGE_MAX) return false;
+
+            items++;
+            pem.setMessage(message);
+            pem.setTitle(title + " (+" + (items - 1) + ")");
+            return true;
+        }
+    }
+
+    // the dispatches of one priority, posted in order on a single thread
+    private class Lane implements Callable<Boolean> {
+        private final List<Dispatch> dispatches = new ArrayList<>();
+        private Future<Boolean> future;
+
+        @Override
+        public Boolean call() {
+            boolean success = true;
+            for (Dispatch dispatch : dispatches) {
+                dispatch.success = post(dispatch.pem, dispatch.date);
+                success &= dispatch.success;
+            }
+            return success;
+        }
+    }
+
+    private static int priorityValue(String priority) {
+        try {
+            return Integer.parseInt(priority);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
     private void process() {
         messagesSent = 0;
+        messagesCoalesced = 0;
+        messagesSkipped = 0;
+        messagesExpired = 0;
+        accountError = false;
+
+        // quota as of the last send, pushover only reports this in the response headers
+        appLimit = (int) dataStore.getPushoverAppLimit();
+        appRemaining = (int) dataStore.getPushoverAppRemaining();
+        appReset = dataStore.getPushoverAppReset();
 
         pumpHistoryHandler = new PumpHistoryHandler(mContext);
         List<PumpHistoryInterface> records = pumpHistoryHandler.getSenderRecordsREQ(SENDER_ID_PUSHOVER);
 
+        // plan the messages, each record keeps a list of the dispatches that carry its message items
+        List<Dispatch> dispatches = new ArrayList<>();
+        List<List<Dispatch>> recordDispatches = new ArrayList<>();
+        Map<String, Dispatch> open = new HashMap<>();
+
         for (PumpHistoryInterface record : records) {
+            List<Dispatch> carriers = new ArrayList<>();
+            recordDispatches.add(carriers);
 
-            List<info.nightscout.android.history.MessageItem> messageItems = record.message(pumpHistoryHandler.getPumpHistorySender(), SENDER_ID_PUSHOVER);
+            List<MessageItem> messageItems = record.message(pumpHistoryHandler.getPumpHistorySender(), SENDER_ID_PUSHOVER);
 
-            boolean success = true;
             for (MessageItem messageItem : messageItems) {
-                success &= send(messageItem);
+                PushoverEndpoints.Message pem = build(messageItem);
+                Dispatch dispatch = open.get(pem.getPriority());
+
+                if (dispatch != null && dispatch.coalesce(pem, messageItem.getDate())) {
+                    messagesCoalesced++;
+                } else {
+                    dispatch = new Dispatch(pem, messageItem.getDate());
+                    dispatches.add(dispatch);
+                    open.put(pem.getPriority(), dispatch);
+                }
+
+                if (!carriers.contains(dispatch)) carriers.add(dispatch);
             }
+        }
 
-            if (success) {
-                pumpHistoryHandler.setSenderRecordACK(record, SENDER_ID_PUSHOVER);
-            } else {
-                statPushover.incError();
-                break;
+        // highest priority first so the most important alert is not queued behind the rest
+        List<Dispatch> queue = new ArrayList<>(dispatches);
+        Collections.sort(queue, new Comparator<Dispatch>() {
+            @Override
+            public int compare(Dispatch d1, Dispatch d2) {
+                return d2.priority - d1.priority;
             }
+        });
 
+        long now = System.currentTimeMillis();
+        if (appLimit > 0 && appReset * 1000L > now) {
+            int budget = appRemaining;
+            for (int i = queue.size() - 1; i >= 0; i--) {
+                Dispatch dispatch = queue.get(i);
+                if (i >= budget
+                        || (appRemaining < QUOTA_RESERVE && dispatch.priority < priorityValue(PRIORITY.HIGH.string))) {
+                    if (now - dispatch.date.getTime() > HELD_EXPIRE_MS) {
+                        // too old to be of use once the quota resets, treat as handled so the records are acknowledged
+                        dispatch.success = true;
+                        messagesExpired += dispatch.items;
+                    } else {
+                        // no quota to send this month, the records stay queued until the quota resets or they expire
+                        dispatch.held = true;
+                    }
+                    messagesSkipped += dispatch.items;
+                    queue.remove(i);
+                }
+            }
+            if (messagesSkipped > 0) {
+                Log.w(TAG, String.format("quota remaining %s, held %s messages, dropped %s expired messages",
+                        appRemaining, messagesSkipped - messagesExpired, messagesExpired));
+                UserLogMessage.send(mContext, UserLogMessage.TYPE.WARN, String.format("{id;%s}: {id;%s} %s {id;%s} %s",
+                        R.string.ul_share__pushover, R.string.ul_share__pushover_quota_held, messagesSkipped - messagesExpired,
+                        R.string.ul_share__pushover_quota_expired, messagesExpired));
+            }
+        }
+
+        // one lane per priority in queue order, so a class is never delivered out of order
+        List<Lane> lanes = new ArrayList<>();
+        Map<Integer, Lane> lanePriority = new HashMap<>();
+        for (Dispatch dispatch : queue) {
+            Lane lane = lanePriority.get(dispatch.priority);
+            if (lane == null) {
+                lane = new Lane();
+                lanes.add(lane);
+                lanePriority.put(dispatch.priority, lane);
+            }
+            lane.dispatches.add(dispatch);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(SEND_THREADS, lanes.size())));
+        try {
+            for (Lane lane : lanes)
+                lane.future = executor.submit(lane);
+
+            for (Lane lane : lanes) {
+                try {
+                    lane.future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    // dispatches not posted by the lane are left unsuccessful
+                    Log.e(TAG, "failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (accountError) resetValidation();
+
+        boolean error = false;
+        for (int i = 0; i < records.size(); i++) {
+            boolean success = true;
+            boolean held = false;
+            for (Dispatch dispatch : recordDispatches.get(i)) {
+                success &= dispatch.success;
+                held |= dispatch.held;
+            }
+
+            // held records are not acknowledged and are sent once the quota allows
+            if (success) pumpHistoryHandler.setSenderRecordACK(records.get(i), SENDER_ID_PUSHOVER);
+            else if (!held) error = true;
         }
+        if (error) statPushover.incError();
 
         pumpHistoryHandler.close();
 
+        statPushover.setMessagesCoalesced(statPushover.getMessagesCoalesced() + messagesCoalesced);
+        statPushover.setMessagesSkipped(statPushover.getMessagesSkipped() + messagesSkipped);
+
         if (messagesSent > 0) {
+            storeRealm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(@NonNull Realm realm) {
+                    dataStore.setPushoverAppLimit(appLimit);
+                    dataStore.setPushoverAppRemaining(appRemaining);
+                    dataStore.setPushoverAppReset(appReset);
+                }
+            });
+
             statPushover.setMessagesSent(statPushover.getMessagesSent() + messagesSent);
             statPushover.setLimit(appLimit);
             statPushover.setRemaining(appRemaining);
             statPushover.setResetTime(appReset * 1000);
             DateFormat df = new SimpleDateFormat("yyyy/MM/dd", Locale.ENGLISH);
-            Log.i(TAG, String.format("Sent: %s Limit: %s Remaining: %d Reset: %s",
-                    messagesSent, appLimit, appRemaining, df.format(appReset * 1000)));
+            Log.i(TAG, String.format("Sent: %s Coalesced: %s Skipped: %s Limit: %s Remaining: %d Reset: %s",
+                    messagesSent, messagesCoalesced, messagesSkipped, appLimit, appRemaining, df.format(appReset * 1000)));
             UserLogMessage.sendN(mContext, UserLogMessage.TYPE.PUSHOVER, String.format("{id;%s}: {id;%s} %s",
                     R.string.ul_share__pushover, R.string.ul_share__processed, messagesSent));
         }
     }
 
-    public boolean send(MessageItem messageItem) {
-        boolean success;
-
+    // build the message on the service thread, the settings are read from the realm dataStore
+    private PushoverEndpoints.Message build(MessageItem messageItem) {
         String title = messageItem.getTitle();
         String message = messageItem.getMessage();
         String extended = messageItem.getExtended();
@@ -273,8 +469,6 @@ public class PushoverUploadService extends Service {
         if (message.length() == 0)
             message = "...";
 
-        PushoverEndpoints pushoverEndpoints = pushoverApi.getPushoverEndpoints();
-
         PushoverEndpoints.Message pem = new PushoverEndpoints.Message();
         pem.setToken(apiToken);
         pem.setUser(userToken);
@@ -423,6 +617,15 @@ public class PushoverUploadService extends Service {
             pem.setExpire(dataStore.getPushoverEmergencyExpire());
         }
 
+        return pem;
+    }
+
+    // post a message, called concurrently from the send pool
+    private boolean post(PushoverEndpoints.Message pem, Date date) {
+        boolean success;
+
+        PushoverEndpoints pushoverEndpoints = pushoverApi.getPushoverEndpoints();
+
         try {
             Response<PushoverEndpoints.Message> response = pushoverEndpoints.postMessage(pem).execute();
 
@@ -431,40 +634,53 @@ public class PushoverUploadService extends Service {
             } else if (response.body() == null) {
                 throw new Exception("response body null");
             } else if (response.code() == 400) {
-                resetValidation();
+                accountError = true;
                 throw new Exception("account error");
             } else if (response.code() != 200) {
                 throw new Exception("server error");
             }
 
-            try {
-                Headers headers = response.headers();
-                for (int i = 0, count = headers.size(); i < count; i++) {
-                    String name = headers.name(i);
-                    if ("X-Limit-App-Limit".equalsIgnoreCase(name)) {
-                        appLimit = Integer.parseInt(headers.value(i));
-                    } else if ("X-Limit-App-Remaining".equalsIgnoreCase(name)) {
-                        appRemaining = Integer.parseInt(headers.value(i));
-                    } else if ("X-Limit-App-Reset".equalsIgnoreCase(name)) {
-                        appReset = Long.parseLong(headers.value(i));
+            synchronized (this) {
+                try {
+                    int limit = -1;
+                    int remaining = -1;
+                    long reset = -1;
+                    Headers headers = response.headers();
+                    for (int i = 0, count = headers.size(); i < count; i++) {
+                        String name = headers.name(i);
+                        if ("X-Limit-App-Limit".equalsIgnoreCase(name)) {
+                            limit = Integer.parseInt(headers.value(i));
+                        } else if ("X-Limit-App-Remaining".equalsIgnoreCase(name)) {
+                            remaining = Integer.parseInt(headers.value(i));
+                        } else if ("X-Limit-App-Reset".equalsIgnoreCase(name)) {
+                            reset = Long.parseLong(headers.value(i));
+                        }
                     }
-                }
-            } catch (Exception ignored) {}
-
-            UserLogMessage.sendE(mContext, UserLogMessage.TYPE.PUSHOVER,
-                    String.format("{id;%s}: %s/%s {date.time;%s} '%s' '%s' '%s' '%s'%s",
-                            R.string.ul_share__pushover,
-                            appLimit - appRemaining,
-                            appLimit,
-                            messageItem.getDate().getTime(),
-                            pem.getTitle(),
-                            pem.getMessage(),
-                            pem.getPriority(),
-                            pem.getSound(),
-                            pem.getDevice().length() == 0 ? "" : " '" + pem.getDevice() + "'"
-                    ));
-
-            messagesSent++;
+                    if (limit >= 0) appLimit = limit;
+                    // concurrent responses can arrive out of order, keep the lowest remaining within a quota period
+                    if (reset >= 0 && reset != appReset) {
+                        appReset = reset;
+                        if (remaining >= 0) appRemaining = remaining;
+                    } else if (remaining >= 0) {
+                        appRemaining = Math.min(appRemaining, remaining);
+                    }
+                } catch (Exception ignored) {}
+
+                UserLogMessage.sendE(mContext, UserLogMessage.TYPE.PUSHOVER,
+                        String.format("{id;%s}: %s/%s {date.time;%s} '%s' '%s' '%s' '%s'%s",
+                                R.string.ul_share__pushover,
+                                appLimit - appRemaining,
+                                appLimit,
+                                date.getTime(),
+                                pem.getTitle(),
+                                pem.getMessage(),
+                                pem.getPriority(),
+                                pem.getSound(),
+                                pem.getDevice().length() == 0 ? "" : " '" + pem.getDevice() + "'"
+                        ));
+
+                messagesSent++;
+            }
 
             success = true;
             Log.i(TAG, "success");
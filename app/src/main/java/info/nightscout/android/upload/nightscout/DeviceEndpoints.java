@@ -3,9 +3,11 @@ package info.nightscout.android.upload.nightscout;
 import java.math.BigDecimal;
 import java.util.Date;
 
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
+import retrofit2.http.Header;
 import retrofit2.http.Headers;
 import retrofit2.http.POST;
 
@@ -97,4 +99,13 @@ public interface DeviceEndpoints {
     @POST("/api/v1/devicestatus")
     Call<ResponseBody> sendDeviceStatus(@Body DeviceStatus deviceStatus);
 
+    // post an array of device status as a streamed json body
+    @Headers({
+            "Accept: application/json",
+            "Content-type: application/json"
+    })
+    @POST("/api/v1/devicestatus")
+    Call<ResponseBody> sendDeviceStatus(@Header("Content-Encoding") String encoding,
+                                        @Body RequestBody deviceStatus);
+
 }
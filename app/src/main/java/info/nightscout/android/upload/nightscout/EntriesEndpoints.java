@@ -5,11 +5,13 @@ import com.google.gson.annotations.SerializedName;
 import java.util.Date;
 import java.util.List;
 
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.DELETE;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.Query;
@@ -146,6 +148,12 @@ public interface EntriesEndpoints {
                               @Query("find[date][$lte]") String to,
                               @Query("find[key600]") String key);
 
+    // find entries using a set of keys
+    @GET("/api/v1/entries/sgv.json")
+    Call<List<Entry>> findKeys(@Query("find[date][$gte]") String date,
+                               @Query("find[key600][$in][]") List<String> keys,
+                               @Query("count") String count);
+
     // delete entry using id
     @DELETE("/api/v1/entries/sgv.json")
     Call<ResponseBody> deleteID(@Query("find[date]") String date,
@@ -202,4 +210,9 @@ public interface EntriesEndpoints {
     // post bulk entries
     @POST("/api/v1/entries")
     Call<ResponseBody> sendEntries(@Body List<Entry> entries);
+
+    // post bulk entries as a streamed json body
+    @POST("/api/v1/entries")
+    Call<ResponseBody> sendEntries(@Header("Content-Encoding") String encoding,
+                                   @Body RequestBody entries);
 }
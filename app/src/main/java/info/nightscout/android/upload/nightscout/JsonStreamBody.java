@@ -0,0 +1,98 @@
+package info.nightscout.android.upload.nightscout;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Request body that writes a list of items as a json array directly to the connection,
+ * optionally gzip encoded. The json is never built as a string on the heap.
+ */
+
+public class JsonStreamBody extends RequestBody {
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    private static final Gson gson = new Gson();
+
+    private final List<?> items;
+    private final boolean gzip;
+
+    public JsonStreamBody(List<?> items, boolean gzip) {
+        this.items = items;
+        this.gzip = gzip;
+    }
+
+    public String getContentEncoding() {
+        return gzip ? "gzip" : null;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return MEDIA_TYPE_JSON;
+    }
+
+    @Override
+    public long contentLength() {
+        // unknown, sent chunked
+        return -1;
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        BufferedSink out = gzip ? Okio.buffer(new GzipSink(sink)) : sink;
+
+        JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(out.outputStream(), "UTF-8"));
+        writer.beginArray();
+        for (Object item : items) {
+            gson.toJson(item, item.getClass(), writer);
+        }
+        writer.endArray();
+        writer.flush();
+
+        // gzip trailer is written on close
+        if (gzip) out.close();
+    }
+
+    // utf-8 length of an item as written in the array, counted without building the json string
+    public static long jsonLength(Object item) throws IOException {
+        CountingWriter counter = new CountingWriter();
+        JsonWriter writer = gson.newJsonWriter(counter);
+        gson.toJson(item, item.getClass(), writer);
+        writer.flush();
+        return counter.bytes;
+    }
+
+    private static class CountingWriter extends Writer {
+        private long bytes;
+
+        @Override
+        public void write(@NonNull char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c < 0x80) bytes += 1;
+                else if (c < 0x800 || Character.isSurrogate(c)) bytes += 2; // a surrogate pair is 4 bytes
+                else bytes += 3;
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
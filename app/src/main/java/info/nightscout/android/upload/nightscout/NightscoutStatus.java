@@ -266,11 +266,13 @@ public class NightscoutStatus {
             boolean available = false;
 
             try{
-                UploadApi uploadApi = new UploadApi(url, secret);
+                UploadApi uploadApi = UploadApi.getInstance(url, secret);
 
                 statusEndpoints = uploadApi.getStatusEndpoints();
 
+                uploadApi.getStatusTimer().reset();
                 Response<StatusEndpoints.Status> responseBody = statusEndpoints.getStatus().execute();
+                Log.d(TAG, "status check " + uploadApi.getStatusTimer());
                 if (!responseBody.isSuccessful())
                     throw new Exception("no response " + responseBody.message());
 
@@ -3,15 +3,32 @@ package info.nightscout.android.upload.nightscout;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import info.nightscout.android.R;
+import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.history.NightscoutItem;
 import info.nightscout.android.history.PumpHistoryHandler;
 import info.nightscout.android.history.PumpHistoryParser;
@@ -19,6 +36,7 @@ import info.nightscout.android.history.PumpHistorySender;
 import info.nightscout.android.model.medtronicNg.PumpHistoryInterface;
 import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
+import info.nightscout.android.model.store.NightscoutOutbox;
 import info.nightscout.android.upload.nightscout.DeviceEndpoints.Iob;
 import info.nightscout.android.upload.nightscout.DeviceEndpoints.Battery;
 import info.nightscout.android.upload.nightscout.DeviceEndpoints.PumpStatus;
@@ -27,6 +45,7 @@ import info.nightscout.android.upload.nightscout.DeviceEndpoints.DeviceStatus;
 import info.nightscout.android.utils.FormatKit;
 import io.realm.Realm;
 import okhttp3.ResponseBody;
+import retrofit2.Call;
 import retrofit2.Response;
 
 import static info.nightscout.android.history.PumpHistorySender.SENDER_ID_NIGHTSCOUT;
@@ -49,6 +68,37 @@ public class NightscoutUploadProcess {
     // debug use only as may have issues if there is a lot of treatment entries in NS
     private static final boolean CLEAN_COMPLETE = false;
 
+    // keys per reconciliation query, keeps the request url to a sensible length
+    private static final int KEY_LOOKUP_BATCH = 50;
+    // allow for duplicate items per key in the query result count
+    private static final int KEY_LOOKUP_COUNT = KEY_LOOKUP_BATCH * 4;
+
+    // items per bulk post
+    private static final int BULK_CHUNK = 100;
+    // uncompressed json per bulk post, large treatments can reach site or proxy body limits before the item count
+    private static final long BULK_CHUNK_BYTES = 256 * 1024;
+
+    // device, entries, treatments and profile each upload on their own lane
+    private static final int UPLOAD_LANES = 4;
+    // bound for the wait on the lanes, each lane stops at its next request once cancelled
+    private static final long LANE_AWAIT_MS = 5 * 60000L;
+    // wait for the lanes to exit after their calls in flight are cancelled
+    private static final long LANE_CANCEL_MS = 10000L;
+
+    // device status backlog is coalesced, the newest are always sent and older
+    // status is thinned to the most recent in each window
+    private static final int STATUS_NEWEST = 3;
+    private static final long STATUS_WINDOW_MS = 15 * 60000L;
+
+    // cleanup finds start at the min page size and double on full pages
+    private static final int CLEANUP_PAGE_MIN = 20;
+    private static final int CLEANUP_PAGE_MAX = 200;
+    // cleanup time per upload pass, remaining cleanup continues on the next upload
+    private static final long CLEANUP_BUDGET_MS = 30000L;
+
+    // an unchanged profile is trusted from the local hash, the site is fully checked again after this period
+    private static final long PROFILE_VERIFY_MS = 12 * 60 * 60000L;
+
     private DeviceEndpoints deviceEndpoints;
     private EntriesEndpoints entriesEndpoints;
     private TreatmentsEndpoints treatmentsEndpoints;
@@ -63,7 +113,20 @@ public class NightscoutUploadProcess {
     private String enteredBy;
     private PumpHistoryHandler.ExtraInfo extraInfo;
 
-    private boolean cancel;
+    private volatile boolean cancel;
+
+    private long cleanupDeadline;
+
+    // settings used by the upload lanes, the realm dataStore is confined to the calling thread
+    private boolean useQuery;
+    private boolean profileSingle;
+
+    // last uploaded profile, updated by the profile lane and saved to the dataStore on completion
+    private String profileHash;
+    private String profileID;
+    private long profileVerifyTimestamp;
+    private boolean profileCacheChanged;
+    private int profileCacheCount;
 
     private int entriesBulkCount;
     private int entriesDeleteCount;
@@ -75,13 +138,22 @@ public class NightscoutUploadProcess {
     private int profileDeleteCount;
     private int profileCheckCount;
     private int deviceWriteCount;
+    private int deviceBatchCount;
+    private int deviceDropCount;
     private int cheanupCheckCount;
     private int cheanupDeleteCount;
 
     private UploadApi uploadApi;
 
+    private String site;
+    // items confirmed by the site during an earlier interrupted upload
+    private Map<String, NightscoutOutbox> outbox = new HashMap<>();
+    private int entriesOutboxCount;
+    private int treatmentsOutboxCount;
+
     NightscoutUploadProcess(String url, String secret) throws Exception {
-        uploadApi = new UploadApi(url, secret);
+        site = url;
+        uploadApi = UploadApi.getInstance(url, secret);
         deviceEndpoints = uploadApi.getDeviceEndpoints();
         entriesEndpoints = uploadApi.getEntriesEndpoints();
         treatmentsEndpoints = uploadApi.getTreatmentsEndpoints();
@@ -106,6 +178,8 @@ public class NightscoutUploadProcess {
 
         cancel = false;
         resetCounts();
+        uploadApi.getRequestTimer().reset();
+        uploadApi.resetUploadCalls();
 
         this.pumpHistorySender = pumpHistorySender;
 
@@ -120,16 +194,47 @@ public class NightscoutUploadProcess {
         if (dataStore.getNsEnteredBy().length() == 0) this.enteredBy = this.device;
         else enteredBy = DEVICE_HEADER + dataStore.getNsEnteredBy();
 
-        if (dataStore.isNsEnableDeviceStatus())
-            uploadStatus(statusRecords, uploaderBatteryLevel);
+        loadOutbox();
+
+        useQuery = dataStore.isNightscoutUseQuery();
+        profileSingle = dataStore.isNsEnableProfileSingle();
+
+        profileHash = dataStore.getNightscoutProfileHash();
+        profileID = dataStore.getNightscoutProfileID();
+        profileVerifyTimestamp = dataStore.getNightscoutProfileVerifyTimestamp();
+        profileCacheChanged = false;
+
+        // lanes run concurrently, requests within a lane keep their order
+        List<UploadLane> lanes = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(UPLOAD_LANES);
 
-        if (!cancel) uploadEvents(records);
+        Throwable error = null;
+        long errorTime = 0;
 
-        Log.d(TAG, String.format("HTTP workload: Entries: check=%s delete=%s bulk=%s Treatments: check=%s delete=%s bulk=%s Device: write=%s Profile: check=%s delete=%s write=%s Clean: check=%s delete=%s",
-                entriesCheckCount, entriesDeleteCount, entriesBulkCount,
-                treatmentsCheckCount, treatmentsDeleteCount, treatmentsBulkCount,
-                deviceWriteCount,
-                profileCheckCount, profileDeleteCount, profileWriteCount,
+        try {
+            if (dataStore.isNsEnableDeviceStatus())
+                startLane(executor, lanes, uploadStatus(statusRecords, uploaderBatteryLevel));
+
+            if (!cancel) uploadEvents(executor, lanes, records);
+
+        } catch (Throwable e) {
+            error = e;
+            errorTime = System.currentTimeMillis();
+            // stop the started lanes at their next request, they are still awaited before returning
+            cancel = true;
+
+        } finally {
+            awaitLanes(executor);
+            saveProfileCache();
+        }
+
+        throwFirstError(lanes, error, errorTime);
+
+        Log.d(TAG, String.format("HTTP workload: Entries: check=%s delete=%s bulk=%s outbox=%s Treatments: check=%s delete=%s bulk=%s outbox=%s Device: write=%s batch=%s drop=%s Profile: check=%s delete=%s write=%s cache=%s Clean: check=%s delete=%s",
+                entriesCheckCount, entriesDeleteCount, entriesBulkCount, entriesOutboxCount,
+                treatmentsCheckCount, treatmentsDeleteCount, treatmentsBulkCount, treatmentsOutboxCount,
+                deviceWriteCount, deviceBatchCount, deviceDropCount,
+                profileCheckCount, profileDeleteCount, profileWriteCount, profileCacheCount,
                 cheanupCheckCount, cheanupDeleteCount
                 ));
     }
@@ -144,9 +249,94 @@ public class NightscoutUploadProcess {
         profileWriteCount = 0;
         profileDeleteCount = 0;
         profileCheckCount = 0;
+        profileCacheCount = 0;
         deviceWriteCount = 0;
+        deviceBatchCount = 0;
+        deviceDropCount = 0;
         cheanupCheckCount = 0;
         cheanupDeleteCount = 0;
+        entriesOutboxCount = 0;
+        treatmentsOutboxCount = 0;
+    }
+
+    private void loadOutbox() {
+        storeRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                // confirmations for a previous site are no longer valid
+                realm.where(NightscoutOutbox.class)
+                        .notEqualTo("site", site)
+                        .findAll()
+                        .deleteAllFromRealm();
+            }
+        });
+
+        // unmanaged copies, the upload lanes read these on other threads
+        outbox = new HashMap<>();
+        for (NightscoutOutbox item : storeRealm.copyFromRealm(storeRealm.where(NightscoutOutbox.class).findAll()))
+            outbox.put(item.getKey(), item);
+
+        if (outbox.size() > 0) Log.i(TAG, "resuming upload, outbox confirmed items: " + outbox.size());
+    }
+
+    // all history records for this upload have been acknowledged
+    public void clearOutbox() {
+        storeRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                realm.where(NightscoutOutbox.class)
+                        .findAll()
+                        .deleteAllFromRealm();
+            }
+        });
+        outbox.clear();
+    }
+
+    // record the items created by a bulk post, called on an upload lane thread
+    private void confirmBulk(String endpoint, ResponseBody body) {
+        final List<NightscoutOutbox> confirmed = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        try {
+            JsonElement json = new JsonParser().parse(body.charStream());
+            if (json.isJsonArray()) {
+                for (JsonElement element : json.getAsJsonArray()) {
+                    if (!element.isJsonObject()) continue;
+                    JsonObject item = element.getAsJsonObject();
+                    if (!item.has("key600") || !item.has("_id")) continue;
+
+                    NightscoutOutbox outboxItem = new NightscoutOutbox();
+                    outboxItem.setKey(NightscoutOutbox.key(endpoint, item.get("key600").getAsString()));
+                    outboxItem.setSite(site);
+                    outboxItem.setEndpoint(endpoint);
+                    outboxItem.setKey600(item.get("key600").getAsString());
+                    outboxItem.setId(item.get("_id").getAsString());
+                    if (item.has("pumpMAC600")) outboxItem.setPumpMAC600(item.get("pumpMAC600").getAsString());
+                    if (item.has("date")) outboxItem.setDate(item.get("date").getAsLong());
+                    if (item.has("created_at")) outboxItem.setCreated_at(item.get("created_at").getAsString());
+                    outboxItem.setTimestamp(now);
+                    confirmed.add(outboxItem);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, String.format("(%s) could not read bulk response: %s", endpoint, e.getMessage()));
+        } finally {
+            body.close();
+        }
+
+        if (confirmed.size() == 0) return;
+
+        Realm realm = Realm.getInstance(UploaderApplication.getStoreConfiguration());
+        try {
+            realm.executeTransaction(new Realm.Transaction() {
+                @Override
+                public void execute(@NonNull Realm realm) {
+                    realm.copyToRealmOrUpdate(confirmed);
+                }
+            });
+        } finally {
+            realm.close();
+        }
     }
 
     // Format date to Zulu (UTC) time
@@ -159,36 +349,191 @@ public class NightscoutUploadProcess {
         return sdf.format(time) + "Z";
     }
 
-    private void uploadEvents(List<PumpHistoryInterface> records) throws Exception, NightscoutException {
+    private abstract class UploadLane implements Callable<Void> {
+        private final String name;
+        private Throwable error;
+        private long errorTime;
+
+        UploadLane(String name) {
+            this.name = name;
+        }
+
+        abstract void upload() throws Exception, NightscoutException;
+
+        @Override
+        public Void call() {
+            long start = System.currentTimeMillis();
+            try {
+                upload();
+            } catch (Throwable e) {
+                error = e;
+                errorTime = System.currentTimeMillis();
+                // stop the other lanes at their next request
+                cancel = true;
+            }
+            Log.d(TAG, String.format("%s lane finished [%sms]", name, System.currentTimeMillis() - start));
+            return null;
+        }
+    }
+
+    private void startLane(ExecutorService executor, List<UploadLane> lanes, UploadLane lane) {
+        executor.submit(lane);
+        lanes.add(lane);
+    }
+
+    // wait for every started lane so none is still posting after the upload has returned
+    private void awaitLanes(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(LANE_AWAIT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "upload lanes did not finish in time");
+                cancelLanes(executor);
+                if (!executor.awaitTermination(LANE_CANCEL_MS, TimeUnit.MILLISECONDS))
+                    Log.w(TAG, "upload lanes did not stop after cancel");
+            }
+        } catch (InterruptedException e) {
+            cancelLanes(executor);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // interrupting a lane does not stop a blocking execute(), its call is cancelled as well
+    private void cancelLanes(ExecutorService executor) {
+        cancel = true;
+        executor.shutdownNow();
+        uploadApi.cancelUploadCalls();
+    }
+
+    // report the error that happened first, later errors are usually caused by the cancel
+    private void throwFirstError(List<UploadLane> lanes, Throwable error, long errorTime) throws Exception, NightscoutException {
+        String name = "upload";
+        for (UploadLane lane : lanes) {
+            if (lane.error != null && (error == null || lane.errorTime < errorTime)) {
+                error = lane.error;
+                errorTime = lane.errorTime;
+                name = lane.name;
+            }
+        }
+
+        if (error instanceof NightscoutException) throw (NightscoutException) error;
+        if (error instanceof Exception) throw (Exception) error;
+        if (error != null) throw new Exception(name, error);
+    }
+
+    private void uploadEvents(ExecutorService executor, List<UploadLane> lanes, List<PumpHistoryInterface> records)
+            throws Exception, NightscoutException {
 
         cleanupCheck();
 
-        List<EntriesEndpoints.Entry> entries = new ArrayList<>();
-        List<TreatmentsEndpoints.Treatment> treatments = new ArrayList<>();
+        final List<NightscoutItem> entryItems = new ArrayList<>();
+        final List<NightscoutItem> treatmentItems = new ArrayList<>();
+        final List<NightscoutItem> profileItems = new ArrayList<>();
 
         for (PumpHistoryInterface record : records) {
             List<NightscoutItem> nightscoutItems = record.nightscout(pumpHistorySender, SENDER_ID_NIGHTSCOUT);
             for (NightscoutItem nightscoutItem : nightscoutItems) {
                 if (nightscoutItem.isEntry())
-                    processEntry(modeOverride(nightscoutItem), nightscoutItem.getEntry(), entries);
+                    entryItems.add(nightscoutItem.setMode(modeOverride(nightscoutItem)));
                 else if (nightscoutItem.isTreatment())
-                    processTreatment(modeOverride(nightscoutItem), nightscoutItem.getTreatment(), treatments);
+                    treatmentItems.add(nightscoutItem.setMode(modeOverride(nightscoutItem)));
                 else if (nightscoutItem.isProfile())
-                    processProfile(nightscoutItem.getMode(), nightscoutItem.getProfile());
+                    profileItems.add(nightscoutItem);
             }
             if (cancel) break;
         }
 
-        // bulk uploading for entries and treatments
+        if (cancel) return;
 
-        if (!cancel && entries.size() > 0) {
-            Response<ResponseBody> result = entriesEndpoints.sendEntries(entries).execute();
-            if (!result.isSuccessful()) throw new NightscoutException("(entries) " + result.message());
+        // reconcile against the keys already in nightscout using bulk key queries
+        // then bulk upload for entries and treatments
+
+        if (entryItems.size() > 0) startLane(executor, lanes, new UploadLane("entries") {
+            @Override
+            void upload() throws Exception, NightscoutException {
+                List<EntriesEndpoints.Entry> entries = new ArrayList<>();
+                Map<String, List<EntriesEndpoints.Entry>> found = findEntries(entryItems);
+                for (NightscoutItem nightscoutItem : entryItems) {
+                    if (cancel) return;
+                    processEntry(nightscoutItem.getMode(), nightscoutItem.getEntry(),
+                            found.get(nightscoutItem.getEntry().getKey600()), entries);
+                }
+                sendBulk(NightscoutOutbox.ENTRIES, entries, new BulkSender() {
+                    @Override
+                    public Call<ResponseBody> send(JsonStreamBody body) {
+                        return entriesEndpoints.sendEntries(body.getContentEncoding(), body);
+                    }
+                });
+            }
+        });
+
+        if (treatmentItems.size() > 0) startLane(executor, lanes, new UploadLane("treatments") {
+            @Override
+            void upload() throws Exception, NightscoutException {
+                List<TreatmentsEndpoints.Treatment> treatments = new ArrayList<>();
+                Map<String, List<TreatmentsEndpoints.Treatment>> found = findTreatments(treatmentItems);
+                for (NightscoutItem nightscoutItem : treatmentItems) {
+                    if (cancel) return;
+                    processTreatment(nightscoutItem.getMode(), nightscoutItem.getTreatment(),
+                            found.get(nightscoutItem.getTreatment().getKey600()), treatments);
+                }
+                sendBulk(NightscoutOutbox.TREATMENTS, treatments, new BulkSender() {
+                    @Override
+                    public Call<ResponseBody> send(JsonStreamBody body) {
+                        return treatmentsEndpoints.sendTreatments(body.getContentEncoding(), body);
+                    }
+                });
+            }
+        });
+
+        if (profileItems.size() > 0) startLane(executor, lanes, new UploadLane("profile") {
+            @Override
+            void upload() throws Exception, NightscoutException {
+                for (NightscoutItem nightscoutItem : profileItems) {
+                    if (cancel) return;
+                    processProfile(nightscoutItem.getMode(), nightscoutItem.getProfile());
+                }
+            }
+        });
+    }
+
+    private interface BulkSender {
+        Call<ResponseBody> send(JsonStreamBody body);
+    }
+
+    // bulk post in chunks, items are streamed as gzip json unless the site has rejected gzip
+    private void sendBulk(String name, List<?> items, BulkSender bulkSender) throws Exception, NightscoutException {
+        for (int i = 0; i < items.size() && !cancel; ) {
+            int end = chunkEnd(items, i);
+            List<?> chunk = items.subList(i, end);
+            i = end;
+
+            boolean gzip = uploadApi.isGzip();
+            Response<ResponseBody> result = bulkSender.send(new JsonStreamBody(chunk, gzip)).execute();
+
+            if (gzip && isEncodingRejected(result)) {
+                Log.w(TAG, String.format("(%s) gzip request rejected [%s %s], resending without encoding", name, result.code(), result.message()));
+                uploadApi.setGzip(false);
+                result = bulkSender.send(new JsonStreamBody(chunk, false)).execute();
+            }
+
+            if (!result.isSuccessful()) throw new NightscoutException("(" + name + ") " + result.message());
+
+            // persist the chunk so an interrupted upload can resume from here
+            if (result.body() != null) confirmBulk(name, result.body());
         }
-        if (!cancel && treatments.size() > 0) {
-            Response<ResponseBody> result = treatmentsEndpoints.sendTreatments(treatments).execute();
-            if (!result.isSuccessful()) throw new NightscoutException("(treatments) " + result.message());
+    }
+
+    // end of the chunk starting at the index, bounded by item count and json size, at least one item is taken
+    private static int chunkEnd(List<?> items, int start) throws IOException {
+        int end = start;
+        long bytes = 2; // array brackets
+        while (end < items.size() && end - start < BULK_CHUNK) {
+            long length = JsonStreamBody.jsonLength(items.get(end)) + 1; // separator
+            if (end > start && bytes + length > BULK_CHUNK_BYTES) break;
+            bytes += length;
+            end++;
         }
+        return end;
     }
 
     private NightscoutItem.MODE modeOverride(NightscoutItem nightscoutItem) {
@@ -201,124 +546,308 @@ public class NightscoutUploadProcess {
         return mode;
     }
 
-    private void processEntry(NightscoutItem.MODE mode, EntriesEndpoints.Entry entry, List<EntriesEndpoints.Entry> entries)
+    private Map<String, List<EntriesEndpoints.Entry>> findEntries(List<NightscoutItem> nightscoutItems)
             throws Exception, NightscoutException {
 
         String from = Long.toString(new SimpleDateFormat("yyyy", Locale.ENGLISH).parse("2017").getTime());
 
-        String key = entry.getKey600();
-        String mac = entry.getPumpMAC600();
+        Set<String> keySet = new LinkedHashSet<>();
+        for (NightscoutItem nightscoutItem : nightscoutItems)
+            keySet.add(nightscoutItem.getEntry().getKey600());
+
+        Map<String, List<EntriesEndpoints.Entry>> found = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+
+        for (String key : keySet) {
+            List<EntriesEndpoints.Entry> items = new ArrayList<>();
+            found.put(key, items);
+
+            // already confirmed by the site, no need to check the key again
+            NightscoutOutbox confirmed = outbox.get(NightscoutOutbox.key(NightscoutOutbox.ENTRIES, key));
+            if (confirmed != null && confirmed.getId() != null) {
+                EntriesEndpoints.Entry item = new EntriesEndpoints.Entry();
+                item.set_id(confirmed.getId());
+                item.setKey600(key);
+                item.setPumpMAC600(confirmed.getPumpMAC600());
+                item.setDate(confirmed.getDate());
+                items.add(item);
+                entriesOutboxCount++;
+            } else {
+                keys.add(key);
+            }
+        }
 
-        entriesCheckCount++;
-        Response<List<EntriesEndpoints.Entry>> response = entriesEndpoints.findKey(from, key).execute();
+        for (int i = 0; i < keys.size() && !cancel; i += KEY_LOOKUP_BATCH) {
+            List<String> batch = keys.subList(i, Math.min(i + KEY_LOOKUP_BATCH, keys.size()));
 
-        if (response.isSuccessful()) {
+            entriesCheckCount++;
+            Response<List<EntriesEndpoints.Entry>> response = entriesEndpoints.findKeys(from, batch, Integer.toString(KEY_LOOKUP_COUNT)).execute();
+            if (!response.isSuccessful()) {
+                Log.d(TAG, "no response from nightscout site!");
+                throw new NightscoutException("(findEntries) " + response.message());
+            }
             List<EntriesEndpoints.Entry> list = response.body();
-            int count = list.size();
-
-            if (count > 0) {
-                Log.d(TAG, "found " + count + " already in nightscout for KEY: " + key);
 
+            if (list.size() < KEY_LOOKUP_COUNT) {
                 for (EntriesEndpoints.Entry item : list) {
+                    List<EntriesEndpoints.Entry> items = found.get(item.getKey600());
+                    if (items != null) items.add(item);
+                }
 
-                    // v0.6.1 did not record the pump MAC, remove and rewrite keys with mac as needed
-                    if (count > 1 || item.getPumpMAC600() == null ||
-                            (item.getPumpMAC600().equals(mac) &&
-                                    mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.DELETE)) {
-                        entriesDeleteCount++;
-                        Response<ResponseBody> responseBody = entriesEndpoints.deleteID(item.getDate().toString(), item.get_id()).execute();
-                        if (responseBody.isSuccessful()) {
-                            Log.d(TAG, String.format("deleted entry ID: %s with KEY: %s MAC: %s DATE: %s (%s)",
-                                    item.get_id(), item.getKey600(), item.getPumpMAC600(), item.getDateString(), item.getDate()));
-                        } else {
-                            Log.d(TAG, "no DELETE response from nightscout site");
-                            throw new NightscoutException("(processEntry) " + responseBody.message());
-                        }
+            } else {
+                // result may be truncated, fall back to a query per key for this batch
+                Log.w(TAG, "entries key query limit reached, checking keys individually");
+                for (String key : batch) {
+                    entriesCheckCount++;
+                    Response<List<EntriesEndpoints.Entry>> responseKey = entriesEndpoints.findKey(from, key).execute();
+                    if (!responseKey.isSuccessful()) {
+                        Log.d(TAG, "no response from nightscout site!");
+                        throw new NightscoutException("(findEntries) " + responseKey.message());
                     }
+                    found.get(key).addAll(responseKey.body());
+                    if (cancel) break;
+                }
+            }
+        }
 
-                    // in check mode and 1 item already in nightscout
-                    else return;
+        return found;
+    }
 
-                    count--;
+    private void processEntry(NightscoutItem.MODE mode, EntriesEndpoints.Entry entry,
+                              List<EntriesEndpoints.Entry> list, List<EntriesEndpoints.Entry> entries)
+            throws Exception, NightscoutException {
+
+        String key = entry.getKey600();
+        String mac = entry.getPumpMAC600();
+
+        int count = list.size();
+
+        if (count > 0) {
+            Log.d(TAG, "found " + count + " already in nightscout for KEY: " + key);
+
+            Iterator<EntriesEndpoints.Entry> iterator = list.iterator();
+            while (iterator.hasNext()) {
+                EntriesEndpoints.Entry item = iterator.next();
+
+                // v0.6.1 did not record the pump MAC, remove and rewrite keys with mac as needed
+                if (count > 1 || item.getPumpMAC600() == null ||
+                        (item.getPumpMAC600().equals(mac) &&
+                                mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.DELETE)) {
+                    entriesDeleteCount++;
+                    Response<ResponseBody> responseBody = entriesEndpoints.deleteID(item.getDate().toString(), item.get_id()).execute();
+                    if (responseBody.isSuccessful()) {
+                        Log.d(TAG, String.format("deleted entry ID: %s with KEY: %s MAC: %s DATE: %s (%s)",
+                                item.get_id(), item.getKey600(), item.getPumpMAC600(), item.getDateString(), item.getDate()));
+                        // keep the key map in step with nightscout for any later items using this key
+                        iterator.remove();
+                    } else {
+                        Log.d(TAG, "no DELETE response from nightscout site");
+                        throw new NightscoutException("(processEntry) " + responseBody.message());
+                    }
                 }
-            }
 
-            if (mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.CHECK) {
-                Log.d(TAG, String.format("queued item for nightscout entries bulk upload. KEY: %s MAC: %s DATE: %s (%s)",
-                        key, mac, entry.getDateString(), entry.getDate()));
-                entry.setDevice(device);
-                entries.add(entry);
-                entriesBulkCount++;
+                // in check mode and 1 item already in nightscout
+                else return;
+
+                count--;
             }
+        }
 
-        } else {
-            Log.d(TAG, "no response from nightscout site!");
-            throw new NightscoutException("(processEntry) " + response.message());
+        if (mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.CHECK) {
+            Log.d(TAG, String.format("queued item for nightscout entries bulk upload. KEY: %s MAC: %s DATE: %s (%s)",
+                    key, mac, entry.getDateString(), entry.getDate()));
+            entry.setDevice(device);
+            entries.add(entry);
+            entriesBulkCount++;
         }
     }
 
-    private void processTreatment(NightscoutItem.MODE mode, TreatmentsEndpoints.Treatment treatment, List<TreatmentsEndpoints.Treatment> treatments)
+    private Map<String, List<TreatmentsEndpoints.Treatment>> findTreatments(List<NightscoutItem> nightscoutItems)
             throws Exception, NightscoutException {
 
         String from = "2017";
 
-        String key = treatment.getKey600();
-        String mac = treatment.getPumpMAC600();
+        Set<String> keySet = new LinkedHashSet<>();
+        for (NightscoutItem nightscoutItem : nightscoutItems)
+            keySet.add(nightscoutItem.getTreatment().getKey600());
+
+        Map<String, List<TreatmentsEndpoints.Treatment>> found = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+
+        for (String key : keySet) {
+            List<TreatmentsEndpoints.Treatment> items = new ArrayList<>();
+            found.put(key, items);
+
+            // already confirmed by the site, no need to check the key again
+            NightscoutOutbox confirmed = outbox.get(NightscoutOutbox.key(NightscoutOutbox.TREATMENTS, key));
+            if (confirmed != null && confirmed.getId() != null) {
+                TreatmentsEndpoints.Treatment item = new TreatmentsEndpoints.Treatment();
+                item.set_id(confirmed.getId());
+                item.setKey600(key);
+                item.setPumpMAC600(confirmed.getPumpMAC600());
+                item.setCreated_at(confirmed.getCreated_at());
+                items.add(item);
+                treatmentsOutboxCount++;
+            } else {
+                keys.add(key);
+            }
+        }
 
-        treatmentsCheckCount++;
-        Response<List<TreatmentsEndpoints.Treatment>> response = treatmentsEndpoints.findKey(from, key).execute();
+        for (int i = 0; i < keys.size() && !cancel; i += KEY_LOOKUP_BATCH) {
+            List<String> batch = keys.subList(i, Math.min(i + KEY_LOOKUP_BATCH, keys.size()));
 
-        if (response.isSuccessful()) {
+            treatmentsCheckCount++;
+            Response<List<TreatmentsEndpoints.Treatment>> response = treatmentsEndpoints.findKeys(from, batch, Integer.toString(KEY_LOOKUP_COUNT)).execute();
+            if (!response.isSuccessful()) {
+                Log.d(TAG, "no response from nightscout site!");
+                throw new NightscoutException("(findTreatments) " + response.message());
+            }
             List<TreatmentsEndpoints.Treatment> list = response.body();
-            int count = list.size();
-
-            if (count > 0) {
-                Log.d(TAG, "found " + count + " already in nightscout for KEY: " + key);
 
+            if (list.size() < KEY_LOOKUP_COUNT) {
                 for (TreatmentsEndpoints.Treatment item : list) {
+                    List<TreatmentsEndpoints.Treatment> items = found.get(item.getKey600());
+                    if (items != null) items.add(item);
+                }
 
-                    // v0.6.1 did not record the pump MAC, remove and rewrite keys with mac as needed
-                    if (count > 1 || item.getPumpMAC600() == null ||
-                            (item.getPumpMAC600().equals(mac) &&
-                                    mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.DELETE)) {
-                        treatmentsDeleteCount++;
-                        Response<ResponseBody> responseBody = dataStore.isNightscoutUseQuery()
-                                ? treatmentsEndpoints.deleteID(item.getCreated_at(), item.get_id()).execute()
-                                : treatmentsEndpoints.deleteID(item.get_id()).execute();
-                        if (responseBody.isSuccessful()) {
-                            Log.d(TAG, String.format("deleted treatment ID: %s with KEY: %s MAC: %s DATE: %s QUERY: %s",
-                                    item.get_id(), item.getKey600(), item.getPumpMAC600(), item.getCreated_at(), dataStore.isNightscoutUseQuery()));
-                        } else {
-                            Log.d(TAG, "no DELETE response from nightscout site");
-                            throw new NightscoutException("(processTreatment) " + responseBody.message());
-                        }
+            } else {
+                // result may be truncated, fall back to a query per key for this batch
+                Log.w(TAG, "treatments key query limit reached, checking keys individually");
+                for (String key : batch) {
+                    treatmentsCheckCount++;
+                    Response<List<TreatmentsEndpoints.Treatment>> responseKey = treatmentsEndpoints.findKey(from, key).execute();
+                    if (!responseKey.isSuccessful()) {
+                        Log.d(TAG, "no response from nightscout site!");
+                        throw new NightscoutException("(findTreatments) " + responseKey.message());
                     }
+                    found.get(key).addAll(responseKey.body());
+                    if (cancel) break;
+                }
+            }
+        }
 
-                    // in check mode and 1 item already in nightscout
-                    else return;
+        return found;
+    }
+
+    private void processTreatment(NightscoutItem.MODE mode, TreatmentsEndpoints.Treatment treatment,
+                                  List<TreatmentsEndpoints.Treatment> list, List<TreatmentsEndpoints.Treatment> treatments)
+            throws Exception, NightscoutException {
 
-                    count--;
+        String key = treatment.getKey600();
+        String mac = treatment.getPumpMAC600();
+
+        int count = list.size();
+
+        if (count > 0) {
+            Log.d(TAG, "found " + count + " already in nightscout for KEY: " + key);
+
+            Iterator<TreatmentsEndpoints.Treatment> iterator = list.iterator();
+            while (iterator.hasNext()) {
+                TreatmentsEndpoints.Treatment item = iterator.next();
+
+                // v0.6.1 did not record the pump MAC, remove and rewrite keys with mac as needed
+                if (count > 1 || item.getPumpMAC600() == null ||
+                        (item.getPumpMAC600().equals(mac) &&
+                                mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.DELETE)) {
+                    treatmentsDeleteCount++;
+                    Response<ResponseBody> responseBody = useQuery
+                            ? treatmentsEndpoints.deleteID(item.getCreated_at(), item.get_id()).execute()
+                            : treatmentsEndpoints.deleteID(item.get_id()).execute();
+                    if (responseBody.isSuccessful()) {
+                        Log.d(TAG, String.format("deleted treatment ID: %s with KEY: %s MAC: %s DATE: %s QUERY: %s",
+                                item.get_id(), item.getKey600(), item.getPumpMAC600(), item.getCreated_at(), useQuery));
+                        // keep the key map in step with nightscout for any later items using this key
+                        iterator.remove();
+                    } else {
+                        Log.d(TAG, "no DELETE response from nightscout site");
+                        throw new NightscoutException("(processTreatment) " + responseBody.message());
+                    }
                 }
+
+                // in check mode and 1 item already in nightscout
+                else return;
+
+                count--;
             }
+        }
 
-            if (mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.CHECK) {
-                Log.d(TAG, String.format("queued item for nightscout treatments bulk upload. KEY: %s MAC: %s DATE: %s",
-                        key, mac, treatment.getCreated_at()));
-                if (enteredBy.length() > 0) treatment.setEnteredBy(enteredBy);
-                treatments.add(treatment);
-                treatmentsBulkCount++;
+        if (mode == NightscoutItem.MODE.UPDATE || mode == NightscoutItem.MODE.CHECK) {
+            Log.d(TAG, String.format("queued item for nightscout treatments bulk upload. KEY: %s MAC: %s DATE: %s",
+                    key, mac, treatment.getCreated_at()));
+            if (enteredBy.length() > 0) treatment.setEnteredBy(enteredBy);
+            treatments.add(treatment);
+            treatmentsBulkCount++;
+        }
+    }
+
+    private void saveProfileCache() {
+        if (!profileCacheChanged) return;
+        profileCacheChanged = false;
+
+        storeRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                dataStore.setNightscoutProfileHash(profileHash);
+                dataStore.setNightscoutProfileID(profileID);
+                dataStore.setNightscoutProfileVerifyTimestamp(profileVerifyTimestamp);
             }
+        });
+    }
 
-        } else {
-            Log.d(TAG, "no response from nightscout site!");
-            throw new NightscoutException("(processTreatment) " + response.message());
+    private void setProfileCache(String hash, String id) {
+        profileHash = hash;
+        profileID = id;
+        profileVerifyTimestamp = hash == null ? 0 : System.currentTimeMillis();
+        profileCacheChanged = true;
+    }
+
+    // content hash of the profile document as it would be posted, the site and single profile
+    // setting are included as either changing needs a full check of the site
+    private String profileHash(ProfileEndpoints.Profile profile) throws Exception {
+        String document = site + "\n" + profileSingle + "\n" + new Gson().toJson(profile);
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        byte[] bytes = digest.digest(document.getBytes("UTF-8"));
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    // the _id of the posted profile, nightscout returns the created document or an array of them
+    private String profileResponseID(ResponseBody body) {
+        try {
+            JsonElement json = new JsonParser().parse(body.charStream());
+            if (json.isJsonArray() && json.getAsJsonArray().size() > 0)
+                json = json.getAsJsonArray().get(0);
+            if (json.isJsonObject() && json.getAsJsonObject().has("_id"))
+                return json.getAsJsonObject().get("_id").getAsString();
+        } catch (Exception e) {
+            Log.w(TAG, "could not read profile response: " + e.getMessage());
+        } finally {
+            body.close();
         }
+        return null;
     }
 
     private void processProfile(NightscoutItem.MODE mode, ProfileEndpoints.Profile profile)
             throws Exception, NightscoutException {
 
         String key = profile.getKey600();
+        String hash = profileHash(profile);
+
+        if (mode != NightscoutItem.MODE.DELETE
+                && hash.equals(profileHash)
+                && profileID != null
+                && System.currentTimeMillis() - profileVerifyTimestamp < PROFILE_VERIFY_MS) {
+            Log.d(TAG, "profile unchanged since last upload, KEY: " + key + " ID: " + profileID);
+            profileCacheCount++;
+            return;
+        }
+
+        // any change to the profile sets on the site invalidates the cache until confirmed
+        if (profileHash != null) setProfileCache(null, null);
+
         profileCheckCount++;
         Response<List<ProfileEndpoints.Profile>> response = profileEndpoints.getProfiles().execute();
 
@@ -333,7 +862,7 @@ public class NightscoutUploadProcess {
                 String foundKey;
                 int count = 0;
 
-                if (dataStore.isNsEnableProfileSingle()) {
+                if (profileSingle) {
                     Log.d(TAG, "single profile enabled, deleting obsolete profiles");
 
                     for (ProfileEndpoints.Profile item : list) {
@@ -377,7 +906,14 @@ public class NightscoutUploadProcess {
                         }
                     }
 
-                    if (count > 0) return;
+                    if (count > 0) {
+                        if (mode == NightscoutItem.MODE.CHECK) {
+                            for (ProfileEndpoints.Profile item : list) {
+                                if (key.equals(item.getKey600())) setProfileCache(hash, item.get_id());
+                            }
+                        }
+                        return;
+                    }
                 }
             }
 
@@ -389,6 +925,8 @@ public class NightscoutUploadProcess {
                     Log.d(TAG, "no POST response from nightscout site");
                     throw new NightscoutException("(processProfile) " + responseBody.message());
                 }
+                // when the site does not return the _id the next upload will confirm it with a full check
+                if (responseBody.body() != null) setProfileCache(hash, profileResponseID(responseBody.body()));
             }
 
         } else {
@@ -397,14 +935,13 @@ public class NightscoutUploadProcess {
         }
     }
 
-    private void uploadStatus(List<PumpStatusEvent> records, int uploaderBatteryLevel)
-            throws Exception, NightscoutException {
-        List<DeviceEndpoints.DeviceStatus> deviceEntries = new ArrayList<>();
+    private UploadLane uploadStatus(List<PumpStatusEvent> records, int uploaderBatteryLevel) {
+        final List<DeviceEndpoints.DeviceStatus> deviceEntries = new ArrayList<>();
         DeviceStatus deviceStatus;
 
         if (dataStore.isNsEnableDevicePUMP()) {
 
-            for (PumpStatusEvent record : records) {
+            for (PumpStatusEvent record : coalesceStatus(records)) {
 
                 deviceStatus = new DeviceStatus();
                 deviceStatus.setCreatedAt(formatDateForNS(record.getEventDate()));
@@ -443,12 +980,100 @@ public class NightscoutUploadProcess {
             deviceStatus.setUploaderBattery(uploaderBatteryLevel);
         }
 
-        for (DeviceStatus status : deviceEntries) {
+        return new UploadLane("device") {
+            @Override
+            void upload() throws Exception, NightscoutException {
+                if (deviceEntries.size() > 1 && uploadApi.isStatusBatch()
+                        && sendStatusBatch(deviceEntries)) return;
+
+                for (DeviceStatus status : deviceEntries) {
+                    deviceWriteCount++;
+                    Response<ResponseBody> result = deviceEndpoints.sendDeviceStatus(status).execute();
+                    if (!result.isSuccessful()) throw new NightscoutException("(device status) " + result.message());
+                    if (cancel) break;
+                }
+            }
+        };
+    }
+
+    // records are in ascending date order, superseded backlog status is dropped
+    private List<PumpStatusEvent> coalesceStatus(List<PumpStatusEvent> records) {
+        if (records.size() <= STATUS_NEWEST) return records;
+
+        List<PumpStatusEvent> coalesced = new ArrayList<>();
+        int newest = records.size() - STATUS_NEWEST;
+
+        for (int i = 0; i < newest; i++) {
+            long window = records.get(i).getEventDate().getTime() / STATUS_WINDOW_MS;
+            long next = records.get(i + 1).getEventDate().getTime() / STATUS_WINDOW_MS;
+            if (window != next) coalesced.add(records.get(i));
+            else deviceDropCount++;
+        }
+        coalesced.addAll(records.subList(newest, records.size()));
+
+        if (deviceDropCount > 0)
+            Log.i(TAG, String.format("device status coalesced: %s of %s records dropped", deviceDropCount, records.size()));
+
+        return coalesced;
+    }
+
+    // array post of the device status, returns false if the site does not accept the array
+    private boolean sendStatusBatch(List<DeviceStatus> deviceEntries) throws Exception, NightscoutException {
+        // a gzip rejection only applies to this post, the other lanes keep the shared setting
+        boolean gzip = uploadApi.isGzip();
+
+        for (int i = 0; i < deviceEntries.size() && !cancel; ) {
+            boolean first = i == 0;
+            int end = chunkEnd(deviceEntries, i);
+            List<DeviceStatus> chunk = deviceEntries.subList(i, end);
+            i = end;
+
             deviceWriteCount++;
-            Response<ResponseBody> result = deviceEndpoints.sendDeviceStatus(status).execute();
+            JsonStreamBody body = new JsonStreamBody(chunk, gzip);
+            Response<ResponseBody> result = deviceEndpoints.sendDeviceStatus(body.getContentEncoding(), body).execute();
+
+            if (gzip && isEncodingRejected(result)) {
+                Log.w(TAG, String.format("(device status) gzip request rejected [%s %s], resending without encoding", result.code(), result.message()));
+                gzip = false;
+                deviceWriteCount++;
+                body = new JsonStreamBody(chunk, false);
+                result = deviceEndpoints.sendDeviceStatus(body.getContentEncoding(), body).execute();
+            }
+
+            if (first && isArrayRejected(result)) {
+                Log.w(TAG, String.format("(device status) array request rejected [%s %s], sending single status", result.code(), result.message()));
+                uploadApi.setStatusBatch(false);
+                return false;
+            }
+
+            if (first && result.code() == 413) {
+                Log.w(TAG, "(device status) array request too large, sending single status");
+                return false;
+            }
+
             if (!result.isSuccessful()) throw new NightscoutException("(device status) " + result.message());
-            if (cancel) break;
+            if (result.body() != null) result.body().close();
+
+            deviceBatchCount += chunk.size();
         }
+        return true;
+    }
+
+    // the site can not read a gzip body: unsupported media type or a bad request naming the encoding
+    private static boolean isEncodingRejected(Response<ResponseBody> result) {
+        if (result.code() == 415) return true;
+        if (result.code() != 400 || result.errorBody() == null) return false;
+        try {
+            String error = result.errorBody().string().toLowerCase(Locale.US);
+            return error.contains("gzip") || error.contains("encoding");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // the site does not accept an array of device status, any other error is reported as usual
+    private static boolean isArrayRejected(Response<ResponseBody> result) {
+        return result.code() == 400 || result.code() == 405 || result.code() == 422;
     }
 
     private String buildPumpString(PumpStatusEvent record) {
@@ -562,45 +1187,121 @@ public class NightscoutUploadProcess {
         return sb.toString();
     }
 
+    // a cleanup step removes all treatments matching a query
+    // sites with query support use a single bulk delete, otherwise found items are deleted by id
+    private interface CleanupStep {
+        Call<ResponseBody> delete();
+
+        Call<List<TreatmentsEndpoints.Treatment>> find(String count);
+    }
+
+    // returns true when the step has completed, false if the time budget ran out or the site failed
+    private boolean runCleanup(String name, CleanupStep step) throws Exception {
+        if (cancel || System.currentTimeMillis() > cleanupDeadline) return false;
+
+        if (dataStore.isNightscoutUseQuery()) {
+            cheanupDeleteCount++;
+            Response<ResponseBody> responseBody = step.delete().execute();
+            if (responseBody.body() != null) responseBody.body().close();
+            if (responseBody.isSuccessful()) {
+                Log.d(TAG, "cleanup: bulk deleted " + name);
+                return true;
+            }
+            Log.d(TAG, String.format("cleanup: bulk delete rejected [%s %s] for %s, deleting by id",
+                    responseBody.code(), responseBody.message(), name));
+        }
+
+        // full pages grow the page size to cut down the number of finds
+        int page = CLEANUP_PAGE_MIN;
+        int size;
+        int result;
+        do {
+            if (cancel || System.currentTimeMillis() > cleanupDeadline) return false;
+            size = page;
+            result = deleteTreatments(step.find(String.valueOf(size)).execute());
+            if (result < 0) return false;
+            if (result == size) page = Math.min(page << 1, CLEANUP_PAGE_MAX);
+        } while (result == size);
+
+        return true;
+    }
+
     private void cleanupCheck() throws Exception {
         final long now = System.currentTimeMillis();
+        cleanupDeadline = now + CLEANUP_BUDGET_MS;
 
         if (dataStore.isNightscoutInitCleanup()) {
-            Log.i(TAG, "running nightscout initial cleanup check");
+            Log.i(TAG, "running nightscout initial cleanup check from step " + dataStore.getNightscoutCleanupStep());
 
-            String cleanFrom = formatDateForNS(now - dataStore.getSysPumpHistoryDays() * 24 * 60 * 60000L);
-            String cleanTo = formatDateForNS(now);
+            final String cleanFrom = formatDateForNS(now - dataStore.getSysPumpHistoryDays() * 24 * 60 * 60000L);
+            final String cleanTo = formatDateForNS(now);
+
+            List<CleanupStep> steps = new ArrayList<>();
 
             // delete debug notes
-            while (deleteTreatments(treatmentsEndpoints.findNotesRegex(
-                    "2017", cleanTo,
-                    "debug",
-                    "20").execute()) == 20) ;
-            while (deleteTreatments(treatmentsEndpoints.findNotesRegex(
-                    "2017", cleanTo,
-                    "Debug",
-                    "20").execute()) == 20) ;
+            for (final String notes : new String[] {"debug", "Debug"}) {
+                steps.add(new CleanupStep() {
+                    @Override
+                    public Call<ResponseBody> delete() {
+                        return treatmentsEndpoints.deleteNotesRegex("2017", cleanTo, notes);
+                    }
+
+                    @Override
+                    public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                        return treatmentsEndpoints.findNotesRegex("2017", cleanTo, notes, count);
+                    }
+                });
+            }
 
             // delete events that have changed for v.7.0
-            while (deleteTreatments(treatmentsEndpoints.findKeyRegexNoPumpMAC(
-                    cleanFrom, cleanTo,
-                    "BG Check", "", "20").execute()) == 20) ;
-            while (deleteTreatments(treatmentsEndpoints.findNotesRegexNoPumpMAC(
-                    cleanFrom, cleanTo,
-                    "Sensor changed", "", "", "20").execute()) == 20) ;
-            while (deleteTreatments(treatmentsEndpoints.findNotesRegexNoPumpMAC(
-                    cleanFrom, cleanTo,
-                    "Pump battery changed", "", "", "20").execute()) == 20) ;
-            while (deleteTreatments(treatmentsEndpoints.findNotesRegexNoPumpMAC(
-                    cleanFrom, cleanTo,
-                    "Reservoir changed", "", "", "20").execute()) == 20) ;
-
-            storeRealm.executeTransaction(new Realm.Transaction() {
+            steps.add(new CleanupStep() {
                 @Override
-                public void execute(@NonNull Realm realm) {
-                    dataStore.setNightscoutInitCleanup(false);
+                public Call<ResponseBody> delete() {
+                    return treatmentsEndpoints.deleteKeyRegexNoPumpMAC(cleanFrom, cleanTo, "BG Check", "");
+                }
+
+                @Override
+                public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                    return treatmentsEndpoints.findKeyRegexNoPumpMAC(cleanFrom, cleanTo, "BG Check", "", count);
                 }
             });
+            for (final String notes : new String[] {"Sensor changed", "Pump battery changed", "Reservoir changed"}) {
+                steps.add(new CleanupStep() {
+                    @Override
+                    public Call<ResponseBody> delete() {
+                        return treatmentsEndpoints.deleteNotesRegexNoPumpMAC(cleanFrom, cleanTo, notes, "", "");
+                    }
+
+                    @Override
+                    public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                        return treatmentsEndpoints.findNotesRegexNoPumpMAC(cleanFrom, cleanTo, notes, "", "", count);
+                    }
+                });
+            }
+
+            // checkpoint each completed step, an interrupted cleanup resumes on the next upload
+            int step = dataStore.getNightscoutCleanupStep();
+            while (step < steps.size() && runCleanup("initial cleanup step " + step, steps.get(step))) {
+                final int next = ++step;
+                storeRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(@NonNull Realm realm) {
+                        dataStore.setNightscoutCleanupStep(next);
+                    }
+                });
+            }
+
+            if (step >= steps.size()) {
+                storeRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(@NonNull Realm realm) {
+                        dataStore.setNightscoutInitCleanup(false);
+                        dataStore.setNightscoutCleanupStep(0);
+                    }
+                });
+            } else {
+                Log.i(TAG, "nightscout initial cleanup paused at step " + step);
+            }
 
         }
 
@@ -608,28 +1309,47 @@ public class NightscoutUploadProcess {
             Log.d(TAG, "running nightscout message cleanup check");
 
             // clean up any old alarm or system messages that may remain in NS when multiple uploaders are in use
-            String cleanTo = formatDateForNS(now - 24 * 60 * 60000L);
+            final String cleanTo = formatDateForNS(now - 24 * 60 * 60000L);
 
-            while (deleteTreatments(treatmentsEndpoints.findKeyRegex(
-                    "2017",
-                    cleanTo,
-                    "SYS", "20").execute()) == 20) ;
-
-            if (!(dataStore.isNsEnableAlarms() && dataStore.getNsAlarmTTL() == 0)) {
-                while (deleteTreatments(treatmentsEndpoints.findKeyRegex(
-                        "2017",
-                        dataStore.isNsEnableAlarms()
-                                ? formatDateForNS(now - dataStore.getNsAlarmTTL() * 60 * 60000L)
-                                : cleanTo,
-                        "ALARM", "20").execute()) == 20) ;
-            }
+            boolean complete = runCleanup("system messages", new CleanupStep() {
+                @Override
+                public Call<ResponseBody> delete() {
+                    return treatmentsEndpoints.deleteKeyRegex("2017", cleanTo, "SYS");
+                }
 
-            storeRealm.executeTransaction(new Realm.Transaction() {
                 @Override
-                public void execute(@NonNull Realm realm) {
-                    dataStore.setNightscoutCleanTimestamp(now);
+                public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                    return treatmentsEndpoints.findKeyRegex("2017", cleanTo, "SYS", count);
                 }
             });
+
+            if (complete && !(dataStore.isNsEnableAlarms() && dataStore.getNsAlarmTTL() == 0)) {
+                final String alarmTo = dataStore.isNsEnableAlarms()
+                        ? formatDateForNS(now - dataStore.getNsAlarmTTL() * 60 * 60000L)
+                        : cleanTo;
+
+                complete = runCleanup("alarm messages", new CleanupStep() {
+                    @Override
+                    public Call<ResponseBody> delete() {
+                        return treatmentsEndpoints.deleteKeyRegex("2017", alarmTo, "ALARM");
+                    }
+
+                    @Override
+                    public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                        return treatmentsEndpoints.findKeyRegex("2017", alarmTo, "ALARM", count);
+                    }
+                });
+            }
+
+            // message cleanup is repeatable, an incomplete pass runs again on the next upload
+            if (complete) {
+                storeRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(@NonNull Realm realm) {
+                        dataStore.setNightscoutCleanTimestamp(now);
+                    }
+                });
+            }
         }
     }
 
@@ -689,22 +1409,27 @@ public class NightscoutUploadProcess {
 
             Log.d(TAG, "cleanup: treatments (pump history) " + formatDateForNS(pumpFrom) + " to " + formatDateForNS(pumpTo));
 
-            int result;
-            do {
-                result = deleteTreatments(
-                        CLEAN_COMPLETE
-                                ? treatmentsEndpoints.findDateRangeCount(
-                                formatDateForNS(pumpFrom),
-                                formatDateForNS(pumpTo),
-                                "20").execute()
-                                : treatmentsEndpoints.findCleanupItems(
-                                formatDateForNS(pumpFrom),
-                                formatDateForNS(pumpTo),
-                                "Note", "", "20").execute()
-                );
-            } while (result == 20);
-
-            if (result >= 0) {
+            final String from = formatDateForNS(pumpFrom);
+            final String to = formatDateForNS(pumpTo);
+            cleanupDeadline = System.currentTimeMillis() + CLEANUP_BUDGET_MS;
+
+            boolean complete = runCleanup("treatments (pump history)", new CleanupStep() {
+                @Override
+                public Call<ResponseBody> delete() {
+                    return CLEAN_COMPLETE
+                            ? treatmentsEndpoints.deleteDateRange(from, to)
+                            : treatmentsEndpoints.deleteCleanupItems(from, to, "Note", "");
+                }
+
+                @Override
+                public Call<List<TreatmentsEndpoints.Treatment>> find(String count) {
+                    return CLEAN_COMPLETE
+                            ? treatmentsEndpoints.findDateRangeCount(from, to, count)
+                            : treatmentsEndpoints.findCleanupItems(from, to, "Note", "", count);
+                }
+            });
+
+            if (complete) {
                 final long pumpFromFinal = pumpFrom;
                 storeRealm.executeTransaction(new Realm.Transaction() {
                     @Override
@@ -787,9 +1512,21 @@ public class NightscoutUploadProcess {
         return cheanupDeleteCount;
     }
 
+    public UploadApi getUploadApi() {
+        return uploadApi;
+    }
+
+    public int getDeviceBatchCount() {
+        return deviceBatchCount;
+    }
+
+    public int getDeviceDropCount() {
+        return deviceDropCount;
+    }
+
     public int getHttpWorkload() {
-        return entriesCheckCount + entriesDeleteCount + (entriesBulkCount == 0 ? 0 : 1) +
-                treatmentsCheckCount + treatmentsDeleteCount + (treatmentsBulkCount == 0 ? 0 : 1) +
+        return entriesCheckCount + entriesDeleteCount + (entriesBulkCount + BULK_CHUNK - 1) / BULK_CHUNK +
+                treatmentsCheckCount + treatmentsDeleteCount + (treatmentsBulkCount + BULK_CHUNK - 1) / BULK_CHUNK +
                 deviceWriteCount +
                 profileCheckCount + profileDeleteCount + profileWriteCount +
                 cheanupCheckCount + cheanupDeleteCount;
@@ -26,9 +26,9 @@ import io.realm.Sort;
 
 import static info.nightscout.android.history.PumpHistorySender.SENDER_ID_NIGHTSCOUT;
 import static info.nightscout.android.medtronic.service.MedtronicCnlService.DEVICE_HEADER;
-import static info.nightscout.android.utils.ToolKit.getWakeLock;
-import static info.nightscout.android.utils.ToolKit.acquireWakelock;
-import static info.nightscout.android.utils.ToolKit.releaseWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.getWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.acquireWakelock;
+import static info.nightscout.android.utils.WakeLockKit.releaseWakeLock;
 
 public class NightscoutUploadService extends Service {
     private static final String TAG = NightscoutUploadService.class.getSimpleName();
@@ -45,6 +45,10 @@ public class NightscoutUploadService extends Service {
 
     private boolean rerun;
 
+    // failed upload attempts back off exponentially with jitter, persisted so a restart does not hammer the site
+    private static final long BACKOFF_BASE_MS = 60 * 1000L;
+    private static final long BACKOFF_MAX_MS = 30 * 60 * 1000L;
+
     @Override
     public IBinder onBind(Intent intent) {
         throw new UnsupportedOperationException("Not yet implemented");
@@ -98,7 +102,14 @@ public class NightscoutUploadService extends Service {
 
             pumpHistoryHandler = new PumpHistoryHandler(mContext);
 
-            if (dataStore.isNightscoutUpload()) {
+            if (dataStore.isNightscoutUpload()
+                    && System.currentTimeMillis() < dataStore.getNightscoutBackoffTimestamp()) {
+                Log.i(TAG, String.format("Upload backoff active, attempts: %s next attempt in %ss",
+                        dataStore.getNightscoutBackoffCount(),
+                        (dataStore.getNightscoutBackoffTimestamp() - System.currentTimeMillis()) / 1000));
+                updateDB();
+
+            } else if (dataStore.isNightscoutUpload()) {
                 new NightscoutStatus(mContext).check();
 
                 if (dataStore.isNightscoutAvailable()) {
@@ -132,6 +143,7 @@ public class NightscoutUploadService extends Service {
 
                 } else {
                     statNightscout.incSiteUnavailable();
+                    backoff();
                     updateDB();
                 }
             } else {
@@ -147,6 +159,36 @@ public class NightscoutUploadService extends Service {
         }
     }
 
+    private void backoff() {
+        final int count = dataStore.getNightscoutBackoffCount() + 1;
+        long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(count - 1, 10));
+        // full jitter on the upper half so multiple uploaders do not retry in step
+        delay = delay / 2 + (long) (Math.random() * (delay / 2));
+        final long timestamp = System.currentTimeMillis() + delay;
+
+        storeRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                dataStore.setNightscoutBackoffCount(count);
+                dataStore.setNightscoutBackoffTimestamp(timestamp);
+            }
+        });
+
+        Log.i(TAG, String.format("Upload backoff, attempts: %s next attempt in %ss", count, delay / 1000));
+    }
+
+    private void clearBackoff() {
+        if (dataStore.getNightscoutBackoffCount() == 0) return;
+
+        storeRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(@NonNull Realm realm) {
+                dataStore.setNightscoutBackoffCount(0);
+                dataStore.setNightscoutBackoffTimestamp(0);
+            }
+        });
+    }
+
     // any settings that have changed that require resends need to be handled before/after uploading
     private void updateDB() {
         long now = System.currentTimeMillis();
@@ -225,6 +267,8 @@ public class NightscoutUploadService extends Service {
 
                     if (!nightscoutUploadProcess.isCancel()) {
                         pumpHistoryHandler.setSenderRecordsACK(records, SENDER_ID_NIGHTSCOUT);
+                        nightscoutUploadProcess.clearOutbox();
+                        clearBackoff();
 
                         final List<PumpStatusEvent> finalStatusRecords = statusRecords;
                         realm.executeTransaction(new Realm.Transaction() {
@@ -239,6 +283,12 @@ public class NightscoutUploadService extends Service {
                         statNightscout.timer(timer);
                         statNightscout.settotalRecords(statNightscout.getTotalRecords() + total);
                         statNightscout.setTotalHttp(statNightscout.getTotalHttp() + nightscoutUploadProcess.getHttpWorkload());
+                        RequestTimer requestTimer = nightscoutUploadProcess.getUploadApi().getRequestTimer();
+                        statNightscout.request(requestTimer.getRequestCount(), requestTimer.getRequestMS(),
+                                requestTimer.getConnectCount(), requestTimer.getConnectMS());
+                        Log.d(TAG, "HTTP " + requestTimer);
+                        statNightscout.status(nightscoutUploadProcess.getDeviceBatchCount(),
+                                nightscoutUploadProcess.getDeviceDropCount());
 
                         UserLogMessage.sendE(mContext, String.format("{id;%s}: {id;%s} %s http %s E:%s/%s/%s T:%s/%s/%s P:%s/%s/%s D:%s C:%s/%s [%sms]",
                                 R.string.ul_share__nightscout, R.string.ul_share__processed, total,
@@ -267,6 +317,7 @@ public class NightscoutUploadService extends Service {
 
                     // Do not rerun, try again after the next poll
                     rerun = false;
+                    backoff();
 
                     storeRealm.executeTransaction(new Realm.Transaction() {
                         @Override
@@ -288,6 +339,7 @@ public class NightscoutUploadService extends Service {
 
                     // Do not rerun, try again after the next poll
                     rerun = false;
+                    backoff();
 
                     storeRealm.executeTransaction(new Realm.Transaction() {
                         @Override
@@ -308,6 +360,7 @@ public class NightscoutUploadService extends Service {
 
             } else {
                 Log.i(TAG, "No records have to be uploaded");
+                clearBackoff();
             }
 
         } catch (Exception e) {
@@ -0,0 +1,104 @@
+package info.nightscout.android.upload.nightscout;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Call times for a http client, from call start to call end so any tcp connect and tls handshake
+ * is included. New connections are counted with their connect time (tls included) to show what
+ * the keep-alive pool is saving and what it is not.
+ */
+public class RequestTimer implements EventListener.Factory {
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicLong requestMS = new AtomicLong();
+    private final AtomicInteger connectCount = new AtomicInteger();
+    private final AtomicLong connectMS = new AtomicLong();
+
+    @Override
+    public EventListener create(@NonNull Call call) {
+        return new EventListener() {
+            private long callStart;
+            private long connectStart;
+
+            @Override
+            public void callStart(Call call) {
+                callStart = System.currentTimeMillis();
+            }
+
+            @Override
+            public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+                connectStart = System.currentTimeMillis();
+            }
+
+            @Override
+            public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+                connected();
+            }
+
+            @Override
+            public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+                connected();
+            }
+
+            @Override
+            public void callEnd(Call call) {
+                ended();
+            }
+
+            @Override
+            public void callFailed(Call call, IOException ioe) {
+                ended();
+            }
+
+            private void connected() {
+                connectCount.incrementAndGet();
+                connectMS.addAndGet(System.currentTimeMillis() - connectStart);
+            }
+
+            private void ended() {
+                requestCount.incrementAndGet();
+                requestMS.addAndGet(System.currentTimeMillis() - callStart);
+            }
+        };
+    }
+
+    public void reset() {
+        requestCount.set(0);
+        requestMS.set(0);
+        connectCount.set(0);
+        connectMS.set(0);
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getRequestMS() {
+        return requestMS.get();
+    }
+
+    public int getConnectCount() {
+        return connectCount.get();
+    }
+
+    public long getConnectMS() {
+        return connectMS.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "requests: %s [%sms] connects: %s [%sms]",
+                getRequestCount(), getRequestMS(), getConnectCount(), getConnectMS());
+    }
+}
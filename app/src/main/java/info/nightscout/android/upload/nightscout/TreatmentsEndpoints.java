@@ -6,11 +6,13 @@ import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 
+import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.DELETE;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
@@ -287,6 +289,10 @@ public interface TreatmentsEndpoints {
         public void setCreated_at(Date created_at) {
             this.created_at = NightscoutUploadProcess.formatDateForNS(created_at);
         }
+
+        public void setCreated_at(String created_at) {
+            this.created_at = created_at;
+        }
     }
 
     // https://docs.mongodb.com/v3.6/reference/operator/query/
@@ -302,6 +308,12 @@ public interface TreatmentsEndpoints {
                                   @Query("find[created_at][$lte]") String to,
                                   @Query("find[key600]") String key);
 
+    // find treatments using a set of keys
+    @GET("/api/v1/treatments.json")
+    Call<List<Treatment>> findKeys(@Query("find[created_at][$gte]") String from,
+                                   @Query("find[key600][$in][]") List<String> keys,
+                                   @Query("count") String count);
+
     // find treatments using date range
     @GET("/api/v1/treatments.json")
     Call<List<Treatment>> findDateRangeCount(@Query("find[created_at][$gte]") String from,
@@ -356,6 +368,41 @@ public interface TreatmentsEndpoints {
     Call<ResponseBody> deleteID(@Query("find[created_at]") String date,
                                 @Query("find[_id]") String id);
 
+    // query based bulk deletes, these match the find queries used for cleanup
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteDateRange(@Query("find[created_at][$gte]") String from,
+                                       @Query("find[created_at][$lte]") String to);
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteCleanupItems(@Query("find[created_at][$gte]") String from,
+                                          @Query("find[created_at][$lte]") String to,
+                                          @Query("find[eventType][$ne]") String type,
+                                          @Query("find[key600][$not][$exists]") String empty);
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteKeyRegex(@Query("find[created_at][$gte]") String from,
+                                      @Query("find[created_at][$lte]") String to,
+                                      @Query("find[key600][$regex]") String key);
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteNotesRegex(@Query("find[created_at][$gte]") String from,
+                                        @Query("find[created_at][$lte]") String to,
+                                        @Query("find[notes][$regex]") String notes);
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteKeyRegexNoPumpMAC(@Query("find[created_at][$gte]") String from,
+                                               @Query("find[created_at][$lte]") String to,
+                                               @Query("find[key600][$regex]") String key,
+                                               @Query("find[pumpMAC600][$not][$exists]") String pumpMAC600);
+
+    @DELETE("/api/v1/treatments.json")
+    Call<ResponseBody> deleteNotesRegexNoPumpMAC(@Query("find[created_at][$gte]") String from,
+                                                 @Query("find[created_at][$lte]") String to,
+                                                 @Query("find[notes][$regex]") String notes,
+                                                 @Query("find[key600][$exists]") String key600,
+                                                 @Query("find[pumpMAC600][$not][$exists]") String pumpMAC600);
+
     @Headers({
             "Accept: application/json",
             "Content-type: application/json"
@@ -368,4 +415,9 @@ public interface TreatmentsEndpoints {
     // post bulk treatments
     @POST("/api/v1/treatments")
     Call<ResponseBody> sendTreatments(@Body List<Treatment> treatments);
+
+    // post bulk treatments as a streamed json body
+    @POST("/api/v1/treatments")
+    Call<ResponseBody> sendTreatments(@Header("Content-Encoding") String encoding,
+                                      @Body RequestBody treatments);
 }
@@ -7,11 +7,21 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import info.nightscout.android.BuildConfig;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.logging.HttpLoggingInterceptor;
@@ -20,7 +30,34 @@ import retrofit2.converter.gson.GsonConverterFactory;
 
 @SuppressWarnings("PointlessBooleanExpression")
 public class UploadApi {
-    private Retrofit retrofit;
+
+    // one http client for the process, connections to the nightscout site are kept alive
+    // between upload cycles so the tcp/tls handshake is not repeated every poll
+    private static final long KEEP_ALIVE_MINUTES = 6;
+    private static final OkHttpClient sharedClient = new OkHttpClient().newBuilder()
+            .connectionPool(new ConnectionPool(5, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(60, TimeUnit.SECONDS)
+            .writeTimeout(60, TimeUnit.SECONDS)
+            .build();
+
+    // apis for the current site, keyed by url and secret
+    private static final Map<String, UploadApi> registry = new HashMap<>();
+
+    // cleared if the site rejects gzip encoded request bodies
+    private volatile boolean gzip = true;
+
+    // cleared if the site does not accept an array of device status in one post
+    private volatile boolean statusBatch = true;
+
+    // the status check runs apart from the upload cycle and is timed on its own
+    private final RequestTimer requestTimer = new RequestTimer();
+    private final RequestTimer statusTimer = new RequestTimer();
+
+    // upload calls in flight, a blocking execute() is only stopped by cancelling its call
+    private final Set<Call> uploadCalls = new HashSet<>();
+    private boolean uploadCancelled;
 
     private StatusEndpoints statusEndpoints;
     private DeviceEndpoints deviceEndpoints;
@@ -44,7 +81,22 @@ public class UploadApi {
         return treatmentsEndpoints;
     }
 
-    public UploadApi(String baseURL, String secret)
+    public static UploadApi getInstance(String baseURL, String secret)
+            throws NoSuchAlgorithmException, UnsupportedEncodingException {
+        String key = baseURL + "\n" + secret;
+        synchronized (registry) {
+            UploadApi uploadApi = registry.get(key);
+            if (uploadApi == null) {
+                // settings changed, only the current site is kept
+                registry.clear();
+                uploadApi = new UploadApi(baseURL, secret);
+                registry.put(key, uploadApi);
+            }
+            return uploadApi;
+        }
+    }
+
+    private UploadApi(String baseURL, String secret)
             throws NoSuchAlgorithmException, UnsupportedEncodingException {
 
         class AddAuthHeader implements Interceptor {
@@ -68,10 +120,26 @@ public class UploadApi {
             }
         }
 
-        OkHttpClient.Builder okHttpClient = new OkHttpClient().newBuilder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS);
+        class UploadCalls implements Interceptor {
+            @Override
+            public Response intercept(@NonNull Interceptor.Chain chain) throws IOException {
+                Call call = chain.call();
+                synchronized (uploadCalls) {
+                    if (uploadCancelled) throw new IOException("Canceled");
+                    uploadCalls.add(call);
+                }
+                try {
+                    return chain.proceed(chain.request());
+                } finally {
+                    synchronized (uploadCalls) {
+                        uploadCalls.remove(call);
+                    }
+                }
+            }
+        }
+
+        // derived clients share the connection pool and dispatcher of the process client
+        OkHttpClient.Builder okHttpClient = sharedClient.newBuilder();
 
         if (secret != null)
             okHttpClient.addInterceptor(new AddAuthHeader(formToken(secret)));
@@ -83,19 +151,70 @@ public class UploadApi {
             okHttpClient.addInterceptor(logging);
         }
 
-        retrofit = new Retrofit.Builder()
+        Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(baseURL)
-                .client(okHttpClient.build())
+                .client(okHttpClient.eventListenerFactory(statusTimer).build())
                 .addConverterFactory(GsonConverterFactory.create())
                 .build();
 
         statusEndpoints = retrofit.create(StatusEndpoints.class);
+
+        retrofit = new Retrofit.Builder()
+                .baseUrl(baseURL)
+                .client(okHttpClient
+                        .addInterceptor(new UploadCalls())
+                        .eventListenerFactory(requestTimer)
+                        .build())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+
         deviceEndpoints = retrofit.create(DeviceEndpoints.class);
         profileEndpoints = retrofit.create(ProfileEndpoints.class);
         entriesEndpoints = retrofit.create(EntriesEndpoints.class);
         treatmentsEndpoints = retrofit.create(TreatmentsEndpoints.class);
     }
 
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public boolean isStatusBatch() {
+        return statusBatch;
+    }
+
+    public void setStatusBatch(boolean statusBatch) {
+        this.statusBatch = statusBatch;
+    }
+
+    // upload requests since the last reset, the upload process resets it each cycle
+    public RequestTimer getRequestTimer() {
+        return requestTimer;
+    }
+
+    public RequestTimer getStatusTimer() {
+        return statusTimer;
+    }
+
+    // cancel the upload calls in flight and fail any started until the next reset
+    public void cancelUploadCalls() {
+        List<Call> calls;
+        synchronized (uploadCalls) {
+            uploadCancelled = true;
+            calls = new ArrayList<>(uploadCalls);
+        }
+        for (Call call : calls) call.cancel();
+    }
+
+    public void resetUploadCalls() {
+        synchronized (uploadCalls) {
+            uploadCancelled = false;
+        }
+    }
+
     @NonNull
     private String formToken(String secret) throws NoSuchAlgorithmException, UnsupportedEncodingException {
         MessageDigest digest = MessageDigest.getInstance("SHA-1");
@@ -0,0 +1,90 @@
+package info.nightscout.android.urchin;
+
+import java.util.Arrays;
+
+/**
+ * Graph slot state kept between urchin updates.
+ *
+ * Slot 0 is the newest time step. When the graph time moves on by whole steps the slots are
+ * shifted and only the new steps need to be built from history. Each slot keeps the count of
+ * records used to build it so the retained slots can be checked against a count query to find
+ * when history backfill has changed older slots.
+ */
+class UrchinGraph {
+    private final int size;
+    private final long step;
+
+    private final float[] values;
+    private final int[] counts;
+
+    private long time; // time of slot 0, 0 when the graph needs a full build
+    private String settings = "";
+
+    UrchinGraph(int size, long step) {
+        this.size = size;
+        this.step = step;
+        values = new float[size];
+        counts = new int[size];
+    }
+
+    // move slot 0 to time, returns the number of newest slots that need to be built
+    int advance(long time, String settings) {
+        long steps = (time - this.time) / step;
+
+        if (this.time == 0
+                || !this.settings.equals(settings)
+                || time < this.time
+                || (time - this.time) % step != 0
+                || steps >= size) {
+            this.time = time;
+            this.settings = settings;
+            Arrays.fill(values, 0);
+            Arrays.fill(counts, 0);
+            return size;
+        }
+
+        int shift = (int) steps;
+        if (shift > 0) {
+            System.arraycopy(values, 0, values, shift, size - shift);
+            System.arraycopy(counts, 0, counts, shift, size - shift);
+            Arrays.fill(values, 0, shift, 0);
+            Arrays.fill(counts, 0, shift, 0);
+        }
+        this.time = time;
+
+        return shift;
+    }
+
+    void invalidate() {
+        time = 0;
+    }
+
+    // records counted for slots from..size
+    int retained(int from) {
+        int count = 0;
+        for (int i = from; i < size; i++) count += counts[i];
+        return count;
+    }
+
+    // start time of a slot
+    long slotTime(int slot) {
+        return time - slot * step;
+    }
+
+    float getValue(int slot) {
+        return values[slot];
+    }
+
+    int getCount(int slot) {
+        return counts[slot];
+    }
+
+    void set(int slot, float value, int count) {
+        values[slot] = value;
+        counts[slot] = count;
+    }
+
+    int getSize() {
+        return size;
+    }
+}
@@ -24,13 +24,13 @@ import info.nightscout.android.R;
 import info.nightscout.android.UploaderApplication;
 import info.nightscout.android.history.PumpHistoryHandler;
 import info.nightscout.android.history.PumpHistoryParser;
+import info.nightscout.android.medtronic.StatusSnapshot;
 import info.nightscout.android.medtronic.UserLogMessage;
 import info.nightscout.android.medtronic.service.MasterService;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBG;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBasal;
 import info.nightscout.android.model.medtronicNg.PumpHistoryBolus;
 import info.nightscout.android.model.medtronicNg.PumpHistoryCGM;
-import info.nightscout.android.model.medtronicNg.PumpHistoryMisc;
 import info.nightscout.android.model.medtronicNg.PumpStatusEvent;
 import info.nightscout.android.model.store.DataStore;
 import info.nightscout.android.utils.FormatKit;
@@ -63,6 +63,7 @@ public class UrchinService extends Service {
     private Realm storeRealm;
     private Realm historyRealm;
     private DataStore dataStore;
+    private StatusSnapshot snapshot;
     private PumpStatusEvent pumpStatusEvent;
 
     private int receivedCount = 0;
@@ -80,6 +81,12 @@ public class UrchinService extends Service {
     private String text;
     private byte[] extra;
 
+    // graph state kept between updates, only the newest steps are built unless history backfill
+    // has changed the count of records in the older slots
+    private final UrchinGraph sgvGraph = new UrchinGraph(GRAPH_MAX_SGV_COUNT, TIME_STEP);
+    private final UrchinGraph basalGraph = new UrchinGraph(GRAPH_MAX_SGV_COUNT, TIME_STEP);
+    private final UrchinGraph bolusGraph = new UrchinGraph(GRAPH_MAX_SGV_COUNT, TIME_STEP);
+
     private enum KEY {
         msgType,
         recency,
@@ -246,38 +253,31 @@ public class UrchinService extends Service {
 
             } else {
 
+                // status values come from the shared snapshot, Realm is only queried for graphs
+                snapshot = StatusSnapshot.acquire();
                 realm = Realm.getDefaultInstance();
                 historyRealm = Realm.getInstance(UploaderApplication.getHistoryConfiguration());
 
                 timeNow = System.currentTimeMillis();
                 ignoreACK = timeNow + 2000L;
 
-                RealmResults<PumpStatusEvent> pumpresults = realm.where(PumpStatusEvent.class)
-                        .greaterThan("eventDate", new Date(timeNow - 24 * 60 * 1000L))
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
-
-                RealmResults<PumpStatusEvent> cgmresults = pumpresults.where()
-                        .equalTo("cgmActive", true)
-                        .sort("cgmDate", Sort.DESCENDING)
-                        .findAll();
+                pumpStatusEvent = recent(snapshot.getPumpStatus());
+                PumpStatusEvent cgmStatusEvent = recent(snapshot.getCgmStatus());
 
-                RealmResults<PumpHistoryCGM> sgvresults = historyRealm.where(PumpHistoryCGM.class)
-                        .notEqualTo("sgv", 0)
-                        .greaterThan("eventDate", new Date(timeNow - 2 * 60 * 60000L))
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+                PumpHistoryCGM sgvRecord = snapshot.getSgv();
+                PumpHistoryCGM sgvPrevious = snapshot.getSgvPrevious();
+                if (sgvRecord != null && sgvRecord.getEventDate().getTime() <= timeNow - 2 * 60 * 60000L)
+                    sgvRecord = null;
 
                 long lastReceivedEventTime;
                 long lastReceivedCgmTime;
                 long lastActualCgmTime;
 
-                if (pumpresults.size() > 0) {
-                    pumpStatusEvent = pumpresults.first();
+                if (pumpStatusEvent != null) {
                     lastReceivedEventTime = pumpStatusEvent.getEventDate().getTime();
 
-                    if (cgmresults.size() > 0) {
-                        lastReceivedCgmTime = cgmresults.first().getCgmDate().getTime();
+                    if (cgmStatusEvent != null) {
+                        lastReceivedCgmTime = cgmStatusEvent.getCgmDate().getTime();
                         // normalise last received cgm time to current time window
                         lastActualCgmTime = lastReceivedCgmTime + (((timeNow - lastReceivedCgmTime) / POLL_PERIOD_MS) * POLL_PERIOD_MS);
 
@@ -302,22 +302,22 @@ public class UrchinService extends Service {
                 delta = NO_DELTA_VALUE;
                 trend = TREND.NONE.value();
 
-                if (sgvresults.size() > 0) {
-                    long age = (eventTime - sgvresults.first().getEventDate().getTime()) / 1000L;
+                if (sgvRecord != null) {
+                    long age = (eventTime - sgvRecord.getEventDate().getTime()) / 1000L;
 
                     // don't show any sgv if older then 60mins
                     if (age < 61 * 60)
-                        sgv = sgvresults.first().getSgv();
+                        sgv = sgvRecord.getSgv();
 
                     // don't show trend/delta if older then 10mins
                     if (age < 11 * 60) {
-                        if (sgvresults.first().getCgmTrend() != null)
-                            trend = TREND.valueOf(PumpHistoryCGM.NS_TREND.valueOf(sgvresults.first().getCgmTrend()).dexcom().name()).value();
+                        if (sgvRecord.getCgmTrend() != null)
+                            trend = TREND.valueOf(PumpHistoryCGM.NS_TREND.valueOf(sgvRecord.getCgmTrend()).dexcom().name()).value();
 
                         // don't show delta if sgv period older then 5 mins
-                        if (sgvresults.size() > 1
-                                && sgvresults.get(0).getCgmRTC() - sgvresults.get(1).getCgmRTC() < 6 * 60)
-                            delta = sgvresults.get(0).getSgv() - sgvresults.get(1).getSgv();
+                        if (sgvPrevious != null
+                                && sgvRecord.getCgmRTC() - sgvPrevious.getCgmRTC() < 6 * 60)
+                            delta = sgvRecord.getSgv() - sgvPrevious.getSgv();
                     }
                 }
 
@@ -326,14 +326,20 @@ public class UrchinService extends Service {
                 if (text.length() > STATUS_BAR_MAX_LENGTH)
                     text = text.substring(0, STATUS_BAR_MAX_LENGTH);
 
+                byte[] lastSgvs = sgvs;
+                byte[] lastExtra = extra;
+
                 sgvs = graphSgv(eventTime - (TIME_STEP / 2));
 
                 extra = graphBasal(eventTime - (TIME_STEP / 2));
                 extra = graphBolus(eventTime - TIME_STEP, extra);
                 extra = graphBolusPop(eventTime - TIME_STEP, extra);
 
-                // drop ref to Realm object
+                Log.d(TAG, String.format("graph bytes changed: sgv %s extra %s",
+                        changed(lastSgvs, sgvs), changed(lastExtra, extra)));
+
                 pumpStatusEvent = null;
+                snapshot = null;
 
                 refresh();
             }
@@ -354,12 +360,49 @@ public class UrchinService extends Service {
         realm = null;
     }
 
-    private byte[] graphSgv(long time) {
+    // pump status events older then 24mins are not used for the status
+    private PumpStatusEvent recent(PumpStatusEvent event) {
+        if (event != null && event.getEventDate().getTime() > timeNow - 24 * 60 * 1000L)
+            return event;
+        return null;
+    }
 
-        byte[] graph = new byte[GRAPH_MAX_SGV_COUNT];
+    private int changed(byte[] last, byte[] graph) {
+        if (last == null || last.length != graph.length) return graph.length;
+        int count = 0;
+        for (int i = 0; i < graph.length; i++)
+            if (last[i] != graph[i]) count++;
+        return count;
+    }
+
+    // slots to build after advancing, the previous newest slot(s) are included as they can
+    // still take records, the retained slots are rebuilt if backfill has changed their record count
+    private int graphBuild(UrchinGraph graph, int build, int margin, long retained, String name) {
+        int size = graph.getSize();
+        if (build < size) build = Math.min(size, build + margin);
+        if (build < size && retained >= 0 && retained != graph.retained(build)) {
+            Log.d(TAG, String.format("%s graph: older slots changed, rebuilding", name));
+            build = size;
+        }
+        return build;
+    }
+
+    private byte[] graphSgv(long time) {
+        int size = GRAPH_MAX_SGV_COUNT;
+        int build = sgvGraph.advance(time, "");
+
+        if (build < size - 1) {
+            // records counted for the retained slots, the newest slot always gets rebuilt
+            long retained = historyRealm.where(PumpHistoryCGM.class)
+                    .greaterThanOrEqualTo("eventDate", new Date(sgvGraph.slotTime(size - 1)))
+                    .lessThan("eventDate", new Date(sgvGraph.slotTime(build)))
+                    .notEqualTo("sgv", 0)
+                    .count();
+            build = graphBuild(sgvGraph, build, 1, retained, "sgv");
+        } else build = size;
 
         RealmResults<PumpHistoryCGM> results = historyRealm.where(PumpHistoryCGM.class)
-                .greaterThan("eventDate", new Date(time - (GRAPH_MAX_SGV_COUNT * TIME_STEP)))
+                .greaterThanOrEqualTo("eventDate", new Date(sgvGraph.slotTime(build - 1)))
                 .notEqualTo("sgv", 0)
                 .sort("eventDate", Sort.DESCENDING)
                 .findAll();
@@ -367,34 +410,47 @@ public class UrchinService extends Service {
         Iterator<PumpHistoryCGM> iterator = results.iterator();
         PumpHistoryCGM record = null;
         int sgv;
+        int count;
 
-        for (int i = 0; i < GRAPH_MAX_SGV_COUNT; i++) {
+        for (int i = 0; i < build; i++) {
             sgv = 0;
+            count = 0;
+            time = sgvGraph.slotTime(i);
 
             do {
                 if (record == null && iterator.hasNext()) record = iterator.next();
                 if (record != null && record.getEventDate().getTime() >= time) {
                     sgv = record.getSgv();
+                    count++;
                     record = null;
                 } else {
                     break;
                 }
             } while (iterator.hasNext());
 
-            graph[i] = (byte) (sgv >> 1);
-
-            time = time - TIME_STEP;
+            sgvGraph.set(i, sgv, count);
         }
 
+        Log.d(TAG, "sgv graph: built " + build + " slots");
+
+        byte[] graph = new byte[size];
+        for (int i = 0; i < size; i++)
+            graph[i] = (byte) ((int) sgvGraph.getValue(i) >> 1);
+
         return graph;
     }
 
     private byte[] graphBasal(long time) {
 
         // period to use for scaling largest to smallest basal
-        int basalPeriod = (dataStore.getUrchinBasalPeriod() + 1) * 12;
+        int basalPeriod = Math.min((dataStore.getUrchinBasalPeriod() + 1) * 12, GRAPH_MAX_SGV_COUNT);
 
-        Date limitDate = new Date(timeNow - (basalPeriod * TIME_STEP));
+        // status events are only added at the newest end, the basal windows overlap
+        // so the two previous newest slots are rebuilt as they can change with a new event
+        int build = graphBuild(basalGraph, basalGraph.advance(time, String.valueOf(basalPeriod)), 2, -1, "basal");
+        build = Math.min(build, basalPeriod);
+
+        Date limitDate = new Date(Math.max(timeNow - (basalPeriod * TIME_STEP), basalGraph.slotTime(build - 1)));
 
         RealmResults<PumpStatusEvent> results = realm
                 .where(PumpStatusEvent.class)
@@ -405,12 +461,13 @@ public class UrchinService extends Service {
         Iterator<PumpStatusEvent> iterator = results.iterator();
         PumpStatusEvent record = null;
 
-        Float[] basals = new Float[basalPeriod];
         Float basal = (float) 0;
-        Float largest = (float) 0;
+        int count;
 
-        // get basals for each time step in period
-        for (int i = 0; i < basalPeriod; i++) {
+        // get basals for each new time step in period
+        for (int i = 0; i < build; i++) {
+            count = 0;
+            time = basalGraph.slotTime(i);
 
             do {
                 if (record == null && iterator.hasNext()) record = iterator.next();
@@ -427,6 +484,7 @@ public class UrchinService extends Service {
                         } else {
                             basal = record.getBasalRate();
                         }
+                        count++;
                         record = null;
                     }
                     break;
@@ -434,11 +492,17 @@ public class UrchinService extends Service {
                 } else record = null;
             } while (iterator.hasNext());
 
-            basals[i] = basal;
-            if (basal > largest) largest = basal;
-            time = time - TIME_STEP;
+            basalGraph.set(i, basal, count);
         }
 
+        // steps without a status event carry the basal from the newer step
+        for (int i = build; i > 0 && i < basalPeriod && basalGraph.getCount(i) == 0; i++)
+            basalGraph.set(i, basalGraph.getValue(i - 1), 0);
+
+        Float largest = (float) 0;
+        for (int i = 0; i < basalPeriod; i++)
+            if (basalGraph.getValue(i) > largest) largest = basalGraph.getValue(i);
+
         float scale = dataStore.getUrchinBasalScale() / largest; // urchin graph range 0-31
 
         // create the graph
@@ -449,7 +513,7 @@ public class UrchinService extends Service {
         for (int i = 0; i < GRAPH_MAX_SGV_COUNT; i++) {
 
             if (i < basalPeriod) {
-                basal = basals[i];
+                basal = basalGraph.getValue(i);
                 if (basal > 0) {
                     y = (int) (basal * scale);
                     if (y < 2) y = 2;
@@ -471,36 +535,50 @@ public class UrchinService extends Service {
     private byte[] graphBolus(long time, byte[] graph) {
 
         if (dataStore.isUrchinBolusGraph()) {
+            int size = GRAPH_MAX_SGV_COUNT;
+            int build = bolusGraph.advance(time, "");
+
+            // a slot holds boluses programmed from the slot time up to the next step
+            if (build < size - 1) {
+                long retained = historyRealm.where(PumpHistoryBolus.class)
+                        .greaterThanOrEqualTo("programmedDate", new Date(bolusGraph.slotTime(size - 1)))
+                        .lessThan("programmedDate", new Date(bolusGraph.slotTime(build)))
+                        .equalTo("programmed", true)
+                        .count();
+                build = graphBuild(bolusGraph, build, 1, retained, "bolus");
+            } else build = size;
 
             RealmResults<PumpHistoryBolus> results = historyRealm.where(PumpHistoryBolus.class)
-                    .greaterThan("eventDate", new Date(time - (GRAPH_MAX_SGV_COUNT * TIME_STEP)))
+                    .greaterThanOrEqualTo("programmedDate", new Date(bolusGraph.slotTime(build - 1)))
+                    .lessThan("programmedDate", new Date(bolusGraph.slotTime(0) + TIME_STEP))
                     .equalTo("programmed", true)
-                    .sort("eventDate", Sort.DESCENDING)
+                    .sort("programmedDate", Sort.DESCENDING)
                     .findAll();
 
             Iterator<PumpHistoryBolus> iterator = results.iterator();
-            PumpHistoryBolus record = null;
+            PumpHistoryBolus record = iterator.hasNext() ? iterator.next() : null;
 
-            int flag;
+            int count;
 
-            for (int i = 0; i < GRAPH_MAX_SGV_COUNT; i++) {
-                flag = 0;
+            for (int i = 0; i < build; i++) {
+                count = 0;
+                time = bolusGraph.slotTime(i);
 
-                do {
-                    if (record == null && iterator.hasNext()) record = iterator.next();
-                    if (record != null && record.getProgrammedDate().getTime() < time + TIME_STEP) {
-                        if (record.getProgrammedDate().getTime() >= time) {
-                            flag = 1;
-                            record = null;
-                        }
-                        break;
-                    } else record = null;
-                } while (iterator.hasNext());
-
-                graph[i] = (byte) (graph[i] & 0xFE | flag);
+                while (record != null && record.getProgrammedDate().getTime() >= time) {
+                    count++;
+                    record = iterator.hasNext() ? iterator.next() : null;
+                }
 
-                time = time - TIME_STEP;
+                bolusGraph.set(i, count > 0 ? 1 : 0, count);
             }
+
+            Log.d(TAG, "bolus graph: built " + build + " slots");
+
+            for (int i = 0; i < size; i++)
+                graph[i] = (byte) (graph[i] & 0xFE | (int) bolusGraph.getValue(i));
+
+        } else {
+            bolusGraph.invalidate();
         }
 
         return graph;
@@ -569,37 +647,33 @@ public class UrchinService extends Service {
     }
 
     private String lastBolus() {
-        RealmResults<PumpHistoryBolus> results = historyRealm.where(PumpHistoryBolus.class)
-                .greaterThan("eventDate", new Date(timeNow - 12 * 60 * 60000L))
-                .equalTo("programmed", true)
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
+        PumpHistoryBolus bolus = snapshot.getBolus();
 
-        if (results.size() > 0) {
+        if (bolus != null && bolus.getEventDate().getTime() > timeNow - 12 * 60 * 60000L) {
             Double insulin;
             String tag = "";
 
-            if (PumpHistoryParser.BOLUS_TYPE.DUAL_WAVE.equals(results.first().getBolusType())) {
+            if (PumpHistoryParser.BOLUS_TYPE.DUAL_WAVE.equals(bolus.getBolusType())) {
                 if (dataStore.isUrchinBolusTags()) tag = FormatKit.getInstance().getString(R.string.urchin_watchface_Dual);
-                if (results.first().isSquareDelivered())
-                    insulin = results.first().getNormalDeliveredAmount() + results.first().getSquareDeliveredAmount();
-                else if (results.first().isNormalDelivered())
-                    insulin = results.first().getNormalDeliveredAmount() + results.first().getSquareProgrammedAmount();
+                if (bolus.isSquareDelivered())
+                    insulin = bolus.getNormalDeliveredAmount() + bolus.getSquareDeliveredAmount();
+                else if (bolus.isNormalDelivered())
+                    insulin = bolus.getNormalDeliveredAmount() + bolus.getSquareProgrammedAmount();
                 else
-                    insulin = results.first().getNormalProgrammedAmount() + results.first().getSquareProgrammedAmount();
+                    insulin = bolus.getNormalProgrammedAmount() + bolus.getSquareProgrammedAmount();
 
-            } else if (PumpHistoryParser.BOLUS_TYPE.SQUARE_WAVE.equals(results.first().getBolusType())) {
+            } else if (PumpHistoryParser.BOLUS_TYPE.SQUARE_WAVE.equals(bolus.getBolusType())) {
                 if (dataStore.isUrchinBolusTags()) tag = FormatKit.getInstance().getString(R.string.urchin_watchface_Square);
-                if (results.first().isSquareDelivered())
-                    insulin = results.first().getSquareDeliveredAmount();
+                if (bolus.isSquareDelivered())
+                    insulin = bolus.getSquareDeliveredAmount();
                 else
-                    insulin = results.first().getSquareProgrammedAmount();
+                    insulin = bolus.getSquareProgrammedAmount();
 
             } else {
-                if (results.first().isNormalDelivered())
-                    insulin =  results.first().getNormalDeliveredAmount();
+                if (bolus.isNormalDelivered())
+                    insulin =  bolus.getNormalDeliveredAmount();
                 else
-                    insulin =  results.first().getNormalProgrammedAmount();
+                    insulin =  bolus.getNormalProgrammedAmount();
             }
 
             return String.format("%s%s%s%s%s",
@@ -607,7 +681,7 @@ public class UrchinService extends Service {
                     FormatKit.getInstance().formatAsDecimal(insulin, 0, 1, RoundingMode.HALF_UP),
                     styleUnits(),
                     styleConcatenate(),
-                    styleTime(results.first().getProgrammedDate().getTime()));
+                    styleTime(bolus.getProgrammedDate().getTime()));
         }
 
         return "";
@@ -618,15 +692,9 @@ public class UrchinService extends Service {
             float rate = 0.f;
 
             if (pumpStatusEvent.isSuspended()) {
-                RealmResults<PumpHistoryBasal> suspend = historyRealm.where(PumpHistoryBasal.class)
-                        .greaterThan("eventDate", new Date(timeNow - 12 * 60 * 60000L))
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.SUSPEND.value())
-                        .or()
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.RESUME.value())
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+                PumpHistoryBasal suspend = snapshot.getSuspend();
                 // check if most recent suspend is in history and show the start time
-                if (suspend.size() > 0 && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.first().getRecordtype()))
+                if (suspend != null && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.getRecordtype()))
                     rate = (float) 0;
 
             } else if (pumpStatusEvent.isTempBasalActive()) {
@@ -651,19 +719,13 @@ public class UrchinService extends Service {
             float rate;
 
             if (pumpStatusEvent.isSuspended()) {
-                RealmResults<PumpHistoryBasal> suspend = historyRealm.where(PumpHistoryBasal.class)
-                        .greaterThan("eventDate", new Date(timeNow - 12 * 60 * 60000L))
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.SUSPEND.value())
-                        .or()
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.RESUME.value())
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+                PumpHistoryBasal suspend = snapshot.getSuspend();
                 // check if most recent suspend is in history and show the start time
-                if (suspend.size() > 0 && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.first().getRecordtype()))
+                if (suspend != null && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.getRecordtype()))
                     return String.format("%s%s%s",
                             FormatKit.getInstance().getString(R.string.urchin_watchface_Suspend),
                             styleConcatenate(),
-                            styleTime(suspend.first().getEventDate().getTime()));
+                            styleTime(suspend.getEventDate().getTime()));
 
             } else if (pumpStatusEvent.isTempBasalActive()) {
                 rate = pumpStatusEvent.getTempBasalRate();
@@ -694,19 +756,13 @@ public class UrchinService extends Service {
         if (pumpStatusEvent != null && pumpStatusEvent.getEventDate().getTime() > timeNow - 12 * 60 * 60000L) {
 
             if (pumpStatusEvent.isSuspended()) {
-                RealmResults<PumpHistoryBasal> suspend = historyRealm.where(PumpHistoryBasal.class)
-                        .greaterThan("eventDate", new Date(timeNow - 12 * 60 * 60000L))
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.SUSPEND.value())
-                        .or()
-                        .equalTo("recordtype", PumpHistoryBasal.RECORDTYPE.RESUME.value())
-                        .sort("eventDate", Sort.DESCENDING)
-                        .findAll();
+                PumpHistoryBasal suspend = snapshot.getSuspend();
                 // check if most recent suspend is in history and show the start time
-                if (suspend.size() > 0 && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.first().getRecordtype()))
+                if (suspend != null && PumpHistoryBasal.RECORDTYPE.SUSPEND.equals(suspend.getRecordtype()))
                     return String.format("%s%s%s",
                             FormatKit.getInstance().getString(R.string.urchin_watchface_Suspend),
                             styleConcatenate(),
-                            styleTime(suspend.first().getEventDate().getTime()));
+                            styleTime(suspend.getEventDate().getTime()));
 
             } else if (pumpStatusEvent.isTempBasalActive()) {
                 int minutes = pumpStatusEvent.getTempBasalMinutesRemaining();
@@ -777,13 +833,10 @@ public class UrchinService extends Service {
     }
 
     private String pumpBatteryAge() {
-        RealmResults<PumpHistoryMisc> results = historyRealm.where(PumpHistoryMisc.class)
-                .equalTo("recordtype", PumpHistoryMisc.RECORDTYPE.CHANGE_BATTERY.value())
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
-        if (results.size() > 0)
+        long change = snapshot.getBatteryChange();
+        if (change > 0)
             return String.format("%s%s",
-                    (timeNow - results.first().getEventDate().getTime()) / (24 * 60 * 60000L),
+                    (timeNow - change) / (24 * 60 * 60000L),
                     FormatKit.getInstance().getString(R.string.day_d));
         return FormatKit.getInstance().getString(R.string.urchin_watchface_NoData);
     }
@@ -797,13 +850,10 @@ public class UrchinService extends Service {
     }
 
     private String pumpReservoirAge() {
-        RealmResults<PumpHistoryMisc> results = historyRealm.where(PumpHistoryMisc.class)
-                .equalTo("recordtype", PumpHistoryMisc.RECORDTYPE.CHANGE_CANNULA.value())
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
-        if (results.size() > 0)
+        long change = snapshot.getCannulaChange();
+        if (change > 0)
             return String.format("%s%s",
-                    (timeNow - results.first().getEventDate().getTime()) / (60 * 60000L),
+                    (timeNow - change) / (60 * 60000L),
                     FormatKit.getInstance().getString(R.string.hour_h));
         return "";
     }
@@ -816,12 +866,9 @@ public class UrchinService extends Service {
     }
 
     private int sensorHours() {
-        RealmResults<PumpHistoryMisc> results = historyRealm.where(PumpHistoryMisc.class)
-                .equalTo("recordtype", PumpHistoryMisc.RECORDTYPE.CHANGE_SENSOR.value())
-                .sort("eventDate", Sort.DESCENDING)
-                .findAll();
-        if (results.size() > 0)
-            return (int) ((timeNow - results.first().getEventDate().getTime()) / (60 * 60000L));
+        long change = snapshot.getSensorChange();
+        if (change > 0)
+            return (int) ((timeNow - change) / (60 * 60000L));
         else return -1;
     }
 
@@ -860,64 +907,46 @@ public class UrchinService extends Service {
 
     private String estimate() {
         if (dataStore.isSysEnableEstimateSGV()) {
-            RealmResults<PumpHistoryCGM> cgmResults = historyRealm
-                    .where(PumpHistoryCGM.class)
-                    .sort("eventDate", Sort.DESCENDING)
-                    .findAll();
-            if (cgmResults.size() > 0 && cgmResults.first().isEstimate())
+            PumpHistoryCGM cgm = snapshot.getCgm();
+            if (cgm != null && cgm.isEstimate())
                 return FormatKit.getInstance().getString(R.string.urchin_watchface_Estimate);
         }
         return "";
     }
 
     private String bgTime() {
-        RealmResults<PumpHistoryBG> bgResults = historyRealm
-                .where(PumpHistoryBG.class)
-                .sort("eventDate", Sort.ASCENDING)
-                .findAll();
-        if (bgResults.size() > 0)
+        PumpHistoryBG bg = snapshot.getBg();
+        if (bg != null)
             return String.format("%s%s%s",
-                    FormatKit.getInstance().formatAsGlucose(bgResults.last().getBg()),
+                    FormatKit.getInstance().formatAsGlucose(bg.getBg()),
                     styleConcatenate(),
-                    styleTime(bgResults.last().getBgDate().getTime())
+                    styleTime(bg.getBgDate().getTime())
             );
         return "";
     }
 
     private String bgAge() {
-        RealmResults<PumpHistoryBG> bgResults = historyRealm
-                .where(PumpHistoryBG.class)
-                .sort("eventDate", Sort.ASCENDING)
-                .findAll();
-        if (bgResults.size() > 0)
+        PumpHistoryBG bg = snapshot.getBg();
+        if (bg != null)
             return String.format("%s%s%s",
-                    FormatKit.getInstance().formatAsGlucose(bgResults.last().getBg()),
+                    FormatKit.getInstance().formatAsGlucose(bg.getBg()),
                     styleConcatenate(),
-                    styleDuration((int) ((timeNow - bgResults.last().getBgDate().getTime()) / 60000L))
+                    styleDuration((int) ((timeNow - bg.getBgDate().getTime()) / 60000L))
             );
         return "";
     }
 
-    private String bg(long timeNow) {
-        RealmResults<PumpHistoryBG> bgResults = historyRealm
-                .where(PumpHistoryBG.class)
-                .greaterThanOrEqualTo("eventDate", new Date(timeNow))
-                .sort("eventDate", Sort.ASCENDING)
-                .findAll();
-        if (bgResults.size() > 0)
-            return FormatKit.getInstance().formatAsGlucose(bgResults.last().getBg());
+    private String bg(long time) {
+        PumpHistoryBG bg = snapshot.getBg();
+        if (bg != null && bg.getEventDate().getTime() >= time)
+            return FormatKit.getInstance().formatAsGlucose(bg.getBg());
         return "";
     }
 
     private String factor(long time) {
-        RealmResults<PumpHistoryBG> bgResults = historyRealm
-                .where(PumpHistoryBG.class)
-                .equalTo("calibration", true)
-                .greaterThanOrEqualTo("calibrationDate", new Date(time))
-                .sort("eventDate", Sort.ASCENDING)
-                .findAll();
-        if (bgResults.size() > 0) {
-            return FormatKit.getInstance().formatAsDecimal(bgResults.last().getCalibrationFactor(), 1, 1, RoundingMode.DOWN);
+        PumpHistoryBG calibration = snapshot.getCalibration();
+        if (calibration != null && calibration.getCalibrationDate().getTime() >= time) {
+            return FormatKit.getInstance().formatAsDecimal(calibration.getCalibrationFactor(), 1, 1, RoundingMode.DOWN);
         }
         return "";
     }
@@ -0,0 +1,97 @@
+package info.nightscout.android.xdrip_plus;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Packs records for a xDrip+ collection into json array bundles, one broadcast per bundle.
+ *
+ * The json is streamed into a reused buffer, a bundle is sent when it reaches the record or size
+ * limit or on flush. Only collections that xDrip+ is known to read in full may be given more than
+ * one record per bundle. Each record is written between begin() and end():
+ * <pre>
+ *     JsonWriter writer = bundle.begin();
+ *     writer.beginObject();
+ *     ...
+ *     writer.endObject();
+ *     bundle.end();
+ * </pre>
+ */
+public class XDripPlusBundle {
+    private static final String TAG = XDripPlusBundle.class.getSimpleName();
+
+    // the data string is passed as an intent extra (utf-16 in the parcel), keep well under
+    // the 1MB binder transaction buffer that is shared by all transactions in the process
+    private static final int MAX_BUNDLE_CHARS = 100 * 1024;
+
+    private final Context context;
+    private final String action;
+    private final String collection;
+    private final int maxRecords;
+
+    private final StringWriter buffer = new StringWriter(MAX_BUNDLE_CHARS / 4);
+    private JsonWriter writer;
+
+    private int items;
+    private int records;
+    private int bundles;
+
+    public XDripPlusBundle(Context context, String action, String collection, int maxRecords) {
+        this.context = context;
+        this.action = action;
+        this.collection = collection;
+        this.maxRecords = maxRecords;
+    }
+
+    public JsonWriter begin() throws IOException {
+        if (writer == null) {
+            buffer.getBuffer().setLength(0);
+            writer = new JsonWriter(buffer);
+            writer.beginArray();
+        }
+        return writer;
+    }
+
+    public void end() throws IOException {
+        items++;
+        records++;
+        // checked after each record, a bundle can only exceed the size limit by a single record
+        if (items >= maxRecords || buffer.getBuffer().length() >= MAX_BUNDLE_CHARS) flush();
+    }
+
+    public void flush() throws IOException {
+        if (writer == null) return;
+
+        writer.endArray();
+        writer.close();
+        writer = null;
+
+        final Bundle bundle = new Bundle();
+        bundle.putString("action", action);
+        bundle.putString("collection", collection);
+        bundle.putString("data", buffer.toString());
+
+        final Intent intent = new Intent(XDripPlusUploadService.Constants.XDRIP_PLUS_NS_EMULATOR);
+        intent.putExtras(bundle).addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
+        context.sendBroadcast(intent);
+
+        bundles++;
+        Log.d(TAG, String.format("%s: sent bundle with %s records [%s chars]", collection, items, buffer.getBuffer().length()));
+        items = 0;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    public int getBundles() {
+        return bundles;
+    }
+}
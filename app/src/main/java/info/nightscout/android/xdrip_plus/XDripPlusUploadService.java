@@ -4,14 +4,12 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
-import android.os.Bundle;
 import android.os.IBinder;
 import android.os.PowerManager;
 import androidx.annotation.NonNull;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.google.gson.stream.JsonWriter;
 
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
@@ -32,8 +30,8 @@ import io.realm.RealmResults;
 import io.realm.Sort;
 
 import static info.nightscout.android.history.PumpHistorySender.SENDER_ID_XDRIP;
-import static info.nightscout.android.utils.ToolKit.getWakeLock;
-import static info.nightscout.android.utils.ToolKit.releaseWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.getWakeLock;
+import static info.nightscout.android.utils.WakeLockKit.releaseWakeLock;
 
 /**
  * Created by jamorham on 17/11/2016.
@@ -111,14 +109,20 @@ public class XDripPlusUploadService extends Service {
 
                     if (pumpStatusEvents.size() > 0) {
                         device = pumpStatusEvents.first().getDeviceName();
-                        doXDripUploadStatus(pumpStatusEvents.first());
+                        XDripPlusBundle devicestatus = new XDripPlusBundle(mContext, "add", "devicestatus", 1);
+                        doXDripUploadStatus(devicestatus, pumpStatusEvents.first());
+                        devicestatus.flush();
                     }
 
                     List<PumpHistoryInterface> records = pumpHistoryHandler.getSenderRecordsREQ(SENDER_ID_XDRIP);
 
+                    // the xDrip+ NS emulator receiver is not known to read past the first object of an entries/add array
+                    XDripPlusBundle entries = new XDripPlusBundle(mContext, "add", "entries", 1);
                     for (PumpHistoryInterface record : records) {
-                        if (((PumpHistoryCGM) record).getSgv() > 0) doXDripUploadCGM((PumpHistoryCGM) record, device);
+                        if (((PumpHistoryCGM) record).getSgv() > 0) doXDripUploadCGM(entries, (PumpHistoryCGM) record, device);
                     }
+                    entries.flush();
+                    Log.d(TAG, String.format("sent %s entries in %s broadcasts", entries.getRecords(), entries.getBundles()));
 
                     pumpHistoryHandler.setSenderRecordsACK(records, SENDER_ID_XDRIP);
 
@@ -156,58 +160,47 @@ public class XDripPlusUploadService extends Service {
         }
     }
 
-    private void doXDripUploadCGM(PumpHistoryCGM record, String device) throws Exception {
-        JSONArray entriesBody = new JSONArray();
-        JSONObject json = new JSONObject();
+    private void doXDripUploadCGM(XDripPlusBundle bundle, PumpHistoryCGM record, String device) throws Exception {
+        JsonWriter json = bundle.begin();
 
-        json.put("device", device);
-        json.put("type", "sgv");
-        json.put("date", record.getEventDate().getTime());
-        json.put("dateString", record.getEventDate());
-        json.put("sgv", record.getSgv());
+        json.beginObject();
+        json.name("device").value(device);
+        json.name("type").value("sgv");
+        json.name("date").value(record.getEventDate().getTime());
+        json.name("dateString").value(record.getEventDate().toString());
+        json.name("sgv").value(record.getSgv());
         String trend = record.getCgmTrend();
-        if (trend != null) json.put("direction", PumpHistoryCGM.NS_TREND.valueOf(trend).dexcom().string());
+        if (trend != null) json.name("direction").value(PumpHistoryCGM.NS_TREND.valueOf(trend).dexcom().string());
+        json.endObject();
 
-        entriesBody.put(json);
-        sendBundle(mContext, "add", "entries", entriesBody);
+        bundle.end();
     }
 
-    private void doXDripUploadStatus(PumpStatusEvent record) throws Exception {
-        final JSONArray devicestatusBody = new JSONArray();
+    private void doXDripUploadStatus(XDripPlusBundle bundle, PumpStatusEvent record) throws Exception {
+        JsonWriter json = bundle.begin();
 
-        JSONObject json = new JSONObject();
-        json.put("uploaderBattery", MasterService.getUploaderBatteryLevel());
-        json.put("device", record.getDeviceName());
-        json.put("created_at", ISO8601_DATE_FORMAT.format(record.getEventDate()));
+        json.beginObject();
+        json.name("uploaderBattery").value(MasterService.getUploaderBatteryLevel());
+        json.name("device").value(record.getDeviceName());
+        json.name("created_at").value(ISO8601_DATE_FORMAT.format(record.getEventDate()));
 
-        JSONObject pumpInfo = new JSONObject();
-        pumpInfo.put("clock", ISO8601_DATE_FORMAT.format(record.getEventDate()));
-        pumpInfo.put("reservoir", new BigDecimal(record.getReservoirAmount()).setScale(3, BigDecimal.ROUND_HALF_UP));
+        json.name("pump").beginObject();
+        json.name("clock").value(ISO8601_DATE_FORMAT.format(record.getEventDate()));
+        json.name("reservoir").value(new BigDecimal(record.getReservoirAmount()).setScale(3, BigDecimal.ROUND_HALF_UP));
 
-        JSONObject iob = new JSONObject();
-        iob.put("timestamp", record.getEventDate());
-        iob.put("bolusiob", record.getActiveInsulin());
+        json.name("iob").beginObject();
+        json.name("timestamp").value(record.getEventDate().toString());
+        json.name("bolusiob").value(Float.valueOf(record.getActiveInsulin()));
+        json.endObject();
 
-        JSONObject battery = new JSONObject();
-        battery.put("percent", record.getBatteryPercentage());
+        json.name("battery").beginObject();
+        json.name("percent").value(record.getBatteryPercentage());
+        json.endObject();
 
-        pumpInfo.put("iob", iob);
-        pumpInfo.put("battery", battery);
-        json.put("pump", pumpInfo);
+        json.endObject();
+        json.endObject();
 
-        devicestatusBody.put(json);
-        sendBundle(mContext, "add", "devicestatus", devicestatusBody);
-    }
-
-    private void sendBundle(Context context, String action, String collection, JSONArray json) {
-        final Bundle bundle = new Bundle();
-        bundle.putString("action", action);
-        bundle.putString("collection", collection);
-        bundle.putString("data", json.toString());
-
-        final Intent intent = new Intent(Constants.XDRIP_PLUS_NS_EMULATOR);
-        intent.putExtras(bundle).addFlags(Intent.FLAG_INCLUDE_STOPPED_PACKAGES);
-        context.sendBroadcast(intent);
+        bundle.end();
     }
 
     private void checkAvailable() throws Exception {
@@ -224,6 +217,6 @@ public class XDripPlusUploadService extends Service {
     public final class Constants {
         public static final String ACTION_STATUS_MESSAGE = "info.nightscout.android.xdrip_plus.STATUS_MESSAGE";
         public static final String EXTENDED_DATA = "info.nightscout.android.xdrip_plus.DATA";
-        private static final String XDRIP_PLUS_NS_EMULATOR = "com.eveningoutpost.dexdrip.NS_EMULATOR";
+        static final String XDRIP_PLUS_NS_EMULATOR = "com.eveningoutpost.dexdrip.NS_EMULATOR";
     }
 }
@@ -0,0 +1,47 @@
+package android.util;
+
+/**
+ * Console stand-in for android.util.Log so the CNL message layer runs on a plain JVM.
+ *
+ * Warnings and errors are always printed, debug and info only when the benchmark.verbose
+ * system property is set as the message layer logs every frame.
+ */
+public final class Log {
+    private static final boolean verbose = System.getProperty("benchmark.verbose") != null;
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return verbose ? print("V", tag, msg, null) : 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return verbose ? print("D", tag, msg, null) : 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return verbose ? print("I", tag, msg, null) : 0;
+    }
+
+    public static int w(String tag, String msg) {
+        return print("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return print("W", tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return print("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return print("E", tag, msg, tr);
+    }
+
+    private static int print(String level, String tag, String msg, Throwable tr) {
+        System.err.println(level + "/" + tag + ": " + msg + (tr == null ? "" : " " + tr));
+        return 0;
+    }
+}
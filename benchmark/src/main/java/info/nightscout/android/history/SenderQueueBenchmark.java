@@ -0,0 +1,147 @@
+package info.nightscout.android.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static info.nightscout.android.medtronic.simulator.CnlBenchmark.option;
+
+/**
+ * Sender queue read over a full history, the legacy sender ID string against the SenderFlags bitmask.
+ *
+ * Realm does not run on a plain JVM and an in memory model says nothing reliable about Realm query
+ * times, so nothing is timed here. The two query plans of PumpHistoryHandler.getSenderRecordsREQ()
+ * are run over an in memory history of the same shape to check they select the same records, and
+ * the records each plan has to examine are counted: contains("senderREQ", id) tests every record in
+ * the date range, the bitmask in("senderREQ", masks) on the indexed int field only reaches the
+ * records under each mask. The query time on a device is in the getSenderRecordsREQ() log line.
+ *
+ * Records older than pending minutes are acknowledged by every sender, a share of them still held
+ * for Pushover. Arguments are key=value pairs:
+ *
+ * days=90 pending=60 held=0.1 seed=1
+ */
+public class SenderQueueBenchmark {
+
+    private static final long MINUTE_MS = 60000L;
+    private static final long DAY_MS = 24 * 60 * MINUTE_MS;
+
+    // records per day for each history class, cgm every 5 minutes and the pump events of a typical day
+    private static final String[] HISTORY = {
+            "PumpHistoryCGM", "PumpHistoryBolus", "PumpHistoryBasal", "PumpHistoryBG",
+            "PumpHistoryMisc", "PumpHistoryMarker", "PumpHistoryLoop", "PumpHistoryDaily",
+            "PumpHistoryAlarm", "PumpHistorySystem", "PumpHistoryPattern", "PumpHistoryProfile"};
+    private static final int[] PER_DAY = {288, 8, 24, 6, 2, 6, 0, 1, 3, 4, 1, 1};
+
+    private static class Record {
+        final long eventDate;
+        final String senderREQ;
+        final int senderFlags;
+
+        Record(long eventDate, String senderREQ) {
+            this.eventDate = eventDate;
+            this.senderREQ = senderREQ;
+            this.senderFlags = SenderFlags.senderFlags(senderREQ);
+        }
+    }
+
+    // a history class with its senderREQ index, mask value to records
+    private static class Table {
+        final List<Record> records = new ArrayList<>();
+        final TreeMap<Integer, List<Record>> index = new TreeMap<>();
+
+        void add(Record record) {
+            records.add(record);
+            List<Record> indexed = index.get(record.senderFlags);
+            if (indexed == null) {
+                indexed = new ArrayList<>();
+                index.put(record.senderFlags, indexed);
+            }
+            indexed.add(record);
+        }
+
+        int legacy(String senderID, long limitDate) {
+            int count = 0;
+            for (Record record : records) {
+                if (record.senderREQ.contains(senderID) && record.eventDate >= limitDate) count++;
+            }
+            return count;
+        }
+
+        int indexed(Integer[] masks, long limitDate) {
+            int count = 0;
+            for (Integer mask : masks) {
+                List<Record> indexed = index.get(mask);
+                if (indexed == null) continue;
+                for (Record record : indexed) {
+                    if (record.eventDate >= limitDate) count++;
+                }
+            }
+            return count;
+        }
+
+        // records reached by the index before the date test
+        int indexedExamined(Integer[] masks) {
+            int count = 0;
+            for (Integer mask : masks) {
+                List<Record> indexed = index.get(mask);
+                if (indexed != null) count += indexed.size();
+            }
+            return count;
+        }
+    }
+
+    public static void run(Map<String, String> options) {
+        int days = Integer.parseInt(option(options, "days", "90"));
+        int pending = Integer.parseInt(option(options, "pending", "60"));
+        double held = Double.parseDouble(option(options, "held", "0.1"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+
+        Random random = new Random(seed);
+        long now = System.currentTimeMillis();
+        long pendingDate = now - pending * MINUTE_MS;
+        String all = SenderFlags.SENDER_ID_NIGHTSCOUT + SenderFlags.SENDER_ID_XDRIP + SenderFlags.SENDER_ID_PUSHOVER;
+
+        List<Table> tables = new ArrayList<>();
+        int total = 0;
+        for (int perDay : PER_DAY) {
+            Table table = new Table();
+            long count = (long) perDay * days;
+            for (long i = 0; i < count; i++) {
+                long eventDate = now - days * DAY_MS + (i * DAY_MS) / perDay;
+                String senderREQ;
+                if (eventDate >= pendingDate) senderREQ = all;
+                else if (random.nextDouble() < held) senderREQ = SenderFlags.SENDER_ID_PUSHOVER;
+                else senderREQ = "";
+                table.add(new Record(eventDate, senderREQ));
+            }
+            tables.add(table);
+            total += table.records.size();
+        }
+
+        String senderID = SenderFlags.SENDER_ID_NIGHTSCOUT;
+        Integer[] masks = SenderFlags.senderMasks(senderID, true);
+        long limitDate = now - days * DAY_MS;
+
+        int legacyCount = 0;
+        int indexedCount = 0;
+        int indexedExamined = 0;
+        for (Table table : tables) {
+            legacyCount += table.legacy(senderID, limitDate);
+            indexedCount += table.indexed(masks, limitDate);
+            indexedExamined += table.indexedExamined(masks);
+        }
+        if (legacyCount != indexedCount)
+            throw new IllegalStateException(String.format("queue mismatch legacy=%d indexed=%d", legacyCount, indexedCount));
+        System.out.println(String.format(Locale.US, "queue: %d days %d records in %d classes, %d requested for %s masks %s",
+                days, total, HISTORY.length, legacyCount, senderID, Arrays.toString(masks)));
+
+        System.out.println(String.format(Locale.US, "%-20s %10s %10s", "queue read", "examined", "selected"));
+        System.out.println(String.format(Locale.US, "%-20s %10d %10d", "contains string", total, legacyCount));
+        System.out.println(String.format(Locale.US, "%-20s %10d %10d", "indexed bitmask", indexedExamined, indexedCount));
+    }
+}
@@ -0,0 +1,268 @@
+package info.nightscout.android.medtronic.simulator;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import info.nightscout.android.USB.CnlTransport;
+import info.nightscout.android.USB.UsbFrameBuffer;
+import info.nightscout.android.history.SenderQueueBenchmark;
+import info.nightscout.android.medtronic.MedtronicCnlReader;
+import info.nightscout.android.medtronic.PollTrace;
+import info.nightscout.android.medtronic.message.MessageUtils;
+import info.nightscout.android.medtronic.message.MultipacketScheduler;
+import info.nightscout.android.medtronic.message.ReadHistoryResponseMessage;
+
+/**
+ * Offline benchmark of the CNL message layer.
+ *
+ * Runs the poll cycle used by MedtronicCnlService (device info, control and passthrough modes,
+ * connection, link key, channel, pump time, status and history pulls) against a
+ * {@link CnlSimulator} or a {@link CnlReplay} capture and prints the time spent in each phase
+ * along with percentiles of the reader poll trace.
+ * Arguments are key=value pairs:
+ *
+ * polls=5 (1 for a replay) days=1 latency=20 cnl=2 interval=2 loss=0 seed=1 idle=false cachekey=true capture=file replay=file realtime=false
+ *
+ * Built by the benchmark module, run with: ./gradlew :benchmark:run --args="polls=20 loss=0.05 idle=true"
+ *
+ * The other cases are selected with case=crc ({@link CrcBenchmark}) or case=queue
+ * ({@link SenderQueueBenchmark}).
+ */
+public class CnlBenchmark {
+
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    private final long[] multipacket = new long[6];
+    private final int[] gaps = new int[MultipacketScheduler.GAP_BUCKETS_MS.length + 1];
+    private final TraceSink trace = new TraceSink();
+    private long phaseStart;
+    private int timeouts;
+
+    // link key cache as kept in ContourNextLinkInfo by the service
+    private boolean cacheLinkKey;
+    private long linkMAC;
+    private long pumpMAC;
+    private String linkKey;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+        }
+
+        String benchmark = option(options, "case", "poll");
+        if (benchmark.equals("poll"))
+            new CnlBenchmark().run(options);
+        else if (benchmark.equals("crc"))
+            CrcBenchmark.run(options);
+        else if (benchmark.equals("queue"))
+            SenderQueueBenchmark.run(options);
+        else
+            throw new IllegalArgumentException("unknown case: " + benchmark);
+    }
+
+    public static String option(Map<String, String> options, String key, String value) {
+        return options.containsKey(key) ? options.get(key) : value;
+    }
+
+    private void run(Map<String, String> options) throws Exception {
+        int days = Integer.parseInt(option(options, "days", "1"));
+        int pumpLatency = Integer.parseInt(option(options, "latency", "20"));
+        int cnlLatency = Integer.parseInt(option(options, "cnl", "2"));
+        int interval = Integer.parseInt(option(options, "interval", "2"));
+        double loss = Double.parseDouble(option(options, "loss", "0"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+        boolean idle = Boolean.parseBoolean(option(options, "idle", "false"));
+        boolean realTime = Boolean.parseBoolean(option(options, "realtime", "false"));
+        cacheLinkKey = Boolean.parseBoolean(option(options, "cachekey", "true"));
+        String capture = option(options, "capture", null);
+        String replay = option(options, "replay", null);
+        int polls = Integer.parseInt(option(options, "polls", replay != null ? "1" : "5"));
+
+        CnlSimulator simulator = null;
+        CnlTransport transport;
+
+        if (replay != null) {
+            transport = new CnlReplay(new FileReader(replay), realTime);
+        } else {
+            byte[] key = new byte[16];
+            for (int i = 0; i < key.length; i++) key[i] = (byte) (0x3B * i + 0x91);
+            SimulatedPump pump = new SimulatedPump(0x0023F745123456L, key, days);
+            simulator = new CnlSimulator(pump, "6213-1234567", 0x0023F745ABCDEFL)
+                    .setLatency(cnlLatency, pumpLatency, interval)
+                    .setSegmentLoss(loss, seed)
+                    .setIdleTimeouts(idle);
+            transport = simulator;
+        }
+
+        if (capture != null) transport = new CnlRecorder(transport, new FileWriter(capture));
+
+        long start = System.currentTimeMillis();
+        int failed = 0;
+
+        for (int poll = 0; poll < polls; poll++) {
+            try {
+                poll(transport, days);
+            } catch (Throwable e) {
+                failed++;
+                System.out.println("poll " + (poll + 1) + " failed: " + e);
+            }
+        }
+
+        long total = System.currentTimeMillis() - start;
+        transport.close();
+
+        System.out.println(String.format(Locale.US, "%d polls in %dms, %d failed", polls, total, failed));
+        System.out.println(String.format(Locale.US, "%-20s %8s %8s %8s %8s", "phase", "count", "total", "mean", "max"));
+        for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+            long[] p = phase.getValue();
+            System.out.println(String.format(Locale.US, "%-20s %8d %8d %8d %8d",
+                    phase.getKey(), p[0], p[1], p[0] == 0 ? 0 : p[1] / p[0], p[2]));
+        }
+
+        System.out.println(String.format(Locale.US, "%-20s %8s %8s %8s %8s %8s", "trace", "count", "mean", "p50", "p95", "p99"));
+        for (PollTrace.PHASE phase : PollTrace.PHASE.values()) {
+            List<Long> samples = trace.samples(phase);
+            if (samples.isEmpty()) continue;
+            long sum = 0;
+            for (long sample : samples) sum += sample;
+            System.out.println(String.format(Locale.US, "%-20s %8d %8d %8d %8d %8d",
+                    phase.getName(), samples.size(), sum / samples.size(),
+                    percentile(samples, 50), percentile(samples, 95), percentile(samples, 99)));
+        }
+
+        UsbFrameBuffer frameBuffer = transport.getFrameBuffer();
+        System.out.println(String.format(Locale.US, "frames: packets=%d copied=%d allocations=%d",
+                frameBuffer.getPackets(), frameBuffer.getBytesCopied(), frameBuffer.getAllocations()));
+
+        System.out.println(String.format(Locale.US, "multipacket: transfers=%d segments=%d repeated=%d resends=%d/%d %dms timeouts=%d gaps=%s",
+                multipacket[0], multipacket[1], multipacket[2], multipacket[3], multipacket[4],
+                multipacket[5], timeouts, Arrays.toString(gaps)));
+
+        if (simulator != null)
+            System.out.println(String.format(Locale.US, "simulator: in=%d out=%d segments=%d dropped=%d",
+                    simulator.getMessagesIn(), simulator.getMessagesOut(),
+                    simulator.getSegmentsSent(), simulator.getSegmentsDropped()));
+        if (transport instanceof CnlReplay)
+            System.out.println(String.format(Locale.US, "replay: writes=%d mismatches=%d complete=%s",
+                    ((CnlReplay) transport).getWrites(), ((CnlReplay) transport).getWriteMismatches(),
+                    ((CnlReplay) transport).isComplete()));
+    }
+
+    private void poll(CnlTransport transport, int days) throws Throwable {
+        long pollStart = System.currentTimeMillis();
+        MedtronicCnlReader cnlReader = new MedtronicCnlReader(transport);
+
+        begin();
+        cnlReader.requestDeviceInfo();
+        cnlReader.getPumpSession().setStickSerial(cnlReader.getStickSerial());
+        cnlReader.enterControlMode();
+        cnlReader.enterPassthroughMode();
+        cnlReader.openConnection();
+        end("connect");
+
+        begin();
+        cnlReader.requestReadInfo();
+        if (!cacheLinkKey || !cnlReader.useCachedLinkKey(linkMAC, pumpMAC, linkKey)) {
+            cnlReader.requestLinkKey();
+            linkMAC = cnlReader.getPumpSession().getLinkMAC();
+            pumpMAC = cnlReader.getPumpSession().getPumpMAC();
+            linkKey = MessageUtils.byteArrayToHexString(cnlReader.getPumpSession().getKey());
+        }
+        end("link");
+
+        try {
+            begin();
+            if (cnlReader.negotiateChannel((byte) 0) == 0) throw new IOException("no pump on any channel");
+            end("channel");
+
+            begin();
+            cnlReader.getPumpTime();
+            cnlReader.updatePumpStatus();
+            end("status");
+
+            long now = System.currentTimeMillis();
+            long from = now - days * 24 * 60 * 60000L;
+            history(cnlReader, "history pump", from, now, SimulatedPump.HISTORY_PUMP);
+            history(cnlReader, "history cgm", from, now, SimulatedPump.HISTORY_SENSOR);
+
+        } finally {
+            begin();
+            cnlReader.closeConnection();
+            cnlReader.endPassthroughMode();
+            cnlReader.endControlMode();
+            end("disconnect");
+
+            cnlReader.getPollTrace().commit(trace);
+            trace.phase(PollTrace.PHASE.POLL, System.currentTimeMillis() - pollStart);
+
+            MultipacketScheduler scheduler = cnlReader.getPumpSession().getMultipacketScheduler();
+            multipacket[0] += scheduler.getTransfers();
+            multipacket[1] += scheduler.getSegments();
+            multipacket[2] += scheduler.getRepeated();
+            multipacket[3] += scheduler.getResends();
+            multipacket[4] += scheduler.getResendSegments();
+            multipacket[5] += scheduler.getResendMS();
+            timeouts += scheduler.getTimeouts();
+            for (int i = 0; i < gaps.length; i++) gaps[i] += scheduler.getGaps()[i];
+        }
+    }
+
+    private void history(MedtronicCnlReader cnlReader, String phase, long from, long to, int type) throws Throwable {
+        begin();
+        ReadHistoryResponseMessage response = cnlReader.getHistory(from, to, type);
+        end(phase);
+        if (response != null) {
+            long[] p = phases.get(phase + " bytes");
+            if (p == null) phases.put(phase + " bytes", p = new long[3]);
+            p[0]++;
+            p[1] += response.getEventData().length;
+            p[2] = Math.max(p[2], response.getEventData().length);
+        }
+    }
+
+    private void begin() {
+        phaseStart = System.currentTimeMillis();
+    }
+
+    private void end(String phase) {
+        long time = System.currentTimeMillis() - phaseStart;
+        long[] p = phases.get(phase);
+        if (p == null) phases.put(phase, p = new long[3]);
+        p[0]++;
+        p[1] += time;
+        p[2] = Math.max(p[2], time);
+    }
+
+    // nearest rank percentile of the sorted samples
+    private static long percentile(List<Long> samples, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * samples.size());
+        return samples.get(Math.max(rank, 1) - 1);
+    }
+
+    // keeps every poll trace sample, the benchmark runs are short enough for exact percentiles
+    private static class TraceSink implements PollTrace.Sink {
+        private final Map<PollTrace.PHASE, List<Long>> samples = new LinkedHashMap<>();
+
+        @Override
+        public void phase(PollTrace.PHASE phase, long timeMS) {
+            List<Long> list = samples.get(phase);
+            if (list == null) samples.put(phase, list = new ArrayList<>());
+            list.add(timeMS);
+        }
+
+        List<Long> samples(PollTrace.PHASE phase) {
+            List<Long> list = samples.containsKey(phase) ? new ArrayList<>(samples.get(phase)) : new ArrayList<Long>();
+            Collections.sort(list);
+            return list;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package info.nightscout.android.medtronic.simulator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import info.nightscout.android.USB.CnlTransport;
+import info.nightscout.android.USB.UsbFrameBuffer;
+import info.nightscout.android.medtronic.message.MessageUtils;
+
+/**
+ * Capture of the packet traffic of a transport for later replay with {@link CnlReplay}.
+ *
+ * One line per transfer, times are milliseconds since the capture started:
+ * "W hex" for a written packet, "R ms hex" for a packet read and "T ms" for a read timeout.
+ * Wrap the hardware driver to capture a real session or the simulator to capture a benchmark run.
+ */
+public class CnlRecorder implements CnlTransport {
+    private final CnlTransport transport;
+    private final PrintWriter writer;
+    private final long start = System.currentTimeMillis();
+
+    public CnlRecorder(CnlTransport transport, Writer writer) {
+        this.transport = transport;
+        this.writer = new PrintWriter(writer);
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) {
+        int size = transport.read(dest, timeoutMillis);
+        long time = System.currentTimeMillis() - start;
+        if (size == UsbFrameBuffer.PACKET_SIZE)
+            writer.println("R " + time + " " + MessageUtils.byteArrayToHexString(dest));
+        else
+            writer.println("T " + time);
+        return size;
+    }
+
+    @Override
+    public void write(byte[] src, int timeoutMillis) throws IOException {
+        writer.println("W " + MessageUtils.byteArrayToHexString(src));
+        transport.write(src, timeoutMillis);
+    }
+
+    @Override
+    public boolean isConnectionOpen() {
+        return transport.isConnectionOpen();
+    }
+
+    @Override
+    public UsbFrameBuffer getFrameBuffer() {
+        return transport.getFrameBuffer();
+    }
+
+    @Override
+    public void close() {
+        writer.flush();
+        transport.close();
+    }
+}
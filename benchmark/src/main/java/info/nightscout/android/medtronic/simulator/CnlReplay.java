@@ -0,0 +1,140 @@
+package info.nightscout.android.medtronic.simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import info.nightscout.android.USB.CnlTransport;
+import info.nightscout.android.USB.UsbFrameBuffer;
+import info.nightscout.android.medtronic.message.MessageUtils;
+
+/**
+ * Transport that plays back a capture made with {@link CnlRecorder}.
+ *
+ * Reads return the captured packets and timeouts in order. Writes are compared with the captured
+ * writes and only counted when they differ, requests that depend on the current time (history
+ * windows, pump time checks) will not match a capture made at another time but the responses
+ * are still played back in order. With real time pacing the captured gaps between transfers are
+ * kept, otherwise the capture is played back as fast as the reader can consume it.
+ */
+public class CnlReplay implements CnlTransport {
+    private final UsbFrameBuffer frameBuffer = new UsbFrameBuffer();
+    private final List<Event> events = new ArrayList<>();
+    private final boolean realTime;
+
+    private int position;
+    private boolean open = true;
+
+    private long lastTime;
+    private long lastClock = System.currentTimeMillis();
+
+    private int writes;
+    private int writeMismatches;
+
+    private static class Event {
+        private final char type;
+        private final long time;
+        private final byte[] data;
+
+        private Event(char type, long time, byte[] data) {
+            this.type = type;
+            this.time = time;
+            this.data = data;
+        }
+    }
+
+    public CnlReplay(Reader capture, boolean realTime) throws IOException {
+        this.realTime = realTime;
+
+        BufferedReader reader = new BufferedReader(capture);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split(" ");
+            if (fields[0].equals("W"))
+                events.add(new Event('W', -1, MessageUtils.hexStringToByteArray(fields[1])));
+            else if (fields[0].equals("R"))
+                events.add(new Event('R', Long.parseLong(fields[1]), MessageUtils.hexStringToByteArray(fields[2])));
+            else if (fields[0].equals("T"))
+                events.add(new Event('T', Long.parseLong(fields[1]), null));
+        }
+    }
+
+    public boolean isComplete() {
+        return position >= events.size();
+    }
+
+    public int getWrites() {
+        return writes;
+    }
+
+    public int getWriteMismatches() {
+        return writeMismatches;
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) {
+        // captured writes the reader did not make are skipped
+        while (position < events.size() && events.get(position).type == 'W') {
+            position++;
+            writeMismatches++;
+        }
+
+        if (position >= events.size()) {
+            if (realTime) sleep(timeoutMillis);
+            return -1;
+        }
+
+        Event event = events.get(position++);
+        if (realTime) {
+            sleep((event.time - lastTime) - (System.currentTimeMillis() - lastClock));
+            lastTime = event.time;
+            lastClock = System.currentTimeMillis();
+        }
+
+        if (event.type == 'T') return -1;
+
+        System.arraycopy(event.data, 0, dest, 0, UsbFrameBuffer.PACKET_SIZE);
+        return UsbFrameBuffer.PACKET_SIZE;
+    }
+
+    @Override
+    public void write(byte[] src, int timeoutMillis) throws IOException {
+        if (!open) throw new IOException("Error writing to usb endpoint");
+        if (position >= events.size()) throw new IOException("replay: end of capture");
+
+        writes++;
+        Event event = events.get(position);
+        if (event.type == 'W') {
+            position++;
+            if (!Arrays.equals(event.data, src)) writeMismatches++;
+        } else {
+            writeMismatches++;
+        }
+    }
+
+    @Override
+    public boolean isConnectionOpen() {
+        return open;
+    }
+
+    @Override
+    public UsbFrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package info.nightscout.android.medtronic.simulator;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import info.nightscout.android.USB.CnlTransport;
+import info.nightscout.android.USB.UsbFrameBuffer;
+import info.nightscout.android.medtronic.MedtronicCnlCipher;
+import info.nightscout.android.medtronic.exception.EncryptionException;
+import info.nightscout.android.medtronic.message.MessageUtils;
+
+/**
+ * In-process Contour Next Link for offline benchmarks of the CNL message layer.
+ *
+ * Speaks the framing seen on the usb hid endpoints: written "ABC" packets are reassembled into
+ * ASCII control messages or 0x51 binary messages and answered with framed responses that are
+ * queued for read(). Pump traffic is passed to a {@link SimulatedPump} as decrypted NGP messages,
+ * the 0x81 (CNL accepted) and 0x80 (pump response) envelopes and AES-CFB encryption are done here.
+ *
+ * Timing is configurable: CNL responses are due after the CNL latency, pump responses after the
+ * pump latency and multipacket segments are spaced by the segment interval. Segments can be
+ * dropped with a fixed probability from a seeded random so a run is repeatable, the reader then
+ * needs to use the resend request as it would for a noisy radio link. With idle timeouts off a read
+ * with nothing due returns a timeout immediately instead of waiting like the hardware, this keeps
+ * the per message stream clears out of the measurement.
+ *
+ * Not thread safe, reads and writes are expected from the single comms thread.
+ */
+public class CnlSimulator implements CnlTransport {
+    private static final String TAG = CnlSimulator.class.getSimpleName();
+
+    private static final int HEADER_SIZE = 0x21;
+
+    private static final byte EOT = 0x04;
+    private static final byte ENQ = 0x05;
+    private static final byte ACK = 0x06;
+    private static final byte NAK = 0x15;
+
+    private static final int OPEN_CONNECTION = 0x10;
+    private static final int CLOSE_CONNECTION = 0x11;
+    private static final int SEND_MESSAGE = 0x12;
+    private static final int READ_INFO = 0x14;
+    private static final int REQUEST_LINK_KEY = 0x16;
+    private static final int RECEIVE_MESSAGE = 0x80;
+    private static final int SEND_MESSAGE_RESPONSE = 0x81;
+    private static final int REQUEST_LINK_KEY_RESPONSE = 0x86;
+
+    private static final int JOIN_NETWORK = 0x03;
+    private static final int TRANSMIT_PACKET = 0x05;
+
+    private final UsbFrameBuffer frameBuffer = new UsbFrameBuffer();
+    private final ArrayDeque<Packet> pending = new ArrayDeque<>();
+    private final ByteArrayOutputStream incoming = new ByteArrayOutputStream();
+
+    private final SimulatedPump pump;
+    private final String stickSerial;
+    private final long linkMAC;
+
+    private int cnlLatencyMs = 2;
+    private int pumpLatencyMs = 20;
+    private int segmentIntervalMs = 2;
+    private double segmentLoss = 0;
+    private boolean idleTimeouts = false;
+    private Random random = new Random(0);
+
+    private boolean open = true;
+    private byte channel;
+    private MedtronicCnlCipher cipher;
+    private int sequence = 1;
+    private long due;
+
+    private int messagesIn;
+    private int messagesOut;
+    private int segmentsSent;
+    private int segmentsDropped;
+
+    private static class Packet {
+        private final long due;
+        private final byte[] data;
+
+        private Packet(long due, byte[] data) {
+            this.due = due;
+            this.data = data;
+        }
+    }
+
+    public CnlSimulator(SimulatedPump pump, String stickSerial, long linkMAC) {
+        this.pump = pump;
+        this.stickSerial = stickSerial;
+        this.linkMAC = linkMAC;
+    }
+
+    public CnlSimulator setLatency(int cnlLatencyMs, int pumpLatencyMs, int segmentIntervalMs) {
+        this.cnlLatencyMs = cnlLatencyMs;
+        this.pumpLatencyMs = pumpLatencyMs;
+        this.segmentIntervalMs = segmentIntervalMs;
+        return this;
+    }
+
+    public CnlSimulator setSegmentLoss(double segmentLoss, long seed) {
+        this.segmentLoss = segmentLoss;
+        random = new Random(seed);
+        return this;
+    }
+
+    public CnlSimulator setIdleTimeouts(boolean idleTimeouts) {
+        this.idleTimeouts = idleTimeouts;
+        return this;
+    }
+
+    public SimulatedPump getPump() {
+        return pump;
+    }
+
+    public int getMessagesIn() {
+        return messagesIn;
+    }
+
+    public int getMessagesOut() {
+        return messagesOut;
+    }
+
+    public int getSegmentsSent() {
+        return segmentsSent;
+    }
+
+    public int getSegmentsDropped() {
+        return segmentsDropped;
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) {
+        Packet packet = pending.peek();
+        long now = System.currentTimeMillis();
+
+        if (packet == null || packet.due - now > timeoutMillis) {
+            if (idleTimeouts || packet != null) sleep(timeoutMillis);
+            return -1;
+        }
+
+        sleep(packet.due - now);
+        pending.poll();
+        System.arraycopy(packet.data, 0, dest, 0, UsbFrameBuffer.PACKET_SIZE);
+        return UsbFrameBuffer.PACKET_SIZE;
+    }
+
+    @Override
+    public void write(byte[] src, int timeoutMillis) throws IOException {
+        if (!open) throw new IOException("Error writing to usb endpoint");
+        if (src[0] != 'A' || src[1] != 'B' || src[2] != 'C')
+            throw new IOException("simulator: bad packet header");
+
+        int size = src[3];
+        incoming.write(src, UsbFrameBuffer.HEADER_SIZE, size);
+        byte[] message = incoming.toByteArray();
+
+        // binary messages are complete at the envelope size, ascii messages end on a short packet
+        boolean binary = message.length > 1 && message[0] == 0x51 && message[1] == 0x03;
+        if (binary ? message.length >= HEADER_SIZE && message.length >= HEADER_SIZE + read16LE(message, 0x1C)
+                : size < UsbFrameBuffer.PAYLOAD_SIZE) {
+            incoming.reset();
+            messagesIn++;
+            due = Math.max(due, System.currentTimeMillis());
+            if (binary) binary(message);
+            else control(message);
+        }
+    }
+
+    @Override
+    public boolean isConnectionOpen() {
+        return open;
+    }
+
+    @Override
+    public UsbFrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    private void control(byte[] message) {
+        String command = new String(message);
+
+        if (command.equals("X")) {
+            // ASTM header record with the stick serial followed by an ENQ
+            send(((char) EOT + "1H|\\^&||" + stickSerial.replace("-", "") + "|Bayer7350^01.24\\01.04\\16.03\\3.00^" + stickSerial
+                    + "^0000-|A=1^C=00^R=0^S=01^U=1^V=10600^X=070070070180130180070130^Y=120054252099^Z=1|4|||||P|1|20261017|\r\u0017").getBytes(),
+                    cnlLatencyMs);
+            send(new byte[]{ENQ}, 0);
+        } else if (message.length == 1) {
+            switch (message[0]) {
+                case NAK:
+                    send(new byte[]{EOT}, cnlLatencyMs);
+                    break;
+                case ENQ:
+                    send(new byte[]{ACK}, cnlLatencyMs);
+                    break;
+                case EOT:
+                    channel = 0;
+                    send(new byte[]{ENQ}, cnlLatencyMs);
+                    break;
+                default:
+                    Log.w(TAG, "unexpected control byte " + message[0]);
+            }
+        } else if (command.equals("W|") || command.equals("Q|") || command.equals("1|") || command.equals("0|")) {
+            send(new byte[]{ACK}, cnlLatencyMs);
+        } else {
+            Log.w(TAG, "unexpected control message " + command);
+        }
+    }
+
+    private void binary(byte[] message) {
+        int command = message[0x12] & 0xFF;
+        byte[] payload = Arrays.copyOfRange(message, HEADER_SIZE, message.length);
+
+        switch (command) {
+            case OPEN_CONNECTION:
+                send(envelope(OPEN_CONNECTION, payload), cnlLatencyMs);
+                break;
+
+            case CLOSE_CONNECTION:
+                channel = 0;
+                cipher = null;
+                send(envelope(CLOSE_CONNECTION, payload), cnlLatencyMs);
+                break;
+
+            case READ_INFO:
+                ByteBuffer info = ByteBuffer.allocate(0x1C);
+                info.putLong(linkMAC);
+                info.putLong(pump.getPumpMAC());
+                send(envelope(READ_INFO, info.array()), cnlLatencyMs);
+                break;
+
+            case REQUEST_LINK_KEY:
+                send(envelope(REQUEST_LINK_KEY_RESPONSE, packLinkKey()), cnlLatencyMs);
+                break;
+
+            case SEND_MESSAGE:
+                medtronic(payload);
+                break;
+
+            default:
+                Log.w(TAG, String.format("unexpected binary command %02X", command));
+        }
+    }
+
+    private void medtronic(byte[] payload) {
+        int action = payload[0];
+
+        if (action == JOIN_NETWORK) {
+            send(envelope(SEND_MESSAGE_RESPONSE, accepted(payload)), cnlLatencyMs);
+            byte requested = payload[2 + 1];
+            if (pump.isInRange() && requested == pump.getRadioChannel()) {
+                channel = requested;
+                byte[] iv = Arrays.copyOf(pump.getKey(), pump.getKey().length);
+                iv[0] = channel;
+                try {
+                    cipher = new MedtronicCnlCipher(pump.getKey(), iv);
+                } catch (EncryptionException e) {
+                    throw new IllegalStateException(e);
+                }
+                send(envelope(RECEIVE_MESSAGE, networkConnect()), pumpLatencyMs);
+            } else {
+                send(envelope(RECEIVE_MESSAGE, noConnect()), pumpLatencyMs);
+            }
+
+        } else if (action == TRANSMIT_PACKET) {
+            send(envelope(SEND_MESSAGE_RESPONSE, accepted(payload)), cnlLatencyMs);
+            if (cipher == null) {
+                send(envelope(RECEIVE_MESSAGE, noPumpResponse()), pumpLatencyMs);
+                return;
+            }
+
+            // MedtronicSendMessage: LE pump mac, sequence, mode flags, encrypted size, encrypted payload
+            int size = payload[2 + 10] & 0xFF;
+            byte[] request;
+            try {
+                request = cipher.decrypt(payload, 2 + 11, size);
+            } catch (EncryptionException e) {
+                throw new IllegalStateException(e);
+            }
+
+            List<byte[]> responses = pump.receive(request);
+            int latency = pumpLatencyMs;
+            for (byte[] response : responses) {
+                if (SimulatedPump.isSegment(response)) {
+                    segmentsSent++;
+                    if (segmentLoss > 0 && random.nextDouble() < segmentLoss) {
+                        segmentsDropped++;
+                        latency += segmentIntervalMs;
+                        continue;
+                    }
+                }
+                send(envelope(RECEIVE_MESSAGE, pumpMessage(response)), latency);
+                latency = segmentIntervalMs;
+            }
+
+        } else {
+            // status style requests are answered with the network state
+            send(envelope(SEND_MESSAGE_RESPONSE, accepted(payload)), cnlLatencyMs);
+            send(envelope(RECEIVE_MESSAGE, channel != 0 ? networkConnect() : noConnect()), cnlLatencyMs);
+        }
+    }
+
+    // 55 | 0D | 00 04 | 00 00 00 00 03 00 01 | seq | state
+    private byte[] accepted(byte[] payload) {
+        byte medtronicSequence = payload[0] == TRANSMIT_PACKET ? payload[2 + 8] : 0x01;
+        return internal(new byte[]{0x00, 0x04, 0x00, 0x00, 0x00, 0x00, 0x03, 0x00, 0x01, medtronicSequence, 0x02});
+    }
+
+    // 55 | 0B | 00 00 | 20 00 00 00 03 00 00
+    private byte[] noConnect() {
+        return internal(new byte[]{0x00, 0x00, 0x20, 0x00, 0x00, 0x00, 0x03, 0x00, 0x00});
+    }
+
+    // 55 | 0B | 00 00 | 00 02 00 00 03 00 00
+    private byte[] noPumpResponse() {
+        return internal(new byte[]{0x00, 0x00, 0x00, 0x02, 0x00, 0x00, 0x03, 0x00, 0x00});
+    }
+
+    // 55 | 2C | 00 04 | pump serial | 02 | pump mac | 82 | 00 00 00 00 00 | 07 | 00 | rssi | cnl mac | 42 | 00 00 00 00 00 00 00 | channel
+    private byte[] networkConnect() {
+        ByteBuffer buffer = ByteBuffer.allocate(0x2A);
+        buffer.put((byte) 0x00).put((byte) 0x04);
+        buffer.put(Arrays.copyOf(pump.getPumpSerial().getBytes(), 5));
+        buffer.put((byte) 0x02);
+        buffer.putLong(pump.getPumpMAC());
+        buffer.put((byte) 0x82);
+        buffer.put(new byte[5]);
+        buffer.put((byte) 0x07).put((byte) 0x00);
+        buffer.put(pump.getRadioRSSI());
+        buffer.putLong(linkMAC);
+        buffer.put((byte) 0x42);
+        buffer.put(new byte[7]);
+        buffer.put(pump.getRadioChannel());
+        return internal(buffer.array());
+    }
+
+    // NGP header for a pump response, the payload is encrypted with the link key
+    private byte[] pumpMessage(byte[] response) {
+        byte[] encrypted;
+        try {
+            encrypted = cipher.encrypt(response);
+        } catch (EncryptionException e) {
+            throw new IllegalStateException(e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(0x16 + encrypted.length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 0x00).put((byte) 0x06);
+        buffer.putLong(pump.getPumpMAC());
+        buffer.putLong(linkMAC);
+        buffer.put(response[0]);
+        buffer.put((byte) 0x00).put((byte) 0x00);
+        buffer.put((byte) encrypted.length);
+        buffer.put(encrypted);
+        return internal(buffer.array());
+    }
+
+    // 0x55 | size | data | LE CCITT
+    private byte[] internal(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(2 + data.length + 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 0x55);
+        buffer.put((byte) (data.length + 2));
+        buffer.put(data);
+        buffer.putShort((short) MessageUtils.CRC16CCITT(buffer.array(), 0xffff, 0x1021, 2 + data.length));
+        return buffer.array();
+    }
+
+    // binary envelope as built by ContourNextLinkBinaryRequestMessage
+    private byte[] envelope(int command, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 0x51);
+        buffer.put((byte) 0x03);
+        buffer.put("000000".getBytes());
+        buffer.put(new byte[10]);
+        buffer.put((byte) command);
+        buffer.putInt(sequence++);
+        buffer.put(new byte[5]);
+        buffer.putInt(payload.length);
+        buffer.put((byte) 0);
+        buffer.put(payload);
+        buffer.put(0x20, MessageUtils.oneByteSum(buffer.array()));
+        return buffer.array();
+    }
+
+    // inverse of RequestLinkKeyResponseMessage, bytes with the high bit set are stored inverted
+    // so no packed byte can be mistaken for a 0x80/0x81 command when read on a packet boundary
+    private byte[] packLinkKey() {
+        byte[] packed = new byte[55];
+        byte[] key = pump.getKey();
+        int pos = stickSerial.charAt(stickSerial.length() - 1) & 7;
+        for (byte b : key) {
+            boolean invert = (b & 0x80) != 0;
+            packed[pos] = invert ? (byte) ~b : b;
+            packed[pos + 1] = (byte) (invert ? 0x01 : 0x00);
+            pos += 3;
+        }
+        return packed;
+    }
+
+    // queue a message as framed packets, due after the delay from the previous message
+    private void send(byte[] message, int delay) {
+        due += delay;
+        messagesOut++;
+        int pos = 0;
+        do {
+            int size = Math.min(UsbFrameBuffer.PAYLOAD_SIZE, message.length - pos);
+            byte[] packet = new byte[UsbFrameBuffer.PACKET_SIZE];
+            packet[0] = 'A';
+            packet[1] = 'B';
+            packet[2] = 'C';
+            packet[3] = (byte) size;
+            System.arraycopy(message, pos, packet, UsbFrameBuffer.HEADER_SIZE, size);
+            pending.add(new Packet(due, packet));
+            pos += size;
+        } while (pos < message.length);
+    }
+
+    private static int read16LE(byte[] data, int offset) {
+        return data[offset] & 0xFF | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package info.nightscout.android.medtronic.simulator;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import info.nightscout.android.medtronic.message.Crc16Ccitt;
+import info.nightscout.android.medtronic.message.MessageUtils;
+
+/**
+ * Table driven Crc16Ccitt against the bitwise loop it replaced.
+ *
+ * The table is used for the history block checksums in ReadHistoryRequestMessage and the request
+ * crc built by MessageUtils.CRC16CCITT(), the inner CCITT of responses is not checked.
+ * Both are run over 2048 byte blocks, the history block size, from a seeded random and over the
+ * packets of a CnlRecorder capture when one is given. Every block is also checked for the same
+ * result from both, one shot and fed incrementally in two parts, before any timing is done.
+ * Arguments are key=value pairs:
+ *
+ * blocks=256 rounds=20 seed=1 replay=file
+ */
+public class CrcBenchmark {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    static void run(Map<String, String> options) throws IOException {
+        int count = Integer.parseInt(CnlBenchmark.option(options, "blocks", "256"));
+        int rounds = Integer.parseInt(CnlBenchmark.option(options, "rounds", "20"));
+        long seed = Long.parseLong(CnlBenchmark.option(options, "seed", "1"));
+        String replay = CnlBenchmark.option(options, "replay", null);
+
+        List<byte[]> blocks = new ArrayList<>();
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            byte[] block = new byte[BLOCK_SIZE];
+            random.nextBytes(block);
+            blocks.add(block);
+        }
+        if (replay != null) blocks.addAll(captured(replay));
+
+        long bytes = 0;
+        for (byte[] block : blocks) {
+            bytes += block.length;
+            int bitwise = bitwise(block, 0, block.length);
+            int table = Crc16Ccitt.compute(block, 0, block.length);
+            int split = block.length / 3;
+            int incremental = new Crc16Ccitt()
+                    .update(block, 0, split)
+                    .update(block, split, block.length - split)
+                    .getValue();
+            if (bitwise != table || table != incremental)
+                throw new IllegalStateException(String.format("crc mismatch bitwise=%04X table=%04X incremental=%04X", bitwise, table, incremental));
+        }
+        System.out.println(String.format(Locale.US, "crc: %d blocks %d bytes identical%s",
+                blocks.size(), bytes, replay != null ? " (including capture)" : ""));
+
+        // warm up both before timing so neither is measured in the interpreter
+        int sink = 0;
+        for (int i = 0; i < 5; i++) {
+            for (byte[] block : blocks) sink ^= bitwise(block, 0, block.length) ^ Crc16Ccitt.compute(block, 0, block.length);
+        }
+
+        long bitwiseNS = 0;
+        long tableNS = 0;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            for (byte[] block : blocks) sink ^= bitwise(block, 0, block.length);
+            bitwiseNS += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] block : blocks) sink ^= Crc16Ccitt.compute(block, 0, block.length);
+            tableNS += System.nanoTime() - start;
+        }
+
+        long total = bytes * rounds;
+        System.out.println(String.format(Locale.US, "%-20s %10s %10s", "crc", "ns/block", "MB/s"));
+        System.out.println(String.format(Locale.US, "%-20s %10d %10.1f", "bitwise", bitwiseNS * BLOCK_SIZE / total, total * 1000.0 / bitwiseNS));
+        System.out.println(String.format(Locale.US, "%-20s %10d %10.1f", "table", tableNS * BLOCK_SIZE / total, total * 1000.0 / tableNS));
+        System.out.println(String.format(Locale.US, "speedup %.1fx [%04X]", (double) bitwiseNS / tableNS, sink & 0xFFFF));
+    }
+
+    // MessageUtils.CRC16CCITT() for the 0x1021 polynomial before the table
+    private static int bitwise(byte[] data, int offset, int length) {
+        int crc = Crc16Ccitt.INITIAL_VALUE;
+        for (int c = 0; c < length; c++) {
+            byte b = data[c + offset];
+            for (int i = 0; i < 8; i++) {
+                boolean bit = ((b >> (7 - i) & 1) == 1);
+                boolean c15 = ((crc >> 15 & 1) == 1);
+                crc <<= 1;
+                if (c15 ^ bit) crc ^= Crc16Ccitt.POLYNOMIAL;
+            }
+        }
+        return crc & 0xffff;
+    }
+
+    // read and write packets of a CnlRecorder capture
+    private static List<byte[]> captured(String file) throws IOException {
+        List<byte[]> packets = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields[0].equals("W") && fields.length > 1)
+                    packets.add(MessageUtils.hexStringToByteArray(fields[1]));
+                else if (fields[0].equals("R") && fields.length > 2)
+                    packets.add(MessageUtils.hexStringToByteArray(fields[2]));
+            }
+        } finally {
+            reader.close();
+        }
+        return packets;
+    }
+}
@@ -0,0 +1,467 @@
+package info.nightscout.android.medtronic.simulator;
+
+import android.util.Log;
+
+import org.anarres.lzo.LzoAlgorithm;
+import org.anarres.lzo.LzoCompressor;
+import org.anarres.lzo.LzoLibrary;
+import org.anarres.lzo.LzoTransformer;
+import org.anarres.lzo.lzo_uintp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import info.nightscout.android.medtronic.message.Crc16Ccitt;
+import info.nightscout.android.medtronic.message.MessageUtils;
+
+import static info.nightscout.android.utils.ToolKit.read16BEtoUInt;
+import static info.nightscout.android.utils.ToolKit.read32BEtoULong;
+
+/**
+ * Simulated 600 series pump for the CNL simulator.
+ *
+ * Answers decrypted NGP requests with decrypted NGP responses (sequence, command, payload and
+ * CCITT) in the layouts parsed by the response messages. History is synthesised for the requested
+ * RTC window from a fixed schedule so repeated pulls of the same window return the same data:
+ * sensor data has a SENSOR_GLUCOSE_READINGS_EXTENDED event every 30 minutes holding 6 readings,
+ * pump data has a basal segment every 3 hours and a normal bolus every 6 hours.
+ * Events are packed into 2048 byte blocks and sent as LZO1X compressed UNMERGED_HISTORY
+ * multipacket transfers.
+ */
+public class SimulatedPump {
+    private static final String TAG = SimulatedPump.class.getSimpleName();
+
+    public static final int HISTORY_PUMP = 0x02;
+    public static final int HISTORY_SENSOR = 0x03;
+
+    private static final int EHSM_SESSION = 0x0412;
+    private static final int READ_PUMP_TIME = 0x0403;
+    private static final int READ_PUMP_TIME_RESPONSE = 0x0407;
+    private static final int READ_PUMP_STATUS = 0x0112;
+    private static final int READ_PUMP_STATUS_RESPONSE = 0x013C;
+    private static final int READ_HISTORY_INFO = 0x030C;
+    private static final int READ_HISTORY_INFO_RESPONSE = 0x030D;
+    private static final int READ_HISTORY = 0x0304;
+    private static final int END_HISTORY_TRANSMISSION = 0x030A;
+    private static final int UNMERGED_HISTORY = 0x030E;
+    private static final int INITIATE_MULTIPACKET_TRANSFER = 0xFF00;
+    private static final int MULTIPACKET_SEGMENT_TRANSMISSION = 0xFF01;
+    private static final int MULTIPACKET_RESEND_PACKETS = 0xFF02;
+    private static final int ACK_COMMAND = 0x00FE;
+    private static final int NAK_COMMAND = 0x00FF;
+
+    private static final byte NAK_MESSAGE_IS_NOT_SUPPORTED = 0x08;
+    private static final byte NAK_DEVICE_IS_IN_WRONG_STATE = 0x0F;
+
+    private static final int BLOCK_SIZE = 2048;
+    private static final int BLOCKS_PER_TRANSFER = 16;
+    // the NGP encrypted size is a signed byte in the reader, segment data + 7 must stay below 128
+    private static final int SEGMENT_SIZE = 110;
+
+    private static final int SGV_EVENT = 0xD6;
+    private static final int SGV_READINGS = 6;
+    private static final int SGV_INTERVAL = 5 * 60;
+    private static final int BASAL_SEGMENT_START = 0x1D;
+    private static final int BASAL_INTERVAL = 3 * 60 * 60;
+    private static final int NORMAL_BOLUS_PROGRAMMED = 0x15;
+    private static final int NORMAL_BOLUS_DELIVERED = 0xDC;
+    private static final int BOLUS_INTERVAL = 6 * 60 * 60;
+
+    private final long pumpMAC;
+    private final String pumpSerial;
+    private final byte[] key;
+
+    private byte radioChannel = 0x14;
+    private byte radioRSSI = (byte) 0x90;
+    private boolean inRange = true;
+
+    private final long clockStart;
+    private final long rtcStart;
+    private final int rtcOffset;
+    private final int historyDays;
+
+    private byte sequence = 1;
+
+    // active history pull
+    private final List<byte[]> transfers = new ArrayList<>();
+    private byte[] transfer;
+
+    public SimulatedPump(long pumpMAC, byte[] key, int historyDays) {
+        this.pumpMAC = pumpMAC;
+        this.key = key;
+        this.historyDays = historyDays;
+        pumpSerial = String.format("%06d", pumpMAC & 0xFFFFFF);
+
+        clockStart = System.currentTimeMillis();
+        // a pump RTC starts at 0x80000000, leave room for the history period
+        rtcStart = 0x80000000L + (historyDays + 100) * 24 * 60 * 60L;
+        rtcOffset = (int) MessageUtils.offsetFromTime(clockStart, rtcStart);
+    }
+
+    public long getPumpMAC() {
+        return pumpMAC;
+    }
+
+    public String getPumpSerial() {
+        return pumpSerial;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    public byte getRadioChannel() {
+        return radioChannel;
+    }
+
+    public void setRadioChannel(byte radioChannel) {
+        this.radioChannel = radioChannel;
+    }
+
+    public byte getRadioRSSI() {
+        return radioRSSI;
+    }
+
+    public void setRadioRSSI(byte radioRSSI) {
+        this.radioRSSI = radioRSSI;
+    }
+
+    public boolean isInRange() {
+        return inRange;
+    }
+
+    public void setInRange(boolean inRange) {
+        this.inRange = inRange;
+    }
+
+    public long rtc() {
+        return rtcStart + (System.currentTimeMillis() - clockStart) / 1000L;
+    }
+
+    public int getRtcOffset() {
+        return rtcOffset;
+    }
+
+    // decrypted request in, decrypted responses out in send order
+    public List<byte[]> receive(byte[] request) {
+        List<byte[]> responses = new ArrayList<>();
+        int command = read16BEtoUInt(request, 0x01);
+        byte[] payload = Arrays.copyOfRange(request, 3, request.length - 2);
+
+        switch (command) {
+
+            case EHSM_SESSION:
+                // begin and end high speed mode are not answered
+                break;
+
+            case READ_PUMP_TIME:
+                responses.add(pumpTime());
+                break;
+
+            case READ_PUMP_STATUS:
+                responses.add(pumpStatus());
+                break;
+
+            case READ_HISTORY_INFO:
+                responses.add(historyInfo(payload));
+                break;
+
+            case READ_HISTORY:
+                readHistory(payload);
+                if (transfer == null) {
+                    responses.add(message(END_HISTORY_TRANSMISSION, null));
+                    responses.add(message(EHSM_SESSION, new byte[]{0x01}));
+                } else {
+                    responses.add(initiateMultipacket());
+                }
+                break;
+
+            case ACK_COMMAND:
+                int acked = read16BEtoUInt(payload, 0);
+                if (acked == INITIATE_MULTIPACKET_TRANSFER && transfer != null) {
+                    responses.addAll(segments(0, segmentCount()));
+                } else if (acked == MULTIPACKET_SEGMENT_TRANSMISSION && transfer != null) {
+                    responses.add(message(EHSM_SESSION, new byte[]{0x01}));
+                    transfer = transfers.isEmpty() ? null : transfers.remove(0);
+                    if (transfer == null) {
+                        responses.add(message(END_HISTORY_TRANSMISSION, null));
+                        responses.add(message(EHSM_SESSION, new byte[]{0x01}));
+                    } else {
+                        responses.add(initiateMultipacket());
+                    }
+                }
+                break;
+
+            case MULTIPACKET_RESEND_PACKETS:
+                if (transfer == null) {
+                    responses.add(nak(command, NAK_DEVICE_IS_IN_WRONG_STATE));
+                } else {
+                    int start = read16BEtoUInt(payload, 0);
+                    int count = read16BEtoUInt(payload, 2);
+                    responses.addAll(segments(start, Math.min(start + count, segmentCount())));
+                }
+                break;
+
+            default:
+                Log.w(TAG, String.format("unsupported request %04X", command));
+                responses.add(nak(command, NAK_MESSAGE_IS_NOT_SUPPORTED));
+        }
+
+        return responses;
+    }
+
+    public static boolean isSegment(byte[] response) {
+        return read16BEtoUInt(response, 0x01) == MULTIPACKET_SEGMENT_TRANSMISSION;
+    }
+
+    private byte[] message(int command, byte[] payload) {
+        int length = payload == null ? 0 : payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(3 + length + 2);
+        buffer.put(sequence);
+        buffer.putShort((short) command);
+        if (length > 0) buffer.put(payload);
+        buffer.putShort((short) Crc16Ccitt.compute(buffer.array(), 0, 3 + length));
+        sequence = (byte) ((sequence + 1) & 0x7F);
+        if (sequence == 0) sequence = 1;
+        return buffer.array();
+    }
+
+    private byte[] nak(int command, byte code) {
+        return message(NAK_COMMAND, new byte[]{(byte) (command >> 8), (byte) command, code});
+    }
+
+    private byte[] pumpTime() {
+        ByteBuffer payload = ByteBuffer.allocate(9);
+        payload.put((byte) 0x01);
+        payload.putInt((int) rtc());
+        payload.putInt(rtcOffset);
+        return message(READ_PUMP_TIME_RESPONSE, payload.array());
+    }
+
+    // offsets are those of the decrypted response as used by PumpStatusResponseMessage
+    private byte[] pumpStatus() {
+        long rtc = rtc();
+        long cgmRTC = rtc - rtc % SGV_INTERVAL;
+
+        byte[] status = new byte[0x60 - 3];
+        ByteBuffer buffer = ByteBuffer.wrap(status);
+
+        buffer.put(0x03 - 3, (byte) 0x50); // delivering insulin, cgm active
+        long bolusRTC = rtc - rtc % BOLUS_INTERVAL;
+        buffer.putInt(0x10 - 3, bolus(bolusRTC) * 1000);
+        buffer.putInt(0x14 - 3, (int) (bolusRTC + rtcOffset));
+        buffer.put(0x18 - 3, (byte) (bolusRTC / BOLUS_INTERVAL));
+        buffer.put(0x1A - 3, (byte) 0x01);
+        buffer.putInt(0x1B - 3, basal(rtc) * 250);
+        buffer.putInt(0x26 - 3, 12500);
+        buffer.put(0x2A - 3, (byte) 75);
+        buffer.putInt(0x2B - 3, 1500000);
+        buffer.put(0x2F - 3, (byte) 24);
+        buffer.putInt(0x31 - 3, 12000);
+        buffer.putShort(0x35 - 3, (short) sgv(cgmRTC));
+        buffer.putInt(0x37 - 3, (int) cgmRTC);
+        buffer.putInt(0x3B - 3, rtcOffset);
+        buffer.put(0x40 - 3, (byte) 0x60);
+        buffer.put(0x41 - 3, (byte) 0x02);
+        buffer.putShort(0x43 - 3, (short) 360);
+        buffer.put(0x45 - 3, (byte) 0x0F);
+
+        return message(READ_PUMP_STATUS_RESPONSE, status);
+    }
+
+    private byte[] historyInfo(byte[] request) {
+        int type = request[0];
+        long startRTC = read32BEtoULong(request, 2);
+        long endRTC = read32BEtoULong(request, 6);
+
+        int length = blocks(events(type, startRTC, endRTC)).length;
+
+        ByteBuffer payload = ByteBuffer.allocate(0x18 - 3);
+        payload.put((byte) type);
+        payload.putInt(length);
+        payload.putInt((int) startRTC);
+        payload.putInt(rtcOffset);
+        payload.putInt((int) endRTC);
+        payload.putInt(rtcOffset);
+        return message(READ_HISTORY_INFO_RESPONSE, payload.array());
+    }
+
+    private void readHistory(byte[] request) {
+        int type = request[0];
+        long startRTC = read32BEtoULong(request, 2);
+        long endRTC = read32BEtoULong(request, 6);
+
+        transfers.clear();
+        byte[] blocks = blocks(events(type, startRTC, endRTC));
+
+        for (int pos = 0; pos < blocks.length; pos += BLOCKS_PER_TRANSFER * BLOCK_SIZE) {
+            int size = Math.min(BLOCKS_PER_TRANSFER * BLOCK_SIZE, blocks.length - pos);
+            transfers.add(unmerged(type, blocks, pos, size));
+        }
+
+        Log.d(TAG, String.format("history type %s %08X-%08X: %s blocks in %s transfers",
+                type, startRTC, endRTC, blocks.length / BLOCK_SIZE, transfers.size()));
+
+        transfer = transfers.isEmpty() ? null : transfers.remove(0);
+    }
+
+    private int segmentCount() {
+        return (transfer.length + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+    }
+
+    private byte[] initiateMultipacket() {
+        int packets = segmentCount();
+        int last = transfer.length - (packets - 1) * SEGMENT_SIZE;
+
+        ByteBuffer payload = ByteBuffer.allocate(10);
+        payload.putInt(transfer.length);
+        payload.putShort((short) SEGMENT_SIZE);
+        payload.putShort((short) last);
+        payload.putShort((short) packets);
+        return message(INITIATE_MULTIPACKET_TRANSFER, payload.array());
+    }
+
+    private List<byte[]> segments(int from, int to) {
+        List<byte[]> segments = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int pos = i * SEGMENT_SIZE;
+            int size = Math.min(SEGMENT_SIZE, transfer.length - pos);
+            ByteBuffer payload = ByteBuffer.allocate(2 + size);
+            payload.putShort((short) i);
+            payload.put(transfer, pos, size);
+            segments.add(message(MULTIPACKET_SEGMENT_TRANSMISSION, payload.array()));
+        }
+        return segments;
+    }
+
+    // UNMERGED_HISTORY multipacket session data
+    private byte[] unmerged(int type, byte[] blocks, int offset, int size) {
+        LzoCompressor compressor = LzoLibrary.getInstance().newCompressor(LzoAlgorithm.LZO1X, null);
+        byte[] compressed = new byte[size + compressor.getCompressionOverhead(size)];
+        lzo_uintp compressedSize = new lzo_uintp(compressed.length);
+        int code = compressor.compress(blocks, offset, size, compressed, 0, compressedSize);
+        if (code != LzoTransformer.LZO_E_OK)
+            throw new IllegalStateException("history compression failed: " + compressor.toErrorString(code));
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + compressedSize.value);
+        buffer.putShort((short) UNMERGED_HISTORY);
+        buffer.put((byte) type);
+        buffer.putInt(compressedSize.value);
+        buffer.putInt(size);
+        buffer.put((byte) 0x01);
+        buffer.put(compressed, 0, compressedSize.value);
+        return buffer.array();
+    }
+
+    // pack events into 2048 byte blocks, events are not split across blocks
+    private byte[] blocks(byte[] events) {
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        byte[] block = new byte[BLOCK_SIZE];
+        int used = 0;
+        int pos = 0;
+
+        while (pos < events.length) {
+            int size = events[pos + 0x02] & 0xFF;
+            if (used + size > BLOCK_SIZE - 4) {
+                closeBlock(blocks, block, used);
+                used = 0;
+            }
+            System.arraycopy(events, pos, block, used, size);
+            used += size;
+            pos += size;
+        }
+        if (used > 0) closeBlock(blocks, block, used);
+
+        return blocks.toByteArray();
+    }
+
+    private void closeBlock(ByteArrayOutputStream blocks, byte[] block, int used) {
+        Arrays.fill(block, used, BLOCK_SIZE, (byte) 0);
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        buffer.putShort(BLOCK_SIZE - 4, (short) used);
+        buffer.putShort(BLOCK_SIZE - 2, (short) Crc16Ccitt.compute(block, 0, used));
+        blocks.write(block, 0, BLOCK_SIZE);
+    }
+
+    // events for the window in pump order (oldest first), limited to the history period
+    private byte[] events(int type, long startRTC, long endRTC) {
+        long oldest = rtc() - historyDays * 24 * 60 * 60L;
+        if (startRTC < oldest) startRTC = oldest;
+        if (endRTC > rtc()) endRTC = rtc();
+
+        ByteArrayOutputStream events = new ByteArrayOutputStream();
+
+        if (type == HISTORY_SENSOR) {
+            int interval = SGV_READINGS * SGV_INTERVAL;
+            for (long rtc = startRTC - startRTC % interval + interval; rtc <= endRTC; rtc += interval) {
+                ByteBuffer event = event(SGV_EVENT, 15 + SGV_READINGS * 9, rtc);
+                event.put(0x0B, (byte) (SGV_INTERVAL / 60));
+                event.put(0x0C, (byte) SGV_READINGS);
+                int pos = 15;
+                for (int i = 0; i < SGV_READINGS; i++) {
+                    long readingRTC = rtc - i * SGV_INTERVAL;
+                    event.putShort(pos, (short) sgv(readingRTC));
+                    event.putShort(pos + 2, (short) (sgv(readingRTC) * 15));
+                    event.putShort(pos + 5, (short) ((sgv(readingRTC) - sgv(readingRTC - SGV_INTERVAL)) * 20));
+                    pos += 9;
+                }
+                events.write(event.array(), 0, event.capacity());
+            }
+
+        } else if (type == HISTORY_PUMP) {
+            for (long rtc = startRTC - startRTC % BASAL_INTERVAL + BASAL_INTERVAL; rtc <= endRTC; rtc += BASAL_INTERVAL) {
+                ByteBuffer event = event(BASAL_SEGMENT_START, 0x11, rtc);
+                event.put(0x0B, (byte) 0x01);
+                event.put(0x0C, (byte) ((rtc / BASAL_INTERVAL) % 8));
+                event.putInt(0x0D, basal(rtc) * 250);
+                events.write(event.array(), 0, event.capacity());
+
+                if (rtc % BOLUS_INTERVAL == 0) {
+                    byte ref = (byte) (rtc / BOLUS_INTERVAL);
+
+                    event = event(NORMAL_BOLUS_PROGRAMMED, 0x16, rtc);
+                    event.put(0x0C, ref);
+                    event.putInt(0x0E, bolus(rtc) * 1000);
+                    event.putInt(0x12, 12000);
+                    events.write(event.array(), 0, event.capacity());
+
+                    event = event(NORMAL_BOLUS_DELIVERED, 0x1A, rtc + 60);
+                    event.put(0x0C, ref);
+                    event.putInt(0x0E, bolus(rtc) * 1000);
+                    event.putInt(0x12, bolus(rtc) * 1000);
+                    event.putInt(0x16, 12000 + bolus(rtc) * 1000);
+                    events.write(event.array(), 0, event.capacity());
+                }
+            }
+        }
+
+        return events.toByteArray();
+    }
+
+    private ByteBuffer event(int type, int size, long rtc) {
+        ByteBuffer event = ByteBuffer.allocate(size);
+        event.put(0x00, (byte) type);
+        event.put(0x02, (byte) size);
+        event.putInt(0x03, (int) rtc);
+        event.putInt(0x07, rtcOffset);
+        return event;
+    }
+
+    // deterministic values from the RTC, mg/dL
+    private int sgv(long rtc) {
+        return 130 + (int) (60 * Math.sin(rtc * 2 * Math.PI / (7 * 60 * 60)));
+    }
+
+    // units * 40
+    private int basal(long rtc) {
+        return 30 + (int) ((rtc / BASAL_INTERVAL) % 8) * 2;
+    }
+
+    // units * 10
+    private int bolus(long rtc) {
+        return 20 + (int) ((rtc / BOLUS_INTERVAL) % 4) * 15;
+    }
+}